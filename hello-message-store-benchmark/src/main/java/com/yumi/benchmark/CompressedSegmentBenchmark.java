@@ -0,0 +1,142 @@
+package com.yumi.benchmark;
+
+import com.yumi.step2.MappedFile;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageEncoder;
+import com.yumi.step2.tiered.BlobStore;
+import com.yumi.step2.tiered.CompressedBlobStore;
+import com.yumi.step2.tiered.LocalDirBlobStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * 二级存储中一个commit log文件原样保存和按块压缩保存时，随机读一条消息大小的数据的耗时。
+ * hot只在前两个块里读，都能命中解压缓存；cold在整个文件里读，基本每次都要读一个块并解压。
+ * setup里打印压缩率。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "--add-opens=java.base/java.nio=ALL-UNNAMED",
+        "--add-opens=java.base/jdk.internal.ref=ALL-UNNAMED",
+        "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED"})
+public class CompressedSegmentBenchmark {
+    private static final int FILE_SIZE = 1024 * 1024 * 16;
+    private static final String KEY = "00000000000000000000";
+
+    @Param({"raw", "compressed"})
+    private String store;
+
+    @Param({"16384", "65536"})
+    private int blockSize;
+
+    @Param({"hot", "cold"})
+    private String access;
+
+    @Param({"1024"})
+    private int readSize;
+
+    private String storePath;
+    private BlobStore blobStore;
+    private ByteBuffer dst;
+    private long range;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.storePath = Files.createTempDirectory("compressed").toString();
+        MappedFile segment = writeSegment(this.storePath);
+        File file = new File(this.storePath, KEY);
+        LocalDirBlobStore localDirBlobStore = new LocalDirBlobStore(this.storePath + File.separator + "tiered");
+        if ("compressed".equals(this.store)) {
+            CompressedBlobStore compressedBlobStore = new CompressedBlobStore(localDirBlobStore,
+                    this.storePath + File.separator + "tmp", this.blockSize, Deflater.BEST_SPEED, 2);
+            compressedBlobStore.put(KEY, file);
+            System.out.printf("blockSize %d, raw %d, compressed %d, ratio %.2f%n", this.blockSize, FILE_SIZE,
+                    compressedBlobStore.compressedSize(KEY), compressedBlobStore.getCompressionRatio());
+            this.blobStore = compressedBlobStore;
+        } else {
+            localDirBlobStore.put(KEY, file);
+            this.blobStore = localDirBlobStore;
+        }
+        segment.destroy(0);
+        this.dst = ByteBuffer.allocate(this.readSize);
+        this.range = ("hot".equals(this.access) ? this.blockSize * 2L : FILE_SIZE) - this.readSize;
+    }
+
+    /**
+     * 写一个满的commit log文件，消息体是字段相同、取值不同的json，和线上的业务消息差不多
+     */
+    private static MappedFile writeSegment(final String storePath) throws IOException {
+        MappedFile mappedFile = new MappedFile(storePath + File.separator + KEY, FILE_SIZE);
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        for (long i = 0; ; i++) {
+            sb.setLength(0);
+            sb.append("{\"orderId\":").append(100000000L + i)
+                    .append(",\"userId\":").append(random.nextInt(1000000))
+                    .append(",\"amount\":").append(random.nextInt(100000) / 100.0)
+                    .append(",\"status\":\"").append(i % 3 == 0 ? "PAID" : "CREATED")
+                    .append("\",\"createTime\":").append(1700000000000L + i * 37)
+                    .append(",\"items\":[");
+            int items = 1 + random.nextInt(5);
+            for (int j = 0; j < items; j++) {
+                sb.append(j == 0 ? "" : ",").append("{\"skuId\":").append(random.nextInt(50000))
+                        .append(",\"count\":").append(1 + random.nextInt(3)).append('}');
+            }
+            sb.append("]}");
+            Message msg = new Message("TopicOrder", (int) (i % 8), "TagA", sb.toString().getBytes());
+            msg.putProperty("KEYS", "order-" + i);
+            if (!mappedFile.appendMessage(MessageEncoder.get().prepare(msg)).isOk()) {
+                break;
+            }
+        }
+        mappedFile.flush(0);
+        return mappedFile;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.blobStore.delete(KEY);
+        new File(this.storePath, "tiered").delete();
+        new File(this.storePath, "tmp").delete();
+        new File(this.storePath).delete();
+    }
+
+    @Benchmark
+    public int randomRead() throws Exception {
+        long position = ThreadLocalRandom.current().nextLong(this.range);
+        this.dst.clear();
+        return this.blobStore.read(KEY, position, this.dst);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CompressedSegmentBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
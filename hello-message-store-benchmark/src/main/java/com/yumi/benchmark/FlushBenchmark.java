@@ -0,0 +1,84 @@
+package com.yumi.benchmark;
+
+import com.yumi.step2.MappedFile;
+import com.yumi.step2.config.FlushMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次flush的耗时：每次调用前写入dirtySize字节，只测flush本身。
+ * FORCE对整个1G映射做msync/fsync，RANGE_*只msync脏区间，脏数据越少差距越明显。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "--add-opens=java.base/java.nio=ALL-UNNAMED",
+        "--add-opens=java.base/jdk.internal.ref=ALL-UNNAMED",
+        "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED"})
+public class FlushBenchmark {
+    private static final int FILE_SIZE = 1024 * 1024 * 1024;
+
+    @Param({"FORCE", "RANGE_MS_SYNC", "RANGE_MS_ASYNC"})
+    private FlushMode flushMode;
+
+    @Param({"4096", "65536", "1048576", "16777216"})
+    private int dirtySize;
+
+    private String storePath;
+    private MappedFile mappedFile;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.storePath = Files.createTempDirectory("flush").toString();
+        this.mappedFile = new MappedFile(this.storePath + File.separator + "00000000000000000000", FILE_SIZE);
+        this.data = new byte[this.dirtySize];
+    }
+
+    @Setup(Level.Invocation)
+    public void dirty() {
+        if (this.mappedFile.getWrotePosition() + this.dirtySize > FILE_SIZE) {
+            this.mappedFile.setWrotePosition(0);
+            this.mappedFile.setFlushedPosition(0);
+        }
+        this.mappedFile.appendMsg(this.data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.mappedFile.destroy(0);
+        new File(this.storePath).delete();
+    }
+
+    @Benchmark
+    public int flush() {
+        //按页数刷盘，RANGE_MS_ASYNC全量刷盘时按MS_SYNC刷
+        return this.mappedFile.flush(1, this.flushMode);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(FlushBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,85 @@
+package com.yumi.benchmark;
+
+import com.yumi.step2.index.IndexFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 索引构建吞吐：向IndexFile写入topic#key，写满后换新文件。
+ * 哈希槽越少链表越长，可以调小hashSlotNum观察冲突对写入的影响。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "--add-opens=java.base/java.nio=ALL-UNNAMED",
+        "--add-opens=java.base/jdk.internal.ref=ALL-UNNAMED",
+        "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED"})
+public class IndexBuildBenchmark {
+
+    @Param({"1000000"})
+    private int hashSlotNum;
+
+    @Param({"4000000"})
+    private int indexNum;
+
+    private String storePath;
+    private IndexFile indexFile;
+    private int fileSeq = 0;
+    private long keySeq = 0;
+    private long phyOffset = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.storePath = Files.createTempDirectory("index").toString();
+        this.indexFile = newIndexFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.indexFile.destroy(0);
+        new File(this.storePath).delete();
+    }
+
+    private IndexFile newIndexFile() throws Exception {
+        IndexFile f = new IndexFile(this.storePath + File.separator + (++this.fileSeq), this.hashSlotNum,
+                this.indexNum, this.phyOffset, System.currentTimeMillis());
+        this.keySeq = 0;
+        return f;
+    }
+
+    @Benchmark
+    public boolean putKey() throws Exception {
+        if (this.indexFile.isWriteFull()) {
+            this.indexFile.destroy(0);
+            this.indexFile = newIndexFile();
+        }
+        this.phyOffset += 128;
+        return this.indexFile.putKey("TopicTest#key-" + this.keySeq++, this.phyOffset, System.currentTimeMillis());
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(IndexBuildBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
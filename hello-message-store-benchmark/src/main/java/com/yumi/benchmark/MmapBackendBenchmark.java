@@ -0,0 +1,110 @@
+package com.yumi.benchmark;
+
+import com.yumi.step2.MappedFile;
+import com.yumi.step2.SelectMappedBufferResult;
+import com.yumi.step2.util.MmapBackend;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reflection和portable两种MmapBackend下，MappedFile追加+读取、取地址(mincore)和映射/释放一个文件的耗时。
+ * 每组参数单独fork，setup里设置yumi.store.mmapBackend后MappedFile才第一次初始化。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "--add-opens=java.base/java.nio=ALL-UNNAMED",
+        "--add-opens=java.base/jdk.internal.ref=ALL-UNNAMED",
+        "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED"})
+public class MmapBackendBenchmark {
+    private static final int FILE_SIZE = 1024 * 1024 * 64;
+
+    @Param({"reflection", "portable"})
+    private String backend;
+
+    @Param({"1024"})
+    private int messageSize;
+
+    private String storePath;
+    private MappedFile mappedFile;
+    private RandomAccessFile mapFile;
+    private byte[] body;
+    private long lastOffset;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        System.setProperty(MmapBackend.PROPERTY_NAME, this.backend);
+        if (!this.backend.equals(MmapBackend.INSTANCE.name())) {
+            throw new IllegalStateException("backend already initialized as " + MmapBackend.INSTANCE.name());
+        }
+        this.storePath = Files.createTempDirectory("mmap").toString();
+        this.mappedFile = new MappedFile(this.storePath + File.separator + "00000000000000000000", FILE_SIZE);
+        this.mapFile = new RandomAccessFile(this.storePath + File.separator + "map", "rw");
+        this.mapFile.setLength(1024 * 1024);
+        this.body = new byte[this.messageSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.mappedFile.destroy(0);
+        this.mapFile.close();
+        new File(this.storePath + File.separator + "map").delete();
+        new File(this.storePath).delete();
+    }
+
+    @Benchmark
+    public int appendAndRead() {
+        if (this.mappedFile.getWrotePosition() + this.messageSize * 2 > FILE_SIZE) {
+            this.mappedFile.setWrotePosition(0);
+            this.mappedFile.setFlushedPosition(0);
+        }
+        this.lastOffset = this.mappedFile.appendMessage(this.body).getWroteOffset();
+        SelectMappedBufferResult result = this.mappedFile.selectMappedBuffer((int) this.lastOffset, 4);
+        int totalSize = result.getByteBuffer().getInt();
+        result.release();
+        return totalSize;
+    }
+
+    @Benchmark
+    public double residentRatio() {
+        return this.mappedFile.residentRatio(0, 4096);
+    }
+
+    @Benchmark
+    public byte mapAndUnmap() throws Exception {
+        MappedByteBuffer buffer = this.mapFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 1024 * 1024);
+        byte b = buffer.get(0);
+        MmapBackend.INSTANCE.unmap((ByteBuffer) buffer);
+        return b;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(MmapBackendBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+package com.yumi.benchmark;
+
+import com.yumi.step2.CommitLog;
+import com.yumi.step2.PutMessageResult;
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.config.PutMessageLockType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同put message锁在1~64个写线程下的吞吐对比。
+ * 线程数不能作为@Param，由main按线程数逐轮运行，也可以用 java -jar benchmarks.jar PutMessageLockBenchmark -t 8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "--add-opens=java.base/java.nio=ALL-UNNAMED",
+        "--add-opens=java.base/jdk.internal.ref=ALL-UNNAMED",
+        "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED"})
+public class PutMessageLockBenchmark {
+
+    @Param({"SPIN", "REENTRANT", "LOCK_FREE"})
+    private PutMessageLockType lockType;
+
+    @Param({"128"})
+    private int messageSize;
+
+    private CommitLog commitLog;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(Files.createTempDirectory("commitlog").toString());
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024 * 128);
+        messageStoreConfig.setPutMessageLockType(lockType);
+        this.commitLog = new CommitLog(messageStoreConfig);
+        this.commitLog.load();
+        this.commitLog.start();
+        this.body = new byte[messageSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.commitLog.shutdown();
+        this.commitLog.getMappedFileQueue().destroy();
+    }
+
+    @Benchmark
+    public PutMessageResult putMessage() {
+        return this.commitLog.putMessage(this.body).join();
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            new Runner(new OptionsBuilder()
+                    .include(PutMessageLockBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.yumi.benchmark;
+
+import com.yumi.step2.MappedFile;
+import com.yumi.step2.TransientStorePool;
+import com.yumi.step2.config.FlushDiskType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MappedFile写入路径：三个appendMsg重载在64B~64KB消息下的吞吐和延迟分布。
+ * MMAP直接写映射，WRITE_BUFFER先写TransientStorePool的堆外缓冲再commit到文件；
+ * ASYNC_FLUSH按CommitRealTimeService/FlushRealTimeService的默认页数阈值commit/flush，SYNC_FLUSH每条都commit(0)/flush(0)。
+ * appendMsg(byte[])两个重载MMAP下经FileChannel写在wrotePosition，WRITE_BUFFER下和appendMsg(String)一样写进写缓冲。
+ * 文件建在临时目录下，写到接近文件尾部时回到开头重复写，不滚动新文件。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 2, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+        "--add-opens=java.base/java.nio=ALL-UNNAMED",
+        "--add-opens=java.base/jdk.internal.ref=ALL-UNNAMED",
+        "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED"})
+public class WritePathBenchmark {
+    private static final int FILE_SIZE = 1024 * 1024 * 256;
+    //留出一条最大消息的空间，写缓冲模式下commit不会到文件尾部而归还缓冲
+    private static final int TAIL_RESERVED = 1024 * 1024;
+    private static final int COMMIT_LEAST_PAGES = 4;
+    private static final int FLUSH_LEAST_PAGES = 4;
+
+    public enum WriteMode {
+        MMAP,
+        WRITE_BUFFER
+    }
+
+    @Param({"64", "256", "1024", "4096", "16384", "65536"})
+    private int messageSize;
+
+    @Param({"MMAP", "WRITE_BUFFER"})
+    private WriteMode writeMode;
+
+    @Param({"ASYNC_FLUSH", "SYNC_FLUSH"})
+    private FlushDiskType flushDiskType;
+
+    private String storePath;
+    private TransientStorePool transientStorePool;
+    private MappedFile mappedFile;
+    private String stringMsg;
+    private byte[] bytesMsg;
+    //前后各多出一些，测带offset的重载
+    private byte[] paddedMsg;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.storePath = Files.createTempDirectory("writepath").toString();
+        String fileName = this.storePath + File.separator + "00000000000000000000";
+        if (this.writeMode == WriteMode.WRITE_BUFFER) {
+            this.transientStorePool = new TransientStorePool(1, FILE_SIZE);
+            this.transientStorePool.init();
+            this.mappedFile = new MappedFile(fileName, FILE_SIZE, this.transientStorePool);
+        } else {
+            this.mappedFile = new MappedFile(fileName, FILE_SIZE);
+        }
+        char[] chars = new char[this.messageSize];
+        Arrays.fill(chars, 'a');
+        this.stringMsg = new String(chars);
+        this.bytesMsg = new byte[this.messageSize];
+        Arrays.fill(this.bytesMsg, (byte) 'a');
+        this.paddedMsg = new byte[this.messageSize + 16];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.mappedFile.destroy(0);
+        if (this.transientStorePool != null) {
+            this.transientStorePool.destroy();
+        }
+        new File(this.storePath).delete();
+    }
+
+    @Setup(Level.Iteration)
+    public void rewind() {
+        this.rewindIfNeeded();
+    }
+
+    @Benchmark
+    public boolean appendMsgString() {
+        this.rewindIfNeeded();
+        boolean result = this.mappedFile.appendMsg(this.stringMsg);
+        this.commitAndFlush();
+        return result;
+    }
+
+    @Benchmark
+    public boolean appendMsgBytes() {
+        this.rewindIfNeeded();
+        boolean result = this.mappedFile.appendMsg(this.bytesMsg);
+        this.commitAndFlush();
+        return result;
+    }
+
+    @Benchmark
+    public boolean appendMsgBytesRange() {
+        this.rewindIfNeeded();
+        boolean result = this.mappedFile.appendMsg(this.paddedMsg, 8, this.messageSize);
+        this.commitAndFlush();
+        return result;
+    }
+
+    private void commitAndFlush() {
+        if (this.flushDiskType == FlushDiskType.SYNC_FLUSH) {
+            this.mappedFile.commit(0);
+            this.mappedFile.flush(0);
+        } else {
+            this.mappedFile.commit(COMMIT_LEAST_PAGES);
+            this.mappedFile.flush(FLUSH_LEAST_PAGES);
+        }
+    }
+
+    private void rewindIfNeeded() {
+        if (this.mappedFile.getWrotePosition() + TAIL_RESERVED > FILE_SIZE) {
+            this.mappedFile.commit(0);
+            this.mappedFile.flush(0);
+            this.mappedFile.setWrotePosition(0);
+            this.mappedFile.setCommittedPosition(0);
+            this.mappedFile.setFlushedPosition(0);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(WritePathBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,235 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.utils.ServiceThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台创建并预热下一个(以及下下个)文件。写入者滚动时请求下一个文件，同时提交下下个文件的请求，
+ * 正常情况下文件已经建好，只有分配跟不上写入时写入者才需要等待。
+ */
+public class AllocateMappedFileService extends ServiceThread {
+    private static final int WAIT_TIMEOUT = 1000 * 5;
+    private final ConcurrentMap<String, AllocateRequest> requestTable = new ConcurrentHashMap<>();
+    private final PriorityBlockingQueue<AllocateRequest> requestQueue = new PriorityBlockingQueue<>();
+    private final MessageStoreConfig messageStoreConfig;
+    private final TransientStorePool transientStorePool;
+    private volatile boolean hasException = false;
+    private volatile LockedMemoryManager lockedMemoryManager;
+
+    public AllocateMappedFileService(final MessageStoreConfig messageStoreConfig,
+                                     final TransientStorePool transientStorePool) {
+        this.messageStoreConfig = messageStoreConfig;
+        this.transientStorePool = transientStorePool;
+    }
+
+    /**
+     * 预热后的文件通过lockedMemoryManager在内存预算内mlock
+     */
+    public void setLockedMemoryManager(LockedMemoryManager lockedMemoryManager) {
+        this.lockedMemoryManager = lockedMemoryManager;
+    }
+
+    /**
+     * 下下个文件的请求在拿到下一个文件之后再提交，避免预热线程和正在滚动的写入者抢CPU
+     *
+     * @return 超时或创建失败返回null
+     */
+    public MappedFile putRequestAndReturnMappedFile(String nextFilePath, String nextNextFilePath, int fileSize) {
+        AllocateRequest nextReq = new AllocateRequest(nextFilePath, fileSize);
+        if (this.requestTable.putIfAbsent(nextFilePath, nextReq) == null) {
+            this.requestQueue.offer(nextReq);
+        }
+
+        if (hasException) {
+            System.out.println(this.getServiceName() + " service has exception. so return null");
+            return null;
+        }
+
+        MappedFile mappedFile = null;
+        AllocateRequest result = this.requestTable.get(nextFilePath);
+        try {
+            if (result != null) {
+                boolean waitOK = result.getCountDownLatch().await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (!waitOK) {
+                    System.out.println("create mmap timeout " + result.getFilePath() + " " + result.getFileSize());
+                    return null;
+                } else {
+                    this.requestTable.remove(nextFilePath);
+                    mappedFile = result.getMappedFile();
+                }
+            } else {
+                System.err.println("find preallocate mmap failed, this never happen");
+            }
+        } catch (InterruptedException e) {
+            System.out.println(this.getServiceName() + " service has exception. ");
+        }
+
+        if (nextNextFilePath != null && this.messageStoreConfig.isAllocateNextNextFileEnable()) {
+            AllocateRequest nextNextReq = new AllocateRequest(nextNextFilePath, fileSize);
+            if (this.requestTable.putIfAbsent(nextNextFilePath, nextNextReq) == null) {
+                this.requestQueue.offer(nextNextReq);
+            }
+        }
+        return mappedFile;
+    }
+
+    @Override
+    public String getServiceName() {
+        return AllocateMappedFileService.class.getSimpleName();
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown(true);
+        //预分配了但没有被用到的文件
+        for (AllocateRequest req : this.requestTable.values()) {
+            if (req.mappedFile != null) {
+                System.out.println("delete pre allocated mapped file, " + req.mappedFile.getFileName());
+                req.mappedFile.destroy(1000);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped() && this.mmapOperation()) {
+
+        }
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    /**
+     * 只有被中断时返回false
+     */
+    private boolean mmapOperation() {
+        boolean isSuccess = false;
+        AllocateRequest req = null;
+        try {
+            req = this.requestQueue.take();
+            AllocateRequest expectedRequest = this.requestTable.get(req.getFilePath());
+            if (null == expectedRequest) {
+                System.out.println("this mmap request expired, maybe cause timeout " + req.getFilePath() + " "
+                        + req.getFileSize());
+                return true;
+            }
+            if (expectedRequest != req) {
+                System.out.println("never expected here,  maybe cause timeout " + req.getFilePath() + " "
+                        + req.getFileSize() + ", req:" + req + ", expectedRequest:" + expectedRequest);
+                return true;
+            }
+
+            if (req.getMappedFile() == null) {
+                long beginTime = System.currentTimeMillis();
+
+                MappedFile mappedFile;
+                if (this.transientStorePool != null) {
+                    mappedFile = new MappedFile(req.getFilePath(), req.getFileSize(), this.transientStorePool);
+                } else {
+                    mappedFile = new MappedFile(req.getFilePath(), req.getFileSize());
+                }
+
+                long elapsedTime = System.currentTimeMillis() - beginTime;
+                if (elapsedTime > 10) {
+                    int queueSize = this.requestQueue.size();
+                    System.out.println("create mappedFile spent time(ms) " + elapsedTime + " queue size " + queueSize
+                            + " " + req.getFilePath() + " " + req.getFileSize());
+                }
+
+                //只预热commit log文件
+                if (mappedFile.getFileSize() >= this.messageStoreConfig.getMappedFileSizeCommitLog()
+                        && this.messageStoreConfig.isWarmMappedFileEnable()) {
+                    mappedFile.warmMappedFile(this.messageStoreConfig.getFlushDiskType(),
+                            this.messageStoreConfig.getFlushLeastPagesWhenWarmMappedFile());
+                    if (this.lockedMemoryManager != null) {
+                        this.lockedMemoryManager.lock(mappedFile);
+                    } else {
+                        mappedFile.mlock();
+                    }
+                    System.out.println("warm mappedFile spent time(ms) " + (System.currentTimeMillis() - beginTime)
+                            + " " + req.getFilePath());
+                }
+
+                req.setMappedFile(mappedFile);
+                this.hasException = false;
+                isSuccess = true;
+            }
+        } catch (InterruptedException e) {
+            System.out.println(this.getServiceName() + " interrupted, possibly by shutdown.");
+            this.hasException = true;
+            return false;
+        } catch (IOException e) {
+            System.out.println(this.getServiceName() + " service has exception. ");
+            e.printStackTrace();
+            this.hasException = true;
+            if (null != req) {
+                requestQueue.offer(req);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        } finally {
+            if (req != null && isSuccess) {
+                req.getCountDownLatch().countDown();
+            }
+        }
+        return true;
+    }
+
+    static class AllocateRequest implements Comparable<AllocateRequest> {
+        private final String filePath;
+        private final int fileSize;
+        private final CountDownLatch countDownLatch = new CountDownLatch(1);
+        private volatile MappedFile mappedFile = null;
+
+        public AllocateRequest(String filePath, int fileSize) {
+            this.filePath = filePath;
+            this.fileSize = fileSize;
+        }
+
+        public String getFilePath() {
+            return filePath;
+        }
+
+        public int getFileSize() {
+            return fileSize;
+        }
+
+        public CountDownLatch getCountDownLatch() {
+            return countDownLatch;
+        }
+
+        public MappedFile getMappedFile() {
+            return mappedFile;
+        }
+
+        public void setMappedFile(MappedFile mappedFile) {
+            this.mappedFile = mappedFile;
+        }
+
+        /**
+         * 大文件优先，大小相同时偏移量小的优先
+         */
+        @Override
+        public int compareTo(AllocateRequest other) {
+            if (this.fileSize < other.fileSize) {
+                return 1;
+            } else if (this.fileSize > other.fileSize) {
+                return -1;
+            }
+            long mName = Long.parseLong(this.filePath.substring(this.filePath.lastIndexOf(File.separator) + 1));
+            long oName = Long.parseLong(other.filePath.substring(other.filePath.lastIndexOf(File.separator) + 1));
+            return Long.compare(mName, oName);
+        }
+    }
+}
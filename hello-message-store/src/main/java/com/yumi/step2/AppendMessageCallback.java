@@ -0,0 +1,22 @@
+package com.yumi.step2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Write messages callback interface
+ */
+public interface AppendMessageCallback {
+
+    /**
+     * 本次要写入的总字节数，无锁模式下用于预留位置，必须在写入前就能确定
+     */
+    int getTotalSize();
+
+    /**
+     * 从byteBuffer当前的position开始写入getTotalSize()个字节
+     *
+     * @param wroteOffset 写入起点在commit log中的全局偏移量
+     * @return 每条消息的全局偏移量
+     */
+    long[] doAppend(long wroteOffset, long storeTimestamp, ByteBuffer byteBuffer);
+}
@@ -0,0 +1,63 @@
+package com.yumi.step2;
+
+public class AppendMessageResult {
+    private final AppendMessageStatus status;
+    // Where to start writing
+    private final long wroteOffset;
+    // Write Bytes
+    private final int wroteBytes;
+    private final long storeTimestamp;
+    // Physical offset of every message in the batch, null for a single message at wroteOffset
+    private final long[] msgOffsets;
+
+    public AppendMessageResult(AppendMessageStatus status) {
+        this(status, 0, 0, 0);
+    }
+
+    public AppendMessageResult(AppendMessageStatus status, long wroteOffset, int wroteBytes, long storeTimestamp) {
+        this(status, wroteOffset, wroteBytes, storeTimestamp, null);
+    }
+
+    public AppendMessageResult(AppendMessageStatus status, long wroteOffset, int wroteBytes, long storeTimestamp,
+                               long[] msgOffsets) {
+        this.status = status;
+        this.wroteOffset = wroteOffset;
+        this.wroteBytes = wroteBytes;
+        this.storeTimestamp = storeTimestamp;
+        this.msgOffsets = msgOffsets;
+    }
+
+    public boolean isOk() {
+        return this.status == AppendMessageStatus.PUT_OK;
+    }
+
+    public AppendMessageStatus getStatus() {
+        return status;
+    }
+
+    public long getWroteOffset() {
+        return wroteOffset;
+    }
+
+    public int getWroteBytes() {
+        return wroteBytes;
+    }
+
+    public long getStoreTimestamp() {
+        return storeTimestamp;
+    }
+
+    public long[] getMsgOffsets() {
+        return msgOffsets;
+    }
+
+    public int getMsgNum() {
+        return msgOffsets == null ? 1 : msgOffsets.length;
+    }
+
+    @Override
+    public String toString() {
+        return "AppendMessageResult{" + "status=" + status + ", wroteOffset=" + wroteOffset
+                + ", wroteBytes=" + wroteBytes + ", storeTimestamp=" + storeTimestamp + ", msgNum=" + getMsgNum() + '}';
+    }
+}
@@ -0,0 +1,8 @@
+package com.yumi.step2;
+
+public enum AppendMessageStatus {
+    PUT_OK,
+    END_OF_FILE,
+    MESSAGE_SIZE_EXCEEDED,
+    UNKNOWN_ERROR,
+}
@@ -0,0 +1,54 @@
+package com.yumi.step2;
+
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageEncoder;
+import com.yumi.step2.util.UtilAll;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 一批没有properties的消息体，构造时(锁外)算好每条的CRC和总长度
+ */
+public class ByteArrayAppendCallback implements AppendMessageCallback {
+    private final List<byte[]> msgs;
+    private final int[] bodyCRCs;
+    private final long bornTimestamp;
+    private final int totalSize;
+
+    public ByteArrayAppendCallback(final List<byte[]> msgs) {
+        long totalSize = 0;
+        this.bodyCRCs = new int[msgs.size()];
+        int i = 0;
+        for (byte[] msg : msgs) {
+            totalSize += MessageDecoder.calMsgLength(msg.length, 0);
+            this.bodyCRCs[i++] = UtilAll.crc32c(msg, 0, msg.length);
+        }
+        if (totalSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("batch too large: " + totalSize);
+        }
+        this.msgs = msgs;
+        this.bornTimestamp = System.currentTimeMillis();
+        this.totalSize = (int) totalSize;
+    }
+
+    @Override
+    public int getTotalSize() {
+        return this.totalSize;
+    }
+
+    @Override
+    public long[] doAppend(long wroteOffset, long storeTimestamp, ByteBuffer byteBuffer) {
+        long[] msgOffsets = new long[this.msgs.size()];
+        long offset = wroteOffset;
+        int i = 0;
+        for (byte[] msg : this.msgs) {
+            int msgLen = MessageDecoder.calMsgLength(msg.length, 0);
+            MessageEncoder.writeRecord(byteBuffer, msgLen, this.bodyCRCs[i], this.bornTimestamp, storeTimestamp,
+                    offset, msg, null, 0);
+            msgOffsets[i++] = offset;
+            offset += msgLen;
+        }
+        return msgOffsets;
+    }
+}
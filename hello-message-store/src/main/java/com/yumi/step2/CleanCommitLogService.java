@@ -0,0 +1,153 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.utils.ServiceThread;
+import com.yumi.utils.system.StoreUtil;
+
+import java.util.Calendar;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 定期删除过期的commit log文件，再删除跟着过期的consume queue和索引文件。
+ * 平时只在deleteWhen时段按保留时间删除，磁盘使用率超过diskMaxUsedSpaceRatio时不看时间从最早的文件开始强制删除。
+ * 删除在这个线程里完成，一轮最多删deleteFileBatchMax个文件，每删一个停顿一会，不阻塞写入。
+ */
+public class CleanCommitLogService extends ServiceThread {
+    private final DefaultMessageStore messageStore;
+    private long lastRedeleteTimestamp = 0;
+    //上一次清理consume queue和索引时commit log的最小偏移量
+    private long logicsMinOffset = 0;
+    private volatile boolean cleanImmediately = false;
+    private volatile long deleteFilesTimes = 0;
+
+    public CleanCommitLogService(DefaultMessageStore messageStore) {
+        this.messageStore = messageStore;
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                this.waitForRunning(this.messageStore.getMessageStoreConfig().getCleanResourceInterval());
+                this.cleanFiles();
+            } catch (Exception e) {
+                System.err.println(this.getServiceName() + " service has exception. ");
+                e.printStackTrace();
+            }
+        }
+
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    public void cleanFiles() {
+        this.deleteExpiredFiles();
+        this.redeleteHangedFile();
+        //分层存储删除过期文件后最小偏移量也会前移
+        if (this.messageStore.getCommitLog().getMinOffset() > this.logicsMinOffset) {
+            this.deleteExpiredLogicFiles();
+        }
+    }
+
+    private void deleteExpiredFiles() {
+        MessageStoreConfig config = this.messageStore.getMessageStoreConfig();
+        long fileReservedTime = config.getFileReservedTime() * 60L * 60 * 1000;
+
+        boolean timeup = this.isTimeToDelete();
+        boolean spacefull = this.isSpaceToDelete();
+        if (timeup || spacefull) {
+            boolean cleanAtOnce = spacefull;
+            System.out.println("begin to delete before " + config.getFileReservedTime() + " hours file. timeup: "
+                    + timeup + " spacefull: " + spacefull + " cleanAtOnce: " + cleanAtOnce);
+
+            int deleteCount = this.messageStore.getCommitLog().deleteExpiredFile(fileReservedTime,
+                    config.getDeleteCommitLogFilesInterval(), config.getDestroyMapedFileIntervalForcibly(),
+                    cleanAtOnce, config.getDeleteFileBatchMax());
+            if (deleteCount > 0) {
+                this.deleteFilesTimes++;
+                this.deleteExpiredLogicFiles();
+            } else if (spacefull) {
+                System.err.println("disk space will be full soon, but delete file failed.");
+            }
+        }
+    }
+
+    private void redeleteHangedFile() {
+        int interval = this.messageStore.getMessageStoreConfig().getRedeleteHangedFileInterval();
+        long currentTimestamp = System.currentTimeMillis();
+        if ((currentTimestamp - this.lastRedeleteTimestamp) > interval) {
+            this.lastRedeleteTimestamp = currentTimestamp;
+            int destroyMapedFileIntervalForcibly =
+                    this.messageStore.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly();
+            if (this.messageStore.getCommitLog().retryDeleteFirstFile(destroyMapedFileIntervalForcibly)) {
+                this.deleteExpiredLogicFiles();
+            }
+        }
+    }
+
+    /**
+     * consume queue和索引只保留还指向commit log有效数据的文件
+     */
+    private void deleteExpiredLogicFiles() {
+        long minOffset = this.messageStore.getCommitLog().getMinOffset();
+        if (minOffset < 0) {
+            return;
+        }
+        this.logicsMinOffset = minOffset;
+        for (ConcurrentMap<Integer, ConsumeQueue> maps : this.messageStore.getConsumeQueueTable().values()) {
+            for (ConsumeQueue logic : maps.values()) {
+                int deleteCount = logic.deleteExpiredFile(minOffset);
+                if (deleteCount > 0) {
+                    System.out.println("delete " + deleteCount + " consume queue files, " + logic.getTopic() + "-"
+                            + logic.getQueueId());
+                }
+            }
+        }
+        this.messageStore.getIndexService().deleteExpiredFile(minOffset);
+    }
+
+    private boolean isTimeToDelete() {
+        String when = this.messageStore.getMessageStoreConfig().getDeleteWhen();
+        if (when == null) {
+            return false;
+        }
+        int hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+        for (String w : when.split(";")) {
+            try {
+                if (Integer.parseInt(w.trim()) == hour) {
+                    return true;
+                }
+            } catch (NumberFormatException e) {
+                //ignore
+            }
+        }
+        return false;
+    }
+
+    private boolean isSpaceToDelete() {
+        double ratio = this.messageStore.getMessageStoreConfig().getDiskMaxUsedSpaceRatio() / 100.0;
+        String storePathPhysic = this.messageStore.getMessageStoreConfig().getStorePathCommitLog();
+        double physicRatio = StoreUtil.getDiskPartitionSpaceUsedPercent(storePathPhysic);
+        boolean full = physicRatio > ratio;
+        if (full != this.cleanImmediately) {
+            System.out.println("physic disk used ratio " + physicRatio + ", high watermark " + ratio
+                    + (full ? ", clean forcibly" : ", back to normal"));
+        }
+        this.cleanImmediately = full;
+        return full;
+    }
+
+    public boolean isCleanImmediately() {
+        return cleanImmediately;
+    }
+
+    public long getDeleteFilesTimes() {
+        return deleteFilesTimes;
+    }
+
+    @Override
+    public String getServiceName() {
+        return CleanCommitLogService.class.getSimpleName();
+    }
+}
@@ -0,0 +1,755 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.BrokerRole;
+import com.yumi.step2.config.FlushDiskType;
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.config.PutMessageLockType;
+import com.yumi.step2.ha.HAService;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageConst;
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageEncoder;
+import com.yumi.step2.message.MessageExt;
+import com.yumi.step2.metrics.LatencyHistogram;
+import com.yumi.step2.tiered.BlobStore;
+import com.yumi.step2.tiered.CompressedBlobStore;
+import com.yumi.step2.tiered.LocalDirBlobStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CommitLog {
+    private final MessageStoreConfig messageStoreConfig;
+    private final MappedFileQueue mappedFileQueue;
+    private final TransientStorePool transientStorePool;
+    private final AllocateMappedFileService allocateMappedFileService;
+    private final LockedMemoryManager lockedMemoryManager;
+    //没有开启分层存储时为null
+    private final TieredStoreService tieredStoreService;
+    private final LatencyHistogram appendLatency = new LatencyHistogram();
+    private final FlushCommitLogService flushCommitLogService;
+    //writeBuffer模式下才有
+    private final FlushCommitLogService commitLogService;
+    //LOCK_FREE模式下为null
+    private final PutMessageLock putMessageLock;
+    //没有开启主从复制时为null
+    private final HAService haService;
+
+    public CommitLog(final MessageStoreConfig messageStoreConfig) {
+        this(messageStoreConfig, createBlobStore(messageStoreConfig));
+    }
+
+    private static BlobStore createBlobStore(final MessageStoreConfig messageStoreConfig) {
+        if (!messageStoreConfig.isTieredStoreEnable()) {
+            return null;
+        }
+        BlobStore blobStore = new LocalDirBlobStore(messageStoreConfig.getStorePathTiered());
+        if (messageStoreConfig.isTieredCompressEnable()) {
+            //压缩用的临时文件放在commit log同一块盘上
+            blobStore = new CompressedBlobStore(blobStore,
+                    messageStoreConfig.getStorePathRootDir() + File.separator + "tiered_tmp",
+                    messageStoreConfig.getTieredCompressBlockSize(), messageStoreConfig.getTieredCompressLevel(),
+                    messageStoreConfig.getTieredCompressCacheBlocks());
+        }
+        return blobStore;
+    }
+
+    /**
+     * @param blobStore 分层存储的二级存储，为null时不开启分层存储
+     */
+    public CommitLog(final MessageStoreConfig messageStoreConfig, final BlobStore blobStore) {
+        this.messageStoreConfig = messageStoreConfig;
+        if (messageStoreConfig.isTransientStorePoolEnable()) {
+            this.transientStorePool = new TransientStorePool(messageStoreConfig.getTransientStorePoolSize(),
+                    messageStoreConfig.getMappedFileSizeCommitLog());
+        } else {
+            this.transientStorePool = null;
+        }
+        if (messageStoreConfig.isAllocateMappedFileServiceEnable()) {
+            this.allocateMappedFileService = new AllocateMappedFileService(messageStoreConfig,
+                    this.transientStorePool);
+        } else {
+            this.allocateMappedFileService = null;
+        }
+        this.mappedFileQueue = new MappedFileQueue(messageStoreConfig.getStorePathCommitLog(),
+                messageStoreConfig.getMappedFileSizeCommitLog(), this.transientStorePool,
+                this.allocateMappedFileService);
+        this.mappedFileQueue.setFlushMode(messageStoreConfig.getFlushMode());
+        this.lockedMemoryManager = new LockedMemoryManager(messageStoreConfig, this.mappedFileQueue);
+        if (this.allocateMappedFileService != null) {
+            this.allocateMappedFileService.setLockedMemoryManager(this.lockedMemoryManager);
+        }
+        if (blobStore != null) {
+            this.tieredStoreService = new TieredStoreService(messageStoreConfig, this.mappedFileQueue, blobStore);
+        } else {
+            this.tieredStoreService = null;
+        }
+        if (FlushDiskType.SYNC_FLUSH == messageStoreConfig.getFlushDiskType()) {
+            this.flushCommitLogService = new GroupCommitService(this.mappedFileQueue);
+        } else {
+            this.flushCommitLogService = new FlushRealTimeService(this.mappedFileQueue, messageStoreConfig);
+        }
+        if (BrokerRole.SLAVE == messageStoreConfig.getBrokerRole() || messageStoreConfig.getHaListenPort() >= 0) {
+            this.haService = new HAService(messageStoreConfig, this);
+        } else {
+            if (BrokerRole.SYNC_MASTER == messageStoreConfig.getBrokerRole()) {
+                System.err.println("SYNC_MASTER without haListenPort, all puts will return SLAVE_NOT_AVAILABLE");
+            }
+            this.haService = null;
+        }
+        if (this.transientStorePool != null) {
+            this.commitLogService = new CommitRealTimeService(this.mappedFileQueue, messageStoreConfig,
+                    this.flushCommitLogService, this.haService);
+        } else {
+            this.commitLogService = null;
+        }
+        PutMessageLockType lockType = messageStoreConfig.getPutMessageLockType();
+        if (PutMessageLockType.REENTRANT == lockType) {
+            this.putMessageLock = new PutMessageReentrantLock();
+        } else if (PutMessageLockType.SPIN == lockType) {
+            this.putMessageLock = new PutMessageSpinLock();
+        } else {
+            this.putMessageLock = null;
+        }
+    }
+
+    public boolean load() {
+        boolean result = this.mappedFileQueue.load();
+        if (result && this.tieredStoreService != null) {
+            result = this.tieredStoreService.load();
+        }
+        System.out.println("load commit log " + (result ? "OK" : "Failed"));
+        return result;
+    }
+
+    /**
+     * 从检查点开始校验commit log，恢复三个位置并截断尾部写了一半的数据。
+     * 检查点之前的数据已经刷盘，只校验之后的文件，耗时和未刷盘的数据量成正比而不是和总量成正比；
+     * 消息不会跨文件，每个文件可以独立地并行校验。
+     *
+     * @param checkpointOffset 检查点记录的已刷盘位置，没有检查点时为0
+     * @return 恢复后的最大偏移量
+     */
+    public long recover(final long checkpointOffset) {
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        if (mappedFiles.isEmpty()) {
+            return 0;
+        }
+        final int mappedFileSize = this.messageStoreConfig.getMappedFileSizeCommitLog();
+        long startOffset = Math.max(checkpointOffset, this.mappedFileQueue.getMinOffset());
+        long processOffset = Math.min(startOffset, this.mappedFileQueue.getMaxOffset());
+
+        MappedFile startFile = this.mappedFileQueue.findMappedFileByOffset(processOffset);
+        if (startFile != null) {
+            int fromIndex = mappedFiles.indexOf(startFile);
+            int threads = Math.min(mappedFiles.size() - fromIndex,
+                    Math.max(1, this.messageStoreConfig.getRecoverThreadPoolNums()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Integer>> futures = new ArrayList<>();
+                for (int i = fromIndex; i < mappedFiles.size(); i++) {
+                    final MappedFile mappedFile = mappedFiles.get(i);
+                    final int startPos = i == fromIndex ? (int) (processOffset % mappedFileSize) : 0;
+                    futures.add(executor.submit(() -> this.scanValidPosition(mappedFile, startPos)));
+                }
+                //要等所有文件都校验完才能截断，否则会unmap正在读的文件
+                List<Integer> validPositions = new ArrayList<>(futures.size());
+                for (Future<Integer> future : futures) {
+                    validPositions.add(future.get());
+                }
+                for (int i = 0; i < validPositions.size(); i++) {
+                    int validPos = validPositions.get(i);
+                    processOffset = mappedFiles.get(fromIndex + i).getFileFromOffset() + validPos;
+                    if (validPos < mappedFileSize) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("recover commit log failed, truncate to checkpoint " + startOffset);
+                e.printStackTrace();
+                processOffset = startOffset;
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        System.out.println("recover commit log from " + startOffset + " to " + processOffset
+                + ", scanned " + (processOffset - startOffset) + " bytes");
+        this.mappedFileQueue.setFlushedWhere(processOffset);
+        this.mappedFileQueue.setCommittedWhere(processOffset);
+        this.mappedFileQueue.truncateDirtyFiles(processOffset);
+        return processOffset;
+    }
+
+    /**
+     * 从startPos开始逐条校验长度、CRC和物理偏移量
+     *
+     * @return 最后一条完整消息的结尾，遇到文件尾部空白说明文件已写满，返回文件大小
+     */
+    private int scanValidPosition(final MappedFile mappedFile, final int startPos) {
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        byteBuffer.position(startPos);
+        while (byteBuffer.hasRemaining()) {
+            int pos = byteBuffer.position();
+            if (byteBuffer.remaining() >= 8
+                    && byteBuffer.getInt(pos + MessageDecoder.MAGIC_CODE_POSITION) == MappedFile.BLANK_MAGIC_CODE) {
+                int blankSize = byteBuffer.getInt(pos);
+                if (blankSize == byteBuffer.remaining()) {
+                    return mappedFile.getFileSize();
+                }
+                //无锁追加失败留下的空洞，跳过继续校验
+                if (blankSize >= 8 && blankSize < byteBuffer.remaining()) {
+                    byteBuffer.position(pos + blankSize);
+                    continue;
+                }
+            }
+            MessageExt msgExt = MessageDecoder.decode(byteBuffer, false, true);
+            if (msgExt == null || msgExt.getPhysicOffset() != mappedFile.getFileFromOffset() + pos) {
+                System.out.println("recover commit log file " + mappedFile.getFileName() + " stopped at " + pos);
+                return pos;
+            }
+        }
+        return byteBuffer.position();
+    }
+
+    public void start() {
+        if (this.transientStorePool != null) {
+            this.transientStorePool.init();
+        }
+        if (this.allocateMappedFileService != null) {
+            this.allocateMappedFileService.start();
+        }
+        this.lockedMemoryManager.start();
+        if (this.tieredStoreService != null) {
+            this.tieredStoreService.start();
+        }
+        this.flushCommitLogService.start();
+        if (this.commitLogService != null) {
+            this.commitLogService.start();
+        }
+        if (this.haService != null) {
+            try {
+                this.haService.start();
+            } catch (IOException e) {
+                throw new IllegalStateException("start HAService failed", e);
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (this.haService != null) {
+            this.haService.shutdown();
+        }
+        if (this.commitLogService != null) {
+            this.commitLogService.shutdown();
+        }
+        this.flushCommitLogService.shutdown();
+        this.lockedMemoryManager.shutdown();
+        if (this.tieredStoreService != null) {
+            this.tieredStoreService.shutdown();
+        }
+        this.mappedFileQueue.shutdown(1000 * 3);
+        if (this.allocateMappedFileService != null) {
+            this.allocateMappedFileService.shutdown();
+        }
+        if (this.transientStorePool != null) {
+            this.transientStorePool.destroy();
+        }
+    }
+
+    public CompletableFuture<PutMessageResult> putMessage(final String msg) {
+        return this.putMessage(msg.getBytes());
+    }
+
+    public CompletableFuture<PutMessageResult> putMessage(final byte[] body) {
+        return this.putMessage(MessageEncoder.get().prepare(body));
+    }
+
+    public CompletableFuture<PutMessageResult> putMessage(final Message msg) {
+        MessageEncoder encoder;
+        try {
+            encoder = MessageEncoder.get().prepare(msg);
+        } catch (IllegalArgumentException e) {
+            System.err.println("put message failed, " + e.getMessage());
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL));
+        }
+        return this.putMessage(encoder);
+    }
+
+    /**
+     * 一批消息作为整体写入同一个文件，只推进一次写位置，返回结果中带有每条消息的偏移量
+     */
+    public CompletableFuture<PutMessageResult> putMessages(final List<byte[]> bodies) {
+        if (bodies.isEmpty()) {
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL));
+        }
+        return this.putMessage(new ByteArrayAppendCallback(bodies));
+    }
+
+    /**
+     * @param encodedMessages 用MessageEncoder.encode编码好的一批消息
+     */
+    public CompletableFuture<PutMessageResult> putMessages(final ByteBuffer encodedMessages) {
+        EncodedBufferAppendCallback cb;
+        try {
+            cb = new EncodedBufferAppendCallback(encodedMessages);
+        } catch (IllegalArgumentException e) {
+            System.err.println("put messages failed, " + e.getMessage());
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL));
+        }
+        return this.putMessage(cb);
+    }
+
+    private CompletableFuture<PutMessageResult> putMessage(final AppendMessageCallback cb) {
+        if (BrokerRole.SLAVE == this.messageStoreConfig.getBrokerRole()) {
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE));
+        }
+        AppendMessageResult result;
+        long beginTime = System.nanoTime();
+        if (this.putMessageLock == null) {
+            result = this.mappedFileQueue.appendMessageConcurrently(cb);
+        } else {
+            putMessageLock.lock();
+            try {
+                result = this.mappedFileQueue.appendMessage(cb);
+            } finally {
+                putMessageLock.unlock();
+            }
+        }
+        //包含等锁的时间
+        this.appendLatency.record(System.nanoTime() - beginTime);
+
+        switch (result.getStatus()) {
+            case PUT_OK:
+                break;
+            case MESSAGE_SIZE_EXCEEDED:
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL));
+            default:
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR));
+        }
+
+        final PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
+        final long nextOffset = result.getWroteOffset() + result.getWroteBytes();
+        //刷盘和等从节点确认同时进行，刷盘失败优先返回
+        CompletableFuture<PutMessageStatus> flushFuture = this.handleDiskFlush(nextOffset);
+        CompletableFuture<PutMessageStatus> replicaFuture = this.handleHA(nextOffset);
+        return flushFuture.thenCombine(replicaFuture, (flushStatus, replicaStatus) -> {
+            if (flushStatus != PutMessageStatus.PUT_OK) {
+                putMessageResult.setPutMessageStatus(flushStatus);
+            } else if (replicaStatus != PutMessageStatus.PUT_OK) {
+                putMessageResult.setPutMessageStatus(replicaStatus);
+            }
+            return putMessageResult;
+        });
+    }
+
+    private CompletableFuture<PutMessageStatus> handleDiskFlush(final long nextOffset) {
+        if (FlushDiskType.ASYNC_FLUSH == this.messageStoreConfig.getFlushDiskType()) {
+            if (this.commitLogService != null) {
+                this.commitLogService.wakeup();
+            } else {
+                this.flushCommitLogService.wakeup();
+            }
+            return CompletableFuture.completedFuture(PutMessageStatus.PUT_OK);
+        }
+        GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
+        GroupCommitService.GroupCommitRequest request = new GroupCommitService.GroupCommitRequest(nextOffset,
+                this.messageStoreConfig.getSyncFlushTimeout());
+        service.putRequest(request);
+        return request.future();
+    }
+
+    /**
+     * SYNC_MASTER等任意一个从节点确认，超时时间和同步刷盘一样
+     */
+    private CompletableFuture<PutMessageStatus> handleHA(final long nextOffset) {
+        if (this.haService == null) {
+            return CompletableFuture.completedFuture(
+                    BrokerRole.SYNC_MASTER == this.messageStoreConfig.getBrokerRole()
+                            ? PutMessageStatus.SLAVE_NOT_AVAILABLE : PutMessageStatus.PUT_OK);
+        }
+        //writeBuffer模式下commit之后从节点才读得到，由CommitRealTimeService通知
+        if (this.commitLogService == null) {
+            this.haService.notifyNewData();
+        }
+        if (BrokerRole.SYNC_MASTER != this.messageStoreConfig.getBrokerRole()) {
+            return CompletableFuture.completedFuture(PutMessageStatus.PUT_OK);
+        }
+        if (!this.haService.isSlaveOK(nextOffset)) {
+            return CompletableFuture.completedFuture(PutMessageStatus.SLAVE_NOT_AVAILABLE);
+        }
+        GroupCommitService.GroupCommitRequest request = new GroupCommitService.GroupCommitRequest(nextOffset,
+                this.messageStoreConfig.getSyncFlushTimeout());
+        this.haService.putRequest(request);
+        return request.future();
+    }
+
+    /**
+     * 从节点按主节点的偏移量追加复制过来的数据，data不会跨文件
+     *
+     * @return 本地最大偏移量和startOffset不一致或者写不下时返回false
+     */
+    public boolean appendData(final long startOffset, final byte[] data, final int dataStart, final int dataLength) {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(startOffset);
+        if (mappedFile == null) {
+            System.err.println("append data at " + startOffset + " failed, create mapped file failed");
+            return false;
+        }
+        if (mappedFile.getFileFromOffset() + mappedFile.getWrotePosition() != startOffset) {
+            System.err.println("append data at " + startOffset + " failed, last mapped file "
+                    + mappedFile.getFileName() + " wrote position " + mappedFile.getWrotePosition());
+            return false;
+        }
+        if (!mappedFile.appendMsg(data, dataStart, dataLength)) {
+            return false;
+        }
+        //和主节点一样每次写入后唤醒刷盘，否则刷盘线程一个间隔只刷一个文件，会越落越多
+        this.flushCommitLogService.wakeup();
+        return true;
+    }
+
+    /**
+     * 本地已经删除的偏移量从二级存储读，本地第一个文件正在删除时也退回到二级存储
+     */
+    public SelectMappedBufferResult getData(final long offset) {
+        if (this.isTieredOnly(offset)) {
+            return this.tieredStoreService.getData(offset);
+        }
+        SelectMappedBufferResult result = this.mappedFileQueue.selectMappedBuffer(offset);
+        if (result == null && this.tieredStoreService != null) {
+            result = this.tieredStoreService.getData(offset);
+        }
+        return result;
+    }
+
+    public SelectMappedBufferResult getMessage(final long offset, final int size) {
+        if (this.isTieredOnly(offset)) {
+            return this.tieredStoreService.selectMappedBuffer(offset, size);
+        }
+        SelectMappedBufferResult result = this.mappedFileQueue.selectMappedBuffer(offset, size);
+        if (result == null && this.tieredStoreService != null) {
+            result = this.tieredStoreService.selectMappedBuffer(offset, size);
+        }
+        return result;
+    }
+
+    private boolean isTieredOnly(final long offset) {
+        return this.tieredStoreService != null && offset < this.mappedFileQueue.getMinOffset();
+    }
+
+    /**
+     * 从offset开始顺序读取消息，不拷贝消息内容：同一个文件内连续的消息放在一个mmap切片里，
+     * 遇到文件尾部空白时滚动到下一个文件。
+     *
+     * @param maxBytes 至少返回一条消息，之后不超过该字节数
+     */
+    public GetMessageResult getMessages(final long offset, final int maxCount, final int maxBytes) {
+        GetMessageResult getResult = new GetMessageResult();
+        long minOffset = this.getMinOffset();
+        long maxOffset = this.getMaxOffset();
+        getResult.setMinOffset(minOffset);
+        getResult.setMaxOffset(maxOffset);
+        getResult.setNextBeginOffset(offset);
+        if (maxOffset <= 0) {
+            getResult.setStatus(GetMessageStatus.NO_MESSAGE_IN_QUEUE);
+            return getResult;
+        } else if (offset < minOffset) {
+            getResult.setStatus(GetMessageStatus.OFFSET_TOO_SMALL);
+            getResult.setNextBeginOffset(minOffset);
+            return getResult;
+        } else if (offset == maxOffset) {
+            getResult.setStatus(GetMessageStatus.OFFSET_OVERFLOW_ONE);
+            return getResult;
+        } else if (offset > maxOffset) {
+            getResult.setStatus(GetMessageStatus.OFFSET_OVERFLOW_BADLY);
+            getResult.setNextBeginOffset(maxOffset);
+            return getResult;
+        }
+
+        long nextOffset = offset;
+        boolean doNext = true;
+        while (doNext && getResult.getMessageCount() < maxCount) {
+            SelectMappedBufferResult result = this.getData(nextOffset);
+            if (result == null) {
+                break;
+            }
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            int pos = 0;
+            int msgNum = 0;
+            while (getResult.getMessageCount() + msgNum < maxCount) {
+                //二级存储一次只读一部分，读完了从下一个位置接着读
+                if (pos > 0 && pos == result.getSize()) {
+                    break;
+                }
+                if (pos + 8 > result.getSize()) {
+                    doNext = false;
+                    break;
+                }
+                int totalSize = byteBuffer.getInt(pos);
+                int magicCode = byteBuffer.getInt(pos + MessageDecoder.MAGIC_CODE_POSITION);
+                if (MappedFile.BLANK_MAGIC_CODE == magicCode) {
+                    if (this.isFileEndBlank(nextOffset + pos, totalSize)) {
+                        nextOffset = this.rollNextFile(nextOffset + pos);
+                    } else if (totalSize < 8) {
+                        System.err.println("get messages found illegal blank at " + (nextOffset + pos));
+                        doNext = false;
+                    } else if (msgNum == 0) {
+                        //无锁追加失败留下的空洞，跳过；前面有消息时先返回，下一轮从空洞开始
+                        nextOffset += totalSize;
+                    }
+                    break;
+                }
+                if (MessageDecoder.MESSAGE_MAGIC_CODE_V1 != magicCode || totalSize <= 0
+                        || pos + totalSize > result.getSize()) {
+                    System.err.println("get messages found illegal message at " + (nextOffset + pos));
+                    doNext = false;
+                    break;
+                }
+                if (getResult.getBufferTotalSize() + pos + totalSize > maxBytes
+                        && getResult.getMessageCount() + msgNum > 0) {
+                    doNext = false;
+                    break;
+                }
+                pos += totalSize;
+                msgNum++;
+            }
+
+            if (msgNum > 0) {
+                result.setSize(pos);
+                getResult.addMessage(result, msgNum);
+                if (nextOffset == result.getStartOffset()) {
+                    nextOffset += pos;
+                }
+            } else {
+                result.release();
+            }
+        }
+
+        getResult.setNextBeginOffset(nextOffset);
+        getResult.setStatus(getResult.getMessageCount() > 0 ? GetMessageStatus.FOUND
+                : GetMessageStatus.MESSAGE_WAS_REMOVING);
+        return getResult;
+    }
+
+    /**
+     * 读取并校验offset处的一条消息
+     */
+    public MessageExt getMessage(final long offset) {
+        SelectMappedBufferResult result = this.getData(offset);
+        if (result == null) {
+            return null;
+        }
+        try {
+            return MessageDecoder.decode(result.getByteBuffer(), true, true);
+        } finally {
+            result.release();
+        }
+    }
+
+    /**
+     * 校验byteBuffer当前位置的消息并解析出分发需要的信息，position移动到下一条消息
+     *
+     * @return 文件尾部空白返回size为0的成功请求，文件中间的空洞返回isBlank的成功请求，格式错误返回不成功的请求
+     */
+    public DispatchRequest checkMessageAndReturnSize(final ByteBuffer byteBuffer, final long offset,
+                                                     final boolean checkCRC) {
+        int pos = byteBuffer.position();
+        if (byteBuffer.remaining() < 8) {
+            return new DispatchRequest(-1, false);
+        }
+        int totalSize = byteBuffer.getInt(pos);
+        int magicCode = byteBuffer.getInt(pos + MessageDecoder.MAGIC_CODE_POSITION);
+        if (MappedFile.BLANK_MAGIC_CODE == magicCode) {
+            if (this.isFileEndBlank(offset, totalSize)) {
+                return new DispatchRequest(0, true);
+            }
+            if (totalSize < 8 || totalSize > byteBuffer.remaining()) {
+                return new DispatchRequest(-1, false);
+            }
+            byteBuffer.position(pos + totalSize);
+            return new DispatchRequest(totalSize, true, true);
+        }
+
+        MessageExt msgExt = MessageDecoder.decode(byteBuffer, false, checkCRC);
+        if (msgExt == null) {
+            System.out.println("check message failed, pos: " + pos + ", totalSize: " + totalSize
+                    + ", magicCode: " + magicCode);
+            return new DispatchRequest(-1, false);
+        }
+
+        Map<String, String> propertiesMap = msgExt.getProperties();
+        String topic = null;
+        int queueId = 0;
+        long tagsCode = 0;
+        String keys = "";
+        if (propertiesMap != null) {
+            topic = propertiesMap.get(MessageConst.PROPERTY_TOPIC);
+            String queueIdStr = propertiesMap.get(MessageConst.PROPERTY_QUEUE_ID);
+            if (queueIdStr != null) {
+                try {
+                    queueId = Integer.parseInt(queueIdStr);
+                } catch (NumberFormatException e) {
+                    System.err.println("illegal queue id " + queueIdStr + " at " + msgExt.getPhysicOffset());
+                }
+            }
+            String tags = propertiesMap.get(MessageConst.PROPERTY_TAGS);
+            if (tags != null && tags.length() > 0) {
+                tagsCode = tags.hashCode();
+            }
+            String keysStr = propertiesMap.get(MessageConst.PROPERTY_KEYS);
+            if (keysStr != null) {
+                keys = keysStr;
+            }
+        }
+        return new DispatchRequest(topic, queueId, msgExt.getPhysicOffset(), totalSize, tagsCode,
+                msgExt.getStoreTimestamp(), keys, propertiesMap);
+    }
+
+    /**
+     * 文件尾部空白一直填到文件结尾，无锁追加失败留下的空洞后面还有数据
+     */
+    private boolean isFileEndBlank(final long offset, final int blankSize) {
+        int mappedFileSize = this.messageStoreConfig.getMappedFileSizeCommitLog();
+        return offset % mappedFileSize + blankSize >= mappedFileSize;
+    }
+
+    public long rollNextFile(final long offset) {
+        int mappedFileSize = this.messageStoreConfig.getMappedFileSizeCommitLog();
+        return offset + mappedFileSize - offset % mappedFileSize;
+    }
+
+    public long getLocalMinOffset() {
+        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        if (mappedFile != null) {
+            //正在删除的文件不再对外可见
+            if (mappedFile.isAvailable()) {
+                return mappedFile.getFileFromOffset();
+            }
+            return this.rollNextFile(mappedFile.getFileFromOffset());
+        }
+        return -1;
+    }
+
+    /**
+     * @return 本地和二级存储中最小的偏移量
+     */
+    public long getMinOffset() {
+        long minOffset = this.getLocalMinOffset();
+        if (this.tieredStoreService != null) {
+            long tieredMinOffset = this.tieredStoreService.getMinOffset();
+            if (tieredMinOffset >= 0 && (minOffset < 0 || tieredMinOffset < minOffset)) {
+                return tieredMinOffset;
+            }
+        }
+        return minOffset;
+    }
+
+    public Map<String, Integer> getResidentPercents() {
+        return this.mappedFileQueue.getResidentPercents();
+    }
+
+    /**
+     * 开启分层存储时只删除已经上传的文件；磁盘使用率超过水位时没上传的也删除，这部分数据会丢失
+     */
+    public int deleteExpiredFile(final long expiredTime, final int deleteFilesInterval, final long intervalForcibly,
+                                 final boolean cleanImmediately, final int deleteFileBatchMax) {
+        if (this.tieredStoreService == null) {
+            return this.mappedFileQueue.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly,
+                    cleanImmediately, deleteFileBatchMax);
+        }
+        final long now = System.currentTimeMillis();
+        return this.mappedFileQueue.deleteFirstFiles(mappedFile -> {
+            if (!this.tieredStoreService.isOffloaded(mappedFile.getFileFromOffset())) {
+                if (cleanImmediately) {
+                    System.err.println("disk space is full, delete commit log file " + mappedFile.getFileName()
+                            + " before it is offloaded to tiered store, its messages will be lost");
+                }
+                return cleanImmediately;
+            }
+            return cleanImmediately || now >= mappedFile.getLastModifiedTimestamp() + expiredTime;
+        }, intervalForcibly, deleteFileBatchMax);
+    }
+
+    public boolean retryDeleteFirstFile(final long intervalForcibly) {
+        return this.mappedFileQueue.retryDeleteFirstFile(intervalForcibly);
+    }
+
+    public long getMaxOffset() {
+        return this.mappedFileQueue.getMaxOffset();
+    }
+
+    public long getFlushedWhere() {
+        return this.mappedFileQueue.getFlushedWhere();
+    }
+
+    /**
+     * 已写入但还在writeBuffer中、没有commit到page cache的字节数
+     */
+    public long getCommitLag() {
+        if (this.transientStorePool == null) {
+            return 0;
+        }
+        return Math.max(0, this.mappedFileQueue.getMaxWrotePosition() - this.mappedFileQueue.getCommittedWhere());
+    }
+
+    /**
+     * 已进入page cache但还没有刷盘的字节数
+     */
+    public long getFlushLag() {
+        return Math.max(0, this.mappedFileQueue.getMaxOffset() - this.mappedFileQueue.getFlushedWhere());
+    }
+
+    public long getRolloverTimes() {
+        return this.mappedFileQueue.getRolloverTimes();
+    }
+
+    public long getRolloverMaxNanos() {
+        return this.mappedFileQueue.getRolloverMaxNanos();
+    }
+
+    public long getRolloverAvgNanos() {
+        return this.mappedFileQueue.getRolloverAvgNanos();
+    }
+
+    public LatencyHistogram getAppendLatency() {
+        return appendLatency;
+    }
+
+    /**
+     * @return 没有开启分层存储时为null
+     */
+    public TieredStoreService getTieredStoreService() {
+        return tieredStoreService;
+    }
+
+    /**
+     * @return 没有开启主从复制时为null
+     */
+    public HAService getHaService() {
+        return haService;
+    }
+
+    public LockedMemoryManager getLockedMemoryManager() {
+        return lockedMemoryManager;
+    }
+
+    public MappedFileQueue getMappedFileQueue() {
+        return mappedFileQueue;
+    }
+
+    public TransientStorePool getTransientStorePool() {
+        return transientStorePool;
+    }
+
+    public MessageStoreConfig getMessageStoreConfig() {
+        return messageStoreConfig;
+    }
+}
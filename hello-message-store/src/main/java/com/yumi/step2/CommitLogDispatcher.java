@@ -0,0 +1,18 @@
+package com.yumi.step2;
+
+/**
+ * Dispatcher of commit log.
+ */
+public interface CommitLogDispatcher {
+
+    void dispatch(final DispatchRequest request);
+
+    /**
+     * 一批分发结束，攒批写入的分发器在这里落盘
+     *
+     * @return 有消息没有写进去时返回需要重新分发的commit log偏移量，否则返回-1
+     */
+    default long dispatchBatchEnd() {
+        return -1;
+    }
+}
@@ -0,0 +1,82 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.BrokerRole;
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.ha.HAService;
+
+/**
+ * writeBuffer模式下把写缓冲中的数据commit到FileChannel(page cache)，commit有进展时唤醒刷盘线程和主从复制的发送线程。
+ */
+public class CommitRealTimeService extends FlushCommitLogService {
+    private final MappedFileQueue mappedFileQueue;
+    private final MessageStoreConfig messageStoreConfig;
+    private final FlushCommitLogService flushCommitLogService;
+    //没有开启主从复制时为null
+    private final HAService haService;
+    private long lastCommitTimestamp = 0;
+
+    public CommitRealTimeService(MappedFileQueue mappedFileQueue, MessageStoreConfig messageStoreConfig,
+                                 FlushCommitLogService flushCommitLogService, HAService haService) {
+        this.mappedFileQueue = mappedFileQueue;
+        this.messageStoreConfig = messageStoreConfig;
+        this.flushCommitLogService = flushCommitLogService;
+        this.haService = haService;
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            int interval = messageStoreConfig.getCommitIntervalCommitLog();
+            int commitDataLeastPages = messageStoreConfig.getCommitCommitLogLeastPages();
+            int commitDataThoroughInterval = messageStoreConfig.getCommitCommitLogThoroughInterval();
+
+            long begin = System.currentTimeMillis();
+            if (begin >= (this.lastCommitTimestamp + commitDataThoroughInterval)) {
+                this.lastCommitTimestamp = begin;
+                commitDataLeastPages = 0;
+            }
+            //同步复制时写入方在等从节点确认，从节点只读得到commit过的数据，不能攒页
+            if (this.haService != null && BrokerRole.SYNC_MASTER == messageStoreConfig.getBrokerRole()) {
+                commitDataLeastPages = 0;
+            }
+
+            try {
+                boolean result = this.mappedFileQueue.commit(commitDataLeastPages);
+                if (!result) {
+                    //有新数据被commit，通知刷盘和从节点
+                    this.lastCommitTimestamp = System.currentTimeMillis();
+                    this.flushCommitLogService.wakeup();
+                    if (this.haService != null) {
+                        this.haService.notifyNewData();
+                    }
+                }
+
+                this.waitForRunning(interval);
+            } catch (Throwable e) {
+                System.err.println(this.getServiceName() + " service has exception. ");
+                e.printStackTrace();
+            }
+        }
+
+        boolean result = false;
+        for (int i = 0; i < RETRY_TIMES_OVER && !result; i++) {
+            result = this.mappedFileQueue.commit(0);
+            System.out.println(this.getServiceName() + " service shutdown, retry " + (i + 1) + " times "
+                    + (result ? "OK" : "Not OK"));
+        }
+
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    @Override
+    public String getServiceName() {
+        return CommitRealTimeService.class.getSimpleName();
+    }
+
+    @Override
+    public long getJointime() {
+        return 1000 * 60 * 5;
+    }
+}
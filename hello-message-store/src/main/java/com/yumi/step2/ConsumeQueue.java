@@ -0,0 +1,367 @@
+package com.yumi.step2;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 按topic和queueId划分的逻辑队列，每个条目固定20字节：commit log偏移量(8) + 消息大小(4) + tag哈希(8)。
+ * 逻辑偏移量(第几条消息) * 20就是条目在队列文件中的位置，定位只需要算术运算。
+ */
+public class ConsumeQueue {
+    public static final int CQ_STORE_UNIT_SIZE = 20;
+
+    private final String topic;
+    private final int queueId;
+    private final String storePath;
+    private final int mappedFileSize;
+    private final MappedFileQueue mappedFileQueue;
+    //没有开启consumeQueueExtEnable时为null
+    private final ConsumeQueueExt consumeQueueExt;
+    //待写入的条目，一批分发结束后统一写入文件
+    private final ByteBuffer pendingEntries;
+    private long pendingPhysicOffset = -1;
+    //写文件失败时第一条没写进去的条目的commit log偏移量，重新分发之前不再接受新条目，-1表示没有失败
+    private long failedPhysicOffset = -1;
+    private volatile long maxPhysicOffset = -1;
+    private volatile long minLogicOffset = 0;
+
+    public ConsumeQueue(final String topic, final int queueId, final String storePath, final int mappedFileSize) {
+        this(topic, queueId, storePath, mappedFileSize, null, 0);
+    }
+
+    /**
+     * @param extStorePath  扩展文件的根目录，为null时不写扩展文件
+     * @param bitMapLength 每条消息位图的字节数
+     */
+    public ConsumeQueue(final String topic, final int queueId, final String storePath, final int mappedFileSize,
+                        final String extStorePath, final int bitMapLength) {
+        this.topic = topic;
+        this.queueId = queueId;
+        this.storePath = storePath;
+        this.mappedFileSize = mappedFileSize;
+
+        String queueDir = this.storePath + File.separator + topic + File.separator + queueId;
+        this.mappedFileQueue = new MappedFileQueue(queueDir, mappedFileSize);
+        this.pendingEntries = ByteBuffer.allocate(CQ_STORE_UNIT_SIZE * 1024);
+        this.consumeQueueExt = extStorePath == null ? null : new ConsumeQueueExt(topic, queueId, extStorePath,
+                mappedFileSize / CQ_STORE_UNIT_SIZE, bitMapLength);
+    }
+
+    public boolean load() {
+        boolean result = this.mappedFileQueue.load();
+        System.out.println("load consume queue " + this.topic + "-" + this.queueId + " " + (result ? "OK" : "Failed"));
+        if (this.consumeQueueExt != null) {
+            result = result && this.consumeQueueExt.load();
+        }
+        return result;
+    }
+
+    /**
+     * 加载后从最后三个文件开始扫描，找到最后一个有效条目，恢复写位置并截断后面的脏数据
+     */
+    public void recover() {
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        if (!mappedFiles.isEmpty()) {
+            int index = mappedFiles.size() - 3;
+            if (index < 0) {
+                index = 0;
+            }
+
+            MappedFile mappedFile = mappedFiles.get(index);
+            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            long processOffset = mappedFile.getFileFromOffset();
+            long mappedFileOffset = 0;
+            while (true) {
+                for (int i = 0; i < mappedFileSize; i += CQ_STORE_UNIT_SIZE) {
+                    long offset = byteBuffer.getLong();
+                    int size = byteBuffer.getInt();
+                    byteBuffer.getLong();
+
+                    if (offset >= 0 && size > 0) {
+                        mappedFileOffset = i + CQ_STORE_UNIT_SIZE;
+                        this.maxPhysicOffset = offset + size;
+                    } else {
+                        System.out.println("recover current consume queue file over, " + mappedFile.getFileName()
+                                + " " + offset + " " + size);
+                        break;
+                    }
+                }
+
+                if (mappedFileOffset == mappedFileSize) {
+                    index++;
+                    if (index >= mappedFiles.size()) {
+                        System.out.println("recover last consume queue file over, last mapped file "
+                                + mappedFile.getFileName());
+                        break;
+                    } else {
+                        mappedFile = mappedFiles.get(index);
+                        byteBuffer = mappedFile.sliceByteBuffer();
+                        processOffset = mappedFile.getFileFromOffset();
+                        mappedFileOffset = 0;
+                        System.out.println("recover next consume queue file, " + mappedFile.getFileName());
+                    }
+                } else {
+                    System.out.println("recover current consume queue queue over " + mappedFile.getFileName() + " "
+                            + (processOffset + mappedFileOffset));
+                    break;
+                }
+            }
+
+            processOffset += mappedFileOffset;
+            this.mappedFileQueue.setFlushedWhere(processOffset);
+            this.mappedFileQueue.setCommittedWhere(processOffset);
+            this.mappedFileQueue.truncateDirtyFiles(processOffset);
+            if (this.consumeQueueExt != null) {
+                this.consumeQueueExt.truncateByMaxIndex(processOffset / CQ_STORE_UNIT_SIZE);
+            }
+        }
+    }
+
+    /**
+     * commit log恢复后尾部被截断，删除指向截断位置之后的条目
+     */
+    public void truncateDirtyLogicFiles(final long phyOffset) {
+        this.maxPhysicOffset = -1;
+        while (true) {
+            MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+            if (mappedFile == null) {
+                break;
+            }
+            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            int validPos = 0;
+            for (int i = 0; i < mappedFile.getWrotePosition(); i += CQ_STORE_UNIT_SIZE) {
+                long offset = byteBuffer.getLong();
+                int size = byteBuffer.getInt();
+                byteBuffer.getLong();
+                if (offset + size > phyOffset) {
+                    break;
+                }
+                validPos = i + CQ_STORE_UNIT_SIZE;
+                this.maxPhysicOffset = offset + size;
+            }
+
+            if (validPos == 0 && this.mappedFileQueue.getMappedFiles().size() > 1) {
+                this.mappedFileQueue.deleteLastMappedFile();
+                continue;
+            }
+            long processOffset = mappedFile.getFileFromOffset() + validPos;
+            this.mappedFileQueue.setFlushedWhere(processOffset);
+            this.mappedFileQueue.setCommittedWhere(processOffset);
+            this.mappedFileQueue.truncateDirtyFiles(processOffset);
+            if (this.consumeQueueExt != null) {
+                this.consumeQueueExt.truncateByMaxIndex(processOffset / CQ_STORE_UNIT_SIZE);
+            }
+            break;
+        }
+    }
+
+    /**
+     * 记录一条消息的位置，只写入待写缓冲，调用方在一批分发结束后调用commitPending写入文件
+     */
+    public void putMessagePositionInfo(final long offset, final int size, final long tagsCode) {
+        this.putMessagePositionInfo(offset, size, tagsCode, null);
+    }
+
+    /**
+     * @param bitMap 消息属性的布隆过滤器位图，写入扩展文件，为null时写全1
+     */
+    public void putMessagePositionInfo(final long offset, final int size, final long tagsCode,
+                                       final byte[] bitMap) {
+        if (offset + size <= Math.max(this.maxPhysicOffset, this.pendingPhysicOffset)) {
+            //重复分发(重启后从更早的位置开始分发)
+            return;
+        }
+        if (this.failedPhysicOffset >= 0) {
+            //前面有条目没写进去，跳过的条目由重新分发补上
+            return;
+        }
+        if (!this.pendingEntries.hasRemaining() && !this.commitPending()) {
+            return;
+        }
+        this.pendingEntries.putLong(offset);
+        this.pendingEntries.putInt(size);
+        this.pendingEntries.putLong(tagsCode);
+        if (this.consumeQueueExt != null) {
+            this.consumeQueueExt.put(bitMap);
+        }
+        this.pendingPhysicOffset = offset + size;
+    }
+
+    /**
+     * 把待写的条目一次写入文件，跨文件时拆成两段。
+     * 写入失败时丢弃没写进去的条目，maxPhysicOffset只推进到真正写入的条目，
+     * 调用方从getFailedPhysicOffset重新分发，重复的条目会被跳过。
+     *
+     * @return false 有条目没有写入
+     */
+    public boolean commitPending() {
+        if (this.pendingEntries.position() == 0) {
+            return this.failedPhysicOffset < 0;
+        }
+        //扩展文件先写，读consume queue时对应的位图已经在了
+        if (this.consumeQueueExt != null) {
+            this.consumeQueueExt.commitPending(this.getMaxOffsetInQueue());
+        }
+        this.pendingEntries.flip();
+        byte[] array = this.pendingEntries.array();
+        while (this.pendingEntries.hasRemaining()) {
+            MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+            if (mappedFile == null) {
+                System.err.println("create consume queue file failed, " + this.topic + "-" + this.queueId);
+                break;
+            }
+            int space = mappedFile.getFileSize() - mappedFile.getWrotePosition();
+            int length = Math.min(space, this.pendingEntries.remaining());
+            if (!mappedFile.appendMsg(array, this.pendingEntries.position(), length)) {
+                System.err.println("append consume queue failed, " + this.topic + "-" + this.queueId);
+                break;
+            }
+            this.pendingEntries.position(this.pendingEntries.position() + length);
+        }
+        //文件大小是条目大小的整数倍，写入的部分都是完整的条目
+        int written = this.pendingEntries.position();
+        boolean result = !this.pendingEntries.hasRemaining();
+        if (!result) {
+            this.failedPhysicOffset = this.pendingEntries.getLong(written);
+        }
+        if (written > 0) {
+            long lastOffset = this.pendingEntries.getLong(written - CQ_STORE_UNIT_SIZE);
+            int lastSize = this.pendingEntries.getInt(written - CQ_STORE_UNIT_SIZE + 8);
+            this.maxPhysicOffset = lastOffset + lastSize;
+        }
+        this.pendingPhysicOffset = this.maxPhysicOffset;
+        this.pendingEntries.clear();
+        return result;
+    }
+
+    /**
+     * @return 写入失败时第一条没写进去的条目的commit log偏移量，没有失败时为-1
+     */
+    public long getFailedPhysicOffset() {
+        return failedPhysicOffset;
+    }
+
+    /**
+     * 从getFailedPhysicOffset开始重新分发之前调用
+     */
+    public void clearFailedPhysicOffset() {
+        this.failedPhysicOffset = -1;
+    }
+
+    /**
+     * @param startIndex 逻辑偏移量
+     * @return 从startIndex开始到所在文件写位置为止的条目
+     */
+    public SelectMappedBufferResult getIndexBuffer(final long startIndex) {
+        long offset = startIndex * CQ_STORE_UNIT_SIZE;
+        if (offset >= this.getMinLogicOffset()) {
+            MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(offset);
+            if (mappedFile != null) {
+                return mappedFile.selectMappedBuffer((int) (offset % mappedFileSize));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * commit log头部文件删除后，删除只引用了已删除数据的队列文件
+     */
+    public int deleteExpiredFile(final long minCommitLogOffset) {
+        int cnt = this.mappedFileQueue.deleteExpiredFileByOffset(minCommitLogOffset, CQ_STORE_UNIT_SIZE);
+        this.correctMinOffset(minCommitLogOffset);
+        if (this.consumeQueueExt != null) {
+            this.consumeQueueExt.deleteExpiredFile(this.getMinOffsetInQueue());
+        }
+        return cnt;
+    }
+
+    /**
+     * 从第一个文件中找到第一个还指向有效commit log的条目作为最小逻辑偏移量
+     */
+    public void correctMinOffset(final long phyMinOffset) {
+        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        if (mappedFile == null) {
+            return;
+        }
+        SelectMappedBufferResult result = mappedFile.selectMappedBuffer(0);
+        if (result == null) {
+            return;
+        }
+        try {
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            for (int i = 0; i < result.getSize(); i += CQ_STORE_UNIT_SIZE) {
+                long offsetPy = byteBuffer.getLong();
+                byteBuffer.getInt();
+                byteBuffer.getLong();
+                if (offsetPy >= phyMinOffset) {
+                    long newMinLogicOffset = mappedFile.getFileFromOffset() + i;
+                    if (newMinLogicOffset > this.minLogicOffset) {
+                        this.minLogicOffset = newMinLogicOffset;
+                        System.out.println("compute logics min offset: " + this.getMinOffsetInQueue() + ", topic: "
+                                + this.topic + ", queueId: " + this.queueId);
+                    }
+                    break;
+                }
+            }
+        } finally {
+            result.release();
+        }
+    }
+
+    public boolean flush(final int flushLeastPages) {
+        boolean result = this.mappedFileQueue.flush(flushLeastPages);
+        if (this.consumeQueueExt != null) {
+            result = this.consumeQueueExt.flush(flushLeastPages) && result;
+        }
+        return result;
+    }
+
+    public long getMinOffsetInQueue() {
+        return this.minLogicOffset / CQ_STORE_UNIT_SIZE;
+    }
+
+    public long getMaxOffsetInQueue() {
+        return this.mappedFileQueue.getMaxOffset() / CQ_STORE_UNIT_SIZE;
+    }
+
+    public long getMaxPhysicOffset() {
+        return maxPhysicOffset;
+    }
+
+    public long getMinLogicOffset() {
+        return minLogicOffset;
+    }
+
+    public void setMinLogicOffset(long minLogicOffset) {
+        this.minLogicOffset = minLogicOffset;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getQueueId() {
+        return queueId;
+    }
+
+    public MappedFileQueue getMappedFileQueue() {
+        return mappedFileQueue;
+    }
+
+    /**
+     * @return 没有开启扩展文件时为null
+     */
+    public ConsumeQueueExt getConsumeQueueExt() {
+        return consumeQueueExt;
+    }
+
+    public void destroy() {
+        this.maxPhysicOffset = -1;
+        this.minLogicOffset = 0;
+        this.mappedFileQueue.destroy();
+        if (this.consumeQueueExt != null) {
+            this.consumeQueueExt.destroy();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.yumi.step2;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * consume queue的扩展文件，第i个条目是consume queue第i条消息属性的布隆过滤器位图，每个条目固定unitSize字节。
+ * 每个文件的条目数和consume queue文件相同，两边的文件一一对齐，按consume queue的逻辑偏移量直接定位。
+ * 缺失的条目(扩展文件落后于consume queue)填全1，读的时候按可能匹配处理。
+ */
+public class ConsumeQueueExt {
+    private final String topic;
+    private final int queueId;
+    private final int unitSize;
+    private final int mappedFileSize;
+    private final MappedFileQueue mappedFileQueue;
+    //待写入的条目，和consume queue的待写条目一起提交
+    private final ByteBuffer pendingEntries;
+    private final byte[] unknownUnit;
+
+    public ConsumeQueueExt(final String topic, final int queueId, final String storePath,
+                           final int entriesPerFile, final int unitSize) {
+        this.topic = topic;
+        this.queueId = queueId;
+        this.unitSize = unitSize;
+        this.mappedFileSize = entriesPerFile * unitSize;
+
+        String queueDir = storePath + File.separator + topic + File.separator + queueId;
+        this.mappedFileQueue = new MappedFileQueue(queueDir, this.mappedFileSize);
+        this.pendingEntries = ByteBuffer.allocate(unitSize * 1024);
+        this.unknownUnit = new byte[unitSize];
+        Arrays.fill(this.unknownUnit, (byte) 0xFF);
+    }
+
+    public boolean load() {
+        boolean result = this.mappedFileQueue.load();
+        System.out.println("load consume queue ext " + this.topic + "-" + this.queueId + " "
+                + (result ? "OK" : "Failed"));
+        return result;
+    }
+
+    /**
+     * consume queue恢复或截断后调用，删除maxIndex之后的条目
+     */
+    public void truncateByMaxIndex(final long maxIndex) {
+        long offset = maxIndex * this.unitSize;
+        if (this.mappedFileQueue.getMaxOffset() <= offset) {
+            return;
+        }
+        this.mappedFileQueue.setFlushedWhere(Math.min(this.mappedFileQueue.getFlushedWhere(), offset));
+        this.mappedFileQueue.setCommittedWhere(Math.min(this.mappedFileQueue.getCommittedWhere(), offset));
+        this.mappedFileQueue.truncateDirtyFiles(offset);
+    }
+
+    /**
+     * 待写缓冲和consume queue的一样大，consume queue在写满前会一起提交
+     *
+     * @param bitMap 为null时写全1
+     */
+    public void put(final byte[] bitMap) {
+        this.pendingEntries.put(bitMap == null || bitMap.length != this.unitSize ? this.unknownUnit : bitMap);
+    }
+
+    /**
+     * 把待写的条目写入文件
+     *
+     * @param startIndex 第一个待写条目在consume queue中的逻辑偏移量，文件写位置和它不一致时先截断或者补齐
+     */
+    public void commitPending(final long startIndex) {
+        if (this.pendingEntries.position() == 0) {
+            return;
+        }
+        long startOffset = startIndex * this.unitSize;
+        if (this.mappedFileQueue.getMaxOffset() > startOffset) {
+            this.truncateByMaxIndex(startIndex);
+        }
+        this.pendingEntries.flip();
+        try {
+            if (this.mappedFileQueue.getMappedFiles().isEmpty()) {
+                //开启扩展文件时consume queue已经有数据，第一个文件从startIndex所在的位置开始
+                MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(startOffset);
+                if (mappedFile != null) {
+                    this.mappedFileQueue.setFlushedWhere(mappedFile.getFileFromOffset());
+                    this.mappedFileQueue.setCommittedWhere(mappedFile.getFileFromOffset());
+                }
+            }
+            for (long offset = this.mappedFileQueue.getMaxOffset(); offset < startOffset; offset += this.unitSize) {
+                if (!this.append(this.unknownUnit, 0, this.unitSize)) {
+                    return;
+                }
+            }
+            byte[] array = this.pendingEntries.array();
+            while (this.pendingEntries.hasRemaining()) {
+                int length = this.pendingEntries.remaining();
+                MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+                if (mappedFile != null) {
+                    length = Math.min(length, mappedFile.getFileSize() - mappedFile.getWrotePosition());
+                }
+                if (!this.append(array, this.pendingEntries.position(), length)) {
+                    return;
+                }
+                this.pendingEntries.position(this.pendingEntries.position() + length);
+            }
+        } finally {
+            this.pendingEntries.clear();
+        }
+    }
+
+    private boolean append(final byte[] data, final int offset, final int length) {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+        if (mappedFile == null || !mappedFile.appendMsg(data, offset, length)) {
+            System.err.println("append consume queue ext failed, " + this.topic + "-" + this.queueId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param startIndex 逻辑偏移量
+     * @return 从startIndex开始到所在文件写位置为止的位图，没有时返回null
+     */
+    public SelectMappedBufferResult getBitMapBuffer(final long startIndex) {
+        long offset = startIndex * this.unitSize;
+        //开启扩展文件之前写入的消息没有位图
+        if (offset < this.mappedFileQueue.getMinOffset() || offset >= this.mappedFileQueue.getMaxOffset()) {
+            return null;
+        }
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(offset);
+        if (mappedFile != null) {
+            return mappedFile.selectMappedBuffer((int) (offset % this.mappedFileSize));
+        }
+        return null;
+    }
+
+    /**
+     * 删除所有条目都在consume queue最小逻辑偏移量之前的文件
+     */
+    public int deleteExpiredFile(final long minIndex) {
+        final long minOffset = minIndex * this.unitSize;
+        return this.mappedFileQueue.deleteFirstFiles(
+                mappedFile -> mappedFile.getFileFromOffset() + this.mappedFileSize <= minOffset, 1000 * 60,
+                Integer.MAX_VALUE);
+    }
+
+    public boolean flush(final int flushLeastPages) {
+        return this.mappedFileQueue.flush(flushLeastPages);
+    }
+
+    public long getMaxIndex() {
+        return this.mappedFileQueue.getMaxOffset() / this.unitSize;
+    }
+
+    public int getUnitSize() {
+        return unitSize;
+    }
+
+    public MappedFileQueue getMappedFileQueue() {
+        return mappedFileQueue;
+    }
+
+    public void destroy() {
+        this.mappedFileQueue.destroy();
+    }
+}
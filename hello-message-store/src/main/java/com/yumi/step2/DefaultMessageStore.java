@@ -0,0 +1,676 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.config.StorePathConfigHelper;
+import com.yumi.step2.filter.ExpressionMessageFilter;
+import com.yumi.step2.filter.MessageBloomFilter;
+import com.yumi.step2.index.IndexService;
+import com.yumi.step2.index.QueryOffsetResult;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageConst;
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageExt;
+import com.yumi.step2.metrics.StoreMetrics;
+import com.yumi.step2.tiered.BlobStore;
+import com.yumi.utils.thread.factory.ThreadFactoryImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * commit log + consume queue。消息只顺序写commit log，由ReputMessageService异步构建consume queue，
+ * 按(topic, queueId, 逻辑偏移量)读取时先查consume queue拿到物理偏移量再读commit log。
+ */
+public class DefaultMessageStore {
+    private final MessageStoreConfig messageStoreConfig;
+    private final CommitLog commitLog;
+    private final ConcurrentMap<String/* topic */, ConcurrentMap<Integer/* queueId */, ConsumeQueue>> consumeQueueTable;
+    private final List<CommitLogDispatcher> dispatcherList;
+    private final ReputMessageService reputMessageService;
+    private final FlushConsumeQueueService flushConsumeQueueService;
+    private final CleanCommitLogService cleanCommitLogService;
+    private final PullRequestHoldService pullRequestHoldService;
+    private final IndexService indexService;
+    private StoreCheckpoint storeCheckpoint;
+    //读不在page cache中的旧数据，缺页阻塞在这里，不影响读尾部热数据的线程
+    private final ThreadPoolExecutor coldReadExecutor;
+    private final AtomicLong hotReadTimes = new AtomicLong(0);
+    private final AtomicLong coldReadTimes = new AtomicLong(0);
+    //没有开启consumeQueueExtEnable时为null
+    private final MessageBloomFilter messageBloomFilter;
+    //带过滤的拉取中被位图排除的消息数和读了commit log的消息数
+    private final AtomicLong filterBitMapMissTimes = new AtomicLong(0);
+    private final AtomicLong filterCommitLogReadTimes = new AtomicLong(0);
+    private final StoreMetrics storeMetrics;
+
+    public DefaultMessageStore(final MessageStoreConfig messageStoreConfig) {
+        this(messageStoreConfig, new CommitLog(messageStoreConfig));
+    }
+
+    /**
+     * @param blobStore commit log分层存储的二级存储
+     */
+    public DefaultMessageStore(final MessageStoreConfig messageStoreConfig, final BlobStore blobStore) {
+        this(messageStoreConfig, new CommitLog(messageStoreConfig, blobStore));
+    }
+
+    private DefaultMessageStore(final MessageStoreConfig messageStoreConfig, final CommitLog commitLog) {
+        this.messageStoreConfig = messageStoreConfig;
+        this.commitLog = commitLog;
+        this.consumeQueueTable = new ConcurrentHashMap<>(32);
+        this.messageBloomFilter = messageStoreConfig.isConsumeQueueExtEnable()
+                ? new MessageBloomFilter(messageStoreConfig.getBitMapErrorRate(),
+                messageStoreConfig.getBitMapExpectedProperties()) : null;
+        this.dispatcherList = new ArrayList<>();
+        this.dispatcherList.add(new CommitLogDispatcherBuildConsumeQueue());
+        this.indexService = new IndexService(messageStoreConfig);
+        this.dispatcherList.add(new CommitLogDispatcherBuildIndex());
+        this.reputMessageService = new ReputMessageService(this);
+        this.flushConsumeQueueService = new FlushConsumeQueueService(this);
+        this.cleanCommitLogService = new CleanCommitLogService(this);
+        this.pullRequestHoldService = new PullRequestHoldService(this);
+        this.coldReadExecutor = new ThreadPoolExecutor(messageStoreConfig.getColdReadThreadPoolNums(),
+                messageStoreConfig.getColdReadThreadPoolNums(), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(messageStoreConfig.getColdReadThreadPoolQueueCapacity()),
+                new ThreadFactoryImpl("ColdReadThread_", true));
+        this.storeMetrics = new StoreMetrics(this);
+        if (this.commitLog.getTieredStoreService() != null) {
+            //还没分发的文件本地副本不能删除
+            this.commitLog.getTieredStoreService().setDispatchedOffsetSupplier(this::getDispatchedOffset);
+        }
+    }
+
+    public boolean load() {
+        boolean result = this.commitLog.load();
+        result = result && this.loadConsumeQueue();
+        if (result) {
+            try {
+                this.storeCheckpoint = new StoreCheckpoint(
+                        StorePathConfigHelper.getStoreCheckpoint(this.messageStoreConfig.getStorePathRootDir()));
+                long maxPhyOffset = this.recover();
+                result = this.indexService.load(maxPhyOffset);
+            } catch (IOException e) {
+                System.err.println("load store checkpoint exception");
+                e.printStackTrace();
+                result = false;
+            }
+        }
+        System.out.println("load message store " + (result ? "OK" : "Failed"));
+        return result;
+    }
+
+    private long recover() {
+        long beginTime = System.currentTimeMillis();
+        long maxPhyOffset = this.commitLog.recover(this.storeCheckpoint.getPhysicOffset());
+        this.recoverConsumeQueue();
+        long minPhyOffset = this.commitLog.getMinOffset();
+        for (ConcurrentMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
+            for (ConsumeQueue logic : maps.values()) {
+                logic.truncateDirtyLogicFiles(maxPhyOffset);
+                logic.correctMinOffset(minPhyOffset);
+            }
+        }
+        System.out.println("recover message store OK, maxPhyOffset " + maxPhyOffset + ", cost "
+                + (System.currentTimeMillis() - beginTime) + "ms");
+        return maxPhyOffset;
+    }
+
+    public void start() {
+        this.commitLog.start();
+        //检查点之前的消息都已写入consume queue，之后的重新分发，已有的条目会被跳过
+        long reputFromOffset = Math.max(this.storeCheckpoint.getLogicsOffset(), this.commitLog.getMinOffset());
+        reputFromOffset = Math.min(reputFromOffset, this.commitLog.getMaxOffset());
+        this.reputMessageService.setReputFromOffset(reputFromOffset);
+        this.reputMessageService.start();
+        this.pullRequestHoldService.start();
+        this.flushConsumeQueueService.start();
+        this.cleanCommitLogService.start();
+        if (this.messageStoreConfig.isMetricsJmxEnable()) {
+            this.storeMetrics.register();
+        }
+    }
+
+    public void shutdown() {
+        this.storeMetrics.unregister();
+        this.cleanCommitLogService.shutdown();
+        this.coldReadExecutor.shutdown();
+        this.reputMessageService.shutdown();
+        this.pullRequestHoldService.shutdown();
+        this.flushConsumeQueueService.shutdown();
+        this.indexService.shutdown();
+        this.commitLog.shutdown();
+        for (ConcurrentMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
+            for (ConsumeQueue logic : maps.values()) {
+                logic.getMappedFileQueue().shutdown(1000 * 3);
+                if (logic.getConsumeQueueExt() != null) {
+                    logic.getConsumeQueueExt().getMappedFileQueue().shutdown(1000 * 3);
+                }
+            }
+        }
+        //commit log最后一次刷盘后再记录检查点，正常关闭后重启不需要再校验
+        this.storeCheckpoint.setPhysicOffset(this.commitLog.getFlushedWhere());
+        this.storeCheckpoint.shutdown();
+    }
+
+    public void destroy() {
+        for (ConcurrentMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
+            for (ConsumeQueue logic : maps.values()) {
+                logic.destroy();
+            }
+        }
+        this.indexService.destroy();
+        this.commitLog.getMappedFileQueue().destroy();
+        new File(StorePathConfigHelper.getStoreCheckpoint(this.messageStoreConfig.getStorePathRootDir())).delete();
+    }
+
+    private boolean loadConsumeQueue() {
+        File dirLogic = new File(StorePathConfigHelper.getStorePathConsumeQueue(
+                this.messageStoreConfig.getStorePathRootDir()));
+        File[] fileTopicList = dirLogic.listFiles();
+        if (fileTopicList == null) {
+            return true;
+        }
+        for (File fileTopic : fileTopicList) {
+            String topic = fileTopic.getName();
+            File[] fileQueueIdList = fileTopic.listFiles();
+            if (fileQueueIdList == null) {
+                continue;
+            }
+            for (File fileQueueId : fileQueueIdList) {
+                int queueId;
+                try {
+                    queueId = Integer.parseInt(fileQueueId.getName());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                ConsumeQueue logic = this.findConsumeQueue(topic, queueId);
+                if (!logic.load()) {
+                    return false;
+                }
+            }
+        }
+        System.out.println("load logics queue all over, OK");
+        return true;
+    }
+
+    private void recoverConsumeQueue() {
+        for (ConcurrentMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
+            for (ConsumeQueue logic : maps.values()) {
+                logic.recover();
+            }
+        }
+    }
+
+    public CompletableFuture<PutMessageResult> putMessage(final Message msg) {
+        if (msg.getTopic() == null) {
+            System.err.println("put message failed, topic is null");
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL));
+        }
+        CompletableFuture<PutMessageResult> future = this.commitLog.putMessage(msg);
+        this.reputMessageService.wakeup();
+        return future;
+    }
+
+    public ConsumeQueue findConsumeQueue(final String topic, final int queueId) {
+        ConcurrentMap<Integer, ConsumeQueue> map = this.consumeQueueTable.get(topic);
+        if (null == map) {
+            ConcurrentMap<Integer, ConsumeQueue> newMap = new ConcurrentHashMap<>(128);
+            ConcurrentMap<Integer, ConsumeQueue> oldMap = this.consumeQueueTable.putIfAbsent(topic, newMap);
+            map = oldMap != null ? oldMap : newMap;
+        }
+
+        ConsumeQueue logic = map.get(queueId);
+        if (null == logic) {
+            String rootDir = this.messageStoreConfig.getStorePathRootDir();
+            ConsumeQueue newLogic = new ConsumeQueue(topic, queueId,
+                    StorePathConfigHelper.getStorePathConsumeQueue(rootDir),
+                    this.messageStoreConfig.getMappedFileSizeConsumeQueue(),
+                    this.messageBloomFilter == null ? null : StorePathConfigHelper.getStorePathConsumeQueueExt(rootDir),
+                    this.messageBloomFilter == null ? 0 : this.messageBloomFilter.getBitMapByteLength());
+            ConsumeQueue oldLogic = map.putIfAbsent(queueId, newLogic);
+            logic = oldLogic != null ? oldLogic : newLogic;
+        }
+        return logic;
+    }
+
+    public long getMaxOffsetInQueue(final String topic, final int queueId) {
+        return this.findConsumeQueue(topic, queueId).getMaxOffsetInQueue();
+    }
+
+    public long getMinOffsetInQueue(final String topic, final int queueId) {
+        return this.findConsumeQueue(topic, queueId).getMinOffsetInQueue();
+    }
+
+    /**
+     * @return 逻辑偏移量对应的commit log偏移量，不存在返回-1
+     */
+    public long getCommitLogOffsetInQueue(final String topic, final int queueId, final long consumeQueueOffset) {
+        SelectMappedBufferResult bufferConsumeQueue =
+                this.findConsumeQueue(topic, queueId).getIndexBuffer(consumeQueueOffset);
+        if (bufferConsumeQueue == null) {
+            return -1;
+        }
+        try {
+            if (bufferConsumeQueue.getSize() < ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                return -1;
+            }
+            return bufferConsumeQueue.getByteBuffer().getLong();
+        } finally {
+            bufferConsumeQueue.release();
+        }
+    }
+
+    public MessageExt getMessage(final String topic, final int queueId, final long consumeQueueOffset) {
+        long offsetPy = this.getCommitLogOffsetInQueue(topic, queueId, consumeQueueOffset);
+        if (offsetPy < 0) {
+            return null;
+        }
+        return this.commitLog.getMessage(offsetPy);
+    }
+
+    /**
+     * 按consume queue批量拉取消息，结果持有commit log的mmap切片，用ManyMessageTransfer发送或用完后release
+     */
+    public GetMessageResult getMessage(final String topic, final int queueId, final long offset,
+                                       final int maxMsgNums, final int maxTotalMsgSize) {
+        return this.getMessage(topic, queueId, offset, maxMsgNums, maxTotalMsgSize, null);
+    }
+
+    /**
+     * 带订阅表达式的拉取。先用consume queue扩展文件里的位图跳过一定不匹配的消息，位图命中的再按commit log里的属性精确匹配，
+     * 最多扫描maxFilterMessageCount条，都不匹配时返回NO_MATCHED_MESSAGE，nextBeginOffset越过扫描过的消息。
+     *
+     * @param messageFilter 为null时不过滤
+     */
+    public GetMessageResult getMessage(final String topic, final int queueId, final long offset,
+                                       final int maxMsgNums, final int maxTotalMsgSize,
+                                       final ExpressionMessageFilter messageFilter) {
+        GetMessageResult getResult = new GetMessageResult();
+        ConsumeQueue consumeQueue = this.findConsumeQueue(topic, queueId);
+        long minOffset = consumeQueue.getMinOffsetInQueue();
+        long maxOffset = consumeQueue.getMaxOffsetInQueue();
+        getResult.setMinOffset(minOffset);
+        getResult.setMaxOffset(maxOffset);
+        getResult.setNextBeginOffset(offset);
+
+        if (maxOffset == 0) {
+            getResult.setStatus(GetMessageStatus.NO_MESSAGE_IN_QUEUE);
+            return getResult;
+        } else if (offset < minOffset) {
+            getResult.setStatus(GetMessageStatus.OFFSET_TOO_SMALL);
+            getResult.setNextBeginOffset(minOffset);
+            return getResult;
+        } else if (offset == maxOffset) {
+            getResult.setStatus(GetMessageStatus.OFFSET_OVERFLOW_ONE);
+            return getResult;
+        } else if (offset > maxOffset) {
+            getResult.setStatus(GetMessageStatus.OFFSET_OVERFLOW_BADLY);
+            getResult.setNextBeginOffset(maxOffset);
+            return getResult;
+        }
+
+        final boolean filter = messageFilter != null && !messageFilter.isSubAll();
+        final ConsumeQueueExt consumeQueueExt = filter ? consumeQueue.getConsumeQueueExt() : null;
+        int filterScanned = 0;
+        long nextBeginOffset = offset;
+        while (getResult.getMessageCount() < maxMsgNums && nextBeginOffset < maxOffset
+                && (!filter || filterScanned < this.messageStoreConfig.getMaxFilterMessageCount())) {
+            SelectMappedBufferResult bufferConsumeQueue = consumeQueue.getIndexBuffer(nextBeginOffset);
+            if (bufferConsumeQueue == null) {
+                break;
+            }
+            //扩展文件和consume queue文件对齐，这段位图和这段consume queue的条目一一对应
+            SelectMappedBufferResult bufferBitMap = consumeQueueExt == null ? null
+                    : consumeQueueExt.getBitMapBuffer(nextBeginOffset);
+            boolean doNext = true;
+            try {
+                ByteBuffer byteBuffer = bufferConsumeQueue.getByteBuffer();
+                for (int i = 0; i < bufferConsumeQueue.getSize() && getResult.getMessageCount() < maxMsgNums;
+                     i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                    long offsetPy = byteBuffer.getLong();
+                    int sizePy = byteBuffer.getInt();
+                    byteBuffer.getLong();
+
+                    if (filter) {
+                        if (filterScanned++ >= this.messageStoreConfig.getMaxFilterMessageCount()) {
+                            doNext = false;
+                            break;
+                        }
+                        int bitMapIndex = 0;
+                        ByteBuffer bitMap = null;
+                        if (bufferBitMap != null) {
+                            bitMapIndex = i / ConsumeQueue.CQ_STORE_UNIT_SIZE * consumeQueueExt.getUnitSize();
+                            if (bitMapIndex + consumeQueueExt.getUnitSize() <= bufferBitMap.getSize()) {
+                                bitMap = bufferBitMap.getByteBuffer();
+                            }
+                        }
+                        if (!messageFilter.isMatchedByConsumeQueue(bitMap, bitMapIndex)) {
+                            this.filterBitMapMissTimes.incrementAndGet();
+                            nextBeginOffset++;
+                            continue;
+                        }
+                    }
+                    if (getResult.getBufferTotalSize() + sizePy > maxTotalMsgSize
+                            && getResult.getMessageCount() > 0) {
+                        doNext = false;
+                        break;
+                    }
+                    SelectMappedBufferResult selectResult = this.commitLog.getMessage(offsetPy, sizePy);
+                    if (null == selectResult) {
+                        //commit log已被清理或正在删除
+                        doNext = getResult.getMessageCount() == 0;
+                        if (!doNext) {
+                            break;
+                        }
+                    } else if (filter && !this.isMatchedByCommitLog(messageFilter, selectResult)) {
+                        selectResult.release();
+                    } else {
+                        getResult.addMessage(selectResult);
+                    }
+                    nextBeginOffset++;
+                }
+            } finally {
+                bufferConsumeQueue.release();
+                if (bufferBitMap != null) {
+                    bufferBitMap.release();
+                }
+            }
+            if (!doNext) {
+                break;
+            }
+        }
+
+        getResult.setNextBeginOffset(nextBeginOffset);
+        if (getResult.getMessageCount() > 0) {
+            getResult.setStatus(GetMessageStatus.FOUND);
+        } else if (filter && nextBeginOffset > offset) {
+            getResult.setStatus(GetMessageStatus.NO_MATCHED_MESSAGE);
+        } else {
+            getResult.setStatus(GetMessageStatus.MESSAGE_WAS_REMOVING);
+        }
+        return getResult;
+    }
+
+    private boolean isMatchedByCommitLog(final ExpressionMessageFilter messageFilter,
+                                         final SelectMappedBufferResult selectResult) {
+        this.filterCommitLogReadTimes.incrementAndGet();
+        MessageExt msgExt = MessageDecoder.decode(selectResult.getByteBuffer().slice(), false, false);
+        return msgExt != null && messageFilter.isMatchedByCommitLog(msgExt.getProperties());
+    }
+
+    /**
+     * @return 开启consumeQueueExtEnable时按存储的布隆过滤器参数编译表达式，过滤时可以用位图
+     */
+    public ExpressionMessageFilter buildMessageFilter(final String expression) {
+        return new ExpressionMessageFilter(expression, this.messageBloomFilter);
+    }
+
+    /**
+     * 和getMessage一样，消息所在的页不在page cache中时在coldReadExecutor里预读后再返回，
+     * 调用方发送时不会再缺页。预读队列满了直接返回，由调用方自己承担缺页。
+     */
+    public CompletableFuture<GetMessageResult> getMessageAsync(final String topic, final int queueId,
+                                                               final long offset, final int maxMsgNums,
+                                                               final int maxTotalMsgSize) {
+        return this.getMessageAsync(topic, queueId, offset, maxMsgNums, maxTotalMsgSize, null);
+    }
+
+    public CompletableFuture<GetMessageResult> getMessageAsync(final String topic, final int queueId,
+                                                               final long offset, final int maxMsgNums,
+                                                               final int maxTotalMsgSize,
+                                                               final ExpressionMessageFilter messageFilter) {
+        final GetMessageResult getResult = this.getMessage(topic, queueId, offset, maxMsgNums, maxTotalMsgSize,
+                messageFilter);
+        if (getResult.getStatus() != GetMessageStatus.FOUND || !this.messageStoreConfig.isColdReadEnable()
+                || this.isHotRead(getResult)) {
+            this.hotReadTimes.incrementAndGet();
+            return CompletableFuture.completedFuture(getResult);
+        }
+        this.coldReadTimes.incrementAndGet();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                //预读只是优化，失败了也要把结果交给调用方，否则结果持有的文件引用不会被释放
+                try {
+                    for (SelectMappedBufferResult result : getResult.getMessageMappedList()) {
+                        MappedFile mappedFile = result.getMappedFile();
+                        if (mappedFile != null) {
+                            mappedFile.loadPages((int) (result.getStartOffset() - mappedFile.getFileFromOffset()),
+                                    result.getSize());
+                        }
+                    }
+                } catch (Throwable e) {
+                    System.err.println("load pages for cold read failed, " + topic + "-" + queueId + " " + e);
+                }
+                return getResult;
+            }, this.coldReadExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(getResult);
+        }
+    }
+
+    /**
+     * 长轮询拉取。有消息时和getMessageAsync一样返回；请求的偏移量已经是队列的最大偏移量时挂起，
+     * 新消息分发到这个队列后立即唤醒，到suspendTimeoutMillis还没有新消息就返回OFFSET_OVERFLOW_ONE
+     *
+     * @param suspendTimeoutMillis 小于等于0时不挂起
+     */
+    public CompletableFuture<GetMessageResult> pullMessage(final String topic, final int queueId,
+                                                           final long offset, final int maxMsgNums,
+                                                           final int maxTotalMsgSize,
+                                                           final long suspendTimeoutMillis) {
+        return this.pullMessage(topic, queueId, offset, maxMsgNums, maxTotalMsgSize, suspendTimeoutMillis, null);
+    }
+
+    /**
+     * @param messageFilter 为null时不过滤，只有一条都没扫描到时才挂起，扫描过但不匹配时返回NO_MATCHED_MESSAGE
+     */
+    public CompletableFuture<GetMessageResult> pullMessage(final String topic, final int queueId,
+                                                           final long offset, final int maxMsgNums,
+                                                           final int maxTotalMsgSize,
+                                                           final long suspendTimeoutMillis,
+                                                           final ExpressionMessageFilter messageFilter) {
+        return this.getMessageAsync(topic, queueId, offset, maxMsgNums, maxTotalMsgSize, messageFilter)
+                .thenCompose(getResult -> {
+                    GetMessageStatus status = getResult.getStatus();
+                    if (suspendTimeoutMillis <= 0 || !this.messageStoreConfig.isLongPollingEnable()
+                            || (status != GetMessageStatus.NO_MESSAGE_IN_QUEUE
+                            && status != GetMessageStatus.OFFSET_OVERFLOW_ONE)) {
+                        return CompletableFuture.completedFuture(getResult);
+                    }
+                    PullRequest pullRequest = new PullRequest(topic, queueId, offset, maxMsgNums, maxTotalMsgSize,
+                            suspendTimeoutMillis, messageFilter);
+                    this.pullRequestHoldService.suspendPullRequest(pullRequest);
+                    return pullRequest.future();
+                });
+    }
+
+    private boolean isHotRead(final GetMessageResult getResult) {
+        double minRatio = this.messageStoreConfig.getHotReadMinResidentPercent() / 100.0;
+        for (SelectMappedBufferResult result : getResult.getMessageMappedList()) {
+            MappedFile mappedFile = result.getMappedFile();
+            if (mappedFile == null) {
+                continue;
+            }
+            double ratio = mappedFile.residentRatio(
+                    (int) (result.getStartOffset() - mappedFile.getFileFromOffset()), result.getSize());
+            //查不到时按热数据处理
+            if (ratio >= 0 && ratio < minRatio) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return commit log每个文件在page cache中的百分比
+     */
+    public Map<String, Integer> getCommitLogResidentPercents() {
+        return this.commitLog.getResidentPercents();
+    }
+
+    public long getHotReadTimes() {
+        return hotReadTimes.get();
+    }
+
+    public long getColdReadTimes() {
+        return coldReadTimes.get();
+    }
+
+    public long getFilterBitMapMissTimes() {
+        return filterBitMapMissTimes.get();
+    }
+
+    public long getFilterCommitLogReadTimes() {
+        return filterCommitLogReadTimes.get();
+    }
+
+    /**
+     * @return 没有开启consumeQueueExtEnable时为null
+     */
+    public MessageBloomFilter getMessageBloomFilter() {
+        return messageBloomFilter;
+    }
+
+    /**
+     * 按key和存储时间范围查询消息，结果按索引从新到旧排列
+     */
+    public List<MessageExt> queryMessage(final String topic, final String key, final int maxNum,
+                                         final long begin, final long end) {
+        List<MessageExt> msgList = new ArrayList<>();
+        QueryOffsetResult queryOffsetResult = this.indexService.queryOffset(topic, key, maxNum, begin, end);
+        for (long offset : queryOffsetResult.getPhyOffsets()) {
+            MessageExt msgExt = this.commitLog.getMessage(offset);
+            //哈希冲突时需要再比较一次
+            if (msgExt != null && topic.equals(msgExt.getTopic()) && msgExt.getKeys() != null
+                    && Arrays.asList(msgExt.getKeys().split(MessageConst.KEY_SEPARATOR)).contains(key)) {
+                msgList.add(msgExt);
+            }
+        }
+        return msgList;
+    }
+
+    void doDispatch(final DispatchRequest req) {
+        for (CommitLogDispatcher dispatcher : this.dispatcherList) {
+            dispatcher.dispatch(req);
+        }
+    }
+
+    /**
+     * @return 需要重新分发的最小commit log偏移量，-1表示这批都已写入
+     */
+    long doDispatchBatchEnd() {
+        long redispatchOffset = -1;
+        for (CommitLogDispatcher dispatcher : this.dispatcherList) {
+            long offset = dispatcher.dispatchBatchEnd();
+            if (offset >= 0 && (redispatchOffset < 0 || offset < redispatchOffset)) {
+                redispatchOffset = offset;
+            }
+        }
+        return redispatchOffset;
+    }
+
+    public long getDispatchedOffset() {
+        return this.reputMessageService.getDispatchedOffset();
+    }
+
+    public long dispatchBehindBytes() {
+        return this.reputMessageService.behind();
+    }
+
+    public MessageStoreConfig getMessageStoreConfig() {
+        return messageStoreConfig;
+    }
+
+    public CommitLog getCommitLog() {
+        return commitLog;
+    }
+
+    public ConcurrentMap<String, ConcurrentMap<Integer, ConsumeQueue>> getConsumeQueueTable() {
+        return consumeQueueTable;
+    }
+
+    public IndexService getIndexService() {
+        return indexService;
+    }
+
+    public PullRequestHoldService getPullRequestHoldService() {
+        return pullRequestHoldService;
+    }
+
+    public CleanCommitLogService getCleanCommitLogService() {
+        return cleanCommitLogService;
+    }
+
+    public StoreMetrics getStoreMetrics() {
+        return storeMetrics;
+    }
+
+    public StoreCheckpoint getStoreCheckpoint() {
+        return storeCheckpoint;
+    }
+
+    public List<CommitLogDispatcher> getDispatcherList() {
+        return dispatcherList;
+    }
+
+    class CommitLogDispatcherBuildConsumeQueue implements CommitLogDispatcher {
+        //本批次写过的队列
+        private final Set<ConsumeQueue> dirtyQueues = new HashSet<>();
+
+        @Override
+        public void dispatch(DispatchRequest request) {
+            if (request.getTopic() == null) {
+                return;
+            }
+            ConsumeQueue cq = findConsumeQueue(request.getTopic(), request.getQueueId());
+            MessageBloomFilter bloomFilter = DefaultMessageStore.this.messageBloomFilter;
+            cq.putMessagePositionInfo(request.getCommitLogOffset(), request.getMsgSize(), request.getTagsCode(),
+                    bloomFilter == null ? null : bloomFilter.calcBitMap(request.getPropertiesMap()));
+            this.dirtyQueues.add(cq);
+        }
+
+        @Override
+        public long dispatchBatchEnd() {
+            long redispatchOffset = -1;
+            for (ConsumeQueue cq : this.dirtyQueues) {
+                if (!cq.commitPending()) {
+                    long offset = cq.getFailedPhysicOffset();
+                    if (redispatchOffset < 0 || offset < redispatchOffset) {
+                        redispatchOffset = offset;
+                    }
+                    cq.clearFailedPhysicOffset();
+                }
+                //提交后才能读到，这时再唤醒挂起的拉取请求
+                DefaultMessageStore.this.pullRequestHoldService.notifyMessageArriving(cq.getTopic(),
+                        cq.getQueueId(), cq.getMaxOffsetInQueue());
+            }
+            this.dirtyQueues.clear();
+            return redispatchOffset;
+        }
+    }
+
+    class CommitLogDispatcherBuildIndex implements CommitLogDispatcher {
+
+        @Override
+        public void dispatch(DispatchRequest request) {
+            if (DefaultMessageStore.this.messageStoreConfig.isMessageIndexEnable()) {
+                DefaultMessageStore.this.indexService.buildIndex(request);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.yumi.step2;
+
+import java.util.Map;
+
+public class DispatchRequest {
+    private final String topic;
+    private final int queueId;
+    private final long commitLogOffset;
+    private final int msgSize;
+    private final long tagsCode;
+    private final long storeTimestamp;
+    private final String keys;
+    private final boolean success;
+    private final boolean blank;
+    private final Map<String, String> propertiesMap;
+
+    public DispatchRequest(String topic, int queueId, long commitLogOffset, int msgSize, long tagsCode,
+                           long storeTimestamp, String keys, Map<String, String> propertiesMap) {
+        this.topic = topic;
+        this.queueId = queueId;
+        this.commitLogOffset = commitLogOffset;
+        this.msgSize = msgSize;
+        this.tagsCode = tagsCode;
+        this.storeTimestamp = storeTimestamp;
+        this.keys = keys;
+        this.success = true;
+        this.blank = false;
+        this.propertiesMap = propertiesMap;
+    }
+
+    public DispatchRequest(int size) {
+        this(size, false);
+    }
+
+    public DispatchRequest(int size, boolean success) {
+        this(size, success, false);
+    }
+
+    public DispatchRequest(int size, boolean success, boolean blank) {
+        this.topic = "";
+        this.queueId = 0;
+        this.commitLogOffset = 0;
+        this.msgSize = size;
+        this.tagsCode = 0;
+        this.storeTimestamp = 0;
+        this.keys = "";
+        this.success = success;
+        this.blank = blank;
+        this.propertiesMap = null;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getQueueId() {
+        return queueId;
+    }
+
+    public long getCommitLogOffset() {
+        return commitLogOffset;
+    }
+
+    public int getMsgSize() {
+        return msgSize;
+    }
+
+    public long getTagsCode() {
+        return tagsCode;
+    }
+
+    public long getStoreTimestamp() {
+        return storeTimestamp;
+    }
+
+    public String getKeys() {
+        return keys;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public boolean isBlank() {
+        return blank;
+    }
+
+    public Map<String, String> getPropertiesMap() {
+        return propertiesMap;
+    }
+}
@@ -0,0 +1,61 @@
+package com.yumi.step2;
+
+import com.yumi.step2.message.MessageDecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 调用方用MessageEncoder.encode编码好的一批消息。构造时校验并记录每条消息的相对位置，
+ * 写入时整块拷贝一次，再回填每条消息的storeTimestamp和physicalOffset。
+ */
+public class EncodedBufferAppendCallback implements AppendMessageCallback {
+    private final ByteBuffer encodedMessages;
+    private final int[] relativeOffsets;
+
+    public EncodedBufferAppendCallback(final ByteBuffer encodedMessages) {
+        int begin = encodedMessages.position();
+        int end = encodedMessages.limit();
+        int count = 0;
+        int pos = begin;
+        while (pos < end) {
+            if (pos + MessageDecoder.MSG_HEADER_LENGTH > end) {
+                throw new IllegalArgumentException("broken message header at " + (pos - begin));
+            }
+            int totalSize = encodedMessages.getInt(pos);
+            int magicCode = encodedMessages.getInt(pos + MessageDecoder.MAGIC_CODE_POSITION);
+            if (magicCode != MessageDecoder.MESSAGE_MAGIC_CODE_V1 || totalSize < MessageDecoder.MSG_HEADER_LENGTH
+                    || (long) pos + totalSize > end) {
+                throw new IllegalArgumentException("broken message at " + (pos - begin) + ", size " + totalSize);
+            }
+            pos += totalSize;
+            count++;
+        }
+
+        this.relativeOffsets = new int[count];
+        pos = begin;
+        for (int i = 0; i < count; i++) {
+            this.relativeOffsets[i] = pos - begin;
+            pos += encodedMessages.getInt(pos);
+        }
+        this.encodedMessages = encodedMessages;
+    }
+
+    @Override
+    public int getTotalSize() {
+        return this.encodedMessages.remaining();
+    }
+
+    @Override
+    public long[] doAppend(long wroteOffset, long storeTimestamp, ByteBuffer byteBuffer) {
+        int startPos = byteBuffer.position();
+        byteBuffer.put(this.encodedMessages.duplicate());
+        long[] msgOffsets = new long[this.relativeOffsets.length];
+        for (int i = 0; i < msgOffsets.length; i++) {
+            int msgPos = startPos + this.relativeOffsets[i];
+            msgOffsets[i] = wroteOffset + this.relativeOffsets[i];
+            byteBuffer.putLong(msgPos + MessageDecoder.STORE_TIMESTAMP_POSITION, storeTimestamp);
+            byteBuffer.putLong(msgPos + MessageDecoder.PHYSIC_OFFSET_POSITION, msgOffsets[i]);
+        }
+        return msgOffsets;
+    }
+}
@@ -0,0 +1,7 @@
+package com.yumi.step2;
+
+import com.yumi.utils.ServiceThread;
+
+public abstract class FlushCommitLogService extends ServiceThread {
+    protected static final int RETRY_TIMES_OVER = 10;
+}
@@ -0,0 +1,82 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.utils.ServiceThread;
+
+import java.util.concurrent.ConcurrentMap;
+
+public class FlushConsumeQueueService extends ServiceThread {
+    private static final int RETRY_TIMES_OVER = 3;
+    private final DefaultMessageStore messageStore;
+    private long lastFlushTimestamp = 0;
+
+    public FlushConsumeQueueService(DefaultMessageStore messageStore) {
+        this.messageStore = messageStore;
+    }
+
+    private void doFlush(int retryTimes) {
+        MessageStoreConfig messageStoreConfig = this.messageStore.getMessageStoreConfig();
+        int flushConsumeQueueLeastPages = messageStoreConfig.getFlushConsumeQueueLeastPages();
+
+        if (retryTimes == RETRY_TIMES_OVER) {
+            flushConsumeQueueLeastPages = 0;
+        }
+
+        int flushConsumeQueueThoroughInterval = messageStoreConfig.getFlushConsumeQueueThoroughInterval();
+        long currentTimeMillis = System.currentTimeMillis();
+        if (currentTimeMillis >= (this.lastFlushTimestamp + flushConsumeQueueThoroughInterval)) {
+            this.lastFlushTimestamp = currentTimeMillis;
+            flushConsumeQueueLeastPages = 0;
+        }
+
+        //先取分发位置再刷盘，保证检查点之前的条目都已落盘
+        long logicsOffset = this.messageStore.getDispatchedOffset();
+        for (ConcurrentMap<Integer, ConsumeQueue> maps : this.messageStore.getConsumeQueueTable().values()) {
+            for (ConsumeQueue cq : maps.values()) {
+                boolean result = false;
+                for (int i = 0; i < retryTimes && !result; i++) {
+                    result = cq.flush(flushConsumeQueueLeastPages);
+                }
+            }
+        }
+
+        StoreCheckpoint storeCheckpoint = this.messageStore.getStoreCheckpoint();
+        storeCheckpoint.setPhysicOffset(this.messageStore.getCommitLog().getFlushedWhere());
+        //只刷了部分页时consume queue可能还有没落盘的条目，索引也只在这时刷盘
+        if (0 == flushConsumeQueueLeastPages) {
+            this.messageStore.getIndexService().flush();
+            storeCheckpoint.setLogicsOffset(logicsOffset);
+        }
+        storeCheckpoint.flush();
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                int interval = this.messageStore.getMessageStoreConfig().getFlushIntervalConsumeQueue();
+                this.waitForRunning(interval);
+                this.doFlush(1);
+            } catch (Exception e) {
+                System.err.println(this.getServiceName() + " service has exception. ");
+                e.printStackTrace();
+            }
+        }
+
+        this.doFlush(RETRY_TIMES_OVER);
+
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    @Override
+    public String getServiceName() {
+        return FlushConsumeQueueService.class.getSimpleName();
+    }
+
+    @Override
+    public long getJointime() {
+        return 1000 * 60;
+    }
+}
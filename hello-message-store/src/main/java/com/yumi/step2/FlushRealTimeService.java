@@ -0,0 +1,69 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+
+/**
+ * 异步刷盘线程。按间隔刷盘，脏页不足flushCommitLogLeastPages时跳过，
+ * 超过thorough interval没有全量刷过则强制刷一次。
+ */
+public class FlushRealTimeService extends FlushCommitLogService {
+    private final MappedFileQueue mappedFileQueue;
+    private final MessageStoreConfig messageStoreConfig;
+    private long lastFlushTimestamp = 0;
+
+    public FlushRealTimeService(MappedFileQueue mappedFileQueue, MessageStoreConfig messageStoreConfig) {
+        this.mappedFileQueue = mappedFileQueue;
+        this.messageStoreConfig = messageStoreConfig;
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            boolean flushCommitLogTimed = messageStoreConfig.isFlushCommitLogTimed();
+            int interval = messageStoreConfig.getFlushIntervalCommitLog();
+            int flushPhysicQueueLeastPages = messageStoreConfig.getFlushCommitLogLeastPages();
+            int flushPhysicQueueThoroughInterval = messageStoreConfig.getFlushCommitLogThoroughInterval();
+
+            long currentTimeMillis = System.currentTimeMillis();
+            if (currentTimeMillis >= (this.lastFlushTimestamp + flushPhysicQueueThoroughInterval)) {
+                this.lastFlushTimestamp = currentTimeMillis;
+                flushPhysicQueueLeastPages = 0;
+            }
+
+            try {
+                if (flushCommitLogTimed) {
+                    Thread.sleep(interval);
+                } else {
+                    this.waitForRunning(interval);
+                }
+
+                this.mappedFileQueue.flush(flushPhysicQueueLeastPages);
+            } catch (Throwable e) {
+                System.err.println(this.getServiceName() + " service has exception. ");
+                e.printStackTrace();
+            }
+        }
+
+        // Normal shutdown, to ensure that all the flush before exit
+        boolean result = false;
+        for (int i = 0; i < RETRY_TIMES_OVER && !result; i++) {
+            result = this.mappedFileQueue.flush(0);
+            System.out.println(this.getServiceName() + " service shutdown, retry " + (i + 1) + " times "
+                    + (result ? "OK" : "Not OK"));
+        }
+
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    @Override
+    public String getServiceName() {
+        return FlushRealTimeService.class.getSimpleName();
+    }
+
+    @Override
+    public long getJointime() {
+        return 1000 * 60 * 5;
+    }
+}
@@ -0,0 +1,88 @@
+package com.yumi.step2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一次拉取的结果，持有若干个mmap切片(每个都hold了所在的文件)，用完必须release。
+ * 同一个文件内连续的消息放在同一个切片里。
+ */
+public class GetMessageResult {
+    private final List<SelectMappedBufferResult> messageMappedList = new ArrayList<>();
+    private GetMessageStatus status;
+    private long nextBeginOffset;
+    private long minOffset;
+    private long maxOffset;
+    private int bufferTotalSize = 0;
+    private int messageCount = 0;
+
+    public GetMessageResult() {
+    }
+
+    public void addMessage(final SelectMappedBufferResult mappedBuffer, final int msgNum) {
+        this.messageMappedList.add(mappedBuffer);
+        this.bufferTotalSize += mappedBuffer.getSize();
+        this.messageCount += msgNum;
+    }
+
+    public void addMessage(final SelectMappedBufferResult mappedBuffer) {
+        this.addMessage(mappedBuffer, 1);
+    }
+
+    public void release() {
+        for (SelectMappedBufferResult select : this.messageMappedList) {
+            select.release();
+        }
+    }
+
+    public List<SelectMappedBufferResult> getMessageMappedList() {
+        return messageMappedList;
+    }
+
+    public GetMessageStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(GetMessageStatus status) {
+        this.status = status;
+    }
+
+    public long getNextBeginOffset() {
+        return nextBeginOffset;
+    }
+
+    public void setNextBeginOffset(long nextBeginOffset) {
+        this.nextBeginOffset = nextBeginOffset;
+    }
+
+    public long getMinOffset() {
+        return minOffset;
+    }
+
+    public void setMinOffset(long minOffset) {
+        this.minOffset = minOffset;
+    }
+
+    public long getMaxOffset() {
+        return maxOffset;
+    }
+
+    public void setMaxOffset(long maxOffset) {
+        this.maxOffset = maxOffset;
+    }
+
+    public int getBufferTotalSize() {
+        return bufferTotalSize;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    @Override
+    public String toString() {
+        return "GetMessageResult [status=" + status + ", nextBeginOffset=" + nextBeginOffset + ", minOffset="
+                + minOffset + ", maxOffset=" + maxOffset + ", bufferTotalSize=" + bufferTotalSize
+                + ", messageCount=" + messageCount + "]";
+    }
+}
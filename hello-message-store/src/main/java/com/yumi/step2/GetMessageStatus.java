@@ -0,0 +1,22 @@
+package com.yumi.step2;
+
+public enum GetMessageStatus {
+
+    FOUND,
+
+    //队列里还没有消息
+    NO_MESSAGE_IN_QUEUE,
+
+    //请求的偏移量正好是最大偏移量，等待新消息
+    OFFSET_OVERFLOW_ONE,
+
+    OFFSET_OVERFLOW_BADLY,
+
+    //消息已经被清理
+    OFFSET_TOO_SMALL,
+
+    //文件正在被删除，hold失败
+    MESSAGE_WAS_REMOVING,
+    //带过滤的拉取扫描过的消息都不匹配，从nextBeginOffset接着拉
+    NO_MATCHED_MESSAGE,
+}
@@ -0,0 +1,137 @@
+package com.yumi.step2;
+
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 同步刷盘的组提交。生产者把请求放进写队列后唤醒本线程，本线程交换读写队列，
+ * 对一批请求只force一次，flushedWhere越过请求的偏移量后完成各自的future。
+ */
+public class GroupCommitService extends FlushCommitLogService {
+    private volatile LinkedList<GroupCommitRequest> requestsWrite = new LinkedList<>();
+    private volatile LinkedList<GroupCommitRequest> requestsRead = new LinkedList<>();
+    private final Object lock = new Object();
+    private final MappedFileQueue mappedFileQueue;
+
+    public GroupCommitService(MappedFileQueue mappedFileQueue) {
+        this.mappedFileQueue = mappedFileQueue;
+    }
+
+    public void putRequest(final GroupCommitRequest request) {
+        synchronized (this.lock) {
+            this.requestsWrite.add(request);
+        }
+        this.wakeup();
+    }
+
+    private void swapRequests() {
+        synchronized (this.lock) {
+            LinkedList<GroupCommitRequest> tmp = this.requestsWrite;
+            this.requestsWrite = this.requestsRead;
+            this.requestsRead = tmp;
+        }
+    }
+
+    private void doCommit() {
+        if (this.requestsRead.isEmpty()) {
+            return;
+        }
+
+        long maxNextOffset = 0;
+        for (GroupCommitRequest req : this.requestsRead) {
+            maxNextOffset = Math.max(maxNextOffset, req.getNextOffset());
+        }
+
+        //一批请求可能跨两个文件，最多刷两次
+        for (int i = 0; i < 2 && this.mappedFileQueue.getFlushedWhere() < maxNextOffset; i++) {
+            this.mappedFileQueue.flush(0);
+        }
+
+        long flushedWhere = this.mappedFileQueue.getFlushedWhere();
+        long now = System.currentTimeMillis();
+        for (GroupCommitRequest req : this.requestsRead) {
+            if (flushedWhere >= req.getNextOffset()) {
+                req.wakeupCustomer(PutMessageStatus.PUT_OK);
+            } else if (now >= req.getDeadLine()) {
+                req.wakeupCustomer(PutMessageStatus.FLUSH_DISK_TIMEOUT);
+            } else {
+                //没刷到也没超时，放回下一批
+                synchronized (this.lock) {
+                    this.requestsWrite.add(req);
+                }
+            }
+        }
+
+        this.requestsRead = new LinkedList<>();
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                this.waitForRunning(10);
+                this.doCommit();
+            } catch (Exception e) {
+                System.err.println(this.getServiceName() + " service has exception. ");
+                e.printStackTrace();
+            }
+        }
+
+        // Under normal circumstances shutdown, wait for the arrival of the
+        // request, and then flush
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            //ignore
+        }
+
+        this.swapRequests();
+        this.doCommit();
+
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    @Override
+    protected void onWaitEnd() {
+        this.swapRequests();
+    }
+
+    @Override
+    public String getServiceName() {
+        return GroupCommitService.class.getSimpleName();
+    }
+
+    @Override
+    public long getJointime() {
+        return 1000 * 60 * 5;
+    }
+
+    public static class GroupCommitRequest {
+        private final long nextOffset;
+        private final CompletableFuture<PutMessageStatus> flushOKFuture = new CompletableFuture<>();
+        private final long deadLine;
+
+        public GroupCommitRequest(long nextOffset, long timeoutMillis) {
+            this.nextOffset = nextOffset;
+            this.deadLine = System.currentTimeMillis() + timeoutMillis;
+        }
+
+        public long getNextOffset() {
+            return nextOffset;
+        }
+
+        public long getDeadLine() {
+            return deadLine;
+        }
+
+        public void wakeupCustomer(final PutMessageStatus putMessageStatus) {
+            this.flushOKFuture.complete(putMessageStatus);
+        }
+
+        public CompletableFuture<PutMessageStatus> future() {
+            return flushOKFuture;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.util.LibC;
+import com.yumi.utils.ServiceThread;
+import com.yumi.utils.system.StoreUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 管理commit log文件的mlock和madvise。
+ * 锁定的总大小不超过物理内存的maxLockedMemoryPercent，超出时按LRU先munlock最早锁定的文件。
+ * 正在写的文件MADV_SEQUENTIAL + MADV_WILLNEED，写满后保留MADV_SEQUENTIAL，
+ * 所有消费者都读过的文件munlock并MADV_DONTNEED，把page cache让给还没读的数据。
+ */
+public class LockedMemoryManager extends ServiceThread {
+    private final MessageStoreConfig messageStoreConfig;
+    private final MappedFileQueue mappedFileQueue;
+    private final long budget;
+    //accessOrder，最久没用过的在最前面
+    private final LinkedHashMap<MappedFile, Long> lockedFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long lockedBytes = 0;
+    private volatile LongSupplier consumedOffsetSupplier;
+    private MappedFile activeFile;
+    //这个偏移量之前的文件都已经DONTNEED过
+    private long droppedOffset = 0;
+    private volatile long lockFailedTimes = 0;
+    private volatile long evictedTimes = 0;
+
+    public LockedMemoryManager(final MessageStoreConfig messageStoreConfig, final MappedFileQueue mappedFileQueue) {
+        this(messageStoreConfig, mappedFileQueue,
+                StoreUtil.TOTAL_PHYSICAL_MEMORY_SIZE / 100 * messageStoreConfig.getMaxLockedMemoryPercent());
+    }
+
+    /**
+     * @param budget 最多锁定的字节数
+     */
+    public LockedMemoryManager(final MessageStoreConfig messageStoreConfig, final MappedFileQueue mappedFileQueue,
+                               final long budget) {
+        this.messageStoreConfig = messageStoreConfig;
+        this.mappedFileQueue = mappedFileQueue;
+        this.budget = budget;
+    }
+
+    /**
+     * 在预算内锁住文件，放不下时先munlock最久没用过的文件
+     *
+     * @return 文件最终是否被锁住
+     */
+    public synchronized boolean lock(final MappedFile mappedFile) {
+        if (this.lockedFiles.get(mappedFile) != null) {
+            return true;
+        }
+        long size = mappedFile.getFileSize();
+        if (size > this.budget) {
+            this.lockFailedTimes++;
+            return false;
+        }
+        this.removeUnavailable();
+        Iterator<Map.Entry<MappedFile, Long>> it = this.lockedFiles.entrySet().iterator();
+        while (this.lockedBytes + size > this.budget && it.hasNext()) {
+            Map.Entry<MappedFile, Long> eldest = it.next();
+            it.remove();
+            this.doUnlock(eldest.getKey(), eldest.getValue());
+            this.evictedTimes++;
+        }
+
+        if (!mappedFile.hold()) {
+            return false;
+        }
+        try {
+            if (!mappedFile.mlock()) {
+                this.lockFailedTimes++;
+                return false;
+            }
+        } finally {
+            mappedFile.release();
+        }
+        this.lockedFiles.put(mappedFile, size);
+        this.lockedBytes += size;
+        return true;
+    }
+
+    public synchronized void unlock(final MappedFile mappedFile) {
+        Long size = this.lockedFiles.remove(mappedFile);
+        if (size != null) {
+            this.doUnlock(mappedFile, size);
+        }
+    }
+
+    public synchronized void unlockAll() {
+        for (Map.Entry<MappedFile, Long> entry : this.lockedFiles.entrySet()) {
+            this.doUnlock(entry.getKey(), entry.getValue());
+        }
+        this.lockedFiles.clear();
+    }
+
+    private void doUnlock(final MappedFile mappedFile, final long size) {
+        this.lockedBytes -= size;
+        if (mappedFile.hold()) {
+            try {
+                mappedFile.munlock();
+            } finally {
+                mappedFile.release();
+            }
+        }
+    }
+
+    /**
+     * 已删除的文件munmap时内核已经解锁，只需要去掉记账
+     */
+    private void removeUnavailable() {
+        Iterator<Map.Entry<MappedFile, Long>> it = this.lockedFiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<MappedFile, Long> entry = it.next();
+            if (!entry.getKey().isAvailable()) {
+                it.remove();
+                this.lockedBytes -= entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * 每轮检查一次当前写的文件和消费进度，调整madvise
+     */
+    public void adviseSegments() {
+        List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        if (mappedFiles.isEmpty()) {
+            return;
+        }
+
+        MappedFile lastFile = this.mappedFileQueue.getLastMappedFile();
+        if (lastFile != null && lastFile != this.activeFile) {
+            lastFile.madvise(LibC.MADV_SEQUENTIAL);
+            lastFile.madvise(LibC.MADV_WILLNEED);
+            this.activeFile = lastFile;
+        }
+
+        LongSupplier supplier = this.consumedOffsetSupplier;
+        if (supplier == null) {
+            return;
+        }
+        long consumedOffset = supplier.getAsLong();
+        for (MappedFile mappedFile : mappedFiles) {
+            long fileTailOffset = mappedFile.getFileFromOffset() + mappedFile.getFileSize();
+            if (fileTailOffset > consumedOffset || mappedFile == lastFile) {
+                break;
+            }
+            if (fileTailOffset <= this.droppedOffset) {
+                continue;
+            }
+            this.unlock(mappedFile);
+            mappedFile.madvise(LibC.MADV_DONTNEED);
+            this.droppedOffset = fileTailOffset;
+        }
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started, budget " + this.budget);
+
+        while (!this.isStopped()) {
+            try {
+                this.waitForRunning(this.messageStoreConfig.getMemoryAdviseInterval());
+                this.adviseSegments();
+            } catch (Exception e) {
+                System.err.println(this.getServiceName() + " service has exception. ");
+                e.printStackTrace();
+            }
+        }
+
+        this.unlockAll();
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    /**
+     * @param consumedOffsetSupplier 所有消费者都已经读过的最小commit log偏移量，没设置时不做DONTNEED
+     */
+    public void setConsumedOffsetSupplier(LongSupplier consumedOffsetSupplier) {
+        this.consumedOffsetSupplier = consumedOffsetSupplier;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getLockedBytes() {
+        this.removeUnavailable();
+        return lockedBytes;
+    }
+
+    public synchronized int getLockedFileNums() {
+        this.removeUnavailable();
+        return this.lockedFiles.size();
+    }
+
+    public synchronized boolean isLocked(final MappedFile mappedFile) {
+        return this.lockedFiles.containsKey(mappedFile);
+    }
+
+    public long getLockFailedTimes() {
+        return lockFailedTimes;
+    }
+
+    public long getEvictedTimes() {
+        return evictedTimes;
+    }
+
+    @Override
+    public String getServiceName() {
+        return LockedMemoryManager.class.getSimpleName();
+    }
+}
@@ -1,18 +1,31 @@
 package com.yumi.step2;
 
-import com.yumi.step2.config.FlushDiskType;
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageExt;
+
+import java.nio.file.Files;
 
 public class Main {
     public static void main(String[] args) throws Exception{
-        MappedFile mappedFile = new MappedFile("/Users/mipengcheng3/works/log/00000000000000000000", 1073741824);
-        mappedFile.warmMappedFile(FlushDiskType.ASYNC_FLUSH, 10);
+        String storePath = Files.createTempDirectory("log").toString();
+        MappedFileQueue mappedFileQueue = new MappedFileQueue(storePath, 1024 * 1024);
+        mappedFileQueue.load();
+
+        long offset1 = mappedFileQueue.appendMsg("1hello world1");
+        long offset2 = mappedFileQueue.appendMsg("2hello world2");
+        long offset3 = mappedFileQueue.appendMsg("2hello world3");
+        while (!mappedFileQueue.commit(0)) {
+            //commit一次只处理一个文件
+        }
+        mappedFileQueue.flush(0);
 
-        mappedFile.appendMsg("1hello world1");
-        mappedFile.appendMsg("2hello world2");
-        mappedFile.appendMsg("2hello world3");
-        mappedFile.commit(0);
-        mappedFile.flush(0);
+        SelectMappedBufferResult result = mappedFileQueue.selectMappedBuffer(offset2);
+        if (result != null) {
+            MessageExt msgExt = MessageDecoder.decode(result.getByteBuffer(), true, true);
+            System.out.println(offset1 + ", " + offset2 + ", " + offset3 + " -> " + new String(msgExt.getBody()));
+            result.release();
+        }
 
-        mappedFile.munlock();
+        mappedFileQueue.destroy();
     }
 }
@@ -0,0 +1,195 @@
+package com.yumi.step2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把一次拉取的消息连同响应头写入channel，消息字节不经过堆内存，参考RocketMQ的ManyMessageTransfer。
+ * 响应头：
+ * <pre>
+ * STATUS            4  GetMessageStatus.ordinal()
+ * MSG_COUNT         4
+ * NEXT_BEGIN_OFFSET 8
+ * BODY_LENGTH       4  后面跟着的消息总字节数，消息格式见MessageDecoder
+ * </pre>
+ * 默认把mmap切片直接写给channel(GatheringByteChannel时一次writev)；useFileChannel为true时，
+ * 同一文件内连续的区间用FileChannel.transferTo(sendfile)发送。
+ * 非阻塞channel写不动时返回，可写时再次调用；全部写完或close时释放文件引用。
+ */
+public class ManyMessageTransfer implements Closeable {
+    public static final int HEADER_LENGTH = 4 + 4 + 8 + 4;
+
+    private final GetMessageResult getMessageResult;
+    private final boolean useFileChannel;
+    private final ByteBuffer[] buffers;
+    private final List<FileSpan> spans;
+    private final long totalSize;
+    private int bufferIndex = 0;
+    private int spanIndex = 0;
+    private long transferred = 0;
+    private boolean released = false;
+
+    public ManyMessageTransfer(final GetMessageResult getMessageResult, final boolean useFileChannel) {
+        this.getMessageResult = getMessageResult;
+        this.useFileChannel = useFileChannel;
+
+        ByteBuffer byteBufferHeader = ByteBuffer.allocate(HEADER_LENGTH);
+        byteBufferHeader.putInt(getMessageResult.getStatus().ordinal());
+        byteBufferHeader.putInt(getMessageResult.getMessageCount());
+        byteBufferHeader.putLong(getMessageResult.getNextBeginOffset());
+        byteBufferHeader.putInt(getMessageResult.getBufferTotalSize());
+        byteBufferHeader.flip();
+
+        List<SelectMappedBufferResult> mappedList = getMessageResult.getMessageMappedList();
+        if (useFileChannel) {
+            this.buffers = new ByteBuffer[]{byteBufferHeader};
+            this.spans = mergeSpans(mappedList);
+        } else {
+            this.buffers = new ByteBuffer[mappedList.size() + 1];
+            this.buffers[0] = byteBufferHeader;
+            for (int i = 0; i < mappedList.size(); i++) {
+                //不改变SelectMappedBufferResult自己的position
+                this.buffers[i + 1] = mappedList.get(i).getByteBuffer().duplicate();
+            }
+            this.spans = null;
+        }
+        this.totalSize = HEADER_LENGTH + getMessageResult.getBufferTotalSize();
+    }
+
+    /**
+     * 同一个文件内首尾相接的切片合并成一个区间，从二级存储读到的堆内存切片直接写
+     */
+    private static List<FileSpan> mergeSpans(final List<SelectMappedBufferResult> mappedList) {
+        List<FileSpan> spans = new ArrayList<>(mappedList.size());
+        FileSpan last = null;
+        for (SelectMappedBufferResult select : mappedList) {
+            MappedFile mappedFile = select.getMappedFile();
+            if (mappedFile == null) {
+                last = null;
+                spans.add(new FileSpan(select.getByteBuffer().duplicate()));
+                continue;
+            }
+            long position = select.getStartOffset() - mappedFile.getFileFromOffset();
+            if (last != null && last.mappedFile == mappedFile && last.position + last.count == position) {
+                last.count += select.getSize();
+            } else {
+                last = new FileSpan(mappedFile, position, select.getSize());
+                spans.add(last);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * @return 本次写入的字节数
+     */
+    public long transferTo(final WritableByteChannel target) throws IOException {
+        long written = 0;
+        try {
+            while (this.bufferIndex < this.buffers.length) {
+                long n;
+                if (target instanceof GatheringByteChannel) {
+                    n = ((GatheringByteChannel) target).write(this.buffers, this.bufferIndex,
+                            this.buffers.length - this.bufferIndex);
+                } else {
+                    n = target.write(this.buffers[this.bufferIndex]);
+                }
+                while (this.bufferIndex < this.buffers.length && !this.buffers[this.bufferIndex].hasRemaining()) {
+                    this.bufferIndex++;
+                }
+                if (n <= 0) {
+                    return written;
+                }
+                written += n;
+                this.transferred += n;
+            }
+
+            while (this.spans != null && this.spanIndex < this.spans.size()) {
+                FileSpan span = this.spans.get(this.spanIndex);
+                long n;
+                if (span.buffer != null) {
+                    n = target.write(span.buffer);
+                } else {
+                    FileChannel fileChannel = span.mappedFile.getFileChannel();
+                    n = fileChannel.transferTo(span.position + span.transferred, span.count - span.transferred,
+                            target);
+                }
+                if (n <= 0) {
+                    return written;
+                }
+                span.transferred += n;
+                if (span.transferred == span.count) {
+                    this.spanIndex++;
+                }
+                written += n;
+                this.transferred += n;
+            }
+            return written;
+        } finally {
+            if (this.isComplete()) {
+                this.close();
+            }
+        }
+    }
+
+    /**
+     * 阻塞channel上一次写完
+     */
+    public void transferFully(final WritableByteChannel target) throws IOException {
+        while (!this.isComplete()) {
+            this.transferTo(target);
+        }
+    }
+
+    public boolean isComplete() {
+        return this.transferred >= this.totalSize;
+    }
+
+    public long transferred() {
+        return transferred;
+    }
+
+    public long count() {
+        return totalSize;
+    }
+
+    public boolean isUseFileChannel() {
+        return useFileChannel;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!this.released) {
+            this.released = true;
+            this.getMessageResult.release();
+        }
+    }
+
+    private static class FileSpan {
+        private final MappedFile mappedFile;
+        private final ByteBuffer buffer;
+        private final long position;
+        private long count;
+        private long transferred = 0;
+
+        FileSpan(MappedFile mappedFile, long position, long count) {
+            this.mappedFile = mappedFile;
+            this.buffer = null;
+            this.position = position;
+            this.count = count;
+        }
+
+        FileSpan(ByteBuffer buffer) {
+            this.mappedFile = null;
+            this.buffer = buffer;
+            this.position = 0;
+            this.count = buffer.remaining();
+        }
+    }
+}
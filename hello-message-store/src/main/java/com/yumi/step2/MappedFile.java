@@ -3,30 +3,36 @@ package com.yumi.step2;
 import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
 import com.yumi.step2.config.FlushDiskType;
+import com.yumi.step2.config.FlushMode;
+import com.yumi.step2.message.MessageEncoder;
 import com.yumi.step2.util.LibC;
-import sun.nio.ch.DirectBuffer;
+import com.yumi.step2.util.MmapBackend;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.security.AccessController;
-import java.security.PrivilegedAction;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class MappedFile extends ReferenceResource {
     public static final int OS_PAGE_SIZE = 1024 * 4;
     private static final int END_FILE_MIN_BLANK_LENGTH = 4 + 4;
+    public static final int BLANK_MAGIC_CODE = -875286124;
     private static final AtomicLong TOTAL_MAPPED_VIRTUAL_MEMORY = new AtomicLong(0);
     private static final AtomicInteger TOTAL_MAPPED_FILES = new AtomicInteger(0);
+    private static final MmapBackend MMAP_BACKEND = MmapBackend.INSTANCE;
     protected final AtomicInteger wrotePosition = new AtomicInteger(0);
+    //无锁追加时预留到的位置，总是>=wrotePosition
+    protected final AtomicInteger reservedPosition = new AtomicInteger(0);
     protected final AtomicInteger committedPosition = new AtomicInteger(0);
     private final AtomicInteger flushedPosition = new AtomicInteger(0);
+    //RANGE_MS_ASYNC已经提交写回的位置，数据不一定落盘，不算进flushedPosition
+    private final AtomicInteger asyncFlushedPosition = new AtomicInteger(0);
     protected int fileSize;
     protected FileChannel fileChannel;
     protected ByteBuffer writeBuffer = null;
@@ -36,18 +42,41 @@ public class MappedFile extends ReferenceResource {
     private MappedByteBuffer mappedByteBuffer;
     private volatile long storeTimestamp = 0;
     private boolean firstCreateInQueue = false;
+    protected TransientStorePool transientStorePool = null;
+    //loadPages读到的值写到这里，避免读操作被优化掉
+    private volatile byte touchSum;
 
     public MappedFile() {
     }
 
+    public static long getTotalMappedVirtualMemory() {
+        return TOTAL_MAPPED_VIRTUAL_MEMORY.get();
+    }
+
+    public static int getTotalMappedFiles() {
+        return TOTAL_MAPPED_FILES.get();
+    }
+
     public MappedFile(final String fileName, final int fileSize) throws IOException {
         init(fileName, fileSize);
     }
 
-    private void init(final String fileName, final int fileSize) throws IOException {
-        // TODO: 2023/12/14 改为池
-        this.writeBuffer = ByteBuffer.allocateDirect(fileSize);
+    public MappedFile(final String fileName, final int fileSize,
+                      final TransientStorePool transientStorePool) throws IOException {
+        init(fileName, fileSize, transientStorePool);
+    }
+
+    private void init(final String fileName, final int fileSize,
+                      final TransientStorePool transientStorePool) throws IOException {
+        init(fileName, fileSize);
+        //池子耗尽时writeBuffer为null，直接写mmap
+        this.writeBuffer = transientStorePool.borrowBuffer();
+        if (this.writeBuffer != null) {
+            this.transientStorePool = transientStorePool;
+        }
+    }
 
+    private void init(final String fileName, final int fileSize) throws IOException {
         this.fileName = fileName;
         this.fileSize = fileSize;
         this.file = new File(fileName);
@@ -99,82 +128,183 @@ public class MappedFile extends ReferenceResource {
         return fileChannel;
     }
 
+    public long getFileFromOffset() {
+        return this.fileFromOffset;
+    }
+
     public boolean appendMsg(String msg) {
-        int currentPos = this.wrotePosition.get();
-        if (currentPos < this.fileSize) {
-            ByteBuffer byteBuffer = writeBuffer != null ? writeBuffer.slice() : this.mappedByteBuffer.slice();
-            byteBuffer.position(currentPos);
-            int maxBlank = this.fileSize - currentPos;
-            byte[] msgBytes = msg.getBytes();
-            //4为整数类型长度
-            if ((4 + msgBytes.length + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
-                ByteBuffer bf = ByteBuffer.allocate(maxBlank);
-                bf.putInt(maxBlank);
-                bf.putInt(-875286124);//空
-                bf.flip();
-                bf.limit(maxBlank);
-                byteBuffer.put(bf.array(), 0, maxBlank);
-                this.wrotePosition.addAndGet(maxBlank);
-                this.storeTimestamp = System.currentTimeMillis();
-                return false;
-            } else {
-                byteBuffer.putInt(msgBytes.length);
-                byteBuffer.put(msgBytes, 0, msgBytes.length);
-                this.wrotePosition.addAndGet(4 + msgBytes.length);
-                this.storeTimestamp = System.currentTimeMillis();
-                return true;
-            }
-        }
-        return false;
+        return this.appendMessage(msg.getBytes()).isOk();
     }
 
-    public boolean appendMsg(final byte[] data) {
+    public AppendMessageResult appendMessage(final byte[] msgBytes) {
+        return this.appendMessage(MessageEncoder.get().prepare(msgBytes));
+    }
+
+    public AppendMessageResult appendMessages(final List<byte[]> msgs) {
+        return this.appendMessage(new ByteArrayAppendCallback(msgs));
+    }
+
+    public AppendMessageResult appendMessages(final ByteBuffer encodedMessages) {
+        return this.appendMessage(new EncodedBufferAppendCallback(encodedMessages));
+    }
+
+    /**
+     * 单写者追加，并发写入需要调用方加锁。一批消息要么整体写入当前文件，
+     * 要么当前文件剩余空间整体填充空白返回END_OF_FILE，wrotePosition只推进一次。
+     */
+    public AppendMessageResult appendMessage(final AppendMessageCallback cb) {
         int currentPos = this.wrotePosition.get();
+        if (currentPos >= this.fileSize) {
+            return new AppendMessageResult(AppendMessageStatus.END_OF_FILE);
+        }
+        int totalSize = cb.getTotalSize();
+        if (totalSize + END_FILE_MIN_BLANK_LENGTH > this.fileSize) {
+            return new AppendMessageResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED);
+        }
 
-        if ((currentPos + data.length) <= this.fileSize) {
+        ByteBuffer byteBuffer = writeBuffer != null ? writeBuffer.slice() : this.mappedByteBuffer.slice();
+        byteBuffer.position(currentPos);
+        int maxBlank = this.fileSize - currentPos;
+        if ((totalSize + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
+            byteBuffer.putInt(maxBlank);
+            byteBuffer.putInt(BLANK_MAGIC_CODE);
+            this.wrotePosition.addAndGet(maxBlank);
+            this.storeTimestamp = System.currentTimeMillis();
+            return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, this.fileFromOffset + currentPos,
+                    maxBlank, this.storeTimestamp);
+        }
+
+        long storeTimestamp = System.currentTimeMillis();
+        long wroteOffset = this.fileFromOffset + currentPos;
+        long[] msgOffsets = cb.doAppend(wroteOffset, storeTimestamp, byteBuffer);
+        this.wrotePosition.addAndGet(totalSize);
+        this.storeTimestamp = storeTimestamp;
+        return new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, totalSize, storeTimestamp,
+                msgOffsets);
+    }
+
+    /**
+     * 无锁追加：先用CAS在reservedPosition上预留[pos, pos + totalSize)，在预留的位置写入，
+     * 然后按预留顺序发布wrotePosition，保证wrotePosition之前的数据都已写完，commit/读不会读到空洞。
+     * 同一个文件上不能和appendMessage混用。
+     * doAppend抛异常时预留的区间写成空白记录再发布，否则后面的写入者会一直等待，读的时候跳过这段空洞。
+     */
+    public AppendMessageResult appendMessageConcurrently(final AppendMessageCallback cb) {
+        int totalSize = cb.getTotalSize();
+        if (totalSize + END_FILE_MIN_BLANK_LENGTH > this.fileSize) {
+            return new AppendMessageResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED);
+        }
+        ByteBuffer target = writeBuffer != null ? writeBuffer : this.mappedByteBuffer;
+        for (;;) {
+            int currentPos = this.reservedPosition.get();
+            if (currentPos >= this.fileSize) {
+                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE);
+            }
+            int maxBlank = this.fileSize - currentPos;
+            if ((totalSize + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
+                if (!this.reservedPosition.compareAndSet(currentPos, this.fileSize)) {
+                    continue;
+                }
+                target.putInt(currentPos, maxBlank);
+                target.putInt(currentPos + 4, BLANK_MAGIC_CODE);
+                this.publishWrotePosition(currentPos, this.fileSize, System.currentTimeMillis());
+                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, this.fileFromOffset + currentPos,
+                        maxBlank, this.storeTimestamp);
+            }
+            if (!this.reservedPosition.compareAndSet(currentPos, currentPos + totalSize)) {
+                continue;
+            }
+            //不修改共享buffer的position
+            ByteBuffer byteBuffer = target.duplicate();
+            byteBuffer.position(currentPos);
+            long storeTimestamp = System.currentTimeMillis();
+            long wroteOffset = this.fileFromOffset + currentPos;
+            long[] msgOffsets;
+            boolean appended = false;
             try {
-                this.fileChannel.position(currentPos);
-                this.fileChannel.write(ByteBuffer.wrap(data));
-            } catch (Throwable e) {
-                //
+                msgOffsets = cb.doAppend(wroteOffset, storeTimestamp, byteBuffer);
+                appended = true;
+            } finally {
+                if (!appended) {
+                    target.putInt(currentPos, totalSize);
+                    target.putInt(currentPos + 4, BLANK_MAGIC_CODE);
+                }
+                this.publishWrotePosition(currentPos, currentPos + totalSize, storeTimestamp);
             }
-            this.wrotePosition.addAndGet(data.length);
-            return true;
+            return new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, totalSize, storeTimestamp,
+                    msgOffsets);
         }
-        return false;
     }
 
+    private void publishWrotePosition(int from, int to, long storeTimestamp) {
+        //等待前面预留的写入者发布
+        while (this.wrotePosition.get() != from) {
+            Thread.yield();
+        }
+        this.storeTimestamp = storeTimestamp;
+        this.wrotePosition.set(to);
+    }
+
+    public boolean appendMsg(final byte[] data) {
+        return this.appendMsg(data, 0, data.length);
+    }
+
+    /**
+     * 写缓冲模式下commit会用writeBuffer覆盖[committedPosition, wrotePosition)，所以也写进writeBuffer
+     */
     public boolean appendMsg(final byte[] data, int offset, int length) {
         int currentPos = this.wrotePosition.get();
 
         if ((currentPos + length) <= this.fileSize) {
             try {
-                this.fileChannel.position(currentPos);
-                this.fileChannel.write(ByteBuffer.wrap(data, offset, length));
+                ByteBuffer byteBuffer = this.writeBuffer;
+                if (byteBuffer != null) {
+                    byteBuffer = byteBuffer.slice();
+                    byteBuffer.position(currentPos);
+                    byteBuffer.put(data, offset, length);
+                } else {
+                    this.fileChannel.position(currentPos);
+                    this.fileChannel.write(ByteBuffer.wrap(data, offset, length));
+                }
             } catch (Throwable e) {
                 //
             }
-            this.wrotePosition.addAndGet(data.length);
+            this.wrotePosition.addAndGet(length);
             return true;
         }
         return false;
     }
 
     public int flush(final int flushLeastPages) {
+        return this.flush(flushLeastPages, FlushMode.FORCE);
+    }
+
+    /**
+     * RANGE_MS_ASYNC只在按页数刷盘时提交写回，flushedPosition不动，不能用来确认同步刷盘和写检查点；
+     * 全量刷盘(flushLeastPages为0)或者文件写满时用MS_SYNC等待写回完成，再推进flushedPosition
+     *
+     * @return flushedPosition，之前的数据已经落盘
+     */
+    public int flush(final int flushLeastPages, final FlushMode flushMode) {
         if (this.isAbleToFlush(flushLeastPages)) {
             if (this.hold()) {
                 int value = getReadPosition();
-                try {
-                    if (writeBuffer != null && fileChannel.position() != 0) {
-                        fileChannel.force(false);
-                    } else {
-                        mappedByteBuffer.force();
+                int from = Math.max(this.flushedPosition.get(), this.asyncFlushedPosition.get());
+                if (flushMode == FlushMode.RANGE_MS_ASYNC && flushLeastPages > 0 && !this.isFull()
+                        && this.msync(from, value, LibC.MS_ASYNC)) {
+                    this.asyncFlushedPosition.set(value);
+                } else {
+                    try {
+                        if (flushMode == FlushMode.FORCE || !this.msync(this.flushedPosition.get(), value,
+                                LibC.MS_SYNC)) {
+                            this.force();
+                        }
+                    } catch (Throwable e) {
+                        e.printStackTrace();
                     }
-                } catch (Throwable e) {
-                    e.printStackTrace();
+                    //todo value的线程安全问题
+                    this.flushedPosition.set(value);
                 }
-                //todo value的线程安全问题
-                this.flushedPosition.set(value);
                 this.release();
             }  else {
                 System.out.println("in flush, hold failed, flush offset = " + this.flushedPosition.get());
@@ -185,6 +315,30 @@ public class MappedFile extends ReferenceResource {
         return this.getFlushedPosition();
     }
 
+    private void force() throws IOException {
+        if (writeBuffer != null || fileChannel.position() != 0) {
+            fileChannel.force(false);
+        } else {
+            mappedByteBuffer.force();
+        }
+    }
+
+    /**
+     * msync按页对齐的[from, to)，writeBuffer模式commit写入的是同一个文件的page cache，同样有效
+     *
+     * @return 失败时返回false，由调用方退回整个文件force
+     */
+    private boolean msync(final int from, final int to, final int flags) {
+        if (to <= from) {
+            return true;
+        }
+        final long address = MMAP_BACKEND.address(this.mappedByteBuffer);
+        long begin = address + from;
+        long alignedBegin = begin - begin % OS_PAGE_SIZE;
+        int ret = LibC.INSTANCE.msync(new Pointer(alignedBegin), new NativeLong(address + to - alignedBegin), flags);
+        return ret == 0;
+    }
+
     public int commit(final int commitLeastPages) {
         if (writeBuffer == null) {
             return this.wrotePosition.get();
@@ -198,12 +352,20 @@ public class MappedFile extends ReferenceResource {
             }
         }
         if (writeBuffer != null && this.fileSize == this.committedPosition.get()) {
-            writeBuffer = null;
+            returnWriteBuffer();
         }
         //todo 线程安全问题
         return this.committedPosition.get();
     }
 
+    private synchronized void returnWriteBuffer() {
+        if (this.writeBuffer != null && this.transientStorePool != null) {
+            this.transientStorePool.returnBuffer(this.writeBuffer);
+        }
+        this.writeBuffer = null;
+        this.transientStorePool = null;
+    }
+
     protected boolean isAbleToCommit(final int commitLeastPages) {
         int lastCommittedPosition = this.committedPosition.get();
         int writePos = this.wrotePosition.get();
@@ -243,7 +405,9 @@ public class MappedFile extends ReferenceResource {
 
     public void setFlushedPosition(int pos) {
         this.flushedPosition.set(pos);
+        this.asyncFlushedPosition.set(pos);
     }
+
     private boolean isAbleToFlush(final int flushLeastPages) {
         int flush = this.flushedPosition.get();
         int write = getReadPosition();
@@ -253,6 +417,8 @@ public class MappedFile extends ReferenceResource {
         }
 
         if (flushLeastPages > 0) {
+            //已经提交过写回的部分不重复提交
+            flush = Math.max(flush, this.asyncFlushedPosition.get());
             return ((write / OS_PAGE_SIZE) - (flush / OS_PAGE_SIZE) >= flushLeastPages);
         }
 
@@ -316,6 +482,8 @@ public class MappedFile extends ReferenceResource {
             return true;
         }
         clean(this.mappedByteBuffer);
+        //没commit完就被销毁的文件也要归还写缓冲
+        returnWriteBuffer();
         TOTAL_MAPPED_VIRTUAL_MEMORY.addAndGet(this.fileSize * (-1));
         TOTAL_MAPPED_FILES.decrementAndGet();
         return true;
@@ -332,9 +500,14 @@ public class MappedFile extends ReferenceResource {
                         + (result ? " OK, " : " Failed, ") + "W:" + this.getWrotePosition() + " M:"
                         + this.getFlushedPosition() + ", "
                         + (System.currentTimeMillis() - beginTime));
+                return true;
             } catch (Exception e) {
-                //
+                System.err.println("close file channel " + this.fileName + " Failed. ");
+                e.printStackTrace();
             }
+        } else {
+            System.out.println("destroy mapped file[REF:" + this.getRefCount() + "] " + this.fileName
+                    + " Failed. cleanupOver: " + this.isCleanupOver());
         }
         return false;
     }
@@ -345,6 +518,7 @@ public class MappedFile extends ReferenceResource {
 
     public void setWrotePosition(int pos) {
         this.wrotePosition.set(pos);
+        this.reservedPosition.set(pos);
     }
 
     public void setCommittedPosition(int pos) {
@@ -368,7 +542,6 @@ public class MappedFile extends ReferenceResource {
         if (type == FlushDiskType.SYNC_FLUSH) {
             mappedByteBuffer.force();
         }
-        this.mlock();
     }
 
     public String getFileName() {
@@ -395,79 +568,124 @@ public class MappedFile extends ReferenceResource {
         this.firstCreateInQueue = firstCreateInQueue;
     }
 
-    public void mlock() {
+    /**
+     * 锁住整个文件并提示内核预读，锁定内存要经过LockedMemoryManager记账
+     *
+     * @return mlock是否成功，超过RLIMIT_MEMLOCK时会失败
+     */
+    public boolean mlock() {
         final long beginTime = System.currentTimeMillis();
-        final long address = ((DirectBuffer) (this.mappedByteBuffer)).address();
+        final long address = MMAP_BACKEND.address(this.mappedByteBuffer);
         Pointer pointer = new Pointer(address);
-        {
-            LibC.INSTANCE.mlock(pointer, new NativeLong(this.fileSize));
-        }
-
-        {
-            LibC.INSTANCE.madvise(pointer, new NativeLong(this.fileSize), LibC.MADV_WILLNEED);
-        }
+        int ret = LibC.INSTANCE.mlock(pointer, new NativeLong(this.fileSize));
+        System.out.println("mlock " + this.fileName + " ret = " + ret + " time consuming = "
+                + (System.currentTimeMillis() - beginTime));
+        LibC.INSTANCE.madvise(pointer, new NativeLong(this.fileSize), LibC.MADV_WILLNEED);
+        return ret == 0;
     }
 
     public void munlock() {
-        final long address = ((DirectBuffer) (this.mappedByteBuffer)).address();
+        final long address = MMAP_BACKEND.address(this.mappedByteBuffer);
         Pointer pointer = new Pointer(address);
         LibC.INSTANCE.munlock(pointer, new NativeLong(this.fileSize));
     }
 
-    File getFile() {
-        return this.file;
+    /**
+     * 对整个文件调用madvise，文件已释放时不做任何事
+     */
+    public boolean madvise(final int advice) {
+        if (!this.hold()) {
+            return false;
+        }
+        try {
+            final long address = MMAP_BACKEND.address(this.mappedByteBuffer);
+            return LibC.INSTANCE.madvise(new Pointer(address), new NativeLong(this.fileSize), advice) == 0;
+        } finally {
+            this.release();
+        }
     }
 
-    @Override
-    public String toString() {
-        return this.fileName;
+    /**
+     * 用mincore检查[pos, pos + size)所在的页有多少在page cache中，读之前判断会不会缺页
+     *
+     * @return 0~1，文件已释放或系统不支持时返回-1
+     */
+    public double residentRatio(final int pos, final int size) {
+        if (size <= 0 || pos < 0 || pos + size > this.fileSize) {
+            return -1;
+        }
+        if (!this.hold()) {
+            return -1;
+        }
+        try {
+            final long address = MMAP_BACKEND.address(this.mappedByteBuffer);
+            long begin = address + pos;
+            long alignedBegin = begin - begin % OS_PAGE_SIZE;
+            int pages = (int) ((begin + size - alignedBegin + OS_PAGE_SIZE - 1) / OS_PAGE_SIZE);
+            byte[] vec = new byte[pages];
+            if (LibC.INSTANCE.mincore(new Pointer(alignedBegin), new NativeLong((long) pages * OS_PAGE_SIZE), vec) != 0) {
+                return -1;
+            }
+            int resident = 0;
+            for (byte b : vec) {
+                resident += b & 1;
+            }
+            return resident / (double) pages;
+        } catch (Throwable e) {
+            return -1;
+        } finally {
+            this.release();
+        }
     }
 
+    /**
+     * @return 已写入部分在page cache中的百分比，没有数据时返回100，不知道时返回-1
+     */
+    public int residentPercent() {
+        int readPosition = this.getReadPosition();
+        if (readPosition == 0) {
+            return 100;
+        }
+        double ratio = this.residentRatio(0, readPosition);
+        return ratio < 0 ? -1 : (int) (ratio * 100);
+    }
 
-    public static void clean(final ByteBuffer buffer) {
-        if (buffer == null || !buffer.isDirect() || buffer.capacity() == 0)
+    /**
+     * 提前把[pos, pos + size)读入page cache，缺页发生在调用线程
+     */
+    public void loadPages(final int pos, final int size) {
+        if (size <= 0 || !this.hold()) {
             return;
-        invoke(invoke(viewed(buffer), "cleaner"), "clean");
-    }
-
-    private static Object invoke(final Object target, final String methodName, final Class<?>... args) {
-        return AccessController.doPrivileged(new PrivilegedAction<Object>() {
-            public Object run() {
-                try {
-                    Method method = method(target, methodName, args);
-                    method.setAccessible(true);
-                    return method.invoke(target);
-                } catch (Exception e) {
-                    throw new IllegalStateException(e);
-                }
+        }
+        try {
+            final long address = MMAP_BACKEND.address(this.mappedByteBuffer);
+            long begin = address + pos;
+            long alignedBegin = begin - begin % OS_PAGE_SIZE;
+            LibC.INSTANCE.madvise(new Pointer(alignedBegin), new NativeLong(begin + size - alignedBegin),
+                    LibC.MADV_WILLNEED);
+            int end = pos + size;
+            byte sum = 0;
+            for (int i = (int) (alignedBegin - address); i < end; i += OS_PAGE_SIZE) {
+                sum += this.mappedByteBuffer.get(Math.max(i, pos));
             }
-        });
+            this.touchSum = sum;
+        } finally {
+            this.release();
+        }
     }
 
-    private static Method method(Object target, String methodName, Class<?>[] args)
-            throws NoSuchMethodException {
-        try {
-            return target.getClass().getMethod(methodName, args);
-        } catch (NoSuchMethodException e) {
-            return target.getClass().getDeclaredMethod(methodName, args);
-        }
+    File getFile() {
+        return this.file;
+    }
+
+    @Override
+    public String toString() {
+        return this.fileName;
     }
 
-    private static ByteBuffer viewed(ByteBuffer buffer) {
-        String methodName = "viewedBuffer";
-        Method[] methods = buffer.getClass().getMethods();
-        for (int i = 0; i < methods.length; i++) {
-            if (methods[i].getName().equals("attachment")) {
-                methodName = "attachment";
-                break;
-            }
-        }
 
-        ByteBuffer viewedBuffer = (ByteBuffer) invoke(buffer, methodName);
-        if (viewedBuffer == null)
-            return buffer;
-        else
-            return viewed(viewedBuffer);
+    public static void clean(final ByteBuffer buffer) {
+        MMAP_BACKEND.unmap(buffer);
     }
 
 }
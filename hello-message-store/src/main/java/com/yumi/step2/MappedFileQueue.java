@@ -0,0 +1,690 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.FlushMode;
+import com.yumi.step2.message.MessageEncoder;
+import com.yumi.step2.metrics.LatencyHistogram;
+import com.yumi.step2.util.UtilAll;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+/**
+ * 一组首尾相接的MappedFile，文件名即为该文件第一个字节在整个commit log中的全局偏移量(fileFromOffset)。
+ * 当前文件写满后滚动到下一个文件，按全局偏移量定位文件时只做算术运算，不扫描目录。
+ */
+public class MappedFileQueue {
+    private final String storePath;
+
+    protected final int mappedFileSize;
+
+    protected final CopyOnWriteArrayList<MappedFile> mappedFiles = new CopyOnWriteArrayList<>();
+
+    protected volatile long flushedWhere = 0;
+    protected volatile long committedWhere = 0;
+
+    protected volatile long storeTimestamp = 0;
+
+    private final TransientStorePool transientStorePool;
+
+    //为null时在写入线程上直接创建文件
+    private final AllocateMappedFileService allocateMappedFileService;
+
+    //滚动到新文件时写入者等待的时间，在tryCreateMappedFile的锁内更新
+    private volatile long rolloverTimes = 0;
+    private volatile long rolloverTotalNanos = 0;
+    private volatile long rolloverMaxNanos = 0;
+    private volatile FlushMode flushMode = FlushMode.FORCE;
+    //只记录真正推进了位置的commit/flush
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+    public MappedFileQueue(final String storePath, int mappedFileSize) {
+        this(storePath, mappedFileSize, null);
+    }
+
+    public MappedFileQueue(final String storePath, int mappedFileSize, TransientStorePool transientStorePool) {
+        this(storePath, mappedFileSize, transientStorePool, null);
+    }
+
+    public MappedFileQueue(final String storePath, int mappedFileSize, TransientStorePool transientStorePool,
+                           AllocateMappedFileService allocateMappedFileService) {
+        this.storePath = storePath;
+        this.mappedFileSize = mappedFileSize;
+        this.transientStorePool = transientStorePool;
+        this.allocateMappedFileService = allocateMappedFileService;
+    }
+
+    /**
+     * 启动时加载已有的文件，只在启动时扫描一次目录。
+     * 加载后所有文件的位置都被认为已经写满，真实位置由恢复流程重新设置。
+     */
+    public boolean load() {
+        File dir = new File(this.storePath);
+        File[] ls = dir.listFiles();
+        if (ls != null) {
+            Arrays.sort(ls);
+            for (File file : ls) {
+                if (file.length() != this.mappedFileSize) {
+                    System.out.println(file + "\t" + file.length()
+                            + " length not matched message store config value, please check it manually");
+                    return false;
+                }
+                try {
+                    MappedFile mappedFile = new MappedFile(file.getPath(), mappedFileSize);
+                    mappedFile.setWrotePosition(this.mappedFileSize);
+                    mappedFile.setFlushedPosition(this.mappedFileSize);
+                    mappedFile.setCommittedPosition(this.mappedFileSize);
+                    this.mappedFiles.add(mappedFile);
+                    System.out.println("load " + file.getPath() + " OK");
+                } catch (IOException e) {
+                    System.err.println("load file " + file + " error");
+                    e.printStackTrace();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 追加一条消息，失败返回-1
+     */
+    public long appendMsg(final String msg) {
+        AppendMessageResult result = this.appendMessage(msg.getBytes());
+        return result.isOk() ? result.getWroteOffset() : -1;
+    }
+
+    public AppendMessageResult appendMessage(final byte[] msgBytes) {
+        return this.appendMessage(MessageEncoder.get().prepare(msgBytes));
+    }
+
+    /**
+     * 单写者追加，当前文件剩余空间不足时(END_OF_FILE)滚动到新文件重试一次。
+     */
+    public AppendMessageResult appendMessage(final AppendMessageCallback cb) {
+        MappedFile mappedFile = this.getLastMappedFile();
+        if (null == mappedFile || mappedFile.isFull()) {
+            mappedFile = this.getLastMappedFile(0);
+        }
+        if (null == mappedFile) {
+            System.err.println("create mapped file1 error");
+            return new AppendMessageResult(AppendMessageStatus.UNKNOWN_ERROR);
+        }
+
+        AppendMessageResult result = mappedFile.appendMessage(cb);
+        if (AppendMessageStatus.END_OF_FILE == result.getStatus()) {
+            mappedFile = this.getLastMappedFile(0);
+            if (null == mappedFile) {
+                System.err.println("create mapped file2 error");
+                return new AppendMessageResult(AppendMessageStatus.UNKNOWN_ERROR);
+            }
+            result = mappedFile.appendMessage(cb);
+        }
+        if (result.isOk()) {
+            this.storeTimestamp = result.getStoreTimestamp();
+        } else {
+            System.err.println("append message failed, " + result + ", mapped file size: " + this.mappedFileSize);
+        }
+        return result;
+    }
+
+    /**
+     * 多写者无锁追加。遇到END_OF_FILE时等写满文件尾部空白的写入者发布完，再滚动到新文件。
+     */
+    public AppendMessageResult appendMessageConcurrently(final AppendMessageCallback cb) {
+        for (;;) {
+            MappedFile mappedFile = this.getLastMappedFile();
+            if (null == mappedFile || mappedFile.isFull()) {
+                mappedFile = this.getLastMappedFile(0);
+            }
+            if (null == mappedFile) {
+                System.err.println("create mapped file error");
+                return new AppendMessageResult(AppendMessageStatus.UNKNOWN_ERROR);
+            }
+
+            AppendMessageResult result = mappedFile.appendMessageConcurrently(cb);
+            if (AppendMessageStatus.END_OF_FILE != result.getStatus()) {
+                if (result.isOk()) {
+                    this.storeTimestamp = result.getStoreTimestamp();
+                }
+                return result;
+            }
+            while (!mappedFile.isFull()) {
+                Thread.yield();
+            }
+        }
+    }
+
+    public MappedFile getLastMappedFile(final long startOffset, boolean needCreate) {
+        long createOffset = -1;
+        MappedFile mappedFileLast = getLastMappedFile();
+
+        if (mappedFileLast == null) {
+            createOffset = startOffset - (startOffset % this.mappedFileSize);
+        }
+
+        if (mappedFileLast != null && mappedFileLast.isFull()) {
+            createOffset = mappedFileLast.getFileFromOffset() + this.mappedFileSize;
+        }
+
+        if (createOffset != -1 && needCreate) {
+            return tryCreateMappedFile(createOffset);
+        }
+
+        return mappedFileLast;
+    }
+
+    protected synchronized MappedFile tryCreateMappedFile(long createOffset) {
+        //多个写入者同时滚动时只创建一次
+        MappedFile mappedFileLast = getLastMappedFile();
+        if (mappedFileLast != null && mappedFileLast.getFileFromOffset() >= createOffset) {
+            return mappedFileLast;
+        }
+        if (mappedFileLast == null) {
+            return doCreateMappedFile(createOffset);
+        }
+        long beginTime = System.nanoTime();
+        MappedFile mappedFile = doCreateMappedFile(createOffset);
+        long elapsed = System.nanoTime() - beginTime;
+        this.rolloverTimes++;
+        this.rolloverTotalNanos += elapsed;
+        if (elapsed > this.rolloverMaxNanos) {
+            this.rolloverMaxNanos = elapsed;
+        }
+        return mappedFile;
+    }
+
+    public MappedFile getLastMappedFile(final long startOffset) {
+        return getLastMappedFile(startOffset, true);
+    }
+
+    public MappedFile getLastMappedFile() {
+        MappedFile mappedFileLast = null;
+
+        while (!this.mappedFiles.isEmpty()) {
+            try {
+                mappedFileLast = this.mappedFiles.get(this.mappedFiles.size() - 1);
+                break;
+            } catch (IndexOutOfBoundsException e) {
+                //continue;
+            }
+        }
+
+        return mappedFileLast;
+    }
+
+    public MappedFile getFirstMappedFile() {
+        MappedFile mappedFileFirst = null;
+
+        if (!this.mappedFiles.isEmpty()) {
+            try {
+                mappedFileFirst = this.mappedFiles.get(0);
+            } catch (IndexOutOfBoundsException e) {
+                //ignore
+            }
+        }
+
+        return mappedFileFirst;
+    }
+
+    protected MappedFile doCreateMappedFile(long createOffset) {
+        String nextFilePath = this.storePath + File.separator + UtilAll.offset2FileName(createOffset);
+        String nextNextFilePath = this.storePath + File.separator
+                + UtilAll.offset2FileName(createOffset + this.mappedFileSize);
+        MappedFile mappedFile = null;
+        try {
+            if (this.allocateMappedFileService != null) {
+                mappedFile = this.allocateMappedFileService.putRequestAndReturnMappedFile(nextFilePath,
+                        nextNextFilePath, this.mappedFileSize);
+            } else if (this.transientStorePool != null) {
+                mappedFile = new MappedFile(nextFilePath, this.mappedFileSize, this.transientStorePool);
+            } else {
+                mappedFile = new MappedFile(nextFilePath, this.mappedFileSize);
+            }
+        } catch (IOException e) {
+            System.err.println("create mappedFile exception");
+            e.printStackTrace();
+        }
+
+        if (mappedFile != null) {
+            if (this.mappedFiles.isEmpty()) {
+                mappedFile.setFirstCreateInQueue(true);
+            }
+            this.mappedFiles.add(mappedFile);
+        }
+        return mappedFile;
+    }
+
+    /**
+     * 根据全局偏移量定位文件。文件大小固定且连续，所以下标可以直接算出来；
+     * 头部文件被删除后下标会整体偏移，用第一个文件的fileFromOffset修正，
+     * 算出来的文件不匹配时(并发删除)再退化为二分查找。
+     */
+    public MappedFile findMappedFileByOffset(final long offset, final boolean returnFirstOnNotFound) {
+        try {
+            MappedFile firstMappedFile = this.getFirstMappedFile();
+            MappedFile lastMappedFile = this.getLastMappedFile();
+            if (firstMappedFile != null && lastMappedFile != null) {
+                if (offset < firstMappedFile.getFileFromOffset()
+                        || offset >= lastMappedFile.getFileFromOffset() + this.mappedFileSize) {
+                    System.out.println("Offset not matched. Request offset: " + offset + ", firstOffset: "
+                            + firstMappedFile.getFileFromOffset() + ", lastOffset: "
+                            + (lastMappedFile.getFileFromOffset() + this.mappedFileSize)
+                            + ", mappedFileSize: " + this.mappedFileSize
+                            + ", mappedFiles count: " + this.mappedFiles.size());
+                } else {
+                    int index = (int) ((offset / this.mappedFileSize)
+                            - (firstMappedFile.getFileFromOffset() / this.mappedFileSize));
+                    MappedFile targetFile = null;
+                    try {
+                        targetFile = this.mappedFiles.get(index);
+                    } catch (Exception ignored) {
+                    }
+
+                    if (targetFile != null && offset >= targetFile.getFileFromOffset()
+                            && offset < targetFile.getFileFromOffset() + this.mappedFileSize) {
+                        return targetFile;
+                    }
+
+                    targetFile = binarySearch(offset);
+                    if (targetFile != null) {
+                        return targetFile;
+                    }
+                }
+
+                if (returnFirstOnNotFound) {
+                    return firstMappedFile;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("findMappedFileByOffset Exception");
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    public MappedFile findMappedFileByOffset(final long offset) {
+        return findMappedFileByOffset(offset, false);
+    }
+
+    private MappedFile binarySearch(final long offset) {
+        Object[] files = this.mappedFiles.toArray();
+        int low = 0;
+        int high = files.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            MappedFile mappedFile = (MappedFile) files[mid];
+            if (offset < mappedFile.getFileFromOffset()) {
+                high = mid - 1;
+            } else if (offset >= mappedFile.getFileFromOffset() + this.mappedFileSize) {
+                low = mid + 1;
+            } else {
+                return mappedFile;
+            }
+        }
+        return null;
+    }
+
+    public SelectMappedBufferResult selectMappedBuffer(final long offset) {
+        MappedFile mappedFile = this.findMappedFileByOffset(offset, offset == 0);
+        if (mappedFile != null) {
+            int pos = (int) (offset % this.mappedFileSize);
+            return mappedFile.selectMappedBuffer(pos);
+        }
+        return null;
+    }
+
+    public SelectMappedBufferResult selectMappedBuffer(final long offset, final int size) {
+        MappedFile mappedFile = this.findMappedFileByOffset(offset, offset == 0);
+        if (mappedFile != null) {
+            int pos = (int) (offset % this.mappedFileSize);
+            return mappedFile.selectMappedBuffer(pos, size);
+        }
+        return null;
+    }
+
+    public long getMinOffset() {
+        MappedFile mappedFile = this.getFirstMappedFile();
+        if (mappedFile != null) {
+            return mappedFile.getFileFromOffset();
+        }
+        return -1;
+    }
+
+    public long getMaxOffset() {
+        MappedFile mappedFile = getLastMappedFile();
+        if (mappedFile != null) {
+            return mappedFile.getFileFromOffset() + mappedFile.getReadPosition();
+        }
+        return 0;
+    }
+
+    public long getMaxWrotePosition() {
+        MappedFile mappedFile = getLastMappedFile();
+        if (mappedFile != null) {
+            return mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+        }
+        return 0;
+    }
+
+    public boolean flush(final int flushLeastPages) {
+        boolean result = true;
+        MappedFile mappedFile = this.findMappedFileByOffset(this.flushedWhere, this.flushedWhere == 0);
+        if (mappedFile != null) {
+            long tmpTimeStamp = mappedFile.getStoreTimestamp();
+            long beginTime = System.nanoTime();
+            int offset = mappedFile.flush(flushLeastPages, this.flushMode);
+            long where = mappedFile.getFileFromOffset() + offset;
+            result = where == this.flushedWhere;
+            if (!result) {
+                this.flushLatency.record(System.nanoTime() - beginTime);
+            }
+            this.flushedWhere = where;
+            if (0 == flushLeastPages) {
+                this.storeTimestamp = tmpTimeStamp;
+            }
+        }
+
+        return result;
+    }
+
+    public boolean commit(final int commitLeastPages) {
+        boolean result = true;
+        MappedFile mappedFile = this.findMappedFileByOffset(this.committedWhere, this.committedWhere == 0);
+        if (mappedFile != null) {
+            long beginTime = System.nanoTime();
+            int offset = mappedFile.commit(commitLeastPages);
+            long where = mappedFile.getFileFromOffset() + offset;
+            result = where == this.committedWhere;
+            if (!result) {
+                this.commitLatency.record(System.nanoTime() - beginTime);
+            }
+            this.committedWhere = where;
+        }
+
+        return result;
+    }
+
+    /**
+     * 截断offset之后的数据：offset所在文件回退写位置，之后的文件直接删除
+     */
+    public void truncateDirtyFiles(long offset) {
+        List<MappedFile> willRemoveFiles = new ArrayList<>();
+
+        for (MappedFile file : this.mappedFiles) {
+            long fileTailOffset = file.getFileFromOffset() + this.mappedFileSize;
+            if (fileTailOffset > offset) {
+                if (offset >= file.getFileFromOffset()) {
+                    file.setWrotePosition((int) (offset % this.mappedFileSize));
+                    file.setCommittedPosition((int) (offset % this.mappedFileSize));
+                    file.setFlushedPosition((int) (offset % this.mappedFileSize));
+                } else {
+                    file.destroy(1000);
+                    willRemoveFiles.add(file);
+                }
+            }
+        }
+
+        this.mappedFiles.removeAll(willRemoveFiles);
+    }
+
+    public void deleteLastMappedFile() {
+        MappedFile lastMappedFile = getLastMappedFile();
+        if (lastMappedFile != null) {
+            lastMappedFile.destroy(1000);
+            this.mappedFiles.remove(lastMappedFile);
+            System.out.println("on recover, destroy a logic mapped file " + lastMappedFile.getFileName());
+        }
+    }
+
+    /**
+     * 按时间删除过期文件，最后一个文件永远保留。
+     * 文件还被引用时destroy失败，停在该文件等下一轮，超过intervalForcibly后强制释放。
+     *
+     * @param expiredTime         文件最后修改后保留的毫秒数
+     * @param deleteFilesInterval 连续删除两个文件之间的停顿，把删除产生的IO摊开
+     * @param cleanImmediately    磁盘空间不足时不看保留时间直接删除
+     * @param deleteFileBatchMax  一轮最多删除的文件数
+     * @return 删除的文件数
+     */
+    public int deleteExpiredFileByTime(final long expiredTime, final int deleteFilesInterval,
+                                       final long intervalForcibly, final boolean cleanImmediately,
+                                       final int deleteFileBatchMax) {
+        Object[] mfs = this.mappedFiles.toArray();
+        int mfsLength = mfs.length - 1;
+        int deleteCount = 0;
+        List<MappedFile> files = new ArrayList<>();
+        for (int i = 0; i < mfsLength; i++) {
+            MappedFile mappedFile = (MappedFile) mfs[i];
+            long liveMaxTimestamp = mappedFile.getLastModifiedTimestamp() + expiredTime;
+            //只从头部连续删除，中间不留空洞
+            if (System.currentTimeMillis() < liveMaxTimestamp && !cleanImmediately) {
+                break;
+            }
+            if (!mappedFile.destroy(intervalForcibly)) {
+                break;
+            }
+            files.add(mappedFile);
+            deleteCount++;
+            if (files.size() >= deleteFileBatchMax) {
+                break;
+            }
+            if (deleteFilesInterval > 0 && (i + 1) < mfsLength) {
+                try {
+                    Thread.sleep(deleteFilesInterval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        this.deleteExpiredFile(files);
+        return deleteCount;
+    }
+
+    /**
+     * 删除最后一个条目的commit log偏移量小于offset的文件，用于consume queue跟随commit log清理
+     *
+     * @param unitSize 条目大小，条目开头是8字节commit log偏移量
+     */
+    public int deleteExpiredFileByOffset(final long offset, final int unitSize) {
+        Object[] mfs = this.mappedFiles.toArray();
+        int mfsLength = mfs.length - 1;
+        int deleteCount = 0;
+        List<MappedFile> files = new ArrayList<>();
+        for (int i = 0; i < mfsLength; i++) {
+            MappedFile mappedFile = (MappedFile) mfs[i];
+            boolean destroy;
+            SelectMappedBufferResult result = mappedFile.selectMappedBuffer(this.mappedFileSize - unitSize);
+            if (result != null) {
+                long maxOffsetInLogicQueue = result.getByteBuffer().getLong();
+                result.release();
+                destroy = maxOffsetInLogicQueue < offset;
+            } else {
+                destroy = !mappedFile.isAvailable();
+            }
+            if (!destroy || !mappedFile.destroy(1000 * 60)) {
+                break;
+            }
+            files.add(mappedFile);
+            deleteCount++;
+        }
+
+        this.deleteExpiredFile(files);
+        return deleteCount;
+    }
+
+    /**
+     * 从头部开始删除满足条件的文件，遇到第一个不满足的就停止，最后一个文件不删除
+     *
+     * @return 删除的文件数
+     */
+    public int deleteFirstFiles(final Predicate<MappedFile> predicate, final long intervalForcibly,
+                                final int deleteFileBatchMax) {
+        Object[] mfs = this.mappedFiles.toArray();
+        int mfsLength = mfs.length - 1;
+        List<MappedFile> files = new ArrayList<>();
+        for (int i = 0; i < mfsLength && files.size() < deleteFileBatchMax; i++) {
+            MappedFile mappedFile = (MappedFile) mfs[i];
+            if (!predicate.test(mappedFile) || !mappedFile.destroy(intervalForcibly)) {
+                break;
+            }
+            files.add(mappedFile);
+        }
+
+        this.deleteExpiredFile(files);
+        return files.size();
+    }
+
+    /**
+     * 第一个文件已经shutdown但引用一直没有释放时重试删除，超过intervalForcibly后强制删除
+     */
+    public boolean retryDeleteFirstFile(final long intervalForcibly) {
+        MappedFile mappedFile = this.getFirstMappedFile();
+        if (mappedFile != null && !mappedFile.isAvailable()) {
+            System.out.println("the mappedFile was destroyed once, but still alive, " + mappedFile.getFileName());
+            boolean result = mappedFile.destroy(intervalForcibly);
+            if (result) {
+                System.out.println("the mappedFile re-delete OK, " + mappedFile.getFileName());
+                List<MappedFile> tmpFiles = new ArrayList<>();
+                tmpFiles.add(mappedFile);
+                this.deleteExpiredFile(tmpFiles);
+            } else {
+                System.out.println("the mappedFile re-delete failed, " + mappedFile.getFileName());
+            }
+            return result;
+        }
+        return false;
+    }
+
+    private void deleteExpiredFile(List<MappedFile> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        if (!this.mappedFiles.removeAll(files)) {
+            System.err.println("deleteExpiredFile remove failed.");
+        }
+        //刷盘位置落在已删除的文件里时前移到第一个文件，否则之后找不到文件无法继续刷盘
+        long minOffset = this.getMinOffset();
+        if (minOffset > this.flushedWhere) {
+            this.flushedWhere = minOffset;
+        }
+        if (minOffset > this.committedWhere) {
+            this.committedWhere = minOffset;
+        }
+    }
+
+    /**
+     * @return 每个文件已写入部分在page cache中的百分比，按文件顺序，-1表示不知道
+     */
+    public Map<String, Integer> getResidentPercents() {
+        Map<String, Integer> percents = new LinkedHashMap<>();
+        for (MappedFile mappedFile : this.mappedFiles) {
+            percents.put(mappedFile.getFileName(), mappedFile.residentPercent());
+        }
+        return percents;
+    }
+
+    public void shutdown(final long intervalForcibly) {
+        for (MappedFile mf : this.mappedFiles) {
+            mf.shutdown(intervalForcibly);
+        }
+    }
+
+    public void destroy() {
+        for (MappedFile mf : this.mappedFiles) {
+            mf.destroy(1000 * 3);
+        }
+        this.mappedFiles.clear();
+        this.flushedWhere = 0;
+
+        File file = new File(storePath);
+        if (file.isDirectory()) {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return 每个文件的写位置、commit和flush落后写位置的字节数
+     */
+    public List<String> getSegmentLags() {
+        List<String> lags = new ArrayList<>();
+        for (MappedFile mappedFile : this.mappedFiles) {
+            int wrote = mappedFile.getWrotePosition();
+            lags.add(mappedFile.getFileName() + " wrote=" + wrote
+                    + ", commitLag=" + (wrote - mappedFile.getReadPosition())
+                    + ", flushLag=" + (wrote - mappedFile.getFlushedPosition()));
+        }
+        return lags;
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    public LatencyHistogram getFlushLatency() {
+        return flushLatency;
+    }
+
+    public FlushMode getFlushMode() {
+        return flushMode;
+    }
+
+    public void setFlushMode(FlushMode flushMode) {
+        this.flushMode = flushMode;
+    }
+
+    public String getStorePath() {
+        return storePath;
+    }
+
+    public int getMappedFileSize() {
+        return mappedFileSize;
+    }
+
+    public CopyOnWriteArrayList<MappedFile> getMappedFiles() {
+        return mappedFiles;
+    }
+
+    public long getFlushedWhere() {
+        return flushedWhere;
+    }
+
+    public void setFlushedWhere(long flushedWhere) {
+        this.flushedWhere = flushedWhere;
+    }
+
+    public long getCommittedWhere() {
+        return committedWhere;
+    }
+
+    public void setCommittedWhere(long committedWhere) {
+        this.committedWhere = committedWhere;
+    }
+
+    public long getStoreTimestamp() {
+        return storeTimestamp;
+    }
+
+    public long getRolloverTimes() {
+        return rolloverTimes;
+    }
+
+    public long getRolloverMaxNanos() {
+        return rolloverMaxNanos;
+    }
+
+    public long getRolloverAvgNanos() {
+        long times = this.rolloverTimes;
+        return times == 0 ? 0 : this.rolloverTotalNanos / times;
+    }
+}
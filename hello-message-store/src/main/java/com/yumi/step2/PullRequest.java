@@ -0,0 +1,74 @@
+package com.yumi.step2;
+
+import com.yumi.step2.filter.ExpressionMessageFilter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 挂起在PullRequestHoldService中的拉取请求，队列的最大偏移量越过pullFromThisOffset或者超时后完成
+ */
+public class PullRequest {
+    private final String topic;
+    private final int queueId;
+    private final long pullFromThisOffset;
+    private final int maxMsgNums;
+    private final int maxTotalMsgSize;
+    private final long suspendTimestamp;
+    private final long deadLine;
+    //为null时不过滤
+    private final ExpressionMessageFilter messageFilter;
+    private final CompletableFuture<GetMessageResult> future = new CompletableFuture<>();
+
+    public PullRequest(String topic, int queueId, long pullFromThisOffset, int maxMsgNums, int maxTotalMsgSize,
+                       long timeoutMillis) {
+        this(topic, queueId, pullFromThisOffset, maxMsgNums, maxTotalMsgSize, timeoutMillis, null);
+    }
+
+    public PullRequest(String topic, int queueId, long pullFromThisOffset, int maxMsgNums, int maxTotalMsgSize,
+                       long timeoutMillis, ExpressionMessageFilter messageFilter) {
+        this.topic = topic;
+        this.queueId = queueId;
+        this.pullFromThisOffset = pullFromThisOffset;
+        this.maxMsgNums = maxMsgNums;
+        this.maxTotalMsgSize = maxTotalMsgSize;
+        this.suspendTimestamp = System.currentTimeMillis();
+        this.deadLine = this.suspendTimestamp + timeoutMillis;
+        this.messageFilter = messageFilter;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getQueueId() {
+        return queueId;
+    }
+
+    public long getPullFromThisOffset() {
+        return pullFromThisOffset;
+    }
+
+    public int getMaxMsgNums() {
+        return maxMsgNums;
+    }
+
+    public int getMaxTotalMsgSize() {
+        return maxTotalMsgSize;
+    }
+
+    public long getSuspendTimestamp() {
+        return suspendTimestamp;
+    }
+
+    public long getDeadLine() {
+        return deadLine;
+    }
+
+    public ExpressionMessageFilter getMessageFilter() {
+        return messageFilter;
+    }
+
+    public CompletableFuture<GetMessageResult> future() {
+        return future;
+    }
+}
@@ -0,0 +1,176 @@
+package com.yumi.step2;
+
+import com.yumi.utils.ServiceThread;
+import com.yumi.utils.thread.factory.ThreadFactoryImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 长轮询。队列里没有新消息的拉取请求按topic@queueId挂起，分发线程写完consume queue后调用notifyMessageArriving，
+ * 最大偏移量越过请求的偏移量就在唤醒线程池里重新读一次并完成请求。
+ * 本线程每pullRequestCheckInterval检查一遍所有挂起的请求，处理超时，也兜底没有收到通知的请求。
+ */
+public class PullRequestHoldService extends ServiceThread {
+    private static final String TOPIC_QUEUEID_SEPARATOR = "@";
+    private final DefaultMessageStore messageStore;
+    private final ConcurrentMap<String/* topic@queueId */, List<PullRequest>> pullRequestTable =
+            new ConcurrentHashMap<>(1024);
+    private final ExecutorService wakeupExecutor;
+    private final AtomicLong suspendTimes = new AtomicLong(0);
+    private final AtomicLong wakeupTimes = new AtomicLong(0);
+    private final AtomicLong timeoutTimes = new AtomicLong(0);
+
+    public PullRequestHoldService(final DefaultMessageStore messageStore) {
+        this.messageStore = messageStore;
+        this.wakeupExecutor = Executors.newFixedThreadPool(
+                messageStore.getMessageStoreConfig().getPullWakeupThreadPoolNums(),
+                new ThreadFactoryImpl("PullMessageWakeupThread_", true));
+    }
+
+    private static String buildKey(final String topic, final int queueId) {
+        return topic + TOPIC_QUEUEID_SEPARATOR + queueId;
+    }
+
+    public void suspendPullRequest(final PullRequest pullRequest) {
+        if (this.isStopped()) {
+            this.executeRequestWhenWakeup(pullRequest);
+            return;
+        }
+        String key = buildKey(pullRequest.getTopic(), pullRequest.getQueueId());
+        List<PullRequest> requests = this.pullRequestTable.computeIfAbsent(key, k -> new ArrayList<>());
+        synchronized (requests) {
+            requests.add(pullRequest);
+        }
+        this.suspendTimes.incrementAndGet();
+        //读和挂起之间分发的消息不会再有通知，挂起后再检查一次
+        long maxOffset = this.messageStore.getMaxOffsetInQueue(pullRequest.getTopic(), pullRequest.getQueueId());
+        if (maxOffset > pullRequest.getPullFromThisOffset()) {
+            this.notifyMessageArriving(pullRequest.getTopic(), pullRequest.getQueueId(), maxOffset);
+        }
+    }
+
+    /**
+     * 队列的最大偏移量推进到maxOffset，唤醒等这之前消息的请求，超时的请求也一起完成
+     */
+    public void notifyMessageArriving(final String topic, final int queueId, final long maxOffset) {
+        List<PullRequest> requests = this.pullRequestTable.get(buildKey(topic, queueId));
+        if (requests == null) {
+            return;
+        }
+        List<PullRequest> ready = null;
+        long now = System.currentTimeMillis();
+        synchronized (requests) {
+            if (requests.isEmpty()) {
+                return;
+            }
+            for (int i = requests.size() - 1; i >= 0; i--) {
+                PullRequest request = requests.get(i);
+                boolean arrived = maxOffset > request.getPullFromThisOffset();
+                if (arrived || now >= request.getDeadLine() || this.isStopped()) {
+                    if (ready == null) {
+                        ready = new ArrayList<>();
+                    }
+                    ready.add(request);
+                    requests.remove(i);
+                    if (arrived) {
+                        this.wakeupTimes.incrementAndGet();
+                    } else {
+                        this.timeoutTimes.incrementAndGet();
+                    }
+                }
+            }
+        }
+        if (ready != null) {
+            for (PullRequest request : ready) {
+                this.executeRequestWhenWakeup(request);
+            }
+        }
+    }
+
+    private void executeRequestWhenWakeup(final PullRequest request) {
+        Runnable run = () -> {
+            try {
+                request.future().complete(this.messageStore.getMessage(request.getTopic(), request.getQueueId(),
+                        request.getPullFromThisOffset(), request.getMaxMsgNums(), request.getMaxTotalMsgSize(),
+                        request.getMessageFilter()));
+            } catch (Throwable e) {
+                request.future().completeExceptionally(e);
+            }
+        };
+        try {
+            this.wakeupExecutor.execute(run);
+        } catch (RejectedExecutionException e) {
+            //关闭之后直接在当前线程完成
+            run.run();
+        }
+    }
+
+    private void checkHoldRequest() {
+        for (Map.Entry<String, List<PullRequest>> entry : this.pullRequestTable.entrySet()) {
+            String key = entry.getKey();
+            int index = key.lastIndexOf(TOPIC_QUEUEID_SEPARATOR);
+            String topic = key.substring(0, index);
+            int queueId = Integer.parseInt(key.substring(index + 1));
+            this.notifyMessageArriving(topic, queueId, this.messageStore.getMaxOffsetInQueue(topic, queueId));
+        }
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                this.waitForRunning(this.messageStore.getMessageStoreConfig().getPullRequestCheckInterval());
+                this.checkHoldRequest();
+            } catch (Exception e) {
+                System.err.println(this.getServiceName() + " service has exception. ");
+                e.printStackTrace();
+            }
+        }
+
+        //关闭时挂起的请求按当前的数据返回
+        this.checkHoldRequest();
+        this.wakeupExecutor.shutdown();
+
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    /**
+     * @return 当前挂起的请求数
+     */
+    public int getHoldRequestNums() {
+        int nums = 0;
+        for (List<PullRequest> requests : this.pullRequestTable.values()) {
+            synchronized (requests) {
+                nums += requests.size();
+            }
+        }
+        return nums;
+    }
+
+    public long getSuspendTimes() {
+        return suspendTimes.get();
+    }
+
+    public long getWakeupTimes() {
+        return wakeupTimes.get();
+    }
+
+    public long getTimeoutTimes() {
+        return timeoutTimes.get();
+    }
+
+    @Override
+    public String getServiceName() {
+        return PullRequestHoldService.class.getSimpleName();
+    }
+}
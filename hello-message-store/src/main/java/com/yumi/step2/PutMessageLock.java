@@ -0,0 +1,10 @@
+package com.yumi.step2;
+
+/**
+ * Used when trying to put message
+ */
+public interface PutMessageLock {
+    void lock();
+
+    void unlock();
+}
@@ -0,0 +1,20 @@
+package com.yumi.step2;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 竞争激烈时线程挂起，不空耗CPU
+ */
+public class PutMessageReentrantLock implements PutMessageLock {
+    private final ReentrantLock putMessageNormalLock = new ReentrantLock(); // NonfairSync
+
+    @Override
+    public void lock() {
+        putMessageNormalLock.lock();
+    }
+
+    @Override
+    public void unlock() {
+        putMessageNormalLock.unlock();
+    }
+}
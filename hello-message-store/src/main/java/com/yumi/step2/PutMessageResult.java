@@ -0,0 +1,45 @@
+package com.yumi.step2;
+
+public class PutMessageResult {
+    private PutMessageStatus putMessageStatus;
+    private final AppendMessageResult appendMessageResult;
+
+    public PutMessageResult(PutMessageStatus putMessageStatus, AppendMessageResult appendMessageResult) {
+        this.putMessageStatus = putMessageStatus;
+        this.appendMessageResult = appendMessageResult;
+    }
+
+    public PutMessageResult(PutMessageStatus putMessageStatus) {
+        this(putMessageStatus, null);
+    }
+
+    public boolean isOk() {
+        return this.putMessageStatus == PutMessageStatus.PUT_OK;
+    }
+
+    public PutMessageStatus getPutMessageStatus() {
+        return putMessageStatus;
+    }
+
+    public void setPutMessageStatus(PutMessageStatus putMessageStatus) {
+        this.putMessageStatus = putMessageStatus;
+    }
+
+    public AppendMessageResult getAppendMessageResult() {
+        return appendMessageResult;
+    }
+
+    public long getWroteOffset() {
+        return appendMessageResult == null ? -1 : appendMessageResult.getWroteOffset();
+    }
+
+    public int getWroteBytes() {
+        return appendMessageResult == null ? 0 : appendMessageResult.getWroteBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "PutMessageResult [putMessageStatus=" + putMessageStatus + ", appendMessageResult="
+                + appendMessageResult + "]";
+    }
+}
@@ -0,0 +1,13 @@
+package com.yumi.step2;
+
+public enum PutMessageStatus {
+    PUT_OK,
+    FLUSH_DISK_TIMEOUT,
+    FLUSH_SLAVE_TIMEOUT,
+    SLAVE_NOT_AVAILABLE,
+    //从节点不接受写入
+    SERVICE_NOT_AVAILABLE,
+    CREATE_MAPPED_FILE_FAILED,
+    MESSAGE_ILLEGAL,
+    UNKNOWN_ERROR,
+}
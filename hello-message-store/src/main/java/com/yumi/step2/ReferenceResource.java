@@ -3,6 +3,8 @@ package com.yumi.step2;
 import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class ReferenceResource {
+    //hold失败说明资源正在关闭或已经释放，持续增长通常意味着读写卡在被删除的文件上
+    private static final AtomicLong HOLD_FAILED_TIMES = new AtomicLong(0);
     protected final AtomicLong refCount = new AtomicLong(1);
     protected volatile boolean available = true;
     protected volatile boolean cleanupOver = false;
@@ -17,6 +19,7 @@ public abstract class ReferenceResource {
             }
         }
 
+        HOLD_FAILED_TIMES.incrementAndGet();
         return false;
     }
 
@@ -46,6 +49,10 @@ public abstract class ReferenceResource {
         }
     }
 
+    public static long getHoldFailedTimes() {
+        return HOLD_FAILED_TIMES.get();
+    }
+
     public long getRefCount() {
         return this.refCount.get();
     }
@@ -0,0 +1,136 @@
+package com.yumi.step2;
+
+import com.yumi.utils.ServiceThread;
+
+/**
+ * 追踪commit log，把新写入(已commit)的消息分发给ConsumeQueue等。
+ * 每次读取一个文件剩余的可读区域，一段读完后通知分发器批量落盘。
+ */
+public class ReputMessageService extends ServiceThread {
+    private final DefaultMessageStore messageStore;
+    private final CommitLog commitLog;
+    private volatile long reputFromOffset = 0;
+    //之前的消息都已经写入consume queue
+    private volatile long dispatchedOffset = 0;
+
+    public ReputMessageService(DefaultMessageStore messageStore) {
+        this.messageStore = messageStore;
+        this.commitLog = messageStore.getCommitLog();
+    }
+
+    /**
+     * @return 还没有写入consume queue的字节数，为0时之前的消息都可以按consume queue读到
+     */
+    public long behind() {
+        return this.commitLog.getMaxOffset() - this.dispatchedOffset;
+    }
+
+    private boolean isCommitLogAvailable() {
+        return this.reputFromOffset < this.commitLog.getMaxOffset();
+    }
+
+    private void doReput() {
+        if (this.reputFromOffset < this.commitLog.getMinOffset()) {
+            System.out.println("The reputFromOffset=" + this.reputFromOffset + " is smaller than minPyOffset="
+                    + this.commitLog.getMinOffset() + ", this usually indicate that the dispatch behind too much "
+                    + "and the commitlog has expired.");
+            this.reputFromOffset = this.commitLog.getMinOffset();
+        }
+        for (boolean doNext = true; this.isCommitLogAvailable() && doNext; ) {
+            SelectMappedBufferResult result = this.commitLog.getData(reputFromOffset);
+            if (result == null) {
+                break;
+            }
+            try {
+                this.reputFromOffset = result.getStartOffset();
+
+                for (int readSize = 0; readSize < result.getSize() && doNext; ) {
+                    DispatchRequest dispatchRequest = this.commitLog.checkMessageAndReturnSize(
+                            result.getByteBuffer(), this.reputFromOffset, false);
+                    int size = dispatchRequest.getMsgSize();
+
+                    if (dispatchRequest.isSuccess()) {
+                        if (size > 0) {
+                            //无锁追加失败留下的空洞不分发
+                            if (!dispatchRequest.isBlank()) {
+                                this.messageStore.doDispatch(dispatchRequest);
+                            }
+                            this.reputFromOffset += size;
+                            readSize += size;
+                        } else {
+                            //文件尾部空白，跳到下一个文件
+                            this.reputFromOffset = this.commitLog.rollNextFile(this.reputFromOffset);
+                            readSize = result.getSize();
+                        }
+                    } else {
+                        System.err.println("reput message failed, reputFromOffset: " + this.reputFromOffset);
+                        doNext = false;
+                    }
+                }
+            } finally {
+                result.release();
+                long redispatchOffset = this.messageStore.doDispatchBatchEnd();
+                if (redispatchOffset >= 0 && redispatchOffset < this.reputFromOffset) {
+                    //consume queue写入失败，回退后下一轮重新分发，已经写入的条目会被跳过
+                    System.err.println("dispatch batch not fully written, redispatch from " + redispatchOffset
+                            + ", reputFromOffset: " + this.reputFromOffset);
+                    this.reputFromOffset = redispatchOffset;
+                    doNext = false;
+                }
+                this.dispatchedOffset = this.reputFromOffset;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                this.waitForRunning(1);
+                this.doReput();
+            } catch (Exception e) {
+                System.err.println(this.getServiceName() + " service has exception. ");
+                e.printStackTrace();
+            }
+        }
+
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    @Override
+    public void shutdown() {
+        for (int i = 0; i < 50 && this.isCommitLogAvailable(); i++) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        if (this.isCommitLogAvailable()) {
+            System.out.println("shutdown ReputMessageService, but commitlog have not finish to be dispatched, CL: "
+                    + this.commitLog.getMaxOffset() + " reputFromOffset: " + this.reputFromOffset);
+        }
+
+        super.shutdown();
+    }
+
+    public long getReputFromOffset() {
+        return reputFromOffset;
+    }
+
+    public void setReputFromOffset(long reputFromOffset) {
+        this.reputFromOffset = reputFromOffset;
+        this.dispatchedOffset = reputFromOffset;
+    }
+
+    public long getDispatchedOffset() {
+        return dispatchedOffset;
+    }
+
+    @Override
+    public String getServiceName() {
+        return ReputMessageService.class.getSimpleName();
+    }
+}
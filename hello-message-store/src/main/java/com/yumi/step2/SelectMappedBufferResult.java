@@ -41,4 +41,11 @@ public class SelectMappedBufferResult {
     public long getStartOffset() {
         return startOffset;
     }
+
+    /**
+     * @return release之后或者从二级存储读到时为null
+     */
+    public MappedFile getMappedFile() {
+        return mappedFile;
+    }
 }
@@ -0,0 +1,88 @@
+package com.yumi.step2;
+
+import com.yumi.step2.util.UtilAll;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 记录恢复起点的检查点文件：
+ * <pre>
+ * PHYSIC_OFFSET  8  commit log已刷盘的位置，之前的数据不需要再校验
+ * LOGICS_OFFSET  8  consume queue已刷盘对应的分发位置，重启后从这里继续分发
+ * CRC            4  前16字节的CRC32C，校验失败视为没有检查点
+ * </pre>
+ */
+public class StoreCheckpoint {
+    private static final int PHYSIC_OFFSET_POSITION = 0;
+    private static final int LOGICS_OFFSET_POSITION = 8;
+    private static final int CRC_POSITION = 16;
+
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedByteBuffer;
+    private volatile long physicOffset = 0;
+    private volatile long logicsOffset = 0;
+
+    public StoreCheckpoint(final String scpPath) throws IOException {
+        File file = new File(scpPath);
+        MappedFile.ensureDirOK(file.getParent());
+        boolean fileExists = file.exists();
+
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+        this.mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, MappedFile.OS_PAGE_SIZE);
+
+        if (fileExists) {
+            int crc = UtilAll.crc32c(this.mappedByteBuffer, 0, CRC_POSITION);
+            if (crc == this.mappedByteBuffer.getInt(CRC_POSITION)) {
+                this.physicOffset = this.mappedByteBuffer.getLong(PHYSIC_OFFSET_POSITION);
+                this.logicsOffset = this.mappedByteBuffer.getLong(LOGICS_OFFSET_POSITION);
+                System.out.println("store checkpoint file physicOffset " + this.physicOffset
+                        + ", logicsOffset " + this.logicsOffset);
+            } else {
+                System.out.println("store checkpoint file crc check failed, recover from the first file");
+            }
+        }
+    }
+
+    public void shutdown() {
+        this.flush();
+
+        MappedFile.clean(this.mappedByteBuffer);
+
+        try {
+            this.fileChannel.close();
+            this.randomAccessFile.close();
+        } catch (IOException e) {
+            System.err.println("Failed to properly close the channel");
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized void flush() {
+        this.mappedByteBuffer.putLong(PHYSIC_OFFSET_POSITION, this.physicOffset);
+        this.mappedByteBuffer.putLong(LOGICS_OFFSET_POSITION, this.logicsOffset);
+        this.mappedByteBuffer.putInt(CRC_POSITION, UtilAll.crc32c(this.mappedByteBuffer, 0, CRC_POSITION));
+        this.mappedByteBuffer.force();
+    }
+
+    public long getPhysicOffset() {
+        return physicOffset;
+    }
+
+    public void setPhysicOffset(long physicOffset) {
+        this.physicOffset = physicOffset;
+    }
+
+    public long getLogicsOffset() {
+        return logicsOffset;
+    }
+
+    public void setLogicsOffset(long logicsOffset) {
+        this.logicsOffset = logicsOffset;
+    }
+}
@@ -0,0 +1,292 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.tiered.BlobStore;
+import com.yumi.step2.tiered.BlockCache;
+import com.yumi.step2.util.UtilAll;
+import com.yumi.utils.ServiceThread;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * commit log分层存储。写满并刷盘的文件上传到BlobStore，本地副本超过tieredLocalReservedTime、
+ * 并且已经分发完之后unmap删除，二级存储中的文件超过tieredFileReservedTime小时后删除。
+ * 本地已经没有的偏移量从二级存储读，按块经过BlockCache，读到的是堆内存拷贝，不持有任何文件引用。
+ */
+public class TieredStoreService extends ServiceThread {
+    private final MessageStoreConfig messageStoreConfig;
+    private final MappedFileQueue mappedFileQueue;
+    private final BlobStore blobStore;
+    private final BlockCache blockCache;
+    //已上传的文件，起始偏移量 -> 文件大小
+    private final ConcurrentSkipListMap<Long, Long> offloadedSegments = new ConcurrentSkipListMap<>();
+    private volatile LongSupplier dispatchedOffsetSupplier;
+    private final AtomicLong readTimes = new AtomicLong(0);
+    private final AtomicLong readBytes = new AtomicLong(0);
+    private volatile long uploadTimes = 0;
+    private volatile long uploadBytes = 0;
+    private volatile long deleteLocalTimes = 0;
+    private volatile long expireTimes = 0;
+
+    public TieredStoreService(final MessageStoreConfig messageStoreConfig, final MappedFileQueue mappedFileQueue,
+                              final BlobStore blobStore) {
+        this.messageStoreConfig = messageStoreConfig;
+        this.mappedFileQueue = mappedFileQueue;
+        this.blobStore = blobStore;
+        this.blockCache = new BlockCache(blobStore, messageStoreConfig.getTieredBlockSize(),
+                messageStoreConfig.getTieredBlockCacheSize());
+    }
+
+    /**
+     * 从二级存储恢复已上传的文件列表
+     */
+    public boolean load() {
+        for (String key : this.blobStore.list()) {
+            try {
+                long fileFromOffset = Long.parseLong(key);
+                long size = this.blobStore.size(key);
+                if (size > 0) {
+                    this.offloadedSegments.put(fileFromOffset, size);
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("skip tiered file " + key);
+            }
+        }
+        System.out.println("load tiered commit log OK, " + this.offloadedSegments.size() + " files");
+        return true;
+    }
+
+    public void offload() {
+        this.uploadSealedFiles();
+        this.deleteLocalFiles();
+        this.deleteExpiredSegments();
+    }
+
+    /**
+     * 按顺序上传写满并且已经刷盘的文件，不上传最后一个文件
+     */
+    private void uploadSealedFiles() {
+        Object[] mfs = this.mappedFileQueue.getMappedFiles().toArray();
+        for (int i = 0; i < mfs.length - 1 && !this.isStopped(); i++) {
+            MappedFile mappedFile = (MappedFile) mfs[i];
+            long fileFromOffset = mappedFile.getFileFromOffset();
+            if (this.offloadedSegments.containsKey(fileFromOffset)) {
+                continue;
+            }
+            if (!mappedFile.isFull()
+                    || this.mappedFileQueue.getFlushedWhere() < fileFromOffset + mappedFile.getFileSize()) {
+                break;
+            }
+            if (!mappedFile.hold()) {
+                continue;
+            }
+            try {
+                long beginTime = System.currentTimeMillis();
+                this.blobStore.put(UtilAll.offset2FileName(fileFromOffset), mappedFile.getFile());
+                this.offloadedSegments.put(fileFromOffset, (long) mappedFile.getFileSize());
+                this.uploadTimes++;
+                this.uploadBytes += mappedFile.getFileSize();
+                System.out.println("upload " + mappedFile.getFileName() + " to tiered store, cost "
+                        + (System.currentTimeMillis() - beginTime) + "ms");
+            } catch (IOException e) {
+                System.err.println("upload " + mappedFile.getFileName() + " failed");
+                e.printStackTrace();
+                break;
+            } finally {
+                mappedFile.release();
+            }
+        }
+    }
+
+    /**
+     * 已上传、超过本地保留时间并且已经分发完的文件从头部开始删除
+     */
+    private void deleteLocalFiles() {
+        final long now = System.currentTimeMillis();
+        final long reservedTime = this.messageStoreConfig.getTieredLocalReservedTime();
+        LongSupplier supplier = this.dispatchedOffsetSupplier;
+        final long dispatchedOffset = supplier == null ? Long.MAX_VALUE : supplier.getAsLong();
+        int deleteCount = this.mappedFileQueue.deleteFirstFiles(
+                mappedFile -> this.offloadedSegments.containsKey(mappedFile.getFileFromOffset())
+                        && now - mappedFile.getLastModifiedTimestamp() >= reservedTime
+                        && mappedFile.getFileFromOffset() + mappedFile.getFileSize() <= dispatchedOffset,
+                this.messageStoreConfig.getDestroyMapedFileIntervalForcibly(),
+                this.messageStoreConfig.getDeleteFileBatchMax());
+        if (deleteCount > 0) {
+            this.deleteLocalTimes += deleteCount;
+            System.out.println("delete " + deleteCount + " local commit log files after offload");
+        }
+    }
+
+    /**
+     * 二级存储中过期的文件从头部开始删除，本地还有副本的交给CleanCommitLogService
+     */
+    private void deleteExpiredSegments() {
+        long now = System.currentTimeMillis();
+        long reservedTime = this.messageStoreConfig.getTieredFileReservedTime() * 60L * 60 * 1000;
+        long localMinOffset = this.mappedFileQueue.getMinOffset();
+        for (Long fileFromOffset : this.offloadedSegments.keySet()) {
+            if (localMinOffset >= 0 && fileFromOffset >= localMinOffset) {
+                break;
+            }
+            String key = UtilAll.offset2FileName(fileFromOffset);
+            if (now - this.blobStore.lastModified(key) < reservedTime) {
+                break;
+            }
+            //先不再对外可见，再删除
+            this.offloadedSegments.remove(fileFromOffset);
+            boolean result = this.blobStore.delete(key);
+            this.blockCache.invalidate(key);
+            this.expireTimes++;
+            System.out.println("delete expired tiered file " + key + (result ? " OK" : " Failed"));
+        }
+    }
+
+    /**
+     * @return 从offset开始的完整记录，最多tieredReadAheadSize字节(第一条记录更大时返回这一条)，
+     * 不在二级存储中时返回null
+     */
+    public SelectMappedBufferResult getData(final long offset) {
+        Map.Entry<Long, Long> segment = this.offloadedSegments.floorEntry(offset);
+        if (segment == null || offset >= segment.getKey() + segment.getValue()) {
+            return null;
+        }
+        long pos = offset - segment.getKey();
+        long remain = segment.getValue() - pos;
+        int size = (int) Math.min(remain, this.messageStoreConfig.getTieredReadAheadSize());
+        ByteBuffer byteBuffer = this.read(segment.getKey(), pos, size);
+        if (byteBuffer == null) {
+            return null;
+        }
+
+        int valid = 0;
+        while (valid + 8 <= size) {
+            int totalSize = byteBuffer.getInt(valid);
+            if (totalSize <= 0 || valid + totalSize > size) {
+                if (valid == 0 && totalSize > size && totalSize <= remain) {
+                    byteBuffer = this.read(segment.getKey(), pos, totalSize);
+                    if (byteBuffer == null) {
+                        return null;
+                    }
+                    valid = totalSize;
+                }
+                break;
+            }
+            valid += totalSize;
+        }
+        //格式不对时原样返回，由调用方校验
+        if (valid == 0) {
+            valid = size;
+        }
+        byteBuffer.limit(valid);
+        return new SelectMappedBufferResult(offset, byteBuffer, valid, null);
+    }
+
+    public SelectMappedBufferResult selectMappedBuffer(final long offset, final int size) {
+        Map.Entry<Long, Long> segment = this.offloadedSegments.floorEntry(offset);
+        if (segment == null || size <= 0 || offset + size > segment.getKey() + segment.getValue()) {
+            return null;
+        }
+        ByteBuffer byteBuffer = this.read(segment.getKey(), offset - segment.getKey(), size);
+        if (byteBuffer == null) {
+            return null;
+        }
+        return new SelectMappedBufferResult(offset, byteBuffer, size, null);
+    }
+
+    private ByteBuffer read(final long fileFromOffset, final long pos, final int size) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+        try {
+            this.blockCache.read(UtilAll.offset2FileName(fileFromOffset), pos, byteBuffer);
+        } catch (IOException e) {
+            System.err.println("read tiered file " + fileFromOffset + " at " + pos + " failed, " + e.getMessage());
+            return null;
+        }
+        byteBuffer.flip();
+        this.readTimes.incrementAndGet();
+        this.readBytes.addAndGet(size);
+        return byteBuffer;
+    }
+
+    /**
+     * @return 二级存储中最小的偏移量，没有文件时返回-1
+     */
+    public long getMinOffset() {
+        Map.Entry<Long, Long> first = this.offloadedSegments.firstEntry();
+        return first == null ? -1 : first.getKey();
+    }
+
+    public boolean isOffloaded(final long fileFromOffset) {
+        return this.offloadedSegments.containsKey(fileFromOffset);
+    }
+
+    public int getOffloadedFileNums() {
+        return this.offloadedSegments.size();
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                this.waitForRunning(this.messageStoreConfig.getTieredCheckInterval());
+                this.offload();
+            } catch (Exception e) {
+                System.err.println(this.getServiceName() + " service has exception. ");
+                e.printStackTrace();
+            }
+        }
+
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    /**
+     * @param dispatchedOffsetSupplier 已经分发到consume queue的commit log偏移量，没设置时不检查
+     */
+    public void setDispatchedOffsetSupplier(LongSupplier dispatchedOffsetSupplier) {
+        this.dispatchedOffsetSupplier = dispatchedOffsetSupplier;
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public long getReadTimes() {
+        return readTimes.get();
+    }
+
+    public long getReadBytes() {
+        return readBytes.get();
+    }
+
+    public long getUploadTimes() {
+        return uploadTimes;
+    }
+
+    public long getUploadBytes() {
+        return uploadBytes;
+    }
+
+    public long getDeleteLocalTimes() {
+        return deleteLocalTimes;
+    }
+
+    public long getExpireTimes() {
+        return expireTimes;
+    }
+
+    @Override
+    public String getServiceName() {
+        return TieredStoreService.class.getSimpleName();
+    }
+}
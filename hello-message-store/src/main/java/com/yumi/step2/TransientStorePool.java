@@ -0,0 +1,99 @@
+package com.yumi.step2;
+
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.yumi.step2.util.LibC;
+import com.yumi.step2.util.MmapBackend;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预先分配并锁定的堆外写缓冲池。MappedFile初始化时借出，commit到fileSize后归还，
+ * 避免每次滚动文件都分配一块fileSize大小的堆外内存。
+ */
+public class TransientStorePool {
+    private final int poolSize;
+    private final int fileSize;
+    private final Deque<ByteBuffer> availableBuffers;
+    private final AtomicLong borrowTimes = new AtomicLong(0);
+    private final AtomicLong returnTimes = new AtomicLong(0);
+    //池子耗尽，MappedFile退化为直接写mmap的次数
+    private final AtomicLong exhaustedTimes = new AtomicLong(0);
+
+    public TransientStorePool(final int poolSize, final int fileSize) {
+        this.poolSize = poolSize;
+        this.fileSize = fileSize;
+        this.availableBuffers = new ConcurrentLinkedDeque<>();
+    }
+
+    public void init() {
+        for (int i = 0; i < poolSize; i++) {
+            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(fileSize);
+
+            final long address = MmapBackend.INSTANCE.address(byteBuffer);
+            Pointer pointer = new Pointer(address);
+            LibC.INSTANCE.mlock(pointer, new NativeLong(fileSize));
+
+            availableBuffers.offer(byteBuffer);
+        }
+    }
+
+    public void destroy() {
+        for (ByteBuffer byteBuffer : availableBuffers) {
+            final long address = MmapBackend.INSTANCE.address(byteBuffer);
+            Pointer pointer = new Pointer(address);
+            LibC.INSTANCE.munlock(pointer, new NativeLong(fileSize));
+        }
+    }
+
+    public void returnBuffer(ByteBuffer byteBuffer) {
+        byteBuffer.position(0);
+        byteBuffer.limit(fileSize);
+        this.availableBuffers.offerFirst(byteBuffer);
+        this.returnTimes.incrementAndGet();
+    }
+
+    /**
+     * @return 池子耗尽时返回null，调用方需要退化为直接写mmap
+     */
+    public ByteBuffer borrowBuffer() {
+        ByteBuffer buffer = availableBuffers.pollFirst();
+        if (buffer == null) {
+            exhaustedTimes.incrementAndGet();
+            System.out.println("transient store pool exhausted, fall back to mmap write, pool size: " + poolSize);
+            return null;
+        }
+        borrowTimes.incrementAndGet();
+        if (availableBuffers.size() < poolSize * 0.4) {
+            System.out.println("transient store pool only remain " + availableBuffers.size() + " sheets.");
+        }
+        return buffer;
+    }
+
+    public int availableBufferNums() {
+        return availableBuffers.size();
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getFileSize() {
+        return fileSize;
+    }
+
+    public long getBorrowTimes() {
+        return borrowTimes.get();
+    }
+
+    public long getReturnTimes() {
+        return returnTimes.get();
+    }
+
+    public long getExhaustedTimes() {
+        return exhaustedTimes.get();
+    }
+}
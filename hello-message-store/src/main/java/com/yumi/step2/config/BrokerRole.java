@@ -0,0 +1,8 @@
+package com.yumi.step2.config;
+
+public enum BrokerRole {
+    ASYNC_MASTER,
+    //等到至少一个从节点确认后才返回
+    SYNC_MASTER,
+    SLAVE
+}
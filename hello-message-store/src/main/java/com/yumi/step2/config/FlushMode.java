@@ -0,0 +1,20 @@
+package com.yumi.step2.config;
+
+/**
+ * MappedFile刷盘的方式
+ */
+public enum FlushMode {
+    /**
+     * mmap模式MappedByteBuffer.force()，writeBuffer模式FileChannel.force(false)，都是整个文件
+     */
+    FORCE,
+    /**
+     * 只msync按页对齐的脏区间[flushedPosition, readPosition)，MS_SYNC等待写回完成
+     */
+    RANGE_MS_SYNC,
+    /**
+     * 按页数刷盘时只msync(MS_ASYNC)脏区间，提交写回不等待，flushedPosition不推进；
+     * 全量刷盘或者文件写满时按RANGE_MS_SYNC刷，这时才推进flushedPosition。同步刷盘时按RANGE_MS_SYNC处理
+     */
+    RANGE_MS_ASYNC
+}
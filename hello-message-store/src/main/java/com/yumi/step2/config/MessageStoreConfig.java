@@ -0,0 +1,714 @@
+package com.yumi.step2.config;
+
+import com.yumi.step2.ConsumeQueue;
+
+import java.io.File;
+
+public class MessageStoreConfig {
+    private String storePathRootDir = System.getProperty("user.home") + File.separator + "store";
+
+    private String storePathCommitLog = storePathRootDir + File.separator + "commitlog";
+
+    // CommitLog file size,default is 1G
+    private int mappedFileSizeCommitLog = 1024 * 1024 * 1024;
+
+    // ConsumeQueue file size,default is 30W
+    private int mappedFileSizeConsumeQueue = 300000 * ConsumeQueue.CQ_STORE_UNIT_SIZE;
+
+    private int flushIntervalConsumeQueue = 1000;
+    private int flushConsumeQueueLeastPages = 2;
+    private int flushConsumeQueueThoroughInterval = 1000 * 60;
+
+    private FlushDiskType flushDiskType = FlushDiskType.ASYNC_FLUSH;
+
+    //同步刷盘等待超时时间
+    private int syncFlushTimeout = 1000 * 5;
+
+    //异步刷盘线程的刷盘间隔
+    private int flushIntervalCommitLog = 500;
+    //true为固定间隔sleep，false为可被写入唤醒
+    private boolean flushCommitLogTimed = false;
+    //FORCE每次刷整个文件，RANGE_*只msync脏区间
+    private FlushMode flushMode = FlushMode.FORCE;
+    private int flushCommitLogLeastPages = 4;
+    //超过该间隔没有做过全量刷盘，则忽略flushCommitLogLeastPages刷一次
+    private int flushCommitLogThoroughInterval = 1000 * 10;
+
+    //writeBuffer模式下commit线程的间隔
+    private int commitIntervalCommitLog = 200;
+    private int commitCommitLogLeastPages = 4;
+    private int commitCommitLogThoroughInterval = 200;
+
+    private PutMessageLockType putMessageLockType = PutMessageLockType.SPIN;
+
+    //只在异步刷盘时生效
+    private boolean transientStorePoolEnable = false;
+    private int transientStorePoolSize = 5;
+
+    //后台预分配下一个commit log文件
+    private boolean allocateMappedFileServiceEnable = true;
+    //同时预分配下下个文件
+    private boolean allocateNextNextFileEnable = true;
+    //预分配时逐页写入并mlock
+    private boolean warmMappedFileEnable = false;
+    //同步刷盘时预热过程中每写这么多页刷一次盘
+    private int flushLeastPagesWhenWarmMappedFile = 1024 / 4 * 16;
+
+    //按key建索引
+    private boolean messageIndexEnable = true;
+    private int maxHashSlotNum = 5000000;
+    private int maxIndexNum = 5000000 * 4;
+
+    //恢复时并行校验commit log文件的线程数
+    private int recoverThreadPoolNums = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    //commit log文件保留的小时数
+    private int fileReservedTime = 72;
+    //允许按时间删除过期文件的时段(小时)，多个用;分隔
+    private String deleteWhen = "04";
+    //磁盘使用率超过这个百分比时不看保留时间和时段，强制删除最早的文件
+    private int diskMaxUsedSpaceRatio = 75;
+    //检查是否需要清理的间隔
+    private int cleanResourceInterval = 10000;
+    //一轮里连续删除两个commit log文件之间的停顿
+    private int deleteCommitLogFilesInterval = 100;
+    //一轮最多删除的文件数
+    private int deleteFileBatchMax = 10;
+    //文件还被引用时，第一次删除后超过这个时间强制释放
+    private int destroyMapedFileIntervalForcibly = 1000 * 120;
+    //重试删除没删成功的第一个文件的间隔
+    private int redeleteHangedFileInterval = 1000 * 120;
+
+    //拉消息前用mincore检查要读的页，不在page cache中的交给单独的线程池读
+    private boolean coldReadEnable = true;
+    //要读的页在page cache中的百分比低于这个值就算冷读
+    private int hotReadMinResidentPercent = 100;
+    private int coldReadThreadPoolNums = 2;
+    private int coldReadThreadPoolQueueCapacity = 1024;
+
+    //没有新消息时把拉取请求挂起，新消息分发到队列后立即唤醒
+    private boolean longPollingEnable = true;
+    //检查挂起请求是否超时的间隔，也是超时的精度
+    private int pullRequestCheckInterval = 100;
+    //被唤醒的请求在这个线程池里读消息，不占用分发线程
+    private int pullWakeupThreadPoolNums = 2;
+
+    //分发时把消息属性写成布隆过滤器位图存到consume queue扩展文件，带过滤表达式的拉取不用读commit log就能跳过不匹配的消息
+    //位图长度由下面两个参数决定，已有数据后不能修改
+    private boolean consumeQueueExtEnable = false;
+    //布隆过滤器误判率百分比
+    private int bitMapErrorRate = 10;
+    //每条消息参与计算的属性个数的预估值
+    private int bitMapExpectedProperties = 16;
+    //一次带过滤的拉取最多扫描的consume queue条目数，都不匹配时返回NO_MATCHED_MESSAGE
+    private int maxFilterMessageCount = 16000;
+
+    //mlock锁定的commit log总大小不超过物理内存的这个百分比
+    private int maxLockedMemoryPercent = 25;
+    //检查写文件切换和消费进度并调整madvise的间隔
+    private int memoryAdviseInterval = 1000;
+
+    //启动时把StoreMetrics注册到平台MBeanServer
+    private boolean metricsJmxEnable = true;
+
+    //写满并刷盘的commit log文件上传到二级存储，本地副本过期后删除，读旧数据时从二级存储读
+    private boolean tieredStoreEnable = false;
+    //默认二级存储LocalDirBlobStore的目录
+    private String storePathTiered = storePathRootDir + File.separator + "tiered";
+    //上传后本地副本保留的毫秒数，按文件最后修改时间算
+    private long tieredLocalReservedTime = 1000L * 60 * 60 * 6;
+    //二级存储中的文件保留的小时数
+    private int tieredFileReservedTime = 24 * 14;
+    private int tieredCheckInterval = 1000 * 10;
+    //从二级存储读的粒度，也是读缓存的单位
+    private int tieredBlockSize = 1024 * 64;
+    private long tieredBlockCacheSize = 1024L * 1024 * 64;
+    //顺序读(分发和getMessages)一次从二级存储读的最大字节数
+    private int tieredReadAheadSize = 1024 * 1024;
+    //上传时按块压缩，读的时候只解压需要的块
+    private boolean tieredCompressEnable = false;
+    private int tieredCompressBlockSize = 1024 * 64;
+    //Deflater压缩级别，默认BEST_SPEED
+    private int tieredCompressLevel = 1;
+    //解压后缓存的块数
+    private int tieredCompressCacheBlocks = 16;
+
+    private BrokerRole brokerRole = BrokerRole.ASYNC_MASTER;
+    //主节点接受从节点连接的端口，小于0时不开启复制，0时随机选一个端口
+    private int haListenPort = -1;
+    //从节点连接的主节点地址，host:port
+    private String haMasterAddress = null;
+    //主节点没有新数据、从节点没有新的确认时也按这个间隔发心跳
+    private int haSendHeartbeatInterval = 1000 * 5;
+    //超过这个时间没有收到对端的数据就断开连接
+    private int haHousekeepingInterval = 1000 * 20;
+    //主节点一次最多发送的字节数
+    private int haTransferBatchSize = 1024 * 32;
+    //从节点落后超过这个字节数时SYNC_MASTER不再等它，直接返回SLAVE_NOT_AVAILABLE
+    private int haMaxGapNotInSync = 1024 * 1024 * 256;
+
+    public String getStorePathRootDir() {
+        return storePathRootDir;
+    }
+
+    public void setStorePathRootDir(String storePathRootDir) {
+        this.storePathRootDir = storePathRootDir;
+    }
+
+    public String getStorePathCommitLog() {
+        return storePathCommitLog;
+    }
+
+    public void setStorePathCommitLog(String storePathCommitLog) {
+        this.storePathCommitLog = storePathCommitLog;
+    }
+
+    public int getMappedFileSizeCommitLog() {
+        return mappedFileSizeCommitLog;
+    }
+
+    public void setMappedFileSizeCommitLog(int mappedFileSizeCommitLog) {
+        this.mappedFileSizeCommitLog = mappedFileSizeCommitLog;
+    }
+
+    public int getMappedFileSizeConsumeQueue() {
+        int factor = (int) Math.ceil(this.mappedFileSizeConsumeQueue / (ConsumeQueue.CQ_STORE_UNIT_SIZE * 1.0));
+        return factor * ConsumeQueue.CQ_STORE_UNIT_SIZE;
+    }
+
+    public void setMappedFileSizeConsumeQueue(int mappedFileSizeConsumeQueue) {
+        this.mappedFileSizeConsumeQueue = mappedFileSizeConsumeQueue;
+    }
+
+    public int getFlushIntervalConsumeQueue() {
+        return flushIntervalConsumeQueue;
+    }
+
+    public void setFlushIntervalConsumeQueue(int flushIntervalConsumeQueue) {
+        this.flushIntervalConsumeQueue = flushIntervalConsumeQueue;
+    }
+
+    public int getFlushConsumeQueueLeastPages() {
+        return flushConsumeQueueLeastPages;
+    }
+
+    public void setFlushConsumeQueueLeastPages(int flushConsumeQueueLeastPages) {
+        this.flushConsumeQueueLeastPages = flushConsumeQueueLeastPages;
+    }
+
+    public int getFlushConsumeQueueThoroughInterval() {
+        return flushConsumeQueueThoroughInterval;
+    }
+
+    public void setFlushConsumeQueueThoroughInterval(int flushConsumeQueueThoroughInterval) {
+        this.flushConsumeQueueThoroughInterval = flushConsumeQueueThoroughInterval;
+    }
+
+    public FlushDiskType getFlushDiskType() {
+        return flushDiskType;
+    }
+
+    public void setFlushDiskType(FlushDiskType flushDiskType) {
+        this.flushDiskType = flushDiskType;
+    }
+
+    public int getSyncFlushTimeout() {
+        return syncFlushTimeout;
+    }
+
+    public void setSyncFlushTimeout(int syncFlushTimeout) {
+        this.syncFlushTimeout = syncFlushTimeout;
+    }
+
+    public int getFlushIntervalCommitLog() {
+        return flushIntervalCommitLog;
+    }
+
+    public void setFlushIntervalCommitLog(int flushIntervalCommitLog) {
+        this.flushIntervalCommitLog = flushIntervalCommitLog;
+    }
+
+    public boolean isFlushCommitLogTimed() {
+        return flushCommitLogTimed;
+    }
+
+    public void setFlushCommitLogTimed(boolean flushCommitLogTimed) {
+        this.flushCommitLogTimed = flushCommitLogTimed;
+    }
+
+    public int getFlushCommitLogLeastPages() {
+        return flushCommitLogLeastPages;
+    }
+
+    public void setFlushCommitLogLeastPages(int flushCommitLogLeastPages) {
+        this.flushCommitLogLeastPages = flushCommitLogLeastPages;
+    }
+
+    public int getFlushCommitLogThoroughInterval() {
+        return flushCommitLogThoroughInterval;
+    }
+
+    public void setFlushCommitLogThoroughInterval(int flushCommitLogThoroughInterval) {
+        this.flushCommitLogThoroughInterval = flushCommitLogThoroughInterval;
+    }
+
+    public int getCommitIntervalCommitLog() {
+        return commitIntervalCommitLog;
+    }
+
+    public void setCommitIntervalCommitLog(int commitIntervalCommitLog) {
+        this.commitIntervalCommitLog = commitIntervalCommitLog;
+    }
+
+    public int getCommitCommitLogLeastPages() {
+        return commitCommitLogLeastPages;
+    }
+
+    public void setCommitCommitLogLeastPages(int commitCommitLogLeastPages) {
+        this.commitCommitLogLeastPages = commitCommitLogLeastPages;
+    }
+
+    public int getCommitCommitLogThoroughInterval() {
+        return commitCommitLogThoroughInterval;
+    }
+
+    public void setCommitCommitLogThoroughInterval(int commitCommitLogThoroughInterval) {
+        this.commitCommitLogThoroughInterval = commitCommitLogThoroughInterval;
+    }
+
+    public PutMessageLockType getPutMessageLockType() {
+        return putMessageLockType;
+    }
+
+    public void setPutMessageLockType(PutMessageLockType putMessageLockType) {
+        this.putMessageLockType = putMessageLockType;
+    }
+
+    public boolean isTransientStorePoolEnable() {
+        //从节点按主节点的偏移量直接写文件，不经过writeBuffer
+        return transientStorePoolEnable && FlushDiskType.ASYNC_FLUSH == getFlushDiskType()
+                && BrokerRole.SLAVE != getBrokerRole();
+    }
+
+    public void setTransientStorePoolEnable(boolean transientStorePoolEnable) {
+        this.transientStorePoolEnable = transientStorePoolEnable;
+    }
+
+    public int getTransientStorePoolSize() {
+        return transientStorePoolSize;
+    }
+
+    public void setTransientStorePoolSize(int transientStorePoolSize) {
+        this.transientStorePoolSize = transientStorePoolSize;
+    }
+
+    public int getRecoverThreadPoolNums() {
+        return recoverThreadPoolNums;
+    }
+
+    public void setRecoverThreadPoolNums(int recoverThreadPoolNums) {
+        this.recoverThreadPoolNums = recoverThreadPoolNums;
+    }
+
+    public boolean isAllocateMappedFileServiceEnable() {
+        return allocateMappedFileServiceEnable;
+    }
+
+    public void setAllocateMappedFileServiceEnable(boolean allocateMappedFileServiceEnable) {
+        this.allocateMappedFileServiceEnable = allocateMappedFileServiceEnable;
+    }
+
+    public boolean isAllocateNextNextFileEnable() {
+        return allocateNextNextFileEnable;
+    }
+
+    public void setAllocateNextNextFileEnable(boolean allocateNextNextFileEnable) {
+        this.allocateNextNextFileEnable = allocateNextNextFileEnable;
+    }
+
+    public boolean isWarmMappedFileEnable() {
+        return warmMappedFileEnable;
+    }
+
+    public void setWarmMappedFileEnable(boolean warmMappedFileEnable) {
+        this.warmMappedFileEnable = warmMappedFileEnable;
+    }
+
+    public int getFlushLeastPagesWhenWarmMappedFile() {
+        return flushLeastPagesWhenWarmMappedFile;
+    }
+
+    public void setFlushLeastPagesWhenWarmMappedFile(int flushLeastPagesWhenWarmMappedFile) {
+        this.flushLeastPagesWhenWarmMappedFile = flushLeastPagesWhenWarmMappedFile;
+    }
+
+    public boolean isMessageIndexEnable() {
+        return messageIndexEnable;
+    }
+
+    public void setMessageIndexEnable(boolean messageIndexEnable) {
+        this.messageIndexEnable = messageIndexEnable;
+    }
+
+    public int getMaxHashSlotNum() {
+        return maxHashSlotNum;
+    }
+
+    public void setMaxHashSlotNum(int maxHashSlotNum) {
+        this.maxHashSlotNum = maxHashSlotNum;
+    }
+
+    public int getMaxIndexNum() {
+        return maxIndexNum;
+    }
+
+    public void setMaxIndexNum(int maxIndexNum) {
+        this.maxIndexNum = maxIndexNum;
+    }
+
+    public int getFileReservedTime() {
+        return fileReservedTime;
+    }
+
+    public void setFileReservedTime(int fileReservedTime) {
+        this.fileReservedTime = fileReservedTime;
+    }
+
+    public String getDeleteWhen() {
+        return deleteWhen;
+    }
+
+    public void setDeleteWhen(String deleteWhen) {
+        this.deleteWhen = deleteWhen;
+    }
+
+    public int getDiskMaxUsedSpaceRatio() {
+        if (this.diskMaxUsedSpaceRatio < 1) {
+            return 1;
+        }
+        if (this.diskMaxUsedSpaceRatio > 95) {
+            return 95;
+        }
+        return diskMaxUsedSpaceRatio;
+    }
+
+    public void setDiskMaxUsedSpaceRatio(int diskMaxUsedSpaceRatio) {
+        this.diskMaxUsedSpaceRatio = diskMaxUsedSpaceRatio;
+    }
+
+    public int getCleanResourceInterval() {
+        return cleanResourceInterval;
+    }
+
+    public void setCleanResourceInterval(int cleanResourceInterval) {
+        this.cleanResourceInterval = cleanResourceInterval;
+    }
+
+    public int getDeleteCommitLogFilesInterval() {
+        return deleteCommitLogFilesInterval;
+    }
+
+    public void setDeleteCommitLogFilesInterval(int deleteCommitLogFilesInterval) {
+        this.deleteCommitLogFilesInterval = deleteCommitLogFilesInterval;
+    }
+
+    public int getDeleteFileBatchMax() {
+        return deleteFileBatchMax;
+    }
+
+    public void setDeleteFileBatchMax(int deleteFileBatchMax) {
+        this.deleteFileBatchMax = deleteFileBatchMax;
+    }
+
+    public int getDestroyMapedFileIntervalForcibly() {
+        return destroyMapedFileIntervalForcibly;
+    }
+
+    public void setDestroyMapedFileIntervalForcibly(int destroyMapedFileIntervalForcibly) {
+        this.destroyMapedFileIntervalForcibly = destroyMapedFileIntervalForcibly;
+    }
+
+    public int getRedeleteHangedFileInterval() {
+        return redeleteHangedFileInterval;
+    }
+
+    public void setRedeleteHangedFileInterval(int redeleteHangedFileInterval) {
+        this.redeleteHangedFileInterval = redeleteHangedFileInterval;
+    }
+
+    public boolean isColdReadEnable() {
+        return coldReadEnable;
+    }
+
+    public void setColdReadEnable(boolean coldReadEnable) {
+        this.coldReadEnable = coldReadEnable;
+    }
+
+    public int getHotReadMinResidentPercent() {
+        return hotReadMinResidentPercent;
+    }
+
+    public void setHotReadMinResidentPercent(int hotReadMinResidentPercent) {
+        this.hotReadMinResidentPercent = hotReadMinResidentPercent;
+    }
+
+    public int getColdReadThreadPoolNums() {
+        return coldReadThreadPoolNums;
+    }
+
+    public void setColdReadThreadPoolNums(int coldReadThreadPoolNums) {
+        this.coldReadThreadPoolNums = coldReadThreadPoolNums;
+    }
+
+    public int getColdReadThreadPoolQueueCapacity() {
+        return coldReadThreadPoolQueueCapacity;
+    }
+
+    public void setColdReadThreadPoolQueueCapacity(int coldReadThreadPoolQueueCapacity) {
+        this.coldReadThreadPoolQueueCapacity = coldReadThreadPoolQueueCapacity;
+    }
+
+    public boolean isLongPollingEnable() {
+        return longPollingEnable;
+    }
+
+    public void setLongPollingEnable(boolean longPollingEnable) {
+        this.longPollingEnable = longPollingEnable;
+    }
+
+    public int getPullRequestCheckInterval() {
+        return pullRequestCheckInterval;
+    }
+
+    public void setPullRequestCheckInterval(int pullRequestCheckInterval) {
+        this.pullRequestCheckInterval = pullRequestCheckInterval;
+    }
+
+    public int getPullWakeupThreadPoolNums() {
+        return pullWakeupThreadPoolNums;
+    }
+
+    public void setPullWakeupThreadPoolNums(int pullWakeupThreadPoolNums) {
+        this.pullWakeupThreadPoolNums = pullWakeupThreadPoolNums;
+    }
+
+    public boolean isConsumeQueueExtEnable() {
+        return consumeQueueExtEnable;
+    }
+
+    public void setConsumeQueueExtEnable(boolean consumeQueueExtEnable) {
+        this.consumeQueueExtEnable = consumeQueueExtEnable;
+    }
+
+    public int getBitMapErrorRate() {
+        return bitMapErrorRate;
+    }
+
+    public void setBitMapErrorRate(int bitMapErrorRate) {
+        this.bitMapErrorRate = bitMapErrorRate;
+    }
+
+    public int getBitMapExpectedProperties() {
+        return bitMapExpectedProperties;
+    }
+
+    public void setBitMapExpectedProperties(int bitMapExpectedProperties) {
+        this.bitMapExpectedProperties = bitMapExpectedProperties;
+    }
+
+    public int getMaxFilterMessageCount() {
+        return maxFilterMessageCount;
+    }
+
+    public void setMaxFilterMessageCount(int maxFilterMessageCount) {
+        this.maxFilterMessageCount = maxFilterMessageCount;
+    }
+
+    public int getMaxLockedMemoryPercent() {
+        return maxLockedMemoryPercent;
+    }
+
+    public void setMaxLockedMemoryPercent(int maxLockedMemoryPercent) {
+        this.maxLockedMemoryPercent = maxLockedMemoryPercent;
+    }
+
+    public int getMemoryAdviseInterval() {
+        return memoryAdviseInterval;
+    }
+
+    public void setMemoryAdviseInterval(int memoryAdviseInterval) {
+        this.memoryAdviseInterval = memoryAdviseInterval;
+    }
+
+    public FlushMode getFlushMode() {
+        //同步刷盘要等数据落盘再返回，MS_ASYNC不等待写回完成
+        if (FlushMode.RANGE_MS_ASYNC == flushMode && FlushDiskType.SYNC_FLUSH == getFlushDiskType()) {
+            return FlushMode.RANGE_MS_SYNC;
+        }
+        return flushMode;
+    }
+
+    public void setFlushMode(FlushMode flushMode) {
+        this.flushMode = flushMode;
+    }
+
+    public boolean isMetricsJmxEnable() {
+        return metricsJmxEnable;
+    }
+
+    public void setMetricsJmxEnable(boolean metricsJmxEnable) {
+        this.metricsJmxEnable = metricsJmxEnable;
+    }
+
+    public boolean isTieredStoreEnable() {
+        return tieredStoreEnable;
+    }
+
+    public void setTieredStoreEnable(boolean tieredStoreEnable) {
+        this.tieredStoreEnable = tieredStoreEnable;
+    }
+
+    public String getStorePathTiered() {
+        return storePathTiered;
+    }
+
+    public void setStorePathTiered(String storePathTiered) {
+        this.storePathTiered = storePathTiered;
+    }
+
+    public long getTieredLocalReservedTime() {
+        return tieredLocalReservedTime;
+    }
+
+    public void setTieredLocalReservedTime(long tieredLocalReservedTime) {
+        this.tieredLocalReservedTime = tieredLocalReservedTime;
+    }
+
+    public int getTieredFileReservedTime() {
+        return tieredFileReservedTime;
+    }
+
+    public void setTieredFileReservedTime(int tieredFileReservedTime) {
+        this.tieredFileReservedTime = tieredFileReservedTime;
+    }
+
+    public int getTieredCheckInterval() {
+        return tieredCheckInterval;
+    }
+
+    public void setTieredCheckInterval(int tieredCheckInterval) {
+        this.tieredCheckInterval = tieredCheckInterval;
+    }
+
+    public int getTieredBlockSize() {
+        return tieredBlockSize;
+    }
+
+    public void setTieredBlockSize(int tieredBlockSize) {
+        this.tieredBlockSize = tieredBlockSize;
+    }
+
+    public long getTieredBlockCacheSize() {
+        return tieredBlockCacheSize;
+    }
+
+    public void setTieredBlockCacheSize(long tieredBlockCacheSize) {
+        this.tieredBlockCacheSize = tieredBlockCacheSize;
+    }
+
+    public int getTieredReadAheadSize() {
+        return tieredReadAheadSize;
+    }
+
+    public void setTieredReadAheadSize(int tieredReadAheadSize) {
+        this.tieredReadAheadSize = tieredReadAheadSize;
+    }
+
+    public boolean isTieredCompressEnable() {
+        return tieredCompressEnable;
+    }
+
+    public void setTieredCompressEnable(boolean tieredCompressEnable) {
+        this.tieredCompressEnable = tieredCompressEnable;
+    }
+
+    public int getTieredCompressBlockSize() {
+        return tieredCompressBlockSize;
+    }
+
+    public void setTieredCompressBlockSize(int tieredCompressBlockSize) {
+        this.tieredCompressBlockSize = tieredCompressBlockSize;
+    }
+
+    public int getTieredCompressLevel() {
+        return tieredCompressLevel;
+    }
+
+    public void setTieredCompressLevel(int tieredCompressLevel) {
+        this.tieredCompressLevel = tieredCompressLevel;
+    }
+
+    public int getTieredCompressCacheBlocks() {
+        return tieredCompressCacheBlocks;
+    }
+
+    public void setTieredCompressCacheBlocks(int tieredCompressCacheBlocks) {
+        this.tieredCompressCacheBlocks = tieredCompressCacheBlocks;
+    }
+
+    public BrokerRole getBrokerRole() {
+        return brokerRole;
+    }
+
+    public void setBrokerRole(BrokerRole brokerRole) {
+        this.brokerRole = brokerRole;
+    }
+
+    public int getHaListenPort() {
+        return haListenPort;
+    }
+
+    public void setHaListenPort(int haListenPort) {
+        this.haListenPort = haListenPort;
+    }
+
+    public String getHaMasterAddress() {
+        return haMasterAddress;
+    }
+
+    public void setHaMasterAddress(String haMasterAddress) {
+        this.haMasterAddress = haMasterAddress;
+    }
+
+    public int getHaSendHeartbeatInterval() {
+        return haSendHeartbeatInterval;
+    }
+
+    public void setHaSendHeartbeatInterval(int haSendHeartbeatInterval) {
+        this.haSendHeartbeatInterval = haSendHeartbeatInterval;
+    }
+
+    public int getHaHousekeepingInterval() {
+        return haHousekeepingInterval;
+    }
+
+    public void setHaHousekeepingInterval(int haHousekeepingInterval) {
+        this.haHousekeepingInterval = haHousekeepingInterval;
+    }
+
+    public int getHaTransferBatchSize() {
+        return haTransferBatchSize;
+    }
+
+    public void setHaTransferBatchSize(int haTransferBatchSize) {
+        this.haTransferBatchSize = haTransferBatchSize;
+    }
+
+    public int getHaMaxGapNotInSync() {
+        return haMaxGapNotInSync;
+    }
+
+    public void setHaMaxGapNotInSync(int haMaxGapNotInSync) {
+        this.haMaxGapNotInSync = haMaxGapNotInSync;
+    }
+}
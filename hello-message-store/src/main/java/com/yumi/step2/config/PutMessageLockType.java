@@ -0,0 +1,8 @@
+package com.yumi.step2.config;
+
+public enum PutMessageLockType {
+    SPIN,
+    REENTRANT,
+    //CAS预留写入位置，不加锁
+    LOCK_FREE
+}
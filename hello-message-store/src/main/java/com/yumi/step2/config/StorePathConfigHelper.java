@@ -0,0 +1,22 @@
+package com.yumi.step2.config;
+
+import java.io.File;
+
+public class StorePathConfigHelper {
+
+    public static String getStorePathConsumeQueue(final String rootDir) {
+        return rootDir + File.separator + "consumequeue";
+    }
+
+    public static String getStorePathConsumeQueueExt(final String rootDir) {
+        return rootDir + File.separator + "consumequeue_ext";
+    }
+
+    public static String getStoreCheckpoint(final String rootDir) {
+        return rootDir + File.separator + "checkpoint";
+    }
+
+    public static String getStorePathIndex(final String rootDir) {
+        return rootDir + File.separator + "index";
+    }
+}
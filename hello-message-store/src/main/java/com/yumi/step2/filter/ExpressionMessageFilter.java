@@ -0,0 +1,105 @@
+package com.yumi.step2.filter;
+
+import com.yumi.step2.message.MessageConst;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订阅表达式，只支持属性相等的与："TAGS=TagA &amp;&amp; KEYS=order-1 &amp;&amp; region=eu"，KEYS匹配消息的任意一个key，
+ * 空串或者"*"匹配所有消息。
+ * 先用consume queue扩展文件里的位图排除一定不匹配的消息，布隆过滤器会误判，位图命中的消息再按commit log里的属性精确匹配。
+ */
+public class ExpressionMessageFilter {
+    public static final String SUB_ALL = "*";
+    private static final String AND = "&&";
+    private final String expression;
+    private final List<String[]> conditions = new ArrayList<>();
+    //和conditions一一对应，没有布隆过滤器时为null
+    private final List<int[]> bitPositions;
+
+    /**
+     * @param bloomFilter 存储的布隆过滤器参数，为null时只按commit log过滤
+     * @throws IllegalArgumentException 表达式格式不对
+     */
+    public ExpressionMessageFilter(final String expression, final MessageBloomFilter bloomFilter) {
+        this.expression = expression;
+        if (expression != null && !expression.trim().isEmpty() && !SUB_ALL.equals(expression.trim())) {
+            for (String item : expression.split(AND)) {
+                String condition = item.trim();
+                int index = condition.indexOf('=');
+                if (index <= 0) {
+                    throw new IllegalArgumentException("illegal subscription expression: " + expression);
+                }
+                this.conditions.add(new String[]{condition.substring(0, index).trim(),
+                        condition.substring(index + 1).trim()});
+            }
+        }
+        if (bloomFilter == null) {
+            this.bitPositions = null;
+        } else {
+            this.bitPositions = new ArrayList<>(this.conditions.size());
+            for (String[] condition : this.conditions) {
+                this.bitPositions.add(bloomFilter.calcBitPositions(condition[0], condition[1]));
+            }
+        }
+    }
+
+    public boolean isSubAll() {
+        return this.conditions.isEmpty();
+    }
+
+    /**
+     * @param bitMap 扩展文件的缓冲区，为null时没有位图信息，按可能匹配处理
+     * @param index  这条消息的位图在缓冲区中的起始位置
+     * @return false时一定不匹配
+     */
+    public boolean isMatchedByConsumeQueue(final ByteBuffer bitMap, final int index) {
+        if (bitMap == null || this.bitPositions == null) {
+            return true;
+        }
+        for (int[] positions : this.bitPositions) {
+            if (!MessageBloomFilter.isHit(positions, bitMap, index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isMatchedByCommitLog(final Map<String, String> properties) {
+        for (String[] condition : this.conditions) {
+            String value = properties == null ? null : properties.get(condition[0]);
+            if (value == null) {
+                return false;
+            }
+            if (MessageConst.PROPERTY_KEYS.equals(condition[0])) {
+                if (!containsKey(value, condition[1])) {
+                    return false;
+                }
+            } else if (!value.equals(condition[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsKey(final String keys, final String key) {
+        for (String k : keys.split(MessageConst.KEY_SEPARATOR)) {
+            if (k.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionMessageFilter{" + this.expression + "}";
+    }
+}
@@ -0,0 +1,73 @@
+package com.yumi.step2.filter;
+
+import com.yumi.step2.message.MessageConst;
+import com.yumi.utils.bloom.BitsArray;
+import com.yumi.utils.bloom.BloomFilter;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * 把一条消息的属性算成布隆过滤器位图。每个属性按"name=value"计算位置，KEYS按空格拆开后每个key单独计算，
+ * TOPIC和QUEUE_ID每条都一样不参与计算。位图的位布局和BitsArray一致：第i位在第i/8个字节的第i%8位。
+ */
+public class MessageBloomFilter {
+    private static final char NAME_VALUE_SEPARATOR = '=';
+    private final BloomFilter bloomFilter;
+
+    public MessageBloomFilter(final int errorRate, final int expectedProperties) {
+        this.bloomFilter = BloomFilter.createByFn(errorRate, expectedProperties);
+    }
+
+    public byte[] calcBitMap(final Map<String, String> properties) {
+        BitsArray bits = BitsArray.create(this.bloomFilter.getM());
+        if (properties == null) {
+            return bits.bytes();
+        }
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String name = entry.getKey();
+            String value = entry.getValue();
+            if (MessageConst.PROPERTY_TOPIC.equals(name) || MessageConst.PROPERTY_QUEUE_ID.equals(name)
+                    || value == null) {
+                continue;
+            }
+            if (MessageConst.PROPERTY_KEYS.equals(name)) {
+                for (String key : value.split(MessageConst.KEY_SEPARATOR)) {
+                    if (!key.isEmpty()) {
+                        this.bloomFilter.hashTo(this.calcBitPositions(name, key), bits);
+                    }
+                }
+            } else {
+                this.bloomFilter.hashTo(this.calcBitPositions(name, value), bits);
+            }
+        }
+        return bits.bytes();
+    }
+
+    public int[] calcBitPositions(final String name, final String value) {
+        return this.bloomFilter.calcBitPositions(name + NAME_VALUE_SEPARATOR + value);
+    }
+
+    /**
+     * 直接在扩展文件的缓冲区上检查，不复制出BitsArray
+     *
+     * @param index 位图在缓冲区中的起始位置
+     */
+    public static boolean isHit(final int[] bitPositions, final ByteBuffer bitMap, final int index) {
+        for (int pos : bitPositions) {
+            if ((bitMap.get(index + pos / Byte.SIZE) & (1 << pos % Byte.SIZE)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getBitMapByteLength() {
+        return this.bloomFilter.getM() / Byte.SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBloomFilter{" + this.bloomFilter + "}";
+    }
+}
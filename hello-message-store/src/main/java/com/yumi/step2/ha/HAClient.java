@@ -0,0 +1,234 @@
+package com.yumi.step2.ha;
+
+import com.yumi.step2.CommitLog;
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.utils.ServiceThread;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 从节点连接主节点，收到的数据按主节点的偏移量追加到本地commit log，追加后或者到心跳时间时上报最大偏移量。
+ * 主节点推过来的偏移量和本地最大偏移量不一致时断开重连，重连后从本地最大偏移量重新开始。
+ */
+public class HAClient extends ServiceThread {
+    private static final int READ_MAX_BUFFER_SIZE = 1024 * 1024 * 4;
+    private final MessageStoreConfig messageStoreConfig;
+    private final CommitLog commitLog;
+    private final ByteBuffer reportOffset = ByteBuffer.allocate(8);
+    private final ByteBuffer byteBufferRead;
+    private SocketChannel socketChannel;
+    private Selector selector;
+    private long currentReportedOffset = 0;
+    private long lastWriteTimestamp = 0;
+    private long lastReadTimestamp = System.currentTimeMillis();
+    private volatile long receivedBytes = 0;
+
+    public HAClient(final MessageStoreConfig messageStoreConfig, final CommitLog commitLog) {
+        this.messageStoreConfig = messageStoreConfig;
+        this.commitLog = commitLog;
+        //至少放得下一段完整的数据
+        this.byteBufferRead = ByteBuffer.allocate(Math.max(READ_MAX_BUFFER_SIZE,
+                HAConnection.HEADER_SIZE + messageStoreConfig.getHaTransferBatchSize()));
+    }
+
+    private boolean connectMaster() throws IOException {
+        if (this.socketChannel != null) {
+            return true;
+        }
+        String addr = this.messageStoreConfig.getHaMasterAddress();
+        if (addr == null || addr.isEmpty()) {
+            return false;
+        }
+        int index = addr.lastIndexOf(':');
+        SocketChannel sc = SocketChannel.open();
+        try {
+            sc.socket().setTcpNoDelay(true);
+            sc.connect(new InetSocketAddress(addr.substring(0, index), Integer.parseInt(addr.substring(index + 1))));
+            sc.configureBlocking(false);
+            this.selector = Selector.open();
+            sc.register(this.selector, SelectionKey.OP_READ);
+        } catch (IOException | RuntimeException e) {
+            sc.close();
+            throw e;
+        }
+        this.socketChannel = sc;
+        this.currentReportedOffset = this.commitLog.getMaxOffset();
+        this.lastWriteTimestamp = 0;
+        this.lastReadTimestamp = System.currentTimeMillis();
+        this.byteBufferRead.clear();
+        System.out.println("HAClient connect to master " + addr + ", slave max offset " + this.currentReportedOffset);
+        return true;
+    }
+
+    private void closeMaster() {
+        if (this.socketChannel == null) {
+            return;
+        }
+        try {
+            this.selector.close();
+            this.socketChannel.close();
+        } catch (IOException e) {
+            System.err.println("HAClient close connection failed");
+        }
+        System.out.println("HAClient close connection to master " + this.messageStoreConfig.getHaMasterAddress());
+        this.socketChannel = null;
+        this.selector = null;
+    }
+
+    private boolean reportSlaveMaxOffset(final long maxOffset) {
+        this.reportOffset.clear();
+        this.reportOffset.putLong(maxOffset);
+        this.reportOffset.flip();
+        //非阻塞写，8个字节一般一次就写完
+        for (int i = 0; i < 3 && this.reportOffset.hasRemaining(); i++) {
+            try {
+                this.socketChannel.write(this.reportOffset);
+            } catch (IOException e) {
+                System.err.println("HAClient report offset to master failed, " + e);
+                return false;
+            }
+        }
+        this.lastWriteTimestamp = System.currentTimeMillis();
+        return !this.reportOffset.hasRemaining();
+    }
+
+    private boolean processReadEvent() {
+        int readSizeZeroTimes = 0;
+        while (this.byteBufferRead.hasRemaining()) {
+            try {
+                int readSize = this.socketChannel.read(this.byteBufferRead);
+                if (readSize > 0) {
+                    readSizeZeroTimes = 0;
+                    this.lastReadTimestamp = System.currentTimeMillis();
+                    if (!this.dispatchReadRequest()) {
+                        return false;
+                    }
+                } else if (readSize == 0) {
+                    if (++readSizeZeroTimes >= 3) {
+                        break;
+                    }
+                } else {
+                    System.out.println("HAClient read -1, master closed the connection");
+                    return false;
+                }
+            } catch (IOException e) {
+                System.err.println("HAClient read from master failed, " + e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 处理缓冲区中完整的数据段，剩下不完整的移到缓冲区开头
+     */
+    private boolean dispatchReadRequest() {
+        this.byteBufferRead.flip();
+        try {
+            while (this.byteBufferRead.remaining() >= HAConnection.HEADER_SIZE) {
+                int pos = this.byteBufferRead.position();
+                long masterPhyOffset = this.byteBufferRead.getLong(pos);
+                int bodySize = this.byteBufferRead.getInt(pos + 8);
+                if (bodySize < 0 || HAConnection.HEADER_SIZE + bodySize > this.byteBufferRead.capacity()) {
+                    System.err.println("HAClient receive illegal body size " + bodySize + " at " + masterPhyOffset);
+                    return false;
+                }
+                if (this.byteBufferRead.remaining() < HAConnection.HEADER_SIZE + bodySize) {
+                    break;
+                }
+                long slavePhyOffset = this.commitLog.getMaxOffset();
+                //本地还没有数据时接受主节点的起始偏移量
+                if (slavePhyOffset != 0 && slavePhyOffset != masterPhyOffset) {
+                    System.err.println("master pushed offset not equal the max phy offset in slave, slave: "
+                            + slavePhyOffset + ", master: " + masterPhyOffset);
+                    return false;
+                }
+                if (bodySize > 0 && !this.commitLog.appendData(masterPhyOffset, this.byteBufferRead.array(),
+                        this.byteBufferRead.arrayOffset() + pos + HAConnection.HEADER_SIZE, bodySize)) {
+                    return false;
+                }
+                this.receivedBytes += bodySize;
+                this.byteBufferRead.position(pos + HAConnection.HEADER_SIZE + bodySize);
+            }
+        } finally {
+            this.byteBufferRead.compact();
+        }
+        return this.reportSlaveMaxOffsetPlus();
+    }
+
+    private boolean reportSlaveMaxOffsetPlus() {
+        long currentPhyOffset = this.commitLog.getMaxOffset();
+        if (currentPhyOffset > this.currentReportedOffset) {
+            this.currentReportedOffset = currentPhyOffset;
+            return this.reportSlaveMaxOffset(currentPhyOffset);
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        System.out.println(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                if (!this.connectMaster()) {
+                    this.waitForRunning(1000 * 5);
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (now - this.lastWriteTimestamp > this.messageStoreConfig.getHaSendHeartbeatInterval()
+                        && !this.reportSlaveMaxOffset(this.currentReportedOffset)) {
+                    this.closeMaster();
+                    continue;
+                }
+                this.selector.select(1000);
+                if (!this.processReadEvent()) {
+                    this.closeMaster();
+                    continue;
+                }
+                if (System.currentTimeMillis() - this.lastReadTimestamp
+                        > this.messageStoreConfig.getHaHousekeepingInterval()) {
+                    System.out.println("HAClient housekeeping, found this connection "
+                            + this.messageStoreConfig.getHaMasterAddress() + " expired");
+                    this.closeMaster();
+                }
+            } catch (Exception e) {
+                System.err.println(this.getServiceName() + " service has exception, " + e);
+                this.closeMaster();
+                this.waitForRunning(1000 * 5);
+            }
+        }
+        this.closeMaster();
+
+        System.out.println(this.getServiceName() + " service end");
+    }
+
+    @Override
+    public void shutdown() {
+        //唤醒select
+        Selector selector = this.selector;
+        this.makeStop();
+        if (selector != null) {
+            selector.wakeup();
+        }
+        super.shutdown();
+    }
+
+    public boolean isConnected() {
+        return this.socketChannel != null;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    @Override
+    public String getServiceName() {
+        return HAClient.class.getSimpleName();
+    }
+}
@@ -0,0 +1,244 @@
+package com.yumi.step2.ha;
+
+import com.yumi.step2.CommitLog;
+import com.yumi.step2.MappedFile;
+import com.yumi.step2.SelectMappedBufferResult;
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.utils.ServiceThread;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 主节点上和一个从节点的连接，阻塞模式的SocketChannel，读写各一个线程。
+ * 主节点发送：
+ * <pre>
+ * PHY_OFFSET 8  这段数据在commit log中的起始偏移量
+ * BODY_SIZE  4  为0时是心跳
+ * BODY          commit log原样的字节，不会跨文件
+ * </pre>
+ * 从节点发送8字节的最大偏移量，第一次上报的偏移量决定从哪里开始发送。
+ * 本地文件中的数据用FileChannel.transferTo直接从page cache发到socket，二级存储中的数据写读出来的堆内存。
+ */
+public class HAConnection {
+    public static final int HEADER_SIZE = 8 + 4;
+    private final HAService haService;
+    private final CommitLog commitLog;
+    private final MessageStoreConfig messageStoreConfig;
+    private final SocketChannel socketChannel;
+    private final String clientAddr;
+    private final ReadSocketService readSocketService;
+    private final WriteSocketService writeSocketService;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    //从节点第一次上报的偏移量，上报之前为-1
+    private volatile long slaveRequestOffset = -1;
+    private volatile long slaveAckOffset = -1;
+    private volatile long lastReadTimestamp = System.currentTimeMillis();
+    private volatile long transferBytes = 0;
+
+    public HAConnection(final HAService haService, final SocketChannel socketChannel) throws IOException {
+        this.haService = haService;
+        this.commitLog = haService.getCommitLog();
+        this.messageStoreConfig = haService.getMessageStoreConfig();
+        this.socketChannel = socketChannel;
+        this.clientAddr = String.valueOf(socketChannel.socket().getRemoteSocketAddress());
+        this.socketChannel.configureBlocking(true);
+        this.socketChannel.socket().setTcpNoDelay(true);
+        this.socketChannel.socket().setSoLinger(false, -1);
+        this.readSocketService = new ReadSocketService();
+        this.writeSocketService = new WriteSocketService();
+    }
+
+    public void start() {
+        this.readSocketService.start();
+        this.writeSocketService.start();
+    }
+
+    public void shutdown() {
+        this.close();
+        this.readSocketService.shutdown();
+        this.writeSocketService.shutdown();
+    }
+
+    /**
+     * 任一个线程出错都关掉整个连接，关闭socket让另一个线程从阻塞的读写中返回
+     */
+    private void close() {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+        this.readSocketService.makeStop();
+        this.writeSocketService.makeStop();
+        this.writeSocketService.wakeup();
+        try {
+            this.socketChannel.close();
+        } catch (IOException e) {
+            System.err.println("close HAConnection " + this.clientAddr + " failed");
+        }
+        this.haService.removeConnection(this);
+        System.out.println("HAConnection " + this.clientAddr + " closed, slave ack offset " + this.slaveAckOffset);
+    }
+
+    void wakeupWrite() {
+        this.writeSocketService.wakeup();
+    }
+
+    public String getClientAddr() {
+        return clientAddr;
+    }
+
+    public long getSlaveAckOffset() {
+        return slaveAckOffset;
+    }
+
+    public long getTransferBytes() {
+        return transferBytes;
+    }
+
+    class ReadSocketService extends ServiceThread {
+        private final ByteBuffer byteBufferRead = ByteBuffer.allocate(8);
+
+        @Override
+        public void run() {
+            System.out.println(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    this.byteBufferRead.clear();
+                    while (this.byteBufferRead.hasRemaining()) {
+                        if (HAConnection.this.socketChannel.read(this.byteBufferRead) < 0) {
+                            throw new EOFException("slave closed the connection");
+                        }
+                    }
+                    long offset = this.byteBufferRead.getLong(0);
+                    HAConnection.this.lastReadTimestamp = System.currentTimeMillis();
+                    HAConnection.this.slaveAckOffset = offset;
+                    if (HAConnection.this.slaveRequestOffset < 0) {
+                        HAConnection.this.slaveRequestOffset = offset;
+                        HAConnection.this.writeSocketService.wakeup();
+                        System.out.println("slave " + HAConnection.this.clientAddr + " request offset " + offset);
+                    }
+                    HAConnection.this.haService.notifyTransferSome(offset);
+                } catch (Exception e) {
+                    if (!this.isStopped()) {
+                        System.err.println(this.getServiceName() + " service has exception, " + e);
+                    }
+                    break;
+                }
+            }
+            HAConnection.this.close();
+
+            System.out.println(this.getServiceName() + " service end");
+        }
+
+        @Override
+        public String getServiceName() {
+            return ReadSocketService.class.getSimpleName();
+        }
+    }
+
+    class WriteSocketService extends ServiceThread {
+        private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(HEADER_SIZE);
+        private long nextTransferFromWhere = -1;
+        private long lastWriteTimestamp = 0;
+
+        @Override
+        public void run() {
+            System.out.println(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    if (HAConnection.this.slaveRequestOffset < 0) {
+                        this.waitForRunning(10);
+                        continue;
+                    }
+                    if (this.nextTransferFromWhere < 0) {
+                        //新的从节点从主节点现有的第一个文件开始同步
+                        this.nextTransferFromWhere = HAConnection.this.slaveRequestOffset == 0
+                                ? Math.max(0, HAConnection.this.commitLog.getMinOffset())
+                                : HAConnection.this.slaveRequestOffset;
+                        System.out.println("master transfer data to " + HAConnection.this.clientAddr + " from "
+                                + this.nextTransferFromWhere);
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now - HAConnection.this.lastReadTimestamp
+                            > HAConnection.this.messageStoreConfig.getHaHousekeepingInterval()) {
+                        System.out.println("slave " + HAConnection.this.clientAddr + " expired, last read "
+                                + HAConnection.this.lastReadTimestamp);
+                        break;
+                    }
+
+                    SelectMappedBufferResult result = null;
+                    if (this.nextTransferFromWhere < HAConnection.this.commitLog.getMaxOffset()) {
+                        result = HAConnection.this.commitLog.getData(this.nextTransferFromWhere);
+                    }
+                    if (result == null) {
+                        if (now - this.lastWriteTimestamp
+                                > HAConnection.this.messageStoreConfig.getHaSendHeartbeatInterval()) {
+                            this.writeHeader(this.nextTransferFromWhere, 0);
+                            this.lastWriteTimestamp = now;
+                        }
+                        this.waitForRunning(100);
+                        continue;
+                    }
+                    try {
+                        int size = Math.min(result.getSize(),
+                                HAConnection.this.messageStoreConfig.getHaTransferBatchSize());
+                        this.writeHeader(this.nextTransferFromWhere, size);
+                        this.transfer(result, size);
+                        this.nextTransferFromWhere += size;
+                        this.lastWriteTimestamp = System.currentTimeMillis();
+                        HAConnection.this.transferBytes += size;
+                    } finally {
+                        result.release();
+                    }
+                } catch (Exception e) {
+                    if (!this.isStopped()) {
+                        System.err.println(this.getServiceName() + " service has exception, " + e);
+                    }
+                    break;
+                }
+            }
+            HAConnection.this.close();
+
+            System.out.println(this.getServiceName() + " service end");
+        }
+
+        private void writeHeader(final long offset, final int size) throws IOException {
+            this.byteBufferHeader.clear();
+            this.byteBufferHeader.putLong(offset);
+            this.byteBufferHeader.putInt(size);
+            this.byteBufferHeader.flip();
+            while (this.byteBufferHeader.hasRemaining()) {
+                HAConnection.this.socketChannel.write(this.byteBufferHeader);
+            }
+        }
+
+        private void transfer(final SelectMappedBufferResult result, final int size) throws IOException {
+            MappedFile mappedFile = result.getMappedFile();
+            if (mappedFile == null) {
+                ByteBuffer byteBuffer = result.getByteBuffer().slice();
+                byteBuffer.limit(size);
+                while (byteBuffer.hasRemaining()) {
+                    HAConnection.this.socketChannel.write(byteBuffer);
+                }
+                return;
+            }
+            long position = result.getStartOffset() - mappedFile.getFileFromOffset();
+            long transferred = 0;
+            while (transferred < size) {
+                transferred += mappedFile.getFileChannel().transferTo(position + transferred, size - transferred,
+                        HAConnection.this.socketChannel);
+            }
+        }
+
+        @Override
+        public String getServiceName() {
+            return WriteSocketService.class.getSimpleName();
+        }
+    }
+}
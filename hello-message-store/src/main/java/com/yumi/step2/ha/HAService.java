@@ -0,0 +1,306 @@
+package com.yumi.step2.ha;
+
+import com.yumi.step2.CommitLog;
+import com.yumi.step2.GroupCommitService;
+import com.yumi.step2.PutMessageStatus;
+import com.yumi.step2.config.BrokerRole;
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.utils.ServiceThread;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * commit log主从复制。主节点接受从节点的连接，每个连接一个HAConnection，从从节点上报的偏移量开始
+ * 把commit log原样推给它；从节点由HAClient按相同的偏移量追加，再把自己的最大偏移量报回来。
+ * SYNC_MASTER写入后在GroupTransferService里等，任意一个从节点确认越过这条消息后返回。
+ */
+public class HAService {
+    private final MessageStoreConfig messageStoreConfig;
+    private final CommitLog commitLog;
+    private final List<HAConnection> connectionList = new CopyOnWriteArrayList<>();
+    //从节点上没有
+    private final AcceptSocketService acceptSocketService;
+    private final GroupTransferService groupTransferService;
+    //主节点上没有
+    private final HAClient haClient;
+    //从节点确认过的最大偏移量
+    private final AtomicLong push2SlaveMaxOffset = new AtomicLong(0);
+
+    public HAService(final MessageStoreConfig messageStoreConfig, final CommitLog commitLog) {
+        this.messageStoreConfig = messageStoreConfig;
+        this.commitLog = commitLog;
+        if (BrokerRole.SLAVE == messageStoreConfig.getBrokerRole()) {
+            this.acceptSocketService = null;
+            this.haClient = new HAClient(messageStoreConfig, commitLog);
+        } else {
+            this.acceptSocketService = new AcceptSocketService(Math.max(0, messageStoreConfig.getHaListenPort()));
+            this.haClient = null;
+        }
+        this.groupTransferService = new GroupTransferService();
+    }
+
+    /**
+     * @throws IOException 主节点监听端口失败
+     */
+    public void start() throws IOException {
+        if (this.acceptSocketService != null) {
+            this.acceptSocketService.beginAccept();
+            this.acceptSocketService.start();
+        }
+        this.groupTransferService.start();
+        if (this.haClient != null) {
+            this.haClient.start();
+        }
+    }
+
+    public void shutdown() {
+        if (this.haClient != null) {
+            this.haClient.shutdown();
+        }
+        if (this.acceptSocketService != null) {
+            this.acceptSocketService.shutdown(true);
+        }
+        for (HAConnection connection : this.connectionList) {
+            connection.shutdown();
+        }
+        this.groupTransferService.shutdown();
+    }
+
+    /**
+     * @return 有从节点连着并且落后不超过haMaxGapNotInSync，SYNC_MASTER才等从节点确认
+     */
+    public boolean isSlaveOK(final long masterPutWhere) {
+        return !this.connectionList.isEmpty()
+                && masterPutWhere - this.push2SlaveMaxOffset.get() < this.messageStoreConfig.getHaMaxGapNotInSync();
+    }
+
+    public void putRequest(final GroupCommitService.GroupCommitRequest request) {
+        this.groupTransferService.putRequest(request);
+    }
+
+    /**
+     * 从节点确认了新的偏移量
+     */
+    void notifyTransferSome(final long offset) {
+        for (long value = this.push2SlaveMaxOffset.get(); offset > value; ) {
+            if (this.push2SlaveMaxOffset.compareAndSet(value, offset)) {
+                this.groupTransferService.wakeup();
+                break;
+            }
+            value = this.push2SlaveMaxOffset.get();
+        }
+    }
+
+    /**
+     * commit log写入了新数据，唤醒所有连接的发送线程
+     */
+    public void notifyNewData() {
+        for (HAConnection connection : this.connectionList) {
+            connection.wakeupWrite();
+        }
+    }
+
+    void removeConnection(final HAConnection connection) {
+        this.connectionList.remove(connection);
+    }
+
+    public int getConnectionCount() {
+        return this.connectionList.size();
+    }
+
+    public List<HAConnection> getConnectionList() {
+        return connectionList;
+    }
+
+    public long getPush2SlaveMaxOffset() {
+        return push2SlaveMaxOffset.get();
+    }
+
+    /**
+     * @return 主节点实际监听的端口，从节点上返回-1
+     */
+    public int getListenPort() {
+        return this.acceptSocketService == null ? -1 : this.acceptSocketService.getListenPort();
+    }
+
+    /**
+     * @return 主节点上为null
+     */
+    public HAClient getHaClient() {
+        return haClient;
+    }
+
+    public MessageStoreConfig getMessageStoreConfig() {
+        return messageStoreConfig;
+    }
+
+    public CommitLog getCommitLog() {
+        return commitLog;
+    }
+
+    class AcceptSocketService extends ServiceThread {
+        private final int port;
+        private ServerSocketChannel serverSocketChannel;
+        private Selector selector;
+
+        AcceptSocketService(final int port) {
+            this.port = port;
+        }
+
+        void beginAccept() throws IOException {
+            this.serverSocketChannel = ServerSocketChannel.open();
+            this.selector = Selector.open();
+            this.serverSocketChannel.socket().setReuseAddress(true);
+            this.serverSocketChannel.socket().bind(new InetSocketAddress(this.port));
+            this.serverSocketChannel.configureBlocking(false);
+            this.serverSocketChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+            System.out.println("HAService listen on port " + this.getListenPort());
+        }
+
+        int getListenPort() {
+            return this.serverSocketChannel == null ? -1 : this.serverSocketChannel.socket().getLocalPort();
+        }
+
+        @Override
+        public void shutdown(final boolean interrupt) {
+            super.shutdown(interrupt);
+            if (this.serverSocketChannel == null) {
+                return;
+            }
+            try {
+                this.selector.close();
+                this.serverSocketChannel.close();
+            } catch (IOException e) {
+                System.err.println("close HAService server socket failed");
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void run() {
+            System.out.println(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    this.selector.select(1000);
+                    for (SelectionKey key : this.selector.selectedKeys()) {
+                        if (!key.isAcceptable()) {
+                            continue;
+                        }
+                        SocketChannel sc = ((ServerSocketChannel) key.channel()).accept();
+                        if (sc == null) {
+                            continue;
+                        }
+                        System.out.println("HAService receive new connection, " + sc.socket().getRemoteSocketAddress());
+                        try {
+                            HAConnection connection = new HAConnection(HAService.this, sc);
+                            HAService.this.connectionList.add(connection);
+                            connection.start();
+                        } catch (IOException e) {
+                            System.err.println("new HAConnection failed");
+                            e.printStackTrace();
+                            sc.close();
+                        }
+                    }
+                    this.selector.selectedKeys().clear();
+                } catch (Exception e) {
+                    if (!this.isStopped()) {
+                        System.err.println(this.getServiceName() + " service has exception. ");
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            System.out.println(this.getServiceName() + " service end");
+        }
+
+        @Override
+        public String getServiceName() {
+            return AcceptSocketService.class.getSimpleName();
+        }
+    }
+
+    /**
+     * 和GroupCommitService一样交换读写队列批量检查，从节点确认越过请求的偏移量后完成future
+     */
+    class GroupTransferService extends ServiceThread {
+        private volatile LinkedList<GroupCommitService.GroupCommitRequest> requestsWrite = new LinkedList<>();
+        private volatile LinkedList<GroupCommitService.GroupCommitRequest> requestsRead = new LinkedList<>();
+        private final Object lock = new Object();
+
+        void putRequest(final GroupCommitService.GroupCommitRequest request) {
+            synchronized (this.lock) {
+                this.requestsWrite.add(request);
+            }
+            this.wakeup();
+        }
+
+        private void swapRequests() {
+            synchronized (this.lock) {
+                LinkedList<GroupCommitService.GroupCommitRequest> tmp = this.requestsWrite;
+                this.requestsWrite = this.requestsRead;
+                this.requestsRead = tmp;
+            }
+        }
+
+        private void doWaitTransfer() {
+            if (this.requestsRead.isEmpty()) {
+                return;
+            }
+            long ackOffset = HAService.this.push2SlaveMaxOffset.get();
+            long now = System.currentTimeMillis();
+            for (GroupCommitService.GroupCommitRequest req : this.requestsRead) {
+                if (ackOffset >= req.getNextOffset()) {
+                    req.wakeupCustomer(PutMessageStatus.PUT_OK);
+                } else if (now >= req.getDeadLine() || this.isStopped()) {
+                    req.wakeupCustomer(PutMessageStatus.FLUSH_SLAVE_TIMEOUT);
+                } else {
+                    synchronized (this.lock) {
+                        this.requestsWrite.add(req);
+                    }
+                }
+            }
+            this.requestsRead = new LinkedList<>();
+        }
+
+        @Override
+        public void run() {
+            System.out.println(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    this.waitForRunning(10);
+                    this.doWaitTransfer();
+                } catch (Exception e) {
+                    System.err.println(this.getServiceName() + " service has exception. ");
+                    e.printStackTrace();
+                }
+            }
+
+            //关闭时还在等的请求都按超时返回
+            this.swapRequests();
+            this.doWaitTransfer();
+
+            System.out.println(this.getServiceName() + " service end");
+        }
+
+        @Override
+        protected void onWaitEnd() {
+            this.swapRequests();
+        }
+
+        @Override
+        public String getServiceName() {
+            return GroupTransferService.class.getSimpleName();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.yumi.step2.index;
+
+import com.yumi.step2.MappedFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.List;
+
+/**
+ * 按key查询消息的哈希索引文件：文件头 + 哈希槽 + 索引条目。
+ * <pre>
+ * 哈希槽   4   该槽最新条目的编号，0表示空
+ * 索引条目 KEY_HASH(4) + PHY_OFFSET(8) + TIME_DIFF(4, 相对beginTimestamp的秒数) + PREV_INDEX(4)
+ * </pre>
+ * 条目按写入顺序追加，同一个槽的条目通过PREV_INDEX串成链表，查询时读一个槽再沿链表读几个条目。
+ */
+public class IndexFile {
+    private static final int HASH_SLOT_SIZE = 4;
+    private static final int INDEX_SIZE = 20;
+    private static final int INVALID_INDEX = 0;
+    private final int hashSlotNum;
+    private final int indexNum;
+    private final MappedFile mappedFile;
+    private final MappedByteBuffer mappedByteBuffer;
+    private final IndexHeader indexHeader;
+    //上次刷盘时的条目数，之后没有新条目就不用再刷
+    private volatile int flushedIndexCount;
+
+    public IndexFile(final String fileName, final int hashSlotNum, final int indexNum,
+                     final long endPhyOffset, final long endTimestamp) throws IOException {
+        this.mappedFile = new MappedFile(fileName, fileSize(hashSlotNum, indexNum));
+        this.mappedByteBuffer = this.mappedFile.getMappedByteBuffer();
+        this.hashSlotNum = hashSlotNum;
+        this.indexNum = indexNum;
+
+        ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
+        this.indexHeader = new IndexHeader(byteBuffer);
+
+        if (endPhyOffset > 0) {
+            this.indexHeader.setBeginPhyOffset(endPhyOffset);
+            this.indexHeader.setEndPhyOffset(endPhyOffset);
+        }
+
+        if (endTimestamp > 0) {
+            this.indexHeader.setBeginTimestamp(endTimestamp);
+            this.indexHeader.setEndTimestamp(endTimestamp);
+        }
+    }
+
+    public static int fileSize(final int hashSlotNum, final int indexNum) {
+        return IndexHeader.INDEX_HEADER_SIZE + (hashSlotNum * HASH_SLOT_SIZE) + (indexNum * INDEX_SIZE);
+    }
+
+    public String getFileName() {
+        return this.mappedFile.getFileName();
+    }
+
+    public void load() {
+        this.indexHeader.load();
+        this.flushedIndexCount = this.indexHeader.getIndexCount();
+    }
+
+    /**
+     * @return 有还没刷盘的条目
+     */
+    public boolean isDirty() {
+        return this.indexHeader.getIndexCount() > this.flushedIndexCount;
+    }
+
+    public void flush() {
+        long beginTime = System.currentTimeMillis();
+        if (this.mappedFile.hold()) {
+            //先取条目数再刷盘，刷盘时新写入的条目留到下次
+            int indexCount = this.indexHeader.getIndexCount();
+            this.indexHeader.updateByteBuffer();
+            this.mappedByteBuffer.force();
+            this.flushedIndexCount = indexCount;
+            this.mappedFile.release();
+            System.out.println("flush index file elapsed time(ms) " + (System.currentTimeMillis() - beginTime));
+        }
+    }
+
+    public boolean isWriteFull() {
+        return this.indexHeader.getIndexCount() >= this.indexNum;
+    }
+
+    public boolean destroy(final long intervalForcibly) {
+        return this.mappedFile.destroy(intervalForcibly);
+    }
+
+    /**
+     * 只由分发线程调用
+     *
+     * @return 文件已写满返回false
+     */
+    public boolean putKey(final String key, final long phyOffset, final long storeTimestamp) {
+        if (this.indexHeader.getIndexCount() < this.indexNum) {
+            int keyHash = indexKeyHashMethod(key);
+            int slotPos = keyHash % this.hashSlotNum;
+            int absSlotPos = IndexHeader.INDEX_HEADER_SIZE + slotPos * HASH_SLOT_SIZE;
+
+            int slotValue = this.mappedByteBuffer.getInt(absSlotPos);
+            if (slotValue <= INVALID_INDEX || slotValue > this.indexHeader.getIndexCount()) {
+                slotValue = INVALID_INDEX;
+            }
+
+            long timeDiff = storeTimestamp - this.indexHeader.getBeginTimestamp();
+            timeDiff = timeDiff / 1000;
+            if (this.indexHeader.getBeginTimestamp() <= 0) {
+                timeDiff = 0;
+            } else if (timeDiff > Integer.MAX_VALUE) {
+                timeDiff = Integer.MAX_VALUE;
+            } else if (timeDiff < 0) {
+                timeDiff = 0;
+            }
+
+            int absIndexPos = IndexHeader.INDEX_HEADER_SIZE + this.hashSlotNum * HASH_SLOT_SIZE
+                    + this.indexHeader.getIndexCount() * INDEX_SIZE;
+
+            this.mappedByteBuffer.putInt(absIndexPos, keyHash);
+            this.mappedByteBuffer.putLong(absIndexPos + 4, phyOffset);
+            this.mappedByteBuffer.putInt(absIndexPos + 4 + 8, (int) timeDiff);
+            this.mappedByteBuffer.putInt(absIndexPos + 4 + 8 + 4, slotValue);
+
+            //条目写完再更新槽，查询线程看到新槽时条目已经完整
+            this.mappedByteBuffer.putInt(absSlotPos, this.indexHeader.getIndexCount());
+
+            if (this.indexHeader.getIndexCount() <= 1) {
+                this.indexHeader.setBeginPhyOffset(phyOffset);
+                this.indexHeader.setBeginTimestamp(storeTimestamp);
+            }
+
+            if (INVALID_INDEX == slotValue) {
+                this.indexHeader.incHashSlotCount();
+            }
+            this.indexHeader.incIndexCount();
+            this.indexHeader.setEndPhyOffset(phyOffset);
+            this.indexHeader.setEndTimestamp(storeTimestamp);
+
+            return true;
+        } else {
+            System.out.println("Over index file capacity: index count = " + this.indexHeader.getIndexCount()
+                    + "; index max num = " + this.indexNum);
+        }
+
+        return false;
+    }
+
+    /**
+     * 删除消息偏移量不小于maxPhyOffset的条目，只在加载时调用。
+     * 条目按分发顺序追加，偏移量递增，截断就是减小条目数；槽指向被删条目时沿PREV_INDEX退到保留的条目。
+     *
+     * @return 保留的条目数
+     */
+    public int truncate(final long maxPhyOffset) {
+        int indexCount = this.indexHeader.getIndexCount();
+        int keep = 1;
+        while (keep < indexCount && this.getIndexPhyOffset(keep) < maxPhyOffset) {
+            keep++;
+        }
+        if (keep == indexCount) {
+            return keep - 1;
+        }
+
+        int hashSlotCount = 0;
+        for (int slotPos = 0; slotPos < this.hashSlotNum; slotPos++) {
+            int absSlotPos = IndexHeader.INDEX_HEADER_SIZE + slotPos * HASH_SLOT_SIZE;
+            int slotValue = this.mappedByteBuffer.getInt(absSlotPos);
+            int value = slotValue;
+            while (value >= keep) {
+                int prevIndex = this.mappedByteBuffer.getInt(this.indexPosition(value) + 4 + 8 + 4);
+                value = prevIndex < value ? prevIndex : INVALID_INDEX;
+            }
+            if (value < INVALID_INDEX) {
+                value = INVALID_INDEX;
+            }
+            if (value != slotValue) {
+                this.mappedByteBuffer.putInt(absSlotPos, value);
+            }
+            if (value != INVALID_INDEX) {
+                hashSlotCount++;
+            }
+        }
+
+        this.indexHeader.setIndexCount(keep);
+        this.indexHeader.setHashSlotCount(hashSlotCount);
+        if (keep > 1) {
+            int lastPos = this.indexPosition(keep - 1);
+            this.indexHeader.setEndPhyOffset(this.mappedByteBuffer.getLong(lastPos + 4));
+            this.indexHeader.setEndTimestamp(this.indexHeader.getBeginTimestamp()
+                    + this.mappedByteBuffer.getInt(lastPos + 4 + 8) * 1000L);
+        } else {
+            this.indexHeader.setEndPhyOffset(this.indexHeader.getBeginPhyOffset());
+            this.indexHeader.setEndTimestamp(this.indexHeader.getBeginTimestamp());
+        }
+        this.flush();
+        return keep - 1;
+    }
+
+    private int indexPosition(final int index) {
+        return IndexHeader.INDEX_HEADER_SIZE + this.hashSlotNum * HASH_SLOT_SIZE + index * INDEX_SIZE;
+    }
+
+    private long getIndexPhyOffset(final int index) {
+        return this.mappedByteBuffer.getLong(this.indexPosition(index) + 4);
+    }
+
+    public static int indexKeyHashMethod(final String key) {
+        int keyHash = key.hashCode();
+        int keyHashPositive = Math.abs(keyHash);
+        if (keyHashPositive < 0) {
+            keyHashPositive = 0;
+        }
+        return keyHashPositive;
+    }
+
+    public long getBeginTimestamp() {
+        return this.indexHeader.getBeginTimestamp();
+    }
+
+    public long getEndTimestamp() {
+        return this.indexHeader.getEndTimestamp();
+    }
+
+    public long getEndPhyOffset() {
+        return this.indexHeader.getEndPhyOffset();
+    }
+
+    public int getIndexCount() {
+        return this.indexHeader.getIndexCount();
+    }
+
+    public boolean isTimeMatched(final long begin, final long end) {
+        boolean result = begin < this.indexHeader.getBeginTimestamp() && end > this.indexHeader.getEndTimestamp();
+        result = result || begin >= this.indexHeader.getBeginTimestamp() && begin <= this.indexHeader.getEndTimestamp();
+        result = result || end >= this.indexHeader.getBeginTimestamp() && end <= this.indexHeader.getEndTimestamp();
+        return result;
+    }
+
+    /**
+     * 沿着key所在槽的链表查找，链表按写入时间倒序，早于begin时停止
+     */
+    public void selectPhyOffset(final List<Long> phyOffsets, final String key, final int maxNum,
+                                final long begin, final long end) {
+        if (this.mappedFile.hold()) {
+            try {
+                int keyHash = indexKeyHashMethod(key);
+                int slotPos = keyHash % this.hashSlotNum;
+                int absSlotPos = IndexHeader.INDEX_HEADER_SIZE + slotPos * HASH_SLOT_SIZE;
+
+                int slotValue = this.mappedByteBuffer.getInt(absSlotPos);
+                if (slotValue <= INVALID_INDEX || slotValue > this.indexHeader.getIndexCount()
+                        || this.indexHeader.getIndexCount() <= 1) {
+                    return;
+                }
+                for (int nextIndexToRead = slotValue; ; ) {
+                    if (phyOffsets.size() >= maxNum) {
+                        break;
+                    }
+
+                    int absIndexPos = IndexHeader.INDEX_HEADER_SIZE + this.hashSlotNum * HASH_SLOT_SIZE
+                            + nextIndexToRead * INDEX_SIZE;
+
+                    int keyHashRead = this.mappedByteBuffer.getInt(absIndexPos);
+                    long phyOffsetRead = this.mappedByteBuffer.getLong(absIndexPos + 4);
+                    long timeDiff = this.mappedByteBuffer.getInt(absIndexPos + 4 + 8);
+                    int prevIndexRead = this.mappedByteBuffer.getInt(absIndexPos + 4 + 8 + 4);
+
+                    if (timeDiff < 0) {
+                        break;
+                    }
+
+                    timeDiff *= 1000L;
+
+                    long timeRead = this.indexHeader.getBeginTimestamp() + timeDiff;
+                    //按秒记录，begin向下取整到秒再比较
+                    boolean timeMatched = timeRead >= begin - begin % 1000 && timeRead <= end;
+
+                    if (keyHash == keyHashRead && timeMatched) {
+                        phyOffsets.add(phyOffsetRead);
+                    }
+
+                    if (prevIndexRead <= INVALID_INDEX || prevIndexRead > this.indexHeader.getIndexCount()
+                            || prevIndexRead == nextIndexToRead || timeRead < begin - begin % 1000) {
+                        break;
+                    }
+
+                    nextIndexToRead = prevIndexRead;
+                }
+            } finally {
+                this.mappedFile.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.yumi.step2.index;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 索引文件头：
+ * <pre>
+ * BEGIN_TIMESTAMP   8
+ * END_TIMESTAMP     8
+ * BEGIN_PHY_OFFSET  8
+ * END_PHY_OFFSET    8
+ * HASH_SLOT_COUNT   4  已使用的槽数
+ * INDEX_COUNT       4  已写入的条目数+1，第0个条目不用，0表示槽为空
+ * </pre>
+ */
+public class IndexHeader {
+    public static final int INDEX_HEADER_SIZE = 40;
+    private static final int BEGIN_TIMESTAMP_INDEX = 0;
+    private static final int END_TIMESTAMP_INDEX = 8;
+    private static final int BEGIN_PHY_OFFSET_INDEX = 16;
+    private static final int END_PHY_OFFSET_INDEX = 24;
+    private static final int HASH_SLOT_COUNT_INDEX = 32;
+    private static final int INDEX_COUNT_INDEX = 36;
+    private final ByteBuffer byteBuffer;
+    private final AtomicLong beginTimestamp = new AtomicLong(0);
+    private final AtomicLong endTimestamp = new AtomicLong(0);
+    private final AtomicLong beginPhyOffset = new AtomicLong(0);
+    private final AtomicLong endPhyOffset = new AtomicLong(0);
+    private final AtomicInteger hashSlotCount = new AtomicInteger(0);
+    private final AtomicInteger indexCount = new AtomicInteger(1);
+
+    public IndexHeader(final ByteBuffer byteBuffer) {
+        this.byteBuffer = byteBuffer;
+    }
+
+    public void load() {
+        this.beginTimestamp.set(byteBuffer.getLong(BEGIN_TIMESTAMP_INDEX));
+        this.endTimestamp.set(byteBuffer.getLong(END_TIMESTAMP_INDEX));
+        this.beginPhyOffset.set(byteBuffer.getLong(BEGIN_PHY_OFFSET_INDEX));
+        this.endPhyOffset.set(byteBuffer.getLong(END_PHY_OFFSET_INDEX));
+
+        this.hashSlotCount.set(byteBuffer.getInt(HASH_SLOT_COUNT_INDEX));
+        this.indexCount.set(byteBuffer.getInt(INDEX_COUNT_INDEX));
+
+        if (this.indexCount.get() <= 0) {
+            this.indexCount.set(1);
+        }
+    }
+
+    public void updateByteBuffer() {
+        this.byteBuffer.putLong(BEGIN_TIMESTAMP_INDEX, this.beginTimestamp.get());
+        this.byteBuffer.putLong(END_TIMESTAMP_INDEX, this.endTimestamp.get());
+        this.byteBuffer.putLong(BEGIN_PHY_OFFSET_INDEX, this.beginPhyOffset.get());
+        this.byteBuffer.putLong(END_PHY_OFFSET_INDEX, this.endPhyOffset.get());
+        this.byteBuffer.putInt(HASH_SLOT_COUNT_INDEX, this.hashSlotCount.get());
+        this.byteBuffer.putInt(INDEX_COUNT_INDEX, this.indexCount.get());
+    }
+
+    public long getBeginTimestamp() {
+        return beginTimestamp.get();
+    }
+
+    public void setBeginTimestamp(long beginTimestamp) {
+        this.beginTimestamp.set(beginTimestamp);
+        this.byteBuffer.putLong(BEGIN_TIMESTAMP_INDEX, beginTimestamp);
+    }
+
+    public long getEndTimestamp() {
+        return endTimestamp.get();
+    }
+
+    public void setEndTimestamp(long endTimestamp) {
+        this.endTimestamp.set(endTimestamp);
+        this.byteBuffer.putLong(END_TIMESTAMP_INDEX, endTimestamp);
+    }
+
+    public long getBeginPhyOffset() {
+        return beginPhyOffset.get();
+    }
+
+    public void setBeginPhyOffset(long beginPhyOffset) {
+        this.beginPhyOffset.set(beginPhyOffset);
+        this.byteBuffer.putLong(BEGIN_PHY_OFFSET_INDEX, beginPhyOffset);
+    }
+
+    public long getEndPhyOffset() {
+        return endPhyOffset.get();
+    }
+
+    public void setEndPhyOffset(long endPhyOffset) {
+        this.endPhyOffset.set(endPhyOffset);
+        this.byteBuffer.putLong(END_PHY_OFFSET_INDEX, endPhyOffset);
+    }
+
+    public int getHashSlotCount() {
+        return hashSlotCount.get();
+    }
+
+    public void incHashSlotCount() {
+        int value = this.hashSlotCount.incrementAndGet();
+        this.byteBuffer.putInt(HASH_SLOT_COUNT_INDEX, value);
+    }
+
+    public void setHashSlotCount(int hashSlotCount) {
+        this.hashSlotCount.set(hashSlotCount);
+        this.byteBuffer.putInt(HASH_SLOT_COUNT_INDEX, hashSlotCount);
+    }
+
+    public int getIndexCount() {
+        return indexCount.get();
+    }
+
+    public void setIndexCount(int indexCount) {
+        this.indexCount.set(indexCount);
+        this.byteBuffer.putInt(INDEX_COUNT_INDEX, indexCount);
+    }
+
+    public void incIndexCount() {
+        int value = this.indexCount.incrementAndGet();
+        this.byteBuffer.putInt(INDEX_COUNT_INDEX, value);
+    }
+}
@@ -0,0 +1,322 @@
+package com.yumi.step2.index;
+
+import com.yumi.step2.DispatchRequest;
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.config.StorePathConfigHelper;
+import com.yumi.step2.message.MessageConst;
+import com.yumi.step2.util.UtilAll;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 管理按时间滚动的索引文件，文件名为创建时间。分发线程为每条消息的topic#key建索引，
+ * 查询时从新到旧遍历时间范围有交集的文件。
+ */
+public class IndexService {
+    private static final int MAX_TRY_IDX_CREATE = 3;
+    private final int hashSlotNum;
+    private final int indexNum;
+    private final String storePath;
+    private final ArrayList<IndexFile> indexFileList = new ArrayList<>();
+    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private long lastCreateTimestamp = 0;
+
+    public IndexService(final MessageStoreConfig messageStoreConfig) {
+        this.hashSlotNum = messageStoreConfig.getMaxHashSlotNum();
+        this.indexNum = messageStoreConfig.getMaxIndexNum();
+        this.storePath = StorePathConfigHelper.getStorePathIndex(messageStoreConfig.getStorePathRootDir());
+    }
+
+    /**
+     * @param maxPhyOffset commit log恢复后的最大偏移量。索引超过它的文件截断掉这些条目，
+     *                     之前的条目保留：重新分发只从consume queue的检查点开始，删除整个文件会丢掉检查点之前的key
+     */
+    public boolean load(final long maxPhyOffset) {
+        File dir = new File(this.storePath);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                try {
+                    IndexFile f = new IndexFile(file.getPath(), this.hashSlotNum, this.indexNum, 0, 0);
+                    f.load();
+
+                    if (f.getEndPhyOffset() >= maxPhyOffset) {
+                        long endPhyOffset = f.getEndPhyOffset();
+                        int keep = f.truncate(maxPhyOffset);
+                        System.out.println("truncate dirty index file " + f.getFileName() + ", endPhyOffset "
+                                + endPhyOffset + ", maxPhyOffset " + maxPhyOffset + ", keep " + keep + " entries");
+                        if (keep == 0) {
+                            f.destroy(0);
+                            continue;
+                        }
+                    }
+
+                    System.out.println("load index file OK, " + f.getFileName());
+                    this.indexFileList.add(f);
+                } catch (IOException e) {
+                    System.err.println("load file " + file + " error");
+                    e.printStackTrace();
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 删除索引的消息都已被清理的文件，最后一个文件保留
+     */
+    public void deleteExpiredFile(final long offset) {
+        List<IndexFile> files = new ArrayList<>();
+        try {
+            this.readWriteLock.readLock().lock();
+            if (this.indexFileList.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < this.indexFileList.size() - 1; i++) {
+                IndexFile f = this.indexFileList.get(i);
+                if (f.getEndPhyOffset() < offset) {
+                    files.add(f);
+                }
+            }
+        } finally {
+            this.readWriteLock.readLock().unlock();
+        }
+
+        if (!files.isEmpty()) {
+            try {
+                this.readWriteLock.writeLock().lock();
+                for (IndexFile file : files) {
+                    if (!file.destroy(3000)) {
+                        System.out.println("deleteExpiredFile remove failed.");
+                        break;
+                    }
+                    this.indexFileList.remove(file);
+                }
+            } finally {
+                this.readWriteLock.writeLock().unlock();
+            }
+        }
+    }
+
+    public void destroy() {
+        try {
+            this.readWriteLock.writeLock().lock();
+            for (IndexFile f : this.indexFileList) {
+                f.destroy(1000 * 3);
+            }
+            this.indexFileList.clear();
+        } finally {
+            this.readWriteLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 刷所有还有未刷盘条目的文件，包括刚写满滚动过的文件，返回后检查点才能推进到已分发的位置
+     */
+    public void flush() {
+        List<IndexFile> files;
+        this.readWriteLock.readLock().lock();
+        try {
+            files = new ArrayList<>(this.indexFileList);
+        } finally {
+            this.readWriteLock.readLock().unlock();
+        }
+        for (IndexFile f : files) {
+            if (f.isDirty()) {
+                f.flush();
+            }
+        }
+    }
+
+    /**
+     * @return 有未刷盘条目的文件数
+     */
+    public int getDirtyFileNums() {
+        this.readWriteLock.readLock().lock();
+        try {
+            int dirty = 0;
+            for (IndexFile f : this.indexFileList) {
+                if (f.isDirty()) {
+                    dirty++;
+                }
+            }
+            return dirty;
+        } finally {
+            this.readWriteLock.readLock().unlock();
+        }
+    }
+
+    public void shutdown() {
+        try {
+            this.readWriteLock.writeLock().lock();
+            for (IndexFile f : this.indexFileList) {
+                f.flush();
+            }
+        } finally {
+            this.readWriteLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param begin 存储时间的下限(毫秒)
+     * @param end   存储时间的上限(毫秒)
+     */
+    public QueryOffsetResult queryOffset(final String topic, final String key, final int maxNum,
+                                         final long begin, final long end) {
+        List<Long> phyOffsets = new ArrayList<>(maxNum);
+
+        long indexLastUpdateTimestamp = 0;
+        long indexLastUpdatePhyoffset = 0;
+        try {
+            this.readWriteLock.readLock().lock();
+            if (!this.indexFileList.isEmpty()) {
+                for (int i = this.indexFileList.size(); i > 0; i--) {
+                    IndexFile f = this.indexFileList.get(i - 1);
+                    boolean lastFile = i == this.indexFileList.size();
+                    if (lastFile) {
+                        indexLastUpdateTimestamp = f.getEndTimestamp();
+                        indexLastUpdatePhyoffset = f.getEndPhyOffset();
+                    }
+
+                    if (f.isTimeMatched(begin, end)) {
+                        f.selectPhyOffset(phyOffsets, buildKey(topic, key), maxNum, begin, end);
+                    }
+
+                    if (f.getBeginTimestamp() < begin) {
+                        break;
+                    }
+
+                    if (phyOffsets.size() >= maxNum) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            this.readWriteLock.readLock().unlock();
+        }
+
+        return new QueryOffsetResult(phyOffsets, indexLastUpdateTimestamp, indexLastUpdatePhyoffset);
+    }
+
+    private static String buildKey(final String topic, final String key) {
+        return topic + "#" + key;
+    }
+
+    public void buildIndex(final DispatchRequest req) {
+        if (req.getTopic() == null || req.getKeys() == null || req.getKeys().length() == 0) {
+            return;
+        }
+        IndexFile indexFile = retryGetAndCreateIndexFile();
+        if (indexFile != null) {
+            long endPhyOffset = indexFile.getEndPhyOffset();
+            if (req.getCommitLogOffset() < endPhyOffset) {
+                //重启后重复分发
+                return;
+            }
+
+            String[] keyset = req.getKeys().split(MessageConst.KEY_SEPARATOR);
+            for (String key : keyset) {
+                if (key.length() > 0) {
+                    indexFile = putKey(indexFile, req, buildKey(req.getTopic(), key));
+                    if (indexFile == null) {
+                        System.err.println("putKey error commitlog " + req.getCommitLogOffset() + " key " + key);
+                        return;
+                    }
+                }
+            }
+        } else {
+            System.err.println("build index error, stop building index");
+        }
+    }
+
+    private IndexFile putKey(IndexFile indexFile, final DispatchRequest msg, final String idxKey) {
+        for (boolean ok = indexFile.putKey(idxKey, msg.getCommitLogOffset(), msg.getStoreTimestamp()); !ok; ) {
+            System.out.println("Index file [" + indexFile.getFileName() + "] is full, trying to create another one");
+
+            indexFile = retryGetAndCreateIndexFile();
+            if (null == indexFile) {
+                return null;
+            }
+
+            ok = indexFile.putKey(idxKey, msg.getCommitLogOffset(), msg.getStoreTimestamp());
+        }
+
+        return indexFile;
+    }
+
+    public IndexFile retryGetAndCreateIndexFile() {
+        IndexFile indexFile = null;
+
+        for (int times = 0; null == indexFile && times < MAX_TRY_IDX_CREATE; times++) {
+            indexFile = this.getAndCreateLastIndexFile();
+            if (null != indexFile) {
+                break;
+            }
+
+            try {
+                System.out.println("Tried to create index file " + times + " times");
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                System.err.println("Interrupted");
+            }
+        }
+
+        return indexFile;
+    }
+
+    public IndexFile getAndCreateLastIndexFile() {
+        IndexFile indexFile = null;
+        long lastUpdateEndPhyOffset = 0;
+        long lastUpdateIndexTimestamp = 0;
+
+        this.readWriteLock.readLock().lock();
+        try {
+            if (!this.indexFileList.isEmpty()) {
+                IndexFile tmp = this.indexFileList.get(this.indexFileList.size() - 1);
+                if (!tmp.isWriteFull()) {
+                    indexFile = tmp;
+                } else {
+                    lastUpdateEndPhyOffset = tmp.getEndPhyOffset();
+                    lastUpdateIndexTimestamp = tmp.getEndTimestamp();
+                }
+            }
+        } finally {
+            this.readWriteLock.readLock().unlock();
+        }
+
+        if (indexFile == null) {
+            //文件名精确到毫秒，同一毫秒内滚动时顺延
+            long createTimestamp = Math.max(System.currentTimeMillis(), this.lastCreateTimestamp + 1);
+            try {
+                String fileName = this.storePath + File.separator + UtilAll.timeMillisToHumanString(createTimestamp);
+                indexFile = new IndexFile(fileName, this.hashSlotNum, this.indexNum, lastUpdateEndPhyOffset,
+                        lastUpdateIndexTimestamp);
+            } catch (IOException e) {
+                System.err.println("getLastIndexFile exception ");
+                e.printStackTrace();
+            }
+
+            if (indexFile != null) {
+                this.lastCreateTimestamp = createTimestamp;
+                this.readWriteLock.writeLock().lock();
+                try {
+                    this.indexFileList.add(indexFile);
+                } finally {
+                    this.readWriteLock.writeLock().unlock();
+                }
+                //写满的文件由FlushConsumeQueueService在推进检查点之前刷盘
+            }
+        }
+
+        return indexFile;
+    }
+}
@@ -0,0 +1,97 @@
+package com.yumi.step2.message;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class Message {
+    private byte[] body;
+    private Map<String, String> properties;
+    private long bornTimestamp;
+
+    public Message() {
+    }
+
+    public Message(byte[] body) {
+        this.body = body;
+    }
+
+    public Message(String topic, int queueId, String tags, byte[] body) {
+        this.body = body;
+        this.setTopic(topic);
+        this.setQueueId(queueId);
+        if (tags != null) {
+            this.setTags(tags);
+        }
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    public void setProperties(Map<String, String> properties) {
+        this.properties = properties;
+    }
+
+    public void putProperty(final String name, final String value) {
+        if (null == this.properties) {
+            this.properties = new HashMap<>();
+        }
+        this.properties.put(name, value);
+    }
+
+    public String getProperty(final String name) {
+        if (null == this.properties) {
+            return null;
+        }
+        return this.properties.get(name);
+    }
+
+    public String getTopic() {
+        return getProperty(MessageConst.PROPERTY_TOPIC);
+    }
+
+    public void setTopic(String topic) {
+        putProperty(MessageConst.PROPERTY_TOPIC, topic);
+    }
+
+    public int getQueueId() {
+        String queueId = getProperty(MessageConst.PROPERTY_QUEUE_ID);
+        return queueId == null ? 0 : Integer.parseInt(queueId);
+    }
+
+    public void setQueueId(int queueId) {
+        putProperty(MessageConst.PROPERTY_QUEUE_ID, String.valueOf(queueId));
+    }
+
+    public String getTags() {
+        return getProperty(MessageConst.PROPERTY_TAGS);
+    }
+
+    public void setTags(String tags) {
+        putProperty(MessageConst.PROPERTY_TAGS, tags);
+    }
+
+    public String getKeys() {
+        return getProperty(MessageConst.PROPERTY_KEYS);
+    }
+
+    public void setKeys(String keys) {
+        putProperty(MessageConst.PROPERTY_KEYS, keys);
+    }
+
+    public long getBornTimestamp() {
+        return bornTimestamp;
+    }
+
+    public void setBornTimestamp(long bornTimestamp) {
+        this.bornTimestamp = bornTimestamp;
+    }
+}
@@ -0,0 +1,10 @@
+package com.yumi.step2.message;
+
+public class MessageConst {
+    public static final String PROPERTY_TOPIC = "TOPIC";
+    public static final String PROPERTY_QUEUE_ID = "QUEUE_ID";
+    public static final String PROPERTY_TAGS = "TAGS";
+    public static final String PROPERTY_KEYS = "KEYS";
+
+    public static final String KEY_SEPARATOR = " ";
+}
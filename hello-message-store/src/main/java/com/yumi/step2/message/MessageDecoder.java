@@ -0,0 +1,115 @@
+package com.yumi.step2.message;
+
+import com.yumi.step2.util.UtilAll;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * commit log中一条消息的格式(V1)：
+ * <pre>
+ * TOTALSIZE        4
+ * MAGICCODE        4  区分版本，文件尾部空白为MappedFile.BLANK_MAGIC_CODE
+ * BODYCRC          4  消息体的CRC32C
+ * BORNTIMESTAMP    8
+ * STORETIMESTAMP   8
+ * PHYSICALOFFSET   8
+ * BODYLENGTH       4  + BODY
+ * PROPERTIESLENGTH 2  + PROPERTIES  name\u0001value\u0002
+ * </pre>
+ */
+public class MessageDecoder {
+    public static final int MESSAGE_MAGIC_CODE_V1 = -626843481;
+
+    public static final char NAME_VALUE_SEPARATOR = 1;
+    public static final char PROPERTY_SEPARATOR = 2;
+
+    public static final int MAGIC_CODE_POSITION = 4;
+    public static final int BODY_CRC_POSITION = 8;
+    public static final int BORN_TIMESTAMP_POSITION = 12;
+    public static final int STORE_TIMESTAMP_POSITION = 20;
+    public static final int PHYSIC_OFFSET_POSITION = 28;
+    public static final int BODY_LENGTH_POSITION = 36;
+    public static final int MSG_HEADER_LENGTH = 40;
+
+    public static int calMsgLength(int bodyLength, int propertiesLength) {
+        return MSG_HEADER_LENGTH + bodyLength + 2 + propertiesLength;
+    }
+
+    /**
+     * 从byteBuffer的当前位置解析一条消息，成功后position移动到下一条消息
+     *
+     * @return 格式错误或CRC不匹配时返回null
+     */
+    public static MessageExt decode(ByteBuffer byteBuffer, boolean readBody, boolean checkCRC) {
+        int pos = byteBuffer.position();
+        if (byteBuffer.remaining() < MSG_HEADER_LENGTH + 2) {
+            return null;
+        }
+        int totalSize = byteBuffer.getInt(pos);
+        int magicCode = byteBuffer.getInt(pos + MAGIC_CODE_POSITION);
+        if (magicCode != MESSAGE_MAGIC_CODE_V1 || totalSize < MSG_HEADER_LENGTH + 2
+                || totalSize > byteBuffer.remaining()) {
+            return null;
+        }
+        int bodyLength = byteBuffer.getInt(pos + BODY_LENGTH_POSITION);
+        if (bodyLength < 0 || MSG_HEADER_LENGTH + bodyLength + 2 > totalSize) {
+            return null;
+        }
+        int propertiesLength = byteBuffer.getShort(pos + MSG_HEADER_LENGTH + bodyLength);
+        if (calMsgLength(bodyLength, propertiesLength) != totalSize) {
+            return null;
+        }
+        int bodyCRC = byteBuffer.getInt(pos + BODY_CRC_POSITION);
+        if (checkCRC && UtilAll.crc32c(byteBuffer, pos + MSG_HEADER_LENGTH, bodyLength) != bodyCRC) {
+            return null;
+        }
+
+        MessageExt msgExt = new MessageExt();
+        msgExt.setStoreSize(totalSize);
+        msgExt.setBodyCRC(bodyCRC);
+        msgExt.setBornTimestamp(byteBuffer.getLong(pos + BORN_TIMESTAMP_POSITION));
+        msgExt.setStoreTimestamp(byteBuffer.getLong(pos + STORE_TIMESTAMP_POSITION));
+        msgExt.setPhysicOffset(byteBuffer.getLong(pos + PHYSIC_OFFSET_POSITION));
+        if (readBody) {
+            byte[] body = new byte[bodyLength];
+            byteBuffer.position(pos + MSG_HEADER_LENGTH);
+            byteBuffer.get(body);
+            msgExt.setBody(body);
+        }
+        if (propertiesLength > 0) {
+            byte[] properties = new byte[propertiesLength];
+            byteBuffer.position(pos + MSG_HEADER_LENGTH + bodyLength + 2);
+            byteBuffer.get(properties);
+            msgExt.setProperties(string2messageProperties(new String(properties, StandardCharsets.UTF_8)));
+        }
+        byteBuffer.position(pos + totalSize);
+        return msgExt;
+    }
+
+    public static Map<String, String> string2messageProperties(final String properties) {
+        Map<String, String> map = new HashMap<>();
+        if (properties != null) {
+            int len = properties.length();
+            int index = 0;
+            while (index < len) {
+                int newIndex = properties.indexOf(PROPERTY_SEPARATOR, index);
+                if (newIndex < 0) {
+                    newIndex = len;
+                }
+                if (newIndex - index >= 3) {
+                    int kvSepIndex = properties.indexOf(NAME_VALUE_SEPARATOR, index);
+                    if (kvSepIndex > index && kvSepIndex < newIndex - 1) {
+                        String k = properties.substring(index, kvSepIndex);
+                        String v = properties.substring(kvSepIndex + 1, newIndex);
+                        map.put(k, v);
+                    }
+                }
+                index = newIndex + 1;
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,150 @@
+package com.yumi.step2.message;
+
+import com.yumi.step2.AppendMessageCallback;
+import com.yumi.step2.util.UtilAll;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static com.yumi.step2.message.MessageDecoder.MESSAGE_MAGIC_CODE_V1;
+import static com.yumi.step2.message.MessageDecoder.NAME_VALUE_SEPARATOR;
+import static com.yumi.step2.message.MessageDecoder.PROPERTY_SEPARATOR;
+
+/**
+ * 线程私有的消息编码器，按MessageDecoder描述的格式把一条消息直接写入目标buffer。
+ * prepare在锁外完成CRC计算和properties编码(写入可复用的scratch)，doAppend在锁内只做拷贝，
+ * 整个过程不分配内存(scratch不够大时才扩容)。
+ */
+public class MessageEncoder implements AppendMessageCallback {
+    private static final ThreadLocal<MessageEncoder> ENCODER = ThreadLocal.withInitial(MessageEncoder::new);
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private byte[] propertiesScratch = new byte[256];
+    private int propertiesLength;
+    private byte[] body;
+    private int bodyCRC;
+    private long bornTimestamp;
+    private int totalSize;
+
+    public static MessageEncoder get() {
+        return ENCODER.get();
+    }
+
+    public MessageEncoder prepare(final Message msg) {
+        return prepare(msg.getBody(), msg.getProperties(), msg.getBornTimestamp());
+    }
+
+    public MessageEncoder prepare(final byte[] body) {
+        return prepare(body, null, 0);
+    }
+
+    /**
+     * @throws IllegalArgumentException properties编码后超过Short.MAX_VALUE
+     */
+    public MessageEncoder prepare(final byte[] body, final Map<String, String> properties, final long bornTimestamp) {
+        this.body = body == null ? EMPTY_BODY : body;
+        this.bodyCRC = UtilAll.crc32c(this.body, 0, this.body.length);
+        this.bornTimestamp = bornTimestamp > 0 ? bornTimestamp : System.currentTimeMillis();
+        this.propertiesLength = 0;
+        if (properties != null) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null) {
+                    continue;
+                }
+                writeUtf8(entry.getKey());
+                writeByte(NAME_VALUE_SEPARATOR);
+                writeUtf8(entry.getValue());
+                writeByte(PROPERTY_SEPARATOR);
+            }
+        }
+        if (this.propertiesLength > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("message properties length too long: " + this.propertiesLength);
+        }
+        this.totalSize = MessageDecoder.calMsgLength(this.body.length, this.propertiesLength);
+        return this;
+    }
+
+    @Override
+    public int getTotalSize() {
+        return this.totalSize;
+    }
+
+    /**
+     * @return 单条消息，偏移量即wroteOffset，返回null
+     */
+    @Override
+    public long[] doAppend(long wroteOffset, long storeTimestamp, ByteBuffer byteBuffer) {
+        writeRecord(byteBuffer, this.totalSize, this.bodyCRC, this.bornTimestamp, storeTimestamp, wroteOffset,
+                this.body, this.propertiesScratch, this.propertiesLength);
+        return null;
+    }
+
+    /**
+     * 编码到调用方的buffer中，用于拼装批量消息，storeTimestamp和physicalOffset在写入commit log时回填
+     *
+     * @return 写入的字节数
+     */
+    public int encode(final Message msg, final ByteBuffer target) {
+        prepare(msg);
+        writeRecord(target, this.totalSize, this.bodyCRC, this.bornTimestamp, 0, 0,
+                this.body, this.propertiesScratch, this.propertiesLength);
+        return this.totalSize;
+    }
+
+    public static void writeRecord(final ByteBuffer byteBuffer, final int totalSize, final int bodyCRC,
+                                   final long bornTimestamp, final long storeTimestamp, final long physicOffset,
+                                   final byte[] body, final byte[] properties, final int propertiesLength) {
+        // 1 TOTALSIZE
+        byteBuffer.putInt(totalSize);
+        // 2 MAGICCODE
+        byteBuffer.putInt(MESSAGE_MAGIC_CODE_V1);
+        // 3 BODYCRC
+        byteBuffer.putInt(bodyCRC);
+        // 4 BORNTIMESTAMP
+        byteBuffer.putLong(bornTimestamp);
+        // 5 STORETIMESTAMP
+        byteBuffer.putLong(storeTimestamp);
+        // 6 PHYSICALOFFSET
+        byteBuffer.putLong(physicOffset);
+        // 7 BODY
+        byteBuffer.putInt(body.length);
+        byteBuffer.put(body, 0, body.length);
+        // 8 PROPERTIES
+        byteBuffer.putShort((short) propertiesLength);
+        if (propertiesLength > 0) {
+            byteBuffer.put(properties, 0, propertiesLength);
+        }
+    }
+
+    private void writeUtf8(final String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, str.charAt(++i));
+                writeByte(0xF0 | (cp >> 18));
+                writeByte(0x80 | ((cp >> 12) & 0x3F));
+                writeByte(0x80 | ((cp >> 6) & 0x3F));
+                writeByte(0x80 | (cp & 0x3F));
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeByte(final int b) {
+        if (this.propertiesLength == this.propertiesScratch.length) {
+            byte[] bigger = new byte[this.propertiesScratch.length * 2];
+            System.arraycopy(this.propertiesScratch, 0, bigger, 0, this.propertiesLength);
+            this.propertiesScratch = bigger;
+        }
+        this.propertiesScratch[this.propertiesLength++] = (byte) b;
+    }
+}
@@ -0,0 +1,47 @@
+package com.yumi.step2.message;
+
+public class MessageExt extends Message {
+    private int storeSize;
+    private int bodyCRC;
+    private long storeTimestamp;
+    private long physicOffset;
+
+    public int getStoreSize() {
+        return storeSize;
+    }
+
+    public void setStoreSize(int storeSize) {
+        this.storeSize = storeSize;
+    }
+
+    public int getBodyCRC() {
+        return bodyCRC;
+    }
+
+    public void setBodyCRC(int bodyCRC) {
+        this.bodyCRC = bodyCRC;
+    }
+
+    public long getStoreTimestamp() {
+        return storeTimestamp;
+    }
+
+    public void setStoreTimestamp(long storeTimestamp) {
+        this.storeTimestamp = storeTimestamp;
+    }
+
+    public long getPhysicOffset() {
+        return physicOffset;
+    }
+
+    public void setPhysicOffset(long physicOffset) {
+        this.physicOffset = physicOffset;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageExt [storeSize=" + storeSize + ", bodyCRC=" + bodyCRC + ", bornTimestamp="
+                + getBornTimestamp() + ", storeTimestamp=" + storeTimestamp + ", physicOffset=" + physicOffset
+                + ", properties=" + getProperties() + "]";
+    }
+}
@@ -0,0 +1,161 @@
+package com.yumi.step2.metrics;
+
+import com.yumi.step2.CommitLog;
+import com.yumi.step2.DefaultMessageStore;
+import com.yumi.step2.MappedFile;
+import com.yumi.step2.ReferenceResource;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * 存储的指标汇总：映射内存、各commit log文件的commit/flush落后量、追加/commit/flush延迟分布和hold失败次数。
+ * 指标都是读取时现算的，注册到JMX后可以用jconsole或者采集agent直接读。
+ */
+public class StoreMetrics implements StoreMetricsMBean {
+    private final DefaultMessageStore messageStore;
+    private ObjectName objectName;
+
+    public StoreMetrics(final DefaultMessageStore messageStore) {
+        this.messageStore = messageStore;
+    }
+
+    /**
+     * 按存储根目录区分，同一个进程里可以有多个存储
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.yumi.step2:type=StoreMetrics,name="
+                    + ObjectName.quote(this.messageStore.getMessageStoreConfig().getStorePathRootDir()));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                this.objectName = name;
+            }
+        } catch (Exception e) {
+            System.err.println("register store metrics mbean failed");
+            e.printStackTrace();
+        }
+    }
+
+    public void unregister() {
+        if (this.objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+        } catch (Exception e) {
+            System.err.println("unregister store metrics mbean failed");
+            e.printStackTrace();
+        }
+        this.objectName = null;
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    private CommitLog commitLog() {
+        return this.messageStore.getCommitLog();
+    }
+
+    @Override
+    public long getTotalMappedBytes() {
+        return MappedFile.getTotalMappedVirtualMemory();
+    }
+
+    @Override
+    public int getTotalMappedFiles() {
+        return MappedFile.getTotalMappedFiles();
+    }
+
+    @Override
+    public long getHoldFailedTimes() {
+        return ReferenceResource.getHoldFailedTimes();
+    }
+
+    @Override
+    public long getDispatchBehindBytes() {
+        return this.messageStore.dispatchBehindBytes();
+    }
+
+    @Override
+    public long getLockedMemoryBytes() {
+        return this.commitLog().getLockedMemoryManager().getLockedBytes();
+    }
+
+    @Override
+    public String[] getCommitLogSegmentLags() {
+        List<String> lags = this.commitLog().getMappedFileQueue().getSegmentLags();
+        return lags.toArray(new String[0]);
+    }
+
+    @Override
+    public long getAppendCount() {
+        return this.commitLog().getAppendLatency().getCount();
+    }
+
+    @Override
+    public long getAppendP50Nanos() {
+        return this.commitLog().getAppendLatency().getValueAtPercentile(0.5);
+    }
+
+    @Override
+    public long getAppendP99Nanos() {
+        return this.commitLog().getAppendLatency().getValueAtPercentile(0.99);
+    }
+
+    @Override
+    public long getAppendP999Nanos() {
+        return this.commitLog().getAppendLatency().getValueAtPercentile(0.999);
+    }
+
+    @Override
+    public long getCommitCount() {
+        return this.commitLog().getMappedFileQueue().getCommitLatency().getCount();
+    }
+
+    @Override
+    public long getCommitP50Nanos() {
+        return this.commitLog().getMappedFileQueue().getCommitLatency().getValueAtPercentile(0.5);
+    }
+
+    @Override
+    public long getCommitP99Nanos() {
+        return this.commitLog().getMappedFileQueue().getCommitLatency().getValueAtPercentile(0.99);
+    }
+
+    @Override
+    public long getCommitP999Nanos() {
+        return this.commitLog().getMappedFileQueue().getCommitLatency().getValueAtPercentile(0.999);
+    }
+
+    @Override
+    public long getFlushCount() {
+        return this.commitLog().getMappedFileQueue().getFlushLatency().getCount();
+    }
+
+    @Override
+    public long getFlushP50Nanos() {
+        return this.commitLog().getMappedFileQueue().getFlushLatency().getValueAtPercentile(0.5);
+    }
+
+    @Override
+    public long getFlushP99Nanos() {
+        return this.commitLog().getMappedFileQueue().getFlushLatency().getValueAtPercentile(0.99);
+    }
+
+    @Override
+    public long getFlushP999Nanos() {
+        return this.commitLog().getMappedFileQueue().getFlushLatency().getValueAtPercentile(0.999);
+    }
+
+    @Override
+    public void resetLatencies() {
+        this.commitLog().getAppendLatency().reset();
+        this.commitLog().getMappedFileQueue().getCommitLatency().reset();
+        this.commitLog().getMappedFileQueue().getFlushLatency().reset();
+    }
+}
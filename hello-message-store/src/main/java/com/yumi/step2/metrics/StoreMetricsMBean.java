@@ -0,0 +1,45 @@
+package com.yumi.step2.metrics;
+
+/**
+ * 通过JMX暴露的存储指标，延迟都是纳秒
+ */
+public interface StoreMetricsMBean {
+
+    long getTotalMappedBytes();
+
+    int getTotalMappedFiles();
+
+    long getHoldFailedTimes();
+
+    long getDispatchBehindBytes();
+
+    long getLockedMemoryBytes();
+
+    String[] getCommitLogSegmentLags();
+
+    long getAppendCount();
+
+    long getAppendP50Nanos();
+
+    long getAppendP99Nanos();
+
+    long getAppendP999Nanos();
+
+    long getCommitCount();
+
+    long getCommitP50Nanos();
+
+    long getCommitP99Nanos();
+
+    long getCommitP999Nanos();
+
+    long getFlushCount();
+
+    long getFlushP50Nanos();
+
+    long getFlushP99Nanos();
+
+    long getFlushP999Nanos();
+
+    void resetLatencies();
+}
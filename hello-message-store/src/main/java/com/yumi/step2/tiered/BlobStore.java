@@ -0,0 +1,42 @@
+package com.yumi.step2.tiered;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 二级存储，按key保存不再修改的整个文件，支持按位置随机读。
+ * key是commit log文件名(起始偏移量)，实现可以是本地目录、NAS或对象存储。
+ */
+public interface BlobStore {
+
+    /**
+     * 上传整个文件，返回时数据已经持久化，同名的key被覆盖
+     */
+    void put(String key, File file) throws IOException;
+
+    /**
+     * 从position开始读满dst，到结尾时少读
+     *
+     * @return 读到的字节数，position超过结尾时返回-1
+     */
+    int read(String key, long position, ByteBuffer dst) throws IOException;
+
+    /**
+     * @return 不存在时返回-1
+     */
+    long size(String key);
+
+    /**
+     * @return 上传的文件的最后修改时间，不存在时返回0
+     */
+    long lastModified(String key);
+
+    boolean delete(String key);
+
+    /**
+     * @return 所有key，没有顺序
+     */
+    List<String> list();
+}
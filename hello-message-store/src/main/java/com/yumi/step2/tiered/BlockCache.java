@@ -0,0 +1,111 @@
+package com.yumi.step2.tiered;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BlobStore上按块读的LRU缓存，块大小固定，一次读请求覆盖几个块就读几个块。
+ * 缓存未命中时在锁外读二级存储，并发读同一个块可能会重复读，但不会阻塞命中的读。
+ */
+public class BlockCache {
+    private final BlobStore blobStore;
+    private final int blockSize;
+    private final int maxBlocks;
+    private final LinkedHashMap<BlockKey, byte[]> blocks;
+    private final AtomicLong hitTimes = new AtomicLong(0);
+    private final AtomicLong missTimes = new AtomicLong(0);
+
+    /**
+     * @param capacity 缓存的总字节数
+     */
+    public BlockCache(final BlobStore blobStore, final int blockSize, final long capacity) {
+        this.blobStore = blobStore;
+        this.blockSize = blockSize;
+        this.maxBlocks = (int) Math.max(1, capacity / blockSize);
+        this.blocks = new LinkedHashMap<BlockKey, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlockKey, byte[]> eldest) {
+                return this.size() > BlockCache.this.maxBlocks;
+            }
+        };
+    }
+
+    /**
+     * 从position开始读满dst
+     *
+     * @throws IOException 二级存储读失败或者数据不够
+     */
+    public void read(final String key, final long position, final ByteBuffer dst) throws IOException {
+        long pos = position;
+        while (dst.hasRemaining()) {
+            long index = pos / this.blockSize;
+            byte[] block = this.getBlock(key, index);
+            int offsetInBlock = (int) (pos - index * this.blockSize);
+            int length = Math.min(dst.remaining(), block.length - offsetInBlock);
+            if (length <= 0) {
+                throw new IOException("read " + key + " beyond end, position " + pos);
+            }
+            dst.put(block, offsetInBlock, length);
+            pos += length;
+        }
+    }
+
+    private byte[] getBlock(final String key, final long index) throws IOException {
+        BlockKey blockKey = new BlockKey(key, index);
+        synchronized (this.blocks) {
+            byte[] block = this.blocks.get(blockKey);
+            if (block != null) {
+                this.hitTimes.incrementAndGet();
+                return block;
+            }
+        }
+        this.missTimes.incrementAndGet();
+        ByteBuffer buffer = ByteBuffer.allocate(this.blockSize);
+        int n = this.blobStore.read(key, index * this.blockSize, buffer);
+        if (n <= 0) {
+            throw new IOException("read " + key + " block " + index + " failed, ret " + n);
+        }
+        byte[] block = n == this.blockSize ? buffer.array() : Arrays.copyOf(buffer.array(), n);
+        synchronized (this.blocks) {
+            this.blocks.put(blockKey, block);
+        }
+        return block;
+    }
+
+    /**
+     * 二级存储删除文件后丢弃它的块
+     */
+    public void invalidate(final String key) {
+        synchronized (this.blocks) {
+            Iterator<BlockKey> it = this.blocks.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().key.equals(key)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public int getCachedBlocks() {
+        synchronized (this.blocks) {
+            return this.blocks.size();
+        }
+    }
+
+    public long getHitTimes() {
+        return hitTimes.get();
+    }
+
+    public long getMissTimes() {
+        return missTimes.get();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+}
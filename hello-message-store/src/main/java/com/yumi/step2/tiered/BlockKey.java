@@ -0,0 +1,31 @@
+package com.yumi.step2.tiered;
+
+/**
+ * 缓存中一个块的key：文件key + 块下标
+ */
+final class BlockKey {
+    final String key;
+    final long index;
+
+    BlockKey(String key, long index) {
+        this.key = key;
+        this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BlockKey)) {
+            return false;
+        }
+        BlockKey other = (BlockKey) o;
+        return this.index == other.index && this.key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.key.hashCode() + Long.hashCode(this.index);
+    }
+}
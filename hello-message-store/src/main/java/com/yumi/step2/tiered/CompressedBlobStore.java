@@ -0,0 +1,347 @@
+package com.yumi.step2.tiered;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 按块压缩后再交给下层BlobStore保存，随机读只解压覆盖到的块，最近解压过的块放在一个小的LRU里。
+ * 上传的文件格式：
+ * <pre>
+ * BLOCK * N          每个块是blockSize原始字节的deflate结果，压缩后不更小的块原样保存
+ * BLOCK_OFFSET * N+1 8  每个块在文件中的起始位置，最后一个是索引的起始位置
+ * RAW_SIZE           8  原始文件大小
+ * BLOCK_SIZE         4
+ * BLOCK_COUNT        4
+ * MAGIC              4
+ * </pre>
+ * size返回原始大小，对上层来说和没有压缩一样。
+ * 开启压缩之前上传的文件没有这个尾部，按未压缩的文件直接读，新旧文件可以混在一起。
+ */
+public class CompressedBlobStore implements BlobStore {
+    public static final int MAGIC = 0xC0DEB10C;
+    private static final int TRAILER_LENGTH = 8 + 4 + 4 + 4;
+    private static final String TMP_SUFFIX = ".z.tmp";
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private final BlobStore delegate;
+    private final File tmpDir;
+    private final int blockSize;
+    private final int level;
+    private final int maxCachedBlocks;
+    private final ConcurrentMap<String, BlockIndex> indexTable = new ConcurrentHashMap<>();
+    private final LinkedHashMap<BlockKey, byte[]> blocks;
+    private final AtomicLong rawBytes = new AtomicLong(0);
+    private final AtomicLong compressedBytes = new AtomicLong(0);
+    private final AtomicLong inflateTimes = new AtomicLong(0);
+
+    /**
+     * @param tmpDir          压缩时临时文件的目录
+     * @param level           Deflater压缩级别，BEST_SPEED压缩最快
+     * @param maxCachedBlocks 解压后缓存的块数
+     */
+    public CompressedBlobStore(final BlobStore delegate, final String tmpDir, final int blockSize, final int level,
+                               final int maxCachedBlocks) {
+        this.delegate = delegate;
+        this.tmpDir = new File(tmpDir);
+        this.blockSize = blockSize;
+        this.level = level;
+        this.maxCachedBlocks = Math.max(1, maxCachedBlocks);
+        this.blocks = new LinkedHashMap<BlockKey, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlockKey, byte[]> eldest) {
+                return this.size() > CompressedBlobStore.this.maxCachedBlocks;
+            }
+        };
+        if (!this.tmpDir.exists()) {
+            boolean result = this.tmpDir.mkdirs();
+            System.out.println(tmpDir + " mkdir " + (result ? "OK" : "Failed"));
+        }
+    }
+
+    @Override
+    public void put(final String key, final File file) throws IOException {
+        File tmp = new File(this.tmpDir, key + TMP_SUFFIX);
+        try {
+            long beginTime = System.currentTimeMillis();
+            long compressed = compress(file, tmp, this.blockSize, this.level);
+            //上层按原文件的最后修改时间过期
+            tmp.setLastModified(file.lastModified());
+            this.delegate.put(key, tmp);
+            this.evict(key);
+            this.rawBytes.addAndGet(file.length());
+            this.compressedBytes.addAndGet(compressed);
+            System.out.println("compress " + file.getName() + " " + file.length() + " -> " + compressed + ", cost "
+                    + (System.currentTimeMillis() - beginTime) + "ms");
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * 按块压缩src写到dst
+     *
+     * @return 压缩后的文件大小
+     */
+    public static long compress(final File src, final File dst, final int blockSize, final int level)
+            throws IOException {
+        Deflater deflater = new Deflater(level);
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dst.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long rawSize = in.size();
+            int blockCount = (int) ((rawSize + blockSize - 1) / blockSize);
+            ByteBuffer index = ByteBuffer.allocate((blockCount + 1) * 8 + TRAILER_LENGTH);
+            byte[] raw = new byte[blockSize];
+            byte[] compressed = new byte[blockSize];
+            long position = 0;
+            for (int i = 0; i < blockCount; i++) {
+                ByteBuffer rawBuffer = ByteBuffer.wrap(raw, 0, (int) Math.min(blockSize, rawSize - (long) i * blockSize));
+                while (rawBuffer.hasRemaining()) {
+                    if (in.read(rawBuffer, (long) i * blockSize + rawBuffer.position()) < 0) {
+                        throw new IOException(src + " truncated while compressing");
+                    }
+                }
+                int rawLength = rawBuffer.position();
+                deflater.reset();
+                deflater.setInput(raw, 0, rawLength);
+                deflater.finish();
+                int length = 0;
+                //输出缓冲和原始块一样大，写满还没结束说明压缩后不会更小，原样保存
+                while (!deflater.finished() && length < rawLength) {
+                    length += deflater.deflate(compressed, length, rawLength - length);
+                }
+                ByteBuffer block = deflater.finished() && length < rawLength
+                        ? ByteBuffer.wrap(compressed, 0, length) : ByteBuffer.wrap(raw, 0, rawLength);
+                index.putLong(position);
+                while (block.hasRemaining()) {
+                    position += out.write(block, position);
+                }
+            }
+            index.putLong(position);
+            index.putLong(rawSize);
+            index.putInt(blockSize);
+            index.putInt(blockCount);
+            index.putInt(MAGIC);
+            index.flip();
+            while (index.hasRemaining()) {
+                position += out.write(index, position);
+            }
+            out.force(true);
+            return position;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public int read(final String key, final long position, final ByteBuffer dst) throws IOException {
+        BlockIndex blockIndex = this.getIndex(key);
+        if (blockIndex.offsets == null) {
+            return this.delegate.read(key, position, dst);
+        }
+        if (position >= blockIndex.rawSize) {
+            return -1;
+        }
+        int total = 0;
+        long pos = position;
+        while (dst.hasRemaining() && pos < blockIndex.rawSize) {
+            int index = (int) (pos / blockIndex.blockSize);
+            byte[] block = this.getBlock(key, blockIndex, index);
+            int offsetInBlock = (int) (pos - (long) index * blockIndex.blockSize);
+            int length = Math.min(dst.remaining(), block.length - offsetInBlock);
+            dst.put(block, offsetInBlock, length);
+            pos += length;
+            total += length;
+        }
+        return total;
+    }
+
+    private byte[] getBlock(final String key, final BlockIndex blockIndex, final int index) throws IOException {
+        BlockKey blockKey = new BlockKey(key, index);
+        synchronized (this.blocks) {
+            byte[] block = this.blocks.get(blockKey);
+            if (block != null) {
+                return block;
+            }
+        }
+        int rawLength = (int) Math.min(blockIndex.blockSize, blockIndex.rawSize - (long) index * blockIndex.blockSize);
+        int storedLength = (int) (blockIndex.offsets[index + 1] - blockIndex.offsets[index]);
+        ByteBuffer stored = ByteBuffer.allocate(storedLength);
+        if (this.delegate.read(key, blockIndex.offsets[index], stored) != storedLength) {
+            throw new IOException("read " + key + " block " + index + " truncated");
+        }
+        byte[] block;
+        if (storedLength >= rawLength) {
+            block = stored.array();
+        } else {
+            block = new byte[rawLength];
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(stored.array(), 0, storedLength);
+            try {
+                int length = 0;
+                while (length < rawLength && !inflater.finished()) {
+                    int n = inflater.inflate(block, length, rawLength - length);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += n;
+                }
+                if (length != rawLength) {
+                    throw new IOException("inflate " + key + " block " + index + " got " + length + " bytes");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("inflate " + key + " block " + index + " failed", e);
+            }
+            this.inflateTimes.incrementAndGet();
+        }
+        synchronized (this.blocks) {
+            this.blocks.put(blockKey, block);
+        }
+        return block;
+    }
+
+    private BlockIndex getIndex(final String key) throws IOException {
+        BlockIndex blockIndex = this.indexTable.get(key);
+        if (blockIndex != null) {
+            return blockIndex;
+        }
+        long size = this.delegate.size(key);
+        if (size < 0) {
+            throw new IOException("compressed file " + key + " not found");
+        }
+        blockIndex = this.readIndex(key, size);
+        if (blockIndex == null) {
+            //没有压缩尾部，是开启压缩之前原样上传的文件
+            blockIndex = new BlockIndex(size, 0, null);
+        }
+        this.indexTable.put(key, blockIndex);
+        return blockIndex;
+    }
+
+    /**
+     * 读文件尾部的块索引，尾部的魔数和块索引的位置要对得上
+     *
+     * @return 不是压缩格式时返回null
+     */
+    private BlockIndex readIndex(final String key, final long size) throws IOException {
+        if (size < TRAILER_LENGTH) {
+            return null;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+        if (this.delegate.read(key, size - TRAILER_LENGTH, trailer) != TRAILER_LENGTH) {
+            return null;
+        }
+        trailer.flip();
+        long rawSize = trailer.getLong();
+        int blockSize = trailer.getInt();
+        int blockCount = trailer.getInt();
+        if (trailer.getInt() != MAGIC || rawSize < 0 || blockSize <= 0 || blockCount < 0
+                || (long) blockCount * blockSize < rawSize || (blockCount + 1L) * 8 > size - TRAILER_LENGTH) {
+            return null;
+        }
+        ByteBuffer offsets = ByteBuffer.allocate((blockCount + 1) * 8);
+        long indexPosition = size - TRAILER_LENGTH - offsets.capacity();
+        if (this.delegate.read(key, indexPosition, offsets) != offsets.capacity()) {
+            return null;
+        }
+        offsets.flip();
+        long[] blockOffsets = new long[blockCount + 1];
+        for (int i = 0; i <= blockCount; i++) {
+            blockOffsets[i] = offsets.getLong();
+        }
+        if (blockOffsets[blockCount] != indexPosition) {
+            return null;
+        }
+        return new BlockIndex(rawSize, blockSize, blockOffsets);
+    }
+
+    /**
+     * @return 原始文件大小
+     */
+    @Override
+    public long size(final String key) {
+        try {
+            return this.getIndex(key).rawSize;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return 压缩后的文件大小
+     */
+    public long compressedSize(final String key) {
+        return this.delegate.size(key);
+    }
+
+    @Override
+    public long lastModified(final String key) {
+        return this.delegate.lastModified(key);
+    }
+
+    @Override
+    public boolean delete(final String key) {
+        boolean result = this.delegate.delete(key);
+        this.evict(key);
+        return result;
+    }
+
+    @Override
+    public List<String> list() {
+        return this.delegate.list();
+    }
+
+    private void evict(final String key) {
+        this.indexTable.remove(key);
+        synchronized (this.blocks) {
+            this.blocks.keySet().removeIf(blockKey -> blockKey.key.equals(key));
+        }
+    }
+
+    /**
+     * @return 本进程压缩过的原始字节数 / 压缩后字节数
+     */
+    public double getCompressionRatio() {
+        long compressed = this.compressedBytes.get();
+        return compressed == 0 ? 0 : this.rawBytes.get() / (double) compressed;
+    }
+
+    public long getInflateTimes() {
+        return inflateTimes.get();
+    }
+
+    public BlobStore getDelegate() {
+        return delegate;
+    }
+
+    private static final class BlockIndex {
+        private final long rawSize;
+        private final int blockSize;
+        //未压缩的文件为null
+        private final long[] offsets;
+
+        BlockIndex(long rawSize, int blockSize, long[] offsets) {
+            this.rawSize = rawSize;
+            this.blockSize = blockSize;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public String toString() {
+            return "rawSize=" + rawSize + ", blockSize=" + blockSize + ", blocks=" + Arrays.toString(offsets);
+        }
+    }
+}
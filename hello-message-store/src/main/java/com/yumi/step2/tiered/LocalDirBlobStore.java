@@ -0,0 +1,97 @@
+package com.yumi.step2.tiered;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以本地目录(可以是另一块盘或挂载的NAS)作为二级存储，每个key一个文件。
+ * 先拷贝到.tmp文件并fsync，再原子rename并fsync目录，崩溃后不会留下半个文件，put返回后rename也不会丢。
+ */
+public class LocalDirBlobStore implements BlobStore {
+    private static final String TMP_SUFFIX = ".tmp";
+    private final File dir;
+
+    public LocalDirBlobStore(final String dir) {
+        this.dir = new File(dir);
+        if (!this.dir.exists()) {
+            boolean result = this.dir.mkdirs();
+            System.out.println(dir + " mkdir " + (result ? "OK" : "Failed"));
+        }
+    }
+
+    @Override
+    public void put(final String key, final File file) throws IOException {
+        Path tmp = new File(this.dir, key + TMP_SUFFIX).toPath();
+        //保留最后修改时间，过期按原文件的时间算
+        Files.copy(file.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, this.path(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        //rename记录在目录里，目录不刷盘的话宕机后可能还是.tmp，本地文件却已经按上传成功删除了
+        try (FileChannel channel = FileChannel.open(this.dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public int read(final String key, final long position, final ByteBuffer dst) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.path(key), StandardOpenOption.READ)) {
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int n = channel.read(dst, position + total);
+                if (n < 0) {
+                    return total == 0 ? -1 : total;
+                }
+                total += n;
+            }
+            return total;
+        }
+    }
+
+    @Override
+    public long size(final String key) {
+        File file = this.path(key).toFile();
+        return file.exists() ? file.length() : -1;
+    }
+
+    @Override
+    public long lastModified(final String key) {
+        return this.path(key).toFile().lastModified();
+    }
+
+    @Override
+    public boolean delete(final String key) {
+        return this.path(key).toFile().delete();
+    }
+
+    @Override
+    public List<String> list() {
+        List<String> keys = new ArrayList<>();
+        File[] files = this.dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.getName().endsWith(TMP_SUFFIX)) {
+                    keys.add(file.getName());
+                }
+            }
+        }
+        return keys;
+    }
+
+    private Path path(final String key) {
+        return new File(this.dir, key).toPath();
+    }
+
+    public File getDir() {
+        return dir;
+    }
+}
@@ -9,6 +9,9 @@ import com.sun.jna.Pointer;
 public interface LibC extends Library {
     LibC INSTANCE = (LibC) Native.loadLibrary(Platform.isWindows() ? "msvcrt" : "c", LibC.class);
 
+    int MADV_NORMAL = 0;
+    int MADV_RANDOM = 1;
+    int MADV_SEQUENTIAL = 2;
     int MADV_WILLNEED = 3;
     int MADV_DONTNEED = 4;
 
@@ -34,4 +37,9 @@ public interface LibC extends Library {
     int mlockall(int flags);
 
     int msync(Pointer p, NativeLong length, int flags);
+
+    /**
+     * addr必须按页对齐，vec每页一个字节，最低位为1表示该页在page cache中
+     */
+    int mincore(Pointer addr, NativeLong length, byte[] vec);
 }
@@ -0,0 +1,39 @@
+package com.yumi.step2.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 取direct/mapped buffer的native地址和立即释放映射的方式。
+ * 通过系统属性yumi.store.mmapBackend选择：reflection为原来的sun.nio.ch.DirectBuffer加反射调用cleaner，
+ * 需要--add-opens/--add-exports；portable用Unsafe.invokeCleaner和JNA取地址，JDK9以上不需要额外参数。
+ * 没有指定时能用portable就用portable。
+ */
+public interface MmapBackend {
+    String PROPERTY_NAME = "yumi.store.mmapBackend";
+
+    MmapBackend INSTANCE = MmapBackendHolder.select(System.getProperty(PROPERTY_NAME));
+
+    /**
+     * @return buffer第一个字节的native地址
+     */
+    long address(ByteBuffer buffer);
+
+    /**
+     * 立即释放buffer的内存或映射，之后不能再访问buffer。只能传入map/allocateDirect返回的原始buffer，不能是slice
+     */
+    void unmap(ByteBuffer buffer);
+
+    String name();
+
+    class MmapBackendHolder {
+        static MmapBackend select(final String name) {
+            if ("reflection".equals(name)) {
+                return new ReflectionMmapBackend();
+            }
+            if ("portable".equals(name) || PortableMmapBackend.isAvailable()) {
+                return new PortableMmapBackend();
+            }
+            return new ReflectionMmapBackend();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.yumi.step2.util;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * 地址用JNA的GetDirectBufferAddress取，释放用sun.misc.Unsafe.invokeCleaner(JDK9+)。
+ * sun.misc在jdk.unsupported模块中是开放的，不需要--add-opens，也不依赖sun.nio.ch.DirectBuffer。
+ */
+public class PortableMmapBackend implements MmapBackend {
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Throwable e) {
+            //JDK8没有invokeCleaner
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    public static boolean isAvailable() {
+        return INVOKE_CLEANER != null;
+    }
+
+    @Override
+    public long address(final ByteBuffer buffer) {
+        return Pointer.nativeValue(Native.getDirectBufferPointer(buffer));
+    }
+
+    @Override
+    public void unmap(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() == 0) {
+            return;
+        }
+        if (INVOKE_CLEANER == null) {
+            throw new IllegalStateException("Unsafe.invokeCleaner is not available on this JDK");
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "portable";
+    }
+}
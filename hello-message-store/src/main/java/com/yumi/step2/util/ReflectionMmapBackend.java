@@ -0,0 +1,72 @@
+package com.yumi.step2.util;
+
+import sun.nio.ch.DirectBuffer;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+/**
+ * 原来的实现：地址从sun.nio.ch.DirectBuffer取，释放时反射调用attachment/viewedBuffer找到原始buffer再调用cleaner。
+ * JDK9以上运行需要--add-exports java.base/sun.nio.ch和--add-opens java.base/java.nio、jdk.internal.ref。
+ */
+public class ReflectionMmapBackend implements MmapBackend {
+
+    @Override
+    public long address(final ByteBuffer buffer) {
+        return ((DirectBuffer) buffer).address();
+    }
+
+    @Override
+    public void unmap(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() == 0)
+            return;
+        invoke(invoke(viewed(buffer), "cleaner"), "clean");
+    }
+
+    private static Object invoke(final Object target, final String methodName, final Class<?>... args) {
+        return AccessController.doPrivileged(new PrivilegedAction<Object>() {
+            public Object run() {
+                try {
+                    Method method = method(target, methodName, args);
+                    method.setAccessible(true);
+                    return method.invoke(target);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    private static Method method(Object target, String methodName, Class<?>[] args)
+            throws NoSuchMethodException {
+        try {
+            return target.getClass().getMethod(methodName, args);
+        } catch (NoSuchMethodException e) {
+            return target.getClass().getDeclaredMethod(methodName, args);
+        }
+    }
+
+    private static ByteBuffer viewed(ByteBuffer buffer) {
+        String methodName = "viewedBuffer";
+        Method[] methods = buffer.getClass().getMethods();
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].getName().equals("attachment")) {
+                methodName = "attachment";
+                break;
+            }
+        }
+
+        ByteBuffer viewedBuffer = (ByteBuffer) invoke(buffer, methodName);
+        if (viewedBuffer == null)
+            return buffer;
+        else
+            return viewed(viewedBuffer);
+    }
+
+    @Override
+    public String name() {
+        return "reflection";
+    }
+}
@@ -0,0 +1,71 @@
+package com.yumi.step2.util;
+
+import java.nio.ByteBuffer;
+import java.text.NumberFormat;
+import java.util.Calendar;
+import java.util.zip.Checksum;
+
+public class UtilAll {
+    private static final ThreadLocal<Checksum> CRC32C = ThreadLocal.withInitial(UtilAll::newCrc32C);
+    private static final ThreadLocal<byte[]> CRC_SCRATCH = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    public static String offset2FileName(final long offset) {
+        final NumberFormat nf = NumberFormat.getInstance();
+        nf.setMinimumIntegerDigits(20);
+        nf.setMaximumFractionDigits(0);
+        nf.setGroupingUsed(false);
+        return nf.format(offset);
+    }
+
+    /**
+     * @return yyyyMMddHHmmssSSS
+     */
+    public static String timeMillisToHumanString(final long t) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(t);
+        return String.format("%04d%02d%02d%02d%02d%02d%03d", cal.get(Calendar.YEAR), cal.get(Calendar.MONTH) + 1,
+                cal.get(Calendar.DAY_OF_MONTH), cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE),
+                cal.get(Calendar.SECOND), cal.get(Calendar.MILLISECOND));
+    }
+
+    /**
+     * JDK 9+使用有硬件指令加速的java.util.zip.CRC32C，否则退化为纯Java实现
+     */
+    private static Checksum newCrc32C() {
+        try {
+            return (Checksum) Class.forName("java.util.zip.CRC32C").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return new Crc32C();
+        }
+    }
+
+    public static int crc32c(final byte[] array, final int offset, final int length) {
+        Checksum checksum = CRC32C.get();
+        checksum.reset();
+        checksum.update(array, offset, length);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * 计算byteBuffer中[pos, pos + length)的CRC32C，不修改byteBuffer的position
+     */
+    public static int crc32c(final ByteBuffer byteBuffer, final int pos, final int length) {
+        Checksum checksum = CRC32C.get();
+        checksum.reset();
+        if (byteBuffer.hasArray()) {
+            checksum.update(byteBuffer.array(), byteBuffer.arrayOffset() + pos, length);
+        } else {
+            byte[] scratch = CRC_SCRATCH.get();
+            ByteBuffer src = byteBuffer.duplicate();
+            src.position(pos);
+            int remain = length;
+            while (remain > 0) {
+                int len = Math.min(remain, scratch.length);
+                src.get(scratch, 0, len);
+                checksum.update(scratch, 0, len);
+                remain -= len;
+            }
+        }
+        return (int) checksum.getValue();
+    }
+}
@@ -0,0 +1,49 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+
+import java.nio.file.Files;
+
+public class AllocateMappedFileServiceTest {
+
+    public static void main(String[] args) throws Exception {
+        //写入线程上创建文件
+        runRollover(false, false);
+        //后台预分配并预热
+        runRollover(true, true);
+    }
+
+    private static void runRollover(boolean allocateServiceEnable, boolean warmEnable) throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(Files.createTempDirectory("commitlog").toString());
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024 * 8);
+        messageStoreConfig.setAllocateMappedFileServiceEnable(allocateServiceEnable);
+        messageStoreConfig.setWarmMappedFileEnable(warmEnable);
+        CommitLog commitLog = new CommitLog(messageStoreConfig);
+        commitLog.load();
+        commitLog.start();
+
+        byte[] body = new byte[1024];
+        long maxPutNanos = 0;
+        for (int i = 0; i < 8 * 1024 * 16; i++) {
+            long beginTime = System.nanoTime();
+            PutMessageResult result = commitLog.putMessage(body).join();
+            maxPutNanos = Math.max(maxPutNanos, System.nanoTime() - beginTime);
+            if (!result.isOk()) {
+                throw new IllegalStateException("put message failed " + result);
+            }
+            //模拟写入速度，给后台分配留出时间
+            if (i % 1024 == 0) {
+                Thread.sleep(5);
+            }
+        }
+        System.out.println("allocateService: " + allocateServiceEnable + ", warm: " + warmEnable
+                + ", rollover times: " + commitLog.getRolloverTimes()
+                + ", avg(us): " + commitLog.getRolloverAvgNanos() / 1000
+                + ", max(us): " + commitLog.getRolloverMaxNanos() / 1000
+                + ", max put(us): " + maxPutNanos / 1000);
+
+        commitLog.shutdown();
+        commitLog.getMappedFileQueue().destroy();
+    }
+}
@@ -0,0 +1,58 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageEncoder;
+import com.yumi.step2.message.MessageExt;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchAppendTest {
+
+    public static void main(String[] args) throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(Files.createTempDirectory("commitlog").toString());
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 4);
+        CommitLog commitLog = new CommitLog(messageStoreConfig);
+        commitLog.load();
+        commitLog.start();
+
+        List<long[]> offsets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            List<byte[]> batch = new ArrayList<>();
+            for (int j = 0; j < 16; j++) {
+                batch.add(("batch " + i + " msg " + j).getBytes());
+            }
+            offsets.add(commitLog.putMessages(batch).join().getAppendMessageResult().getMsgOffsets());
+        }
+
+        ByteBuffer encoded = ByteBuffer.allocate(2048);
+        for (int j = 0; j < 16; j++) {
+            Message msg = new Message(("encoded msg " + j).getBytes());
+            msg.putProperty("KEYS", "key" + j);
+            MessageEncoder.get().encode(msg, encoded);
+        }
+        encoded.flip();
+        offsets.add(commitLog.putMessages(encoded).join().getAppendMessageResult().getMsgOffsets());
+
+        int i = 0;
+        for (long[] batchOffsets : offsets) {
+            for (long offset : batchOffsets) {
+                MessageExt msgExt = commitLog.getMessage(offset);
+                if (msgExt.getPhysicOffset() != offset) {
+                    throw new IllegalStateException("offset not matched " + offset + ", " + msgExt);
+                }
+                if (i++ % 200 == 0) {
+                    System.out.println(offset + " -> " + new String(msgExt.getBody()) + ", " + msgExt);
+                }
+            }
+        }
+        System.out.println("files: " + commitLog.getMappedFileQueue().getMappedFiles().size() + ", messages: " + i);
+
+        commitLog.shutdown();
+        commitLog.getMappedFileQueue().destroy();
+    }
+}
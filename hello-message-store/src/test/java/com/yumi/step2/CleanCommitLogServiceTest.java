@@ -0,0 +1,111 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.message.Message;
+import com.yumi.utils.system.StoreUtil;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Calendar;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class CleanCommitLogServiceTest {
+
+    public static void main(String[] args) throws Exception {
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(64 * 1024);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(100 * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        //由测试直接调用cleanFiles
+        messageStoreConfig.setCleanResourceInterval(1000 * 3600);
+        messageStoreConfig.setDeleteWhen(String.valueOf(Calendar.getInstance().get(Calendar.HOUR_OF_DAY)));
+        messageStoreConfig.setDiskMaxUsedSpaceRatio(95);
+        messageStoreConfig.setDeleteCommitLogFilesInterval(10);
+        messageStoreConfig.setDeleteFileBatchMax(2);
+        messageStoreConfig.setDestroyMapedFileIntervalForcibly(1000);
+        messageStoreConfig.setRedeleteHangedFileInterval(0);
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig);
+        messageStore.load();
+        messageStore.start();
+
+        for (int i = 0; i < 2000; i++) {
+            messageStore.putMessage(new Message("TopicTest", 0, "TagA", new byte[256])).join();
+        }
+        while (messageStore.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+        CommitLog commitLog = messageStore.getCommitLog();
+        CleanCommitLogService cleanService = messageStore.getCleanCommitLogService();
+        int files = commitLog.getMappedFileQueue().getMappedFiles().size();
+        System.out.println("commit log files: " + files);
+
+        //保留时间内不删除
+        cleanService.cleanFiles();
+        check(commitLog.getMappedFileQueue().getMappedFiles().size() == files, "retention");
+
+        //过期后一轮最多删除deleteFileBatchMax个文件，consume queue跟着前移
+        messageStoreConfig.setFileReservedTime(0);
+        cleanService.cleanFiles();
+        check(commitLog.getMappedFileQueue().getMappedFiles().size() == files - 2, "batch");
+        check(commitLog.getMinOffset() == 2 * 64 * 1024, "min offset " + commitLog.getMinOffset());
+        long minOffsetInQueue = messageStore.getMinOffsetInQueue("TopicTest", 0);
+        long offsetPy = messageStore.getCommitLogOffsetInQueue("TopicTest", 0, minOffsetInQueue);
+        check(minOffsetInQueue > 0 && offsetPy >= commitLog.getMinOffset(), "cq min offset " + minOffsetInQueue);
+        check(messageStore.getMessage("TopicTest", 0, 0, 1, 1024 * 1024).getStatus()
+                == GetMessageStatus.OFFSET_TOO_SMALL, "offset too small");
+
+        //被引用的文件删除失败，释放后下一轮删除
+        MappedFile first = commitLog.getMappedFileQueue().getFirstMappedFile();
+        SelectMappedBufferResult hold = first.selectMappedBuffer(0);
+        cleanService.cleanFiles();
+        check(commitLog.getMappedFileQueue().getFirstMappedFile() == first, "hold");
+        check(commitLog.getMinOffset() == first.getFileFromOffset() + 64 * 1024, "hidden while deleting");
+        hold.release();
+        cleanService.cleanFiles();
+        check(commitLog.getMappedFileQueue().getFirstMappedFile() != first, "released");
+
+        //一直不释放，超过destroyMapedFileIntervalForcibly后强制删除
+        first = commitLog.getMappedFileQueue().getFirstMappedFile();
+        hold = first.selectMappedBuffer(0);
+        cleanService.cleanFiles();
+        check(commitLog.getMappedFileQueue().getFirstMappedFile() == first, "hold again");
+        Thread.sleep(1100);
+        cleanService.cleanFiles();
+        check(commitLog.getMappedFileQueue().getFirstMappedFile() != first, "forcibly");
+        hold.release();
+
+        //不在删除时段、保留时间很长，但磁盘使用率超过高水位时强制删除
+        messageStoreConfig.setFileReservedTime(72);
+        messageStoreConfig.setDeleteWhen("");
+        messageStoreConfig.setDiskMaxUsedSpaceRatio(1);
+        double usedRatio = StoreUtil.getDiskPartitionSpaceUsedPercent(messageStoreConfig.getStorePathCommitLog());
+        files = commitLog.getMappedFileQueue().getMappedFiles().size();
+        cleanService.cleanFiles();
+        if (usedRatio > 0.01) {
+            check(cleanService.isCleanImmediately(), "watermark");
+            check(commitLog.getMappedFileQueue().getMappedFiles().size() < files, "clean forcibly");
+        }
+        System.out.println("disk used ratio " + usedRatio + ", files " + files + " -> "
+                + commitLog.getMappedFileQueue().getMappedFiles().size());
+
+        //最后一个文件永远保留，新消息照常写入和分发
+        for (int i = 0; i < 20; i++) {
+            cleanService.cleanFiles();
+        }
+        check(commitLog.getMappedFileQueue().getMappedFiles().size() == 1, "keep last");
+        long maxOffsetInQueue = messageStore.getMaxOffsetInQueue("TopicTest", 0);
+        messageStore.putMessage(new Message("TopicTest", 0, "TagA", "after clean".getBytes())).join();
+        while (messageStore.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+        check("after clean".equals(new String(messageStore.getMessage("TopicTest", 0, maxOffsetInQueue).getBody())),
+                "put after clean");
+
+        messageStore.shutdown();
+        messageStore.destroy();
+        System.out.println("clean commit log OK");
+    }
+}
@@ -0,0 +1,35 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.FlushDiskType;
+import com.yumi.step2.config.MessageStoreConfig;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+public class CommitRealTimeServiceTest {
+
+    public static void main(String[] args) throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(Files.createTempDirectory("commitlog").toString());
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setTransientStorePoolEnable(true);
+        messageStoreConfig.setTransientStorePoolSize(2);
+        CommitLog commitLog = new CommitLog(messageStoreConfig);
+        commitLog.load();
+        commitLog.start();
+
+        for (int i = 0; i < 100000; i++) {
+            commitLog.putMessage("hello world " + i);
+            if (i % 20000 == 0) {
+                System.out.println("commit lag: " + commitLog.getCommitLag() + ", flush lag: " + commitLog.getFlushLag());
+            }
+        }
+        TimeUnit.SECONDS.sleep(1);
+        System.out.println("commit lag: " + commitLog.getCommitLag() + ", flush lag: " + commitLog.getFlushLag()
+                + ", max offset: " + commitLog.getMaxOffset());
+
+        commitLog.shutdown();
+        commitLog.getMappedFileQueue().destroy();
+    }
+}
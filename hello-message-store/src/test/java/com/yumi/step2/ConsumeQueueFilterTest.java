@@ -0,0 +1,173 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.filter.ExpressionMessageFilter;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageExt;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class ConsumeQueueFilterTest {
+    private static final String TOPIC = "TopicTest";
+    private static final int REGIONS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int total = 20000;
+        //没有扩展文件时每条消息都要读commit log
+        MessageStoreConfig plainConfig = newConfig(false);
+        DefaultMessageStore plainStore = open(plainConfig);
+        putMessages(plainStore, 0, total);
+        long beginTime = System.nanoTime();
+        int plainFound = pullAll(plainStore, plainStore.buildMessageFilter("region=r7"), 0, 7);
+        long plainNanos = System.nanoTime() - beginTime;
+        check(plainFound == total / REGIONS, "plain found " + plainFound);
+        check(plainStore.getFilterCommitLogReadTimes() == total,
+                "plain commit log reads " + plainStore.getFilterCommitLogReadTimes());
+
+        MessageStoreConfig extConfig = newConfig(true);
+        DefaultMessageStore store = open(extConfig);
+        System.out.println(store.getMessageBloomFilter() + ", " + store.getMessageBloomFilter().getBitMapByteLength()
+                + " bytes per message");
+        putMessages(store, 0, total);
+        beginTime = System.nanoTime();
+        int found = pullAll(store, store.buildMessageFilter("region=r7"), 0, 7);
+        long extNanos = System.nanoTime() - beginTime;
+        check(found == total / REGIONS, "found " + found);
+        long reads = store.getFilterCommitLogReadTimes();
+        System.out.printf("filter 1%% of %d messages, commit log reads: %d without bitmap, %d with bitmap"
+                        + " (%d false positive), %.1fms vs %.1fms%n", total, plainStore.getFilterCommitLogReadTimes(),
+                reads, reads - found, plainNanos / 1e6, extNanos / 1e6);
+        check(reads * 10 < total, "bitmap cuts commit log reads " + reads);
+        check(store.getFilterBitMapMissTimes() + reads == total, "every message checked once");
+        plainStore.shutdown();
+        plainStore.destroy();
+
+        //KEYS匹配任意一个key，多个条件是与
+        check(pullAll(store, store.buildMessageFilter("KEYS=order-123"), 0, -1) == 1, "keys");
+        check(pullAll(store, store.buildMessageFilter("TAGS=TagA && region=r8"), 0, 8) == total / REGIONS,
+                "tags and region");
+        check(pullAll(store, store.buildMessageFilter("TAGS=TagB && region=r8"), 0, -1) == 0, "tags mismatch");
+        check(pullAll(store, store.buildMessageFilter("region=none"), 0, -1) == 0, "none");
+        check(pullAll(store, store.buildMessageFilter("*"), 0, -1) == total, "sub all");
+        try {
+            store.buildMessageFilter("region");
+            check(false, "illegal expression");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+
+        //一次最多扫描maxFilterMessageCount条
+        extConfig.setMaxFilterMessageCount(50);
+        GetMessageResult result = store.getMessage(TOPIC, 0, 8, 32, 1024 * 1024,
+                store.buildMessageFilter("region=r7"));
+        check(result.getStatus() == GetMessageStatus.NO_MATCHED_MESSAGE && result.getNextBeginOffset() == 58,
+                "no matched " + result);
+        extConfig.setMaxFilterMessageCount(16000);
+
+        //长轮询带过滤，唤醒后返回新写入的匹配消息
+        CompletableFuture<GetMessageResult> future = store.pullMessage(TOPIC, 0, total, 32, 1024 * 1024, 1000 * 10,
+                store.buildMessageFilter("region=r7"));
+        check(!future.isDone(), "suspended");
+        //再写一条region=r7的消息
+        putMessages(store, 7, 8);
+        result = future.get();
+        check(result.getStatus() == GetMessageStatus.FOUND && result.getMessageCount() == 1,
+                "long polling " + result);
+        result.release();
+        total++;
+
+        //重启后扩展文件和consume queue一起恢复
+        store.shutdown();
+        store = open(extConfig);
+        check(store.findConsumeQueue(TOPIC, 0).getConsumeQueueExt().getMaxIndex() == total,
+                "ext max index " + store.findConsumeQueue(TOPIC, 0).getConsumeQueueExt().getMaxIndex());
+        long readsBefore = store.getFilterCommitLogReadTimes();
+        check(pullAll(store, store.buildMessageFilter("region=r7"), 0, 7) == total / REGIONS + 1, "after restart");
+        check(store.getFilterCommitLogReadTimes() - readsBefore < total / 10, "bitmap after restart");
+        store.shutdown();
+        store.destroy();
+
+        //已有数据的存储开启扩展文件，之前的消息没有位图按可能匹配读commit log，之后的消息用位图
+        MessageStoreConfig upgradeConfig = newConfig(false);
+        store = open(upgradeConfig);
+        putMessages(store, 0, 1000);
+        store.shutdown();
+        upgradeConfig.setConsumeQueueExtEnable(true);
+        store = open(upgradeConfig);
+        putMessages(store, 1000, 2000);
+        check(store.findConsumeQueue(TOPIC, 0).getConsumeQueueExt().getMaxIndex() == 2000, "ext filled");
+        check(pullAll(store, store.buildMessageFilter("region=r7"), 0, 7) == 20, "upgrade found");
+        reads = store.getFilterCommitLogReadTimes();
+        check(reads >= 1000 && reads < 1100, "old messages read commit log " + reads);
+        store.shutdown();
+        store.destroy();
+        System.out.println("ConsumeQueueFilter OK");
+    }
+
+    private static MessageStoreConfig newConfig(boolean extEnable) throws Exception {
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024);
+        //每个文件1000条，覆盖跨文件
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1000 * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        messageStoreConfig.setMetricsJmxEnable(false);
+        messageStoreConfig.setConsumeQueueExtEnable(extEnable);
+        return messageStoreConfig;
+    }
+
+    private static DefaultMessageStore open(MessageStoreConfig messageStoreConfig) {
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig);
+        check(store.load(), "load");
+        store.start();
+        return store;
+    }
+
+    private static void putMessages(DefaultMessageStore store, int from, int to) throws InterruptedException {
+        //上一批已经分发完
+        long expectMaxOffset = store.getMaxOffsetInQueue(TOPIC, 0) + to - from;
+        for (int i = from; i < to; i++) {
+            Message msg = new Message(TOPIC, 0, i % 2 == 0 ? "TagA" : "TagB", ("msg-" + i).getBytes());
+            msg.setKeys("order-" + i + " user-" + (i % 1000));
+            msg.putProperty("region", "r" + (i % REGIONS));
+            check(store.putMessage(msg).join().isOk(), "put " + i);
+        }
+        long deadline = System.currentTimeMillis() + 1000 * 30;
+        while (store.getMaxOffsetInQueue(TOPIC, 0) < expectMaxOffset) {
+            check(System.currentTimeMillis() < deadline, "dispatch " + store.getMaxOffsetInQueue(TOPIC, 0));
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * 从offset拉到队尾，校验每条返回的消息
+     *
+     * @param region 返回的消息region应该是这个值，-1不校验
+     * @return 拉到的消息数
+     */
+    private static int pullAll(DefaultMessageStore store, ExpressionMessageFilter filter, long offset, int region) {
+        int found = 0;
+        long maxOffset = store.getMaxOffsetInQueue(TOPIC, 0);
+        while (offset < maxOffset) {
+            GetMessageResult result = store.getMessage(TOPIC, 0, offset, 32, 1024 * 1024, filter);
+            check(result.getStatus() == GetMessageStatus.FOUND
+                    || result.getStatus() == GetMessageStatus.NO_MATCHED_MESSAGE, "pull " + result);
+            check(result.getNextBeginOffset() > offset, "progress " + offset);
+            for (SelectMappedBufferResult buffer : result.getMessageMappedList()) {
+                MessageExt msgExt = MessageDecoder.decode(buffer.getByteBuffer().slice(), false, false);
+                check(msgExt != null && filter.isMatchedByCommitLog(msgExt.getProperties()), "matched");
+                check(region < 0 || ("r" + region).equals(msgExt.getProperties().get("region")), "region");
+                found++;
+            }
+            result.release();
+            offset = result.getNextBeginOffset();
+        }
+        return found;
+    }
+}
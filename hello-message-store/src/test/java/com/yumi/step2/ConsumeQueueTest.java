@@ -0,0 +1,87 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageExt;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class ConsumeQueueTest {
+
+    public static void main(String[] args) throws Exception {
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 16);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(ConsumeQueue.CQ_STORE_UNIT_SIZE * 100);
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig);
+        messageStore.load();
+        messageStore.start();
+
+        int queueNums = 4;
+        for (int i = 0; i < 1000; i++) {
+            Message msg = new Message("TopicTest", i % queueNums, "TagA", ("hello " + i).getBytes());
+            messageStore.putMessage(msg).join();
+        }
+        while (messageStore.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+        verify(messageStore, queueNums);
+        messageStore.shutdown();
+        messageStore.destroy();
+
+        verifyCommitFailed();
+    }
+
+    /**
+     * 写文件失败时条目不能丢：maxPhysicOffset不推进，返回第一条没写进去的偏移量，重新分发后补齐
+     */
+    private static void verifyCommitFailed() throws Exception {
+        String storePath = Files.createTempDirectory("cq").toString();
+        //队列目录的位置是一个普通文件，创建consume queue文件会失败
+        File blocker = new File(storePath, "TopicTest");
+        check(blocker.createNewFile(), "create blocker");
+        ConsumeQueue cq = new ConsumeQueue("TopicTest", 0, storePath, ConsumeQueue.CQ_STORE_UNIT_SIZE * 100);
+        for (int i = 0; i < 10; i++) {
+            cq.putMessagePositionInfo(i * 100L, 100, 0);
+        }
+        check(!cq.commitPending(), "commit should fail");
+        check(cq.getFailedPhysicOffset() == 0, "failed offset " + cq.getFailedPhysicOffset());
+        check(cq.getMaxPhysicOffset() == -1, "max physic offset " + cq.getMaxPhysicOffset());
+        //失败后到重新分发之前的条目不接受，避免中间留下空洞
+        cq.putMessagePositionInfo(1000, 100, 0);
+        check(cq.commitPending() == false && cq.getMaxOffsetInQueue() == 0, "reject after failure");
+
+        check(blocker.delete(), "delete blocker");
+        cq.clearFailedPhysicOffset();
+        for (int i = 0; i < 11; i++) {
+            cq.putMessagePositionInfo(i * 100L, 100, 0);
+        }
+        check(cq.commitPending(), "commit after redispatch");
+        check(cq.getMaxOffsetInQueue() == 11, "max offset " + cq.getMaxOffsetInQueue());
+        check(cq.getMaxPhysicOffset() == 1100, "max physic offset " + cq.getMaxPhysicOffset());
+        cq.destroy();
+        System.out.println("verify consume queue commit failed OK");
+    }
+
+    private static void verify(DefaultMessageStore messageStore, int queueNums) {
+        for (int queueId = 0; queueId < queueNums; queueId++) {
+            long max = messageStore.getMaxOffsetInQueue("TopicTest", queueId);
+            if (max != 250) {
+                throw new IllegalStateException("queue " + queueId + " max offset " + max);
+            }
+            for (long offset = 0; offset < max; offset++) {
+                MessageExt msgExt = messageStore.getMessage("TopicTest", queueId, offset);
+                String body = new String(msgExt.getBody());
+                if (!body.equals("hello " + (offset * queueNums + queueId))) {
+                    throw new IllegalStateException("queue " + queueId + " offset " + offset + " -> " + body);
+                }
+            }
+        }
+        System.out.println("verify consume queue OK");
+    }
+}
@@ -0,0 +1,73 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.FlushDiskType;
+import com.yumi.step2.config.FlushMode;
+import com.yumi.step2.config.MessageStoreConfig;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class FlushModeTest {
+
+    public static void main(String[] args) throws Exception {
+        for (FlushMode flushMode : FlushMode.values()) {
+            verify(flushMode, null);
+            TransientStorePool transientStorePool = new TransientStorePool(1, 1024 * 1024);
+            transientStorePool.init();
+            verify(flushMode, transientStorePool);
+            transientStorePool.destroy();
+        }
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setFlushMode(FlushMode.RANGE_MS_ASYNC);
+        check(messageStoreConfig.getFlushMode() == FlushMode.RANGE_MS_ASYNC, "async flush");
+        messageStoreConfig.setFlushDiskType(FlushDiskType.SYNC_FLUSH);
+        check(messageStoreConfig.getFlushMode() == FlushMode.RANGE_MS_SYNC, "sync flush");
+        System.out.println("flush mode OK");
+    }
+
+    private static void verify(FlushMode flushMode, TransientStorePool transientStorePool) throws Exception {
+        String fileName = Files.createTempDirectory("flush").toString() + File.separator + "00000000000000000000";
+        MappedFile mappedFile = transientStorePool == null ? new MappedFile(fileName, 1024 * 1024)
+                : new MappedFile(fileName, 1024 * 1024, transientStorePool);
+        byte[] data = new byte[5000];
+        int expected = 0;
+        for (int i = 0; i < 10; i++) {
+            //脏区间的起止都不在页边界上
+            Arrays.fill(data, (byte) i);
+            expected += mappedFile.appendMessage(data).getWroteBytes();
+            mappedFile.commit(0);
+            check(mappedFile.flush(0, flushMode) == expected, flushMode + " flushed " + mappedFile.getFlushedPosition());
+        }
+        //按页数刷盘，MS_ASYNC只提交写回，flushedPosition不动，全量刷盘时才推进
+        int flushed = expected;
+        expected += mappedFile.appendMessage(new byte[4096 * 3]).getWroteBytes();
+        mappedFile.commit(0);
+        int position = mappedFile.flush(1, flushMode);
+        check(position == (flushMode == FlushMode.RANGE_MS_ASYNC ? flushed : expected),
+                flushMode + " flush least pages " + position);
+        check(mappedFile.flush(0, flushMode) == expected, flushMode + " thorough " + mappedFile.getFlushedPosition());
+        //byte[]重载在写缓冲模式下也要经commit写到文件，不能被writeBuffer覆盖
+        byte[] raw = new byte[6000];
+        Arrays.fill(raw, (byte) 0x7F);
+        check(mappedFile.appendMsg(raw, 0, 3000) && mappedFile.appendMsg(Arrays.copyOf(raw, 3000)), "append bytes");
+        expected += raw.length;
+        mappedFile.commit(0);
+        check(mappedFile.flush(0, flushMode) == expected, flushMode + " bytes flushed");
+
+        byte[] read = new byte[expected];
+        try (RandomAccessFile raf = new RandomAccessFile(fileName, "r")) {
+            raf.readFully(read);
+        }
+        SelectMappedBufferResult result = mappedFile.selectMappedBuffer(0, expected);
+        byte[] written = new byte[expected];
+        result.getByteBuffer().get(written);
+        result.release();
+        check(Arrays.equals(read, written), flushMode + " content");
+        check(Arrays.equals(Arrays.copyOfRange(read, expected - raw.length, expected), raw), flushMode + " bytes content");
+        mappedFile.destroy(1000);
+    }
+}
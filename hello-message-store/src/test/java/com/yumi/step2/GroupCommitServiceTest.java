@@ -0,0 +1,44 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.FlushDiskType;
+import com.yumi.step2.config.MessageStoreConfig;
+
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class GroupCommitServiceTest {
+
+    public static void main(String[] args) throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(Files.createTempDirectory("commitlog").toString());
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024 * 64);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.SYNC_FLUSH);
+        CommitLog commitLog = new CommitLog(messageStoreConfig);
+        commitLog.load();
+        commitLog.start();
+
+        int producers = 32;
+        int messagesPerProducer = 1000;
+        AtomicLong okCount = new AtomicLong(0);
+        CountDownLatch latch = new CountDownLatch(producers);
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < producers; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < messagesPerProducer; j++) {
+                    if (commitLog.putMessage("hello world " + j).join().isOk()) {
+                        okCount.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        long cost = System.currentTimeMillis() - begin;
+        System.out.println("ok: " + okCount.get() + ", cost: " + cost + "ms, tps: "
+                + okCount.get() * 1000 / Math.max(cost, 1) + ", flushed: " + commitLog.getFlushedWhere());
+
+        commitLog.shutdown();
+        commitLog.getMappedFileQueue().destroy();
+    }
+}
@@ -0,0 +1,215 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.BrokerRole;
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.ha.HAService;
+import com.yumi.step2.message.Message;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class HATest {
+    private static final String PAD = new String(new char[1000]).replace('\0', 'x');
+
+    public static void main(String[] args) throws Exception {
+        MessageStoreConfig masterConfig = newConfig();
+        masterConfig.setBrokerRole(BrokerRole.SYNC_MASTER);
+        masterConfig.setHaListenPort(0);
+        DefaultMessageStore master = new DefaultMessageStore(masterConfig);
+        check(master.load(), "load master");
+        master.start();
+        HAService haService = master.getCommitLog().getHaService();
+        int port = haService.getListenPort();
+        check(port > 0, "listen port " + port);
+
+        //还没有从节点，消息写入了但是返回SLAVE_NOT_AVAILABLE
+        PutMessageResult result = master.putMessage(newMessage(0)).join();
+        check(result.getPutMessageStatus() == PutMessageStatus.SLAVE_NOT_AVAILABLE,
+                "no slave " + result.getPutMessageStatus());
+
+        MessageStoreConfig slaveConfig = newConfig();
+        slaveConfig.setBrokerRole(BrokerRole.SLAVE);
+        slaveConfig.setHaMasterAddress("127.0.0.1:" + port);
+        DefaultMessageStore slave = new DefaultMessageStore(slaveConfig);
+        check(slave.load(), "load slave");
+        slave.start();
+        check(slave.putMessage(newMessage(0)).join().getPutMessageStatus() == PutMessageStatus.SERVICE_NOT_AVAILABLE,
+                "slave rejects put");
+        waitCaughtUp(master, slave);
+        check(haService.getConnectionCount() == 1, "connections " + haService.getConnectionCount());
+
+        //同步复制，返回时从节点已经有这条消息
+        for (int i = 1; i < 100; i++) {
+            result = master.putMessage(newMessage(i)).join();
+            check(result.isOk(), "sync put " + i + " " + result.getPutMessageStatus());
+            long nextOffset = result.getAppendMessageResult().getWroteOffset()
+                    + result.getAppendMessageResult().getWroteBytes();
+            check(slave.getCommitLog().getMaxOffset() >= nextOffset, "slave has " + i);
+        }
+
+        //吞吐：不等上一条返回，一直写，全部确认后算时间
+        int total = 20000;
+        long beginOffset = master.getCommitLog().getMaxOffset();
+        long beginTime = System.nanoTime();
+        List<CompletableFuture<PutMessageResult>> futures = new ArrayList<>(total);
+        for (int i = 100; i < 100 + total; i++) {
+            futures.add(master.putMessage(newMessage(i)));
+        }
+        for (CompletableFuture<PutMessageResult> future : futures) {
+            check(future.join().isOk(), "batch put " + future.join().getPutMessageStatus());
+        }
+        long costNanos = System.nanoTime() - beginTime;
+        long bytes = master.getCommitLog().getMaxOffset() - beginOffset;
+        System.out.printf("replicate %d messages, %d bytes in %.1fms, %.1f MB/s, %.0f msg/s%n", total, bytes,
+                costNanos / 1e6, bytes / 1024.0 / 1024.0 / (costNanos / 1e9), total / (costNanos / 1e9));
+        total += 100;
+
+        //新的从节点从头追上主节点，只有复制本身的耗时
+        MessageStoreConfig slave2Config = newConfig();
+        slave2Config.setBrokerRole(BrokerRole.SLAVE);
+        slave2Config.setHaMasterAddress("127.0.0.1:" + port);
+        DefaultMessageStore slave2 = new DefaultMessageStore(slave2Config);
+        check(slave2.load(), "load slave2");
+        beginTime = System.nanoTime();
+        slave2.start();
+        waitCaughtUp(master, slave2);
+        costNanos = System.nanoTime() - beginTime;
+        bytes = master.getCommitLog().getMaxOffset();
+        System.out.printf("new slave catch up %d bytes in %.1fms, %.1f MB/s%n", bytes, costNanos / 1e6,
+                bytes / 1024.0 / 1024.0 / (costNanos / 1e9));
+        slave2.shutdown();
+        slave2.destroy();
+        while (haService.getConnectionCount() > 1) {
+            Thread.sleep(10);
+        }
+
+        //从节点分发后按consume queue读到同样的消息
+        waitCaughtUp(master, slave);
+        while (slave.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < total; i += 97) {
+            check(new String(slave.getMessage("TopicTest", 0, i).getBody()).equals("msg-" + i + PAD),
+                    "slave read " + i);
+        }
+        check(slave.getMaxOffsetInQueue("TopicTest", 0) == total,
+                "slave queue " + slave.getMaxOffsetInQueue("TopicTest", 0));
+
+        //从节点重启后从自己的最大偏移量接着同步
+        slave.shutdown();
+        while (haService.getConnectionCount() > 0) {
+            Thread.sleep(10);
+        }
+        result = master.putMessage(newMessage(total)).join();
+        check(result.getPutMessageStatus() == PutMessageStatus.SLAVE_NOT_AVAILABLE, "slave gone");
+        total++;
+        slave = new DefaultMessageStore(slaveConfig);
+        check(slave.load(), "reload slave");
+        slave.start();
+        waitCaughtUp(master, slave);
+        result = master.putMessage(newMessage(total)).join();
+        check(result.isOk(), "put after slave restart " + result.getPutMessageStatus());
+        total++;
+        while (slave.dispatchBehindBytes() > 0 || slave.getMaxOffsetInQueue("TopicTest", 0) < total) {
+            Thread.sleep(10);
+        }
+        check(new String(slave.getMessage("TopicTest", 0, total - 2).getBody()).equals("msg-" + (total - 2) + PAD),
+                "slave read after restart");
+        slave.shutdown();
+        slave.destroy();
+        while (haService.getConnectionCount() > 0) {
+            Thread.sleep(10);
+        }
+
+        //连上了但从不确认的从节点，等到超时
+        masterConfig.setSyncFlushTimeout(200);
+        try (SocketChannel fakeSlave = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+            ByteBuffer report = ByteBuffer.allocate(8);
+            report.putLong(0, master.getCommitLog().getMaxOffset());
+            fakeSlave.write(report);
+            while (haService.getConnectionCount() == 0) {
+                Thread.sleep(10);
+            }
+            result = master.putMessage(newMessage(total)).join();
+            check(result.getPutMessageStatus() == PutMessageStatus.FLUSH_SLAVE_TIMEOUT,
+                    "ack timeout " + result.getPutMessageStatus());
+        }
+
+        master.shutdown();
+        master.destroy();
+        writeBufferReplicate();
+        System.out.println("HA OK");
+    }
+
+    /**
+     * writeBuffer模式下commit之后马上通知发送线程，同步复制不用等发送线程自己醒来
+     */
+    private static void writeBufferReplicate() throws Exception {
+        MessageStoreConfig masterConfig = newConfig();
+        masterConfig.setBrokerRole(BrokerRole.SYNC_MASTER);
+        masterConfig.setHaListenPort(0);
+        masterConfig.setTransientStorePoolEnable(true);
+        masterConfig.setTransientStorePoolSize(2);
+        DefaultMessageStore master = new DefaultMessageStore(masterConfig);
+        check(master.load(), "load writeBuffer master");
+        master.start();
+
+        MessageStoreConfig slaveConfig = newConfig();
+        slaveConfig.setBrokerRole(BrokerRole.SLAVE);
+        slaveConfig.setHaMasterAddress("127.0.0.1:" + master.getCommitLog().getHaService().getListenPort());
+        DefaultMessageStore slave = new DefaultMessageStore(slaveConfig);
+        check(slave.load(), "load writeBuffer slave");
+        slave.start();
+        while (master.getCommitLog().getHaService().getConnectionCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        int total = 20;
+        long beginTime = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            PutMessageResult result = master.putMessage(newMessage(i)).join();
+            check(result.isOk(), "writeBuffer sync put " + i + " " + result.getPutMessageStatus());
+        }
+        long costMillis = (System.nanoTime() - beginTime) / 1000000;
+        System.out.println("writeBuffer sync replicate " + total + " messages in " + costMillis + "ms");
+        //发送线程空闲时等100ms，每条都等的话至少要total * 100ms
+        check(costMillis < total * 50, "writeBuffer sync replicate cost " + costMillis + "ms");
+
+        slave.shutdown();
+        slave.destroy();
+        master.shutdown();
+        master.destroy();
+    }
+
+    private static MessageStoreConfig newConfig() throws Exception {
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMetricsJmxEnable(false);
+        return messageStoreConfig;
+    }
+
+    private static Message newMessage(int i) {
+        return new Message("TopicTest", 0, "TagA", ("msg-" + i + PAD).getBytes());
+    }
+
+    private static void waitCaughtUp(DefaultMessageStore master, DefaultMessageStore slave)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000 * 30;
+        while (slave.getCommitLog().getMaxOffset() < master.getCommitLog().getMaxOffset()) {
+            check(System.currentTimeMillis() < deadline, "slave catch up, slave " + slave.getCommitLog().getMaxOffset()
+                    + ", master " + master.getCommitLog().getMaxOffset());
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.index.IndexService;
+import com.yumi.step2.index.QueryOffsetResult;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageExt;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class IndexServiceTest {
+
+    public static void main(String[] args) throws Exception {
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024);
+        //小索引文件，验证跨文件查询
+        messageStoreConfig.setMaxHashSlotNum(1000);
+        messageStoreConfig.setMaxIndexNum(4000);
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig);
+        messageStore.load();
+        messageStore.start();
+
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            Message msg = new Message("TopicTest", 0, "TagA", ("hello " + i).getBytes());
+            msg.setKeys("key-" + i + " order-" + (i % 100));
+            messageStore.putMessage(msg).join();
+        }
+        while (messageStore.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+        long end = System.currentTimeMillis();
+
+        //滚动过的文件也要在推进检查点之前刷盘
+        messageStore.getIndexService().flush();
+        check(messageStore.getIndexService().getDirtyFileNums() == 0,
+                "dirty index files " + messageStore.getIndexService().getDirtyFileNums());
+        verify(messageStore, begin, end);
+        messageStore.shutdown();
+
+        messageStore = new DefaultMessageStore(messageStoreConfig);
+        messageStore.load();
+        messageStore.start();
+        verify(messageStore, begin, end);
+        long cutOffset = messageStore.queryMessage("TopicTest", "key-5000", 32, begin, end).get(0).getPhysicOffset();
+        messageStore.shutdown();
+
+        //commit log恢复到key-5000之前，索引文件截断掉之后的条目，之前的保留
+        IndexService indexService = new IndexService(messageStoreConfig);
+        check(indexService.load(cutOffset), "load truncated");
+        check(indexService.queryOffset("TopicTest", "key-1234", 32, begin, end).getPhyOffsets().size() == 1,
+                "key-1234 after truncate");
+        check(indexService.queryOffset("TopicTest", "key-4999", 32, begin, end).getPhyOffsets().size() == 1,
+                "key-4999 after truncate");
+        check(indexService.queryOffset("TopicTest", "key-5000", 32, begin, end).getPhyOffsets().isEmpty(),
+                "key-5000 after truncate");
+        check(indexService.queryOffset("TopicTest", "key-9999", 32, begin, end).getPhyOffsets().isEmpty(),
+                "key-9999 after truncate");
+        QueryOffsetResult result = indexService.queryOffset("TopicTest", "order-7", 200, begin, end);
+        check(result.getPhyOffsets().size() == 50, "order-7 after truncate " + result.getPhyOffsets().size());
+        for (Long phyOffset : result.getPhyOffsets()) {
+            check(phyOffset < cutOffset, "order-7 offset " + phyOffset);
+        }
+        check(result.getIndexLastUpdatePhyoffset() < cutOffset,
+                "end phy offset " + result.getIndexLastUpdatePhyoffset());
+        indexService.shutdown();
+        //截断后的文件可以再次加载
+        indexService = new IndexService(messageStoreConfig);
+        check(indexService.load(cutOffset), "reload truncated");
+        check(indexService.queryOffset("TopicTest", "key-4999", 32, begin, end).getPhyOffsets().size() == 1,
+                "key-4999 after reload");
+        indexService.shutdown();
+        messageStore.destroy();
+        System.out.println("truncate index OK");
+    }
+
+    private static void verify(DefaultMessageStore messageStore, long begin, long end) {
+        List<MessageExt> msgs = messageStore.queryMessage("TopicTest", "key-1234", 32, begin, end);
+        check(msgs.size() == 1 && "hello 1234".equals(new String(msgs.get(0).getBody())), "key-1234 " + msgs);
+
+        msgs = messageStore.queryMessage("TopicTest", "order-7", 200, begin, end);
+        check(msgs.size() == 100, "order-7 " + msgs.size());
+        for (MessageExt msgExt : msgs) {
+            int i = Integer.parseInt(new String(msgExt.getBody()).substring("hello ".length()));
+            check(i % 100 == 7, "order-7 " + i);
+        }
+
+        msgs = messageStore.queryMessage("TopicTest", "order-7", 10, begin, end);
+        check(msgs.size() == 10, "maxNum " + msgs.size());
+
+        msgs = messageStore.queryMessage("TopicTest", "key-1234", 32, end + 10000, end + 20000);
+        check(msgs.isEmpty(), "time range " + msgs);
+
+        msgs = messageStore.queryMessage("OtherTopic", "key-1234", 32, begin, end);
+        check(msgs.isEmpty(), "topic " + msgs);
+        System.out.println("verify index OK");
+    }
+}
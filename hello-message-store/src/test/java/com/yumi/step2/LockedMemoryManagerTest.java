@@ -0,0 +1,60 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+
+import java.nio.file.Files;
+import java.util.List;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class LockedMemoryManagerTest {
+
+    public static void main(String[] args) throws Exception {
+        int fileSize = 64 * 1024;
+        String storePath = Files.createTempDirectory("mlock").toString();
+        MappedFileQueue mappedFileQueue = new MappedFileQueue(storePath, fileSize);
+        while (mappedFileQueue.getMappedFiles().size() < 4) {
+            mappedFileQueue.appendMessage(new byte[1000]);
+        }
+        List<MappedFile> files = mappedFileQueue.getMappedFiles();
+
+        //预算只够锁两个文件
+        LockedMemoryManager manager = new LockedMemoryManager(new MessageStoreConfig(), mappedFileQueue,
+                2L * fileSize + 100);
+        if (!manager.lock(files.get(0))) {
+            System.out.println("mlock not permitted, skip");
+            mappedFileQueue.destroy();
+            return;
+        }
+        check(manager.lock(files.get(1)), "lock 1");
+        check(manager.getLockedBytes() == 2L * fileSize, "locked bytes " + manager.getLockedBytes());
+
+        //再次访问0号文件，1号成为最久没用过的，锁2号时被munlock
+        check(manager.lock(files.get(0)), "touch 0");
+        check(manager.lock(files.get(2)), "lock 2");
+        check(manager.isLocked(files.get(0)) && !manager.isLocked(files.get(1)) && manager.isLocked(files.get(2)),
+                "lru");
+        check(manager.getEvictedTimes() == 1 && manager.getLockedFileNums() == 2, "evicted");
+
+        //超过预算的文件不锁
+        MappedFileQueue bigQueue = new MappedFileQueue(Files.createTempDirectory("mlock").toString(), 4 * fileSize);
+        bigQueue.appendMessage(new byte[1000]);
+        check(!manager.lock(bigQueue.getLastMappedFile()) && manager.getLockFailedTimes() == 1, "over budget");
+        bigQueue.destroy();
+
+        //消费者读完前两个文件后解锁并DONTNEED，最后一个文件不处理
+        manager.setConsumedOffsetSupplier(() -> 2L * fileSize);
+        manager.adviseSegments();
+        check(!manager.isLocked(files.get(0)) && manager.isLocked(files.get(2)), "consumed");
+        manager.setConsumedOffsetSupplier(() -> Long.MAX_VALUE);
+        manager.adviseSegments();
+        check(!manager.isLocked(files.get(2)), "consumed all");
+        check(files.get(3).isAvailable() && manager.getLockedBytes() == 0, "keep active");
+
+        //已删除的文件不再占预算
+        manager.lock(files.get(3));
+        mappedFileQueue.destroy();
+        check(manager.getLockedBytes() == 0, "destroyed");
+        System.out.println("locked memory manager OK");
+    }
+}
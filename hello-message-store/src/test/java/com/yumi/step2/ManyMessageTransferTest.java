@@ -0,0 +1,102 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageExt;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class ManyMessageTransferTest {
+
+    public static void main(String[] args) throws Exception {
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 16);
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig);
+        messageStore.load();
+        messageStore.start();
+        for (int i = 0; i < 1000; i++) {
+            messageStore.putMessage(new Message("TopicTest", i % 2, "TagA", ("hello " + i).getBytes())).join();
+        }
+        while (messageStore.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel sender = SocketChannel.open(server.getLocalAddress());
+        SocketChannel receiver = server.accept();
+
+        //按commit log偏移量顺序拉取，跨越多个文件
+        for (boolean useFileChannel : new boolean[]{false, true}) {
+            long offset = 0;
+            int index = 0;
+            while (index < 1000) {
+                GetMessageResult getResult = messageStore.getCommitLog().getMessages(offset, 64, 1024 * 8);
+                new ManyMessageTransfer(getResult, useFileChannel).transferFully(sender);
+                ByteBuffer body = readResponse(receiver, getResult);
+                while (body.hasRemaining()) {
+                    MessageExt msgExt = MessageDecoder.decode(body, true, true);
+                    check(("hello " + index++).equals(new String(msgExt.getBody())), "body " + index);
+                }
+                offset = getResult.getNextBeginOffset();
+            }
+            GetMessageResult end = messageStore.getCommitLog().getMessages(offset, 64, 1024 * 8);
+            check(end.getStatus() == GetMessageStatus.OFFSET_OVERFLOW_ONE, "overflow one " + end);
+            System.out.println("transfer commit log OK, useFileChannel: " + useFileChannel);
+        }
+
+        //按consume queue拉取
+        long queueOffset = 0;
+        int index = 0;
+        while (index < 500) {
+            GetMessageResult getResult = messageStore.getMessage("TopicTest", 1, queueOffset, 32, 1024 * 1024);
+            new ManyMessageTransfer(getResult, true).transferFully(sender);
+            ByteBuffer body = readResponse(receiver, getResult);
+            while (body.hasRemaining()) {
+                MessageExt msgExt = MessageDecoder.decode(body, true, true);
+                check(("hello " + (index++ * 2 + 1)).equals(new String(msgExt.getBody())), "queue body " + index);
+            }
+            queueOffset = getResult.getNextBeginOffset();
+        }
+        System.out.println("transfer consume queue OK");
+
+        for (MappedFile mappedFile : messageStore.getCommitLog().getMappedFileQueue().getMappedFiles()) {
+            check(mappedFile.getRefCount() == 1, "hold not released " + mappedFile);
+        }
+
+        sender.close();
+        receiver.close();
+        server.close();
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    private static ByteBuffer readResponse(SocketChannel receiver, GetMessageResult getResult) throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(ManyMessageTransfer.HEADER_LENGTH);
+        readFully(receiver, header);
+        check(header.getInt() == getResult.getStatus().ordinal(), "status");
+        check(header.getInt() == getResult.getMessageCount(), "count");
+        check(header.getLong() == getResult.getNextBeginOffset(), "next begin offset");
+        ByteBuffer body = ByteBuffer.allocate(header.getInt());
+        readFully(receiver, body);
+        return body;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws Exception {
+        while (buffer.hasRemaining()) {
+            channel.read(buffer);
+        }
+        buffer.flip();
+    }
+}
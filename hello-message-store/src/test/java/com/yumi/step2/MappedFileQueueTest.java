@@ -0,0 +1,31 @@
+package com.yumi.step2;
+
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageExt;
+
+import java.nio.file.Files;
+
+public class MappedFileQueueTest {
+
+    public static void main(String[] args) throws Exception {
+        String storePath = Files.createTempDirectory("commitlog").toString();
+        MappedFileQueue mappedFileQueue = new MappedFileQueue(storePath, 1024);
+
+        long lastOffset = -1;
+        for (int i = 0; i < 200; i++) {
+            lastOffset = mappedFileQueue.appendMsg("hello world " + i);
+        }
+        while (!mappedFileQueue.commit(0)) {
+            //commit一次只处理一个文件
+        }
+        System.out.println("files: " + mappedFileQueue.getMappedFiles().size()
+                + ", last offset: " + lastOffset + ", max offset: " + mappedFileQueue.getMaxOffset());
+
+        SelectMappedBufferResult result = mappedFileQueue.selectMappedBuffer(lastOffset);
+        MessageExt msgExt = MessageDecoder.decode(result.getByteBuffer(), true, true);
+        result.release();
+        System.out.println(new String(msgExt.getBody()) + ", " + msgExt);
+
+        mappedFileQueue.destroy();
+    }
+}
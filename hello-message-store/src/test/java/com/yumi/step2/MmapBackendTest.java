@@ -0,0 +1,70 @@
+package com.yumi.step2;
+
+import com.yumi.step2.util.MmapBackend;
+import com.yumi.step2.util.PortableMmapBackend;
+import com.yumi.step2.util.ReflectionMmapBackend;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static com.yumi.step2.TestUtil.check;
+
+/**
+ * 不加--add-opens/--add-exports也能运行：java -cp ... com.yumi.step2.MmapBackendTest
+ */
+public class MmapBackendTest {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("mmap backend " + MmapBackend.INSTANCE.name());
+        check(PortableMmapBackend.isAvailable() == "portable".equals(MmapBackend.INSTANCE.name())
+                || System.getProperty(MmapBackend.PROPERTY_NAME) != null, "default backend");
+
+        verify(new PortableMmapBackend());
+        //原来的实现只有在打开了sun.nio.ch和java.nio时才能用
+        try {
+            verify(new ReflectionMmapBackend());
+        } catch (IllegalAccessError | IllegalStateException e) {
+            System.out.println("reflection backend not usable without --add-opens: " + e);
+        }
+
+        //MappedFile走默认backend，destroy后映射立即消失
+        String storePath = Files.createTempDirectory("mmap").toString();
+        MappedFile mappedFile = new MappedFile(storePath + File.separator + "00000000000000000000", 1024 * 1024);
+        mappedFile.appendMessage("hello".getBytes());
+        check(mappedFile.residentRatio(0, 100) == 1, "address works");
+        check(isMapped(mappedFile.getFileName()), "mapped");
+        mappedFile.destroy(0);
+        check(!isMapped(mappedFile.getFileName()), "unmapped");
+        System.out.println("mmap backend OK");
+    }
+
+    private static void verify(MmapBackend backend) throws Exception {
+        File file = File.createTempFile("mmap", ".data");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4096);
+            buffer.put(0, (byte) 7);
+            check(backend.address(buffer) != 0 && backend.address(buffer) % MappedFile.OS_PAGE_SIZE == 0,
+                    backend.name() + " address");
+            check(isMapped(file.getPath()), backend.name() + " mapped");
+            backend.unmap(buffer);
+            check(!isMapped(file.getPath()), backend.name() + " unmapped");
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static boolean isMapped(String path) throws Exception {
+        String canonical = new File(path).getCanonicalPath();
+        for (String line : Files.readAllLines(Paths.get("/proc/self/maps"), StandardCharsets.UTF_8)) {
+            if (line.endsWith(canonical)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
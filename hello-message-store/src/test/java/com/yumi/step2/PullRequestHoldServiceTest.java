@@ -0,0 +1,110 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.message.Message;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class PullRequestHoldServiceTest {
+    private static final String TOPIC = "TopicTest";
+
+    public static void main(String[] args) throws Exception {
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMetricsJmxEnable(false);
+        //检查间隔拉长，唤醒只能靠分发时的通知
+        messageStoreConfig.setPullRequestCheckInterval(1000 * 5);
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig);
+        check(store.load(), "load");
+        store.start();
+        PullRequestHoldService holdService = store.getPullRequestHoldService();
+
+        //有消息时直接返回
+        check(store.putMessage(newMessage(0, 0)).join().isOk(), "put 0");
+        waitDispatched(store, 0, 1);
+        GetMessageResult result = store.pullMessage(TOPIC, 0, 0, 32, 1024 * 1024, 1000 * 10).get();
+        check(result.getStatus() == GetMessageStatus.FOUND && result.getMessageCount() == 1,
+                "pull existing " + result);
+        result.release();
+        check(holdService.getSuspendTimes() == 0, "not suspended");
+
+        //没有新消息时挂起，写入后唤醒
+        int rounds = 200;
+        long[] latencies = new long[rounds];
+        for (int i = 1; i <= rounds; i++) {
+            CompletableFuture<GetMessageResult> future = store.pullMessage(TOPIC, 0, i, 32, 1024 * 1024, 1000 * 10);
+            check(!future.isDone(), "suspended " + i);
+            long beginTime = System.nanoTime();
+            check(store.putMessage(newMessage(0, i)).join().isOk(), "put " + i);
+            result = future.get();
+            latencies[i - 1] = System.nanoTime() - beginTime;
+            check(result.getStatus() == GetMessageStatus.FOUND && result.getMessageCount() >= 1,
+                    "wakeup " + i + " " + result);
+            result.release();
+        }
+        Arrays.sort(latencies);
+        long p50 = latencies[rounds / 2];
+        long p99 = latencies[rounds * 99 / 100];
+        System.out.printf("put to pull wakeup latency p50 %.3fms, p99 %.3fms, max %.3fms%n", p50 / 1e6, p99 / 1e6,
+                latencies[rounds - 1] / 1e6);
+        //没有通知时要等到5秒一次的检查
+        check(p99 < 1000L * 1000 * 1000, "wakeup latency " + p99);
+        check(holdService.getWakeupTimes() == rounds, "wakeup times " + holdService.getWakeupTimes());
+
+        //其他队列的消息不会唤醒
+        CompletableFuture<GetMessageResult> future = store.pullMessage(TOPIC, 1, 0, 32, 1024 * 1024, 1000 * 10);
+        check(store.putMessage(newMessage(0, rounds + 1)).join().isOk(), "put other queue");
+        waitDispatched(store, 0, rounds + 2);
+        Thread.sleep(100);
+        check(!future.isDone(), "other queue not wakeup");
+        check(store.putMessage(newMessage(1, 0)).join().isOk(), "put queue 1");
+        result = future.get();
+        check(result.getStatus() == GetMessageStatus.FOUND, "queue 1 wakeup " + result);
+        result.release();
+
+        //超时后按当前的数据返回
+        messageStoreConfig.setPullRequestCheckInterval(50);
+        holdService.wakeup();
+        long beginTime = System.currentTimeMillis();
+        result = store.pullMessage(TOPIC, 0, rounds + 2, 32, 1024 * 1024, 300).get();
+        long cost = System.currentTimeMillis() - beginTime;
+        check(result.getStatus() == GetMessageStatus.OFFSET_OVERFLOW_ONE, "timeout " + result);
+        check(cost >= 300 && cost < 2000, "timeout cost " + cost);
+        check(holdService.getTimeoutTimes() == 1, "timeout times " + holdService.getTimeoutTimes());
+
+        //不挂起
+        result = store.pullMessage(TOPIC, 0, rounds + 2, 32, 1024 * 1024, 0).get();
+        check(result.getStatus() == GetMessageStatus.OFFSET_OVERFLOW_ONE, "no suspend " + result);
+
+        //关闭时挂起的请求都返回
+        future = store.pullMessage(TOPIC, 0, rounds + 2, 32, 1024 * 1024, 1000 * 60);
+        check(holdService.getHoldRequestNums() == 1, "hold " + holdService.getHoldRequestNums());
+        store.shutdown();
+        result = future.get();
+        check(result.getStatus() == GetMessageStatus.OFFSET_OVERFLOW_ONE, "shutdown " + result);
+        check(holdService.getHoldRequestNums() == 0, "hold after shutdown " + holdService.getHoldRequestNums());
+        store.destroy();
+        System.out.println("PullRequestHoldService OK");
+    }
+
+    private static Message newMessage(int queueId, int i) {
+        return new Message(TOPIC, queueId, "TagA", ("msg-" + i).getBytes());
+    }
+
+    private static void waitDispatched(DefaultMessageStore store, int queueId, long maxOffset)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000 * 10;
+        while (store.getMaxOffsetInQueue(TOPIC, queueId) < maxOffset) {
+            check(System.currentTimeMillis() < deadline, "dispatch " + store.getMaxOffsetInQueue(TOPIC, queueId));
+            Thread.sleep(1);
+        }
+    }
+}
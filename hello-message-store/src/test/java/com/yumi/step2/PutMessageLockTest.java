@@ -0,0 +1,142 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.config.PutMessageLockType;
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageExt;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PutMessageLockTest {
+
+    public static void main(String[] args) throws Exception {
+        for (PutMessageLockType lockType : PutMessageLockType.values()) {
+            MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+            messageStoreConfig.setStorePathCommitLog(Files.createTempDirectory("commitlog").toString());
+            messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+            messageStoreConfig.setPutMessageLockType(lockType);
+            CommitLog commitLog = new CommitLog(messageStoreConfig);
+            commitLog.load();
+            commitLog.start();
+
+            int producers = 16;
+            int messagesPerProducer = 10000;
+            CountDownLatch latch = new CountDownLatch(producers);
+            long begin = System.currentTimeMillis();
+            for (int i = 0; i < producers; i++) {
+                new Thread(() -> {
+                    for (int j = 0; j < messagesPerProducer; j++) {
+                        commitLog.putMessage("hello world " + j);
+                    }
+                    latch.countDown();
+                }).start();
+            }
+            latch.await();
+            long cost = System.currentTimeMillis() - begin;
+
+            //顺序扫描校验没有互相覆盖
+            int count = 0;
+            for (MappedFile mappedFile : commitLog.getMappedFileQueue().getMappedFiles()) {
+                ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+                byteBuffer.limit(mappedFile.getWrotePosition());
+                while (byteBuffer.hasRemaining()) {
+                    if (byteBuffer.getInt(byteBuffer.position() + 4) == MappedFile.BLANK_MAGIC_CODE) {
+                        break;
+                    }
+                    MessageExt msgExt = MessageDecoder.decode(byteBuffer, true, true);
+                    if (msgExt == null || !new String(msgExt.getBody()).startsWith("hello world ")) {
+                        throw new IllegalStateException("broken message at " + byteBuffer.position());
+                    }
+                    count++;
+                }
+            }
+            System.out.println(lockType + " cost: " + cost + "ms, messages: " + count
+                    + ", expected: " + producers * messagesPerProducer);
+
+            commitLog.shutdown();
+            commitLog.getMappedFileQueue().destroy();
+        }
+        failedLockFreeAppend();
+    }
+
+    /**
+     * 无锁模式下doAppend抛异常，后面的写入不能卡住，读、分发和恢复都跳过留下的空洞
+     */
+    private static void failedLockFreeAppend() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathCommitLog(Files.createTempDirectory("commitlog").toString());
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setPutMessageLockType(PutMessageLockType.LOCK_FREE);
+        CommitLog commitLog = new CommitLog(messageStoreConfig);
+        commitLog.load();
+        commitLog.start();
+
+        commitLog.putMessage("hello world 0").get(3, TimeUnit.SECONDS);
+        try {
+            commitLog.getMappedFileQueue().appendMessageConcurrently(new AppendMessageCallback() {
+                @Override
+                public int getTotalSize() {
+                    return MessageDecoder.calMsgLength(16, 0);
+                }
+
+                @Override
+                public long[] doAppend(long wroteOffset, long storeTimestamp, ByteBuffer byteBuffer) {
+                    throw new IllegalStateException("encode failed");
+                }
+            });
+            throw new IllegalStateException("append should fail");
+        } catch (IllegalStateException e) {
+            if (!"encode failed".equals(e.getMessage())) {
+                throw e;
+            }
+        }
+        commitLog.putMessage("hello world 1").get(3, TimeUnit.SECONDS);
+        commitLog.putMessage("hello world 2").get(3, TimeUnit.SECONDS);
+        long maxOffset = commitLog.getMaxOffset();
+
+        int found = 0;
+        long nextOffset = 0;
+        for (int i = 0; i < 10 && nextOffset < maxOffset; i++) {
+            GetMessageResult getResult = commitLog.getMessages(nextOffset, 32, 1024 * 1024);
+            found += getResult.getMessageCount();
+            nextOffset = getResult.getNextBeginOffset();
+            getResult.release();
+        }
+        if (found != 3 || nextOffset != maxOffset) {
+            throw new IllegalStateException("get messages found " + found + ", next offset " + nextOffset);
+        }
+
+        //和ReputMessageService一样逐条检查
+        int dispatched = 0;
+        SelectMappedBufferResult result = commitLog.getData(0);
+        long offset = 0;
+        for (int readSize = 0; readSize < result.getSize(); ) {
+            DispatchRequest dispatchRequest =
+                    commitLog.checkMessageAndReturnSize(result.getByteBuffer(), offset, false);
+            if (!dispatchRequest.isSuccess() || dispatchRequest.getMsgSize() <= 0) {
+                throw new IllegalStateException("check message failed at " + offset);
+            }
+            if (!dispatchRequest.isBlank()) {
+                dispatched++;
+            }
+            offset += dispatchRequest.getMsgSize();
+            readSize += dispatchRequest.getMsgSize();
+        }
+        result.release();
+        if (dispatched != 3 || offset != maxOffset) {
+            throw new IllegalStateException("dispatched " + dispatched + ", offset " + offset);
+        }
+
+        long recovered = commitLog.recover(0);
+        if (recovered != maxOffset) {
+            throw new IllegalStateException("recovered to " + recovered + ", expected " + maxOffset);
+        }
+        System.out.println("failed lock free append skipped, max offset: " + maxOffset);
+
+        commitLog.shutdown();
+        commitLog.getMappedFileQueue().destroy();
+    }
+}
@@ -0,0 +1,104 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.config.StorePathConfigHelper;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageExt;
+import com.yumi.step2.util.UtilAll;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class RecoveryTest {
+    private static final int QUEUE_NUMS = 4;
+
+    public static void main(String[] args) throws Exception {
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 16);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(ConsumeQueue.CQ_STORE_UNIT_SIZE * 100);
+
+        DefaultMessageStore messageStore = start(messageStoreConfig);
+        putMessages(messageStore, 0, 1000);
+        long maxOffset = messageStore.getCommitLog().getMaxOffset();
+        messageStore.shutdown();
+
+        //正常关闭，从检查点开始几乎不需要校验
+        messageStore = start(messageStoreConfig);
+        check(messageStore.getCommitLog().getMaxOffset() == maxOffset, "max offset after normal shutdown");
+        verify(messageStore, 1000);
+        putMessages(messageStore, 1000, 1200);
+        verify(messageStore, 1200);
+        maxOffset = messageStore.getCommitLog().getMaxOffset();
+        messageStore.shutdown();
+
+        //模拟宕机：尾部写了半条消息，下一个文件是没写完的脏数据，检查点丢失
+        MappedFileQueue commitLogQueue = new MappedFileQueue(messageStoreConfig.getStorePathCommitLog(),
+                messageStoreConfig.getMappedFileSizeCommitLog());
+        commitLogQueue.load();
+        MappedFile lastFile = commitLogQueue.getLastMappedFile();
+        int fileSize = messageStoreConfig.getMappedFileSizeCommitLog();
+        try (RandomAccessFile raf = new RandomAccessFile(lastFile.getFileName(), "rw")) {
+            raf.seek(maxOffset % fileSize);
+            raf.writeInt(200);
+            raf.writeInt(-626843481);
+            raf.write(new byte[32]);
+        }
+        commitLogQueue.shutdown(1000);
+        String dirtyFile = messageStoreConfig.getStorePathCommitLog() + File.separator
+                + UtilAll.offset2FileName(lastFile.getFileFromOffset() + fileSize);
+        try (RandomAccessFile raf = new RandomAccessFile(dirtyFile, "rw")) {
+            byte[] garbage = new byte[fileSize];
+            new Random().nextBytes(garbage);
+            raf.write(garbage);
+        }
+        new File(StorePathConfigHelper.getStoreCheckpoint(rootDir)).delete();
+
+        messageStore = start(messageStoreConfig);
+        check(messageStore.getCommitLog().getMaxOffset() == maxOffset, "max offset after crash");
+        check(!new File(dirtyFile).exists(), "dirty file deleted");
+        verify(messageStore, 1200);
+        putMessages(messageStore, 1200, 1400);
+        verify(messageStore, 1400);
+        messageStore.shutdown();
+        messageStore.destroy();
+        System.out.println("recovery test OK");
+    }
+
+    private static DefaultMessageStore start(MessageStoreConfig messageStoreConfig) {
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig);
+        check(messageStore.load(), "load");
+        messageStore.start();
+        return messageStore;
+    }
+
+    private static void putMessages(DefaultMessageStore messageStore, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            Message msg = new Message("TopicTest", i % QUEUE_NUMS, "TagA", ("hello " + i).getBytes());
+            messageStore.putMessage(msg).join();
+        }
+        while (messageStore.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void verify(DefaultMessageStore messageStore, int total) {
+        for (int queueId = 0; queueId < QUEUE_NUMS; queueId++) {
+            long max = messageStore.getMaxOffsetInQueue("TopicTest", queueId);
+            check(max == total / QUEUE_NUMS, "queue " + queueId + " max offset " + max);
+            for (long offset = 0; offset < max; offset++) {
+                MessageExt msgExt = messageStore.getMessage("TopicTest", queueId, offset);
+                String body = new String(msgExt.getBody());
+                check(body.equals("hello " + (offset * QUEUE_NUMS + queueId)),
+                        "queue " + queueId + " offset " + offset + " -> " + body);
+            }
+        }
+        System.out.println("verify " + total + " messages OK");
+    }
+}
@@ -0,0 +1,76 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageExt;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class ResidentRatioTest {
+
+    public static void main(String[] args) throws Exception {
+        String storePath = Files.createTempDirectory("mincore").toString();
+        //新建的文件是空洞，没写过的页不在page cache中
+        MappedFile mappedFile = new MappedFile(storePath + File.separator + "00000000000000000000", 1024 * 1024);
+        check(mappedFile.residentRatio(0, 1024 * 1024) == 0, "sparse " + mappedFile.residentRatio(0, 1024 * 1024));
+        mappedFile.appendMsg(new byte[10 * 1024]);
+        check(mappedFile.residentRatio(0, 10 * 1024) == 1, "written");
+        check(mappedFile.residentRatio(100, 5000) == 1, "unaligned");
+        check(mappedFile.residentRatio(512 * 1024, 4096) == 0, "untouched");
+        mappedFile.loadPages(512 * 1024 + 100, 8192);
+        check(mappedFile.residentRatio(512 * 1024, 3 * 4096) == 1, "loaded");
+        check(mappedFile.residentRatio(1024 * 1024 - 1, 2) == -1, "out of range");
+        System.out.println("resident percent " + mappedFile.residentPercent());
+        mappedFile.destroy(1000);
+        //文件释放后不知道，不能算成-100
+        check(mappedFile.residentPercent() == -1, "destroyed " + mappedFile.residentPercent());
+
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024);
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig);
+        messageStore.load();
+        messageStore.start();
+        for (int i = 0; i < 100; i++) {
+            messageStore.putMessage(new Message("TopicTest", 0, "TagA", ("hello " + i).getBytes())).join();
+        }
+        while (messageStore.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+
+        //刚写入的数据都在page cache中，直接在调用线程返回
+        GetMessageResult hot = messageStore.getMessageAsync("TopicTest", 0, 0, 32, 1024 * 1024).get();
+        check(hot.getMessageCount() == 32 && messageStore.getHotReadTimes() == 1, "hot");
+        verify(hot, 0);
+        hot.release();
+
+        //阈值调到100以上，所有读都走冷读线程池
+        messageStoreConfig.setHotReadMinResidentPercent(101);
+        GetMessageResult cold = messageStore.getMessageAsync("TopicTest", 0, 32, 32, 1024 * 1024).get();
+        check(cold.getMessageCount() == 32 && messageStore.getColdReadTimes() == 1, "cold");
+        verify(cold, 32);
+        cold.release();
+
+        System.out.println("commit log resident percents " + messageStore.getCommitLogResidentPercents());
+        messageStore.shutdown();
+        messageStore.destroy();
+        System.out.println("resident ratio OK");
+    }
+
+    private static void verify(GetMessageResult result, int from) {
+        int i = from;
+        for (SelectMappedBufferResult smbr : result.getMessageMappedList()) {
+            ByteBuffer byteBuffer = smbr.getByteBuffer().slice();
+            MessageExt msgExt = MessageDecoder.decode(byteBuffer, true, true);
+            check(msgExt != null && ("hello " + i).equals(new String(msgExt.getBody())), "message " + i);
+            i++;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.metrics.LatencyHistogram;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class StoreMetricsTest {
+
+    public static void main(String[] args) throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        check(histogram.getCount() == 1000, "count");
+        //桶的相对误差不超过12.5%
+        checkAround(histogram.getValueAtPercentile(0.5), 500_000, "p50");
+        checkAround(histogram.getValueAtPercentile(0.99), 990_000, "p99");
+        checkAround(histogram.getValueAtPercentile(0.999), 999_000, "p999");
+
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(64 * 1024);
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig);
+        messageStore.load();
+        messageStore.start();
+        for (int i = 0; i < 1000; i++) {
+            messageStore.putMessage(new Message("TopicTest", 0, "TagA", new byte[256])).join();
+        }
+        while (messageStore.getCommitLog().getFlushedWhere() < messageStore.getCommitLog().getMaxOffset()) {
+            Thread.sleep(100);
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = messageStore.getStoreMetrics().getObjectName();
+        check(name != null && server.isRegistered(name), "registered");
+        check((Long) server.getAttribute(name, "TotalMappedBytes") > 0, "mapped bytes");
+        check((Integer) server.getAttribute(name, "TotalMappedFiles") > 0, "mapped files");
+        check((Long) server.getAttribute(name, "AppendCount") == 1000, "append count");
+        long p50 = (Long) server.getAttribute(name, "AppendP50Nanos");
+        long p99 = (Long) server.getAttribute(name, "AppendP99Nanos");
+        long p999 = (Long) server.getAttribute(name, "AppendP999Nanos");
+        check(0 < p50 && p50 <= p99 && p99 <= p999, "append percentiles " + p50 + " " + p99 + " " + p999);
+        check((Long) server.getAttribute(name, "FlushCount") > 0, "flush count");
+        String[] lags = (String[]) server.getAttribute(name, "CommitLogSegmentLags");
+        check(lags.length == messageStore.getCommitLog().getMappedFileQueue().getMappedFiles().size(), "lags");
+        System.out.println("append p50/p99/p999 " + p50 + "/" + p99 + "/" + p999 + "ns, flush p99 "
+                + server.getAttribute(name, "FlushP99Nanos") + "ns, last segment " + lags[lags.length - 1]);
+
+        //已经shutdown的文件hold失败
+        long holdFailed = (Long) server.getAttribute(name, "HoldFailedTimes");
+        MappedFile mappedFile = new MappedFile(rootDir + File.separator + "00000000000000000000", 4096);
+        mappedFile.shutdown(0);
+        check(!mappedFile.hold(), "hold after shutdown");
+        check((Long) server.getAttribute(name, "HoldFailedTimes") == holdFailed + 1, "hold failed");
+        mappedFile.destroy(0);
+
+        server.invoke(name, "resetLatencies", null, null);
+        check((Long) server.getAttribute(name, "AppendCount") == 0, "reset");
+
+        messageStore.shutdown();
+        check(!server.isRegistered(name), "unregistered");
+        messageStore.destroy();
+        System.out.println("store metrics OK");
+    }
+
+    private static void checkAround(long value, long expected, String msg) {
+        check(value >= expected && value <= expected * 1.125, msg + " " + value);
+    }
+}
@@ -0,0 +1,13 @@
+package com.yumi.step2;
+
+/**
+ * 测试类共用的断言，测试都是main方法直接跑，失败时抛异常退出
+ */
+public class TestUtil {
+
+    public static void check(boolean condition, String msg) {
+        if (!condition) {
+            throw new IllegalStateException("check failed: " + msg);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.yumi.step2;
+
+import com.yumi.step2.config.MessageStoreConfig;
+import com.yumi.step2.message.Message;
+import com.yumi.step2.message.MessageDecoder;
+import com.yumi.step2.message.MessageExt;
+import com.yumi.step2.tiered.BlockCache;
+import com.yumi.step2.tiered.CompressedBlobStore;
+import com.yumi.step2.tiered.LocalDirBlobStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static com.yumi.step2.TestUtil.check;
+
+public class TieredStoreTest {
+    private static final String PAD = new String(new char[200]).replace('\0', 'x');
+
+    public static void main(String[] args) throws Exception {
+        verifyBlockCache();
+        verifyCompressedBlobStore();
+        verifyStore(false);
+        verifyStore(true);
+        System.out.println("tiered store OK");
+    }
+
+    private static void verifyBlockCache() throws Exception {
+        String dir = Files.createTempDirectory("blob").toString();
+        File file = new File(dir, "source");
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        LocalDirBlobStore blobStore = new LocalDirBlobStore(dir + File.separator + "tiered");
+        blobStore.put("00000000000000000000", file);
+        check(blobStore.size("00000000000000000000") == data.length, "size");
+        check(blobStore.lastModified("00000000000000000000") == file.lastModified(), "keep last modified");
+
+        //块大小1024，最多缓存4块
+        BlockCache blockCache = new BlockCache(blobStore, 1024, 4096);
+        ByteBuffer dst = ByteBuffer.allocate(3000);
+        blockCache.read("00000000000000000000", 1024, dst);
+        check(Arrays.equals(dst.array(), Arrays.copyOfRange(data, 1024, 4024)), "cross block read");
+        check(blockCache.getMissTimes() == 3 && blockCache.getCachedBlocks() == 3, "miss " + blockCache.getMissTimes());
+        dst.clear();
+        blockCache.read("00000000000000000000", 1024, dst);
+        check(blockCache.getHitTimes() == 3, "hit " + blockCache.getHitTimes());
+        //最后一块不满
+        dst = ByteBuffer.allocate(500);
+        blockCache.read("00000000000000000000", 9500, dst);
+        check(Arrays.equals(dst.array(), Arrays.copyOfRange(data, 9500, 10000)), "tail block");
+        dst = ByteBuffer.allocate(1024);
+        blockCache.read("00000000000000000000", 8192, dst);
+        check(blockCache.getCachedBlocks() == 4, "lru capacity " + blockCache.getCachedBlocks());
+        try {
+            blockCache.read("00000000000000000000", 9900, ByteBuffer.allocate(200));
+            check(false, "read beyond end");
+        } catch (IOException e) {
+            //expected
+        }
+        blockCache.invalidate("00000000000000000000");
+        check(blockCache.getCachedBlocks() == 0, "invalidate");
+    }
+
+    private static void verifyCompressedBlobStore() throws Exception {
+        String dir = Files.createTempDirectory("blob").toString();
+        File file = new File(dir, "source");
+        //前半部分是重复的文本，后半部分是随机数据，不压缩
+        byte[] data = new byte[10000];
+        for (int i = 0; i < 5000; i++) {
+            data[i] = (byte) ('a' + i % 7);
+        }
+        byte[] random = new byte[5000];
+        new Random(1).nextBytes(random);
+        System.arraycopy(random, 0, data, 5000, random.length);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        LocalDirBlobStore localDirBlobStore = new LocalDirBlobStore(dir + File.separator + "tiered");
+        CompressedBlobStore blobStore = new CompressedBlobStore(localDirBlobStore, dir + File.separator + "tmp",
+                1024, Deflater.BEST_SPEED, 4);
+        blobStore.put("00000000000000000000", file);
+        check(blobStore.size("00000000000000000000") == data.length, "raw size");
+        long compressedSize = blobStore.compressedSize("00000000000000000000");
+        check(compressedSize < data.length, "compressed size " + compressedSize);
+        check(blobStore.getCompressionRatio() > 1, "ratio " + blobStore.getCompressionRatio());
+        check(blobStore.lastModified("00000000000000000000") == file.lastModified(), "keep last modified");
+        check(new File(dir, "tmp").list().length == 0, "tmp file deleted");
+
+        //跨压缩块和原样保存的块读
+        ByteBuffer dst = ByteBuffer.allocate(3000);
+        check(blobStore.read("00000000000000000000", 4000, dst) == 3000, "read length");
+        check(Arrays.equals(dst.array(), Arrays.copyOfRange(data, 4000, 7000)), "cross block read");
+        long inflateTimes = blobStore.getInflateTimes();
+        //第3、4块解压，第5、6块是原样保存的
+        check(inflateTimes == 2, "inflate " + inflateTimes);
+        dst = ByteBuffer.allocate(100);
+        blobStore.read("00000000000000000000", 4500, dst);
+        check(blobStore.getInflateTimes() == inflateTimes, "cached block");
+        //最后一块不满，读到文件尾返回实际读到的字节数
+        dst = ByteBuffer.allocate(500);
+        check(blobStore.read("00000000000000000000", 9800, dst) == 200, "tail");
+        check(Arrays.equals(Arrays.copyOf(dst.array(), 200), Arrays.copyOfRange(data, 9800, 10000)), "tail data");
+        check(blobStore.read("00000000000000000000", 10000, dst) == -1, "eof");
+
+        //重新打开时从文件尾部读块索引
+        CompressedBlobStore reopen = new CompressedBlobStore(localDirBlobStore, dir + File.separator + "tmp",
+                4096, Deflater.BEST_SPEED, 2);
+        dst = ByteBuffer.allocate(data.length);
+        reopen.read("00000000000000000000", 0, dst);
+        check(Arrays.equals(dst.array(), data), "reopen read");
+
+        //开启压缩之前原样上传的文件和压缩文件混在一起，没有压缩尾部的按原样读
+        localDirBlobStore.put("00000000000000010000", file);
+        check(reopen.size("00000000000000010000") == data.length, "raw segment size");
+        dst = ByteBuffer.allocate(3000);
+        check(reopen.read("00000000000000010000", 4000, dst) == 3000, "raw segment read");
+        check(Arrays.equals(dst.array(), Arrays.copyOfRange(data, 4000, 7000)), "raw segment data");
+        dst = ByteBuffer.allocate(data.length);
+        check(reopen.read("00000000000000000000", 0, dst) == data.length
+                && Arrays.equals(dst.array(), data), "compressed segment after raw");
+        check(reopen.list().size() == 2, "list " + reopen.list());
+        check(reopen.delete("00000000000000010000"), "delete raw");
+        check(reopen.delete("00000000000000000000"), "delete");
+        check(reopen.size("00000000000000000000") == -1, "size after delete");
+    }
+
+    private static void verifyStore(boolean compress) throws Exception {
+        String rootDir = Files.createTempDirectory("store").toString();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(rootDir);
+        messageStoreConfig.setStorePathCommitLog(rootDir + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(64 * 1024);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(100 * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        messageStoreConfig.setTieredStoreEnable(true);
+        messageStoreConfig.setStorePathTiered(rootDir + File.separator + "tiered");
+        messageStoreConfig.setTieredLocalReservedTime(0);
+        //由测试直接调用offload和cleanFiles
+        messageStoreConfig.setTieredCheckInterval(1000 * 3600);
+        messageStoreConfig.setCleanResourceInterval(1000 * 3600);
+        messageStoreConfig.setDeleteWhen("");
+        messageStoreConfig.setDeleteFileBatchMax(100);
+        messageStoreConfig.setTieredBlockSize(4096);
+        messageStoreConfig.setTieredBlockCacheSize(64 * 1024);
+        messageStoreConfig.setTieredReadAheadSize(16 * 1024);
+        messageStoreConfig.setMetricsJmxEnable(false);
+        messageStoreConfig.setTieredCompressEnable(compress);
+        messageStoreConfig.setTieredCompressBlockSize(8 * 1024);
+        DefaultMessageStore messageStore = new DefaultMessageStore(messageStoreConfig);
+        check(messageStore.load(), "load");
+        messageStore.start();
+
+        int total = 2000;
+        for (int i = 0; i < total; i++) {
+            messageStore.putMessage(new Message("TopicTest", 0, "TagA", ("msg-" + i + PAD).getBytes())).join();
+        }
+        while (messageStore.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+        CommitLog commitLog = messageStore.getCommitLog();
+        MappedFileQueue mappedFileQueue = commitLog.getMappedFileQueue();
+        MappedFile last = mappedFileQueue.getLastMappedFile();
+        while (commitLog.getFlushedWhere() < last.getFileFromOffset()) {
+            Thread.sleep(10);
+        }
+        int files = mappedFileQueue.getMappedFiles().size();
+        TieredStoreService tieredStoreService = commitLog.getTieredStoreService();
+
+        //还没上传的文件过了保留时间也不删除
+        check(commitLog.deleteExpiredFile(0, 0, 0, false, 100) == 0, "delete before offload");
+        check(mappedFileQueue.getMappedFiles().size() == files, "keep local files " + files);
+
+        //上传所有写满的文件，本地只剩最后一个
+        tieredStoreService.offload();
+        check(tieredStoreService.getOffloadedFileNums() == files - 1,
+                "offloaded " + tieredStoreService.getOffloadedFileNums());
+        check(mappedFileQueue.getMappedFiles().size() == 1, "local files " + mappedFileQueue.getMappedFiles().size());
+        check(commitLog.getMinOffset() == 0, "min offset " + commitLog.getMinOffset());
+        check(commitLog.getLocalMinOffset() == last.getFileFromOffset(), "local min offset");
+
+        //按consume queue读，旧消息从二级存储读
+        for (int i = 0; i < total; i++) {
+            String body = new String(messageStore.getMessage("TopicTest", 0, i).getBody());
+            check(body.equals("msg-" + i + PAD), "body " + i);
+        }
+        check(tieredStoreService.getReadTimes() > 0, "tiered read");
+        check(tieredStoreService.getBlockCache().getHitTimes() > 0, "block cache hit");
+        if (compress) {
+            CompressedBlobStore blobStore = (CompressedBlobStore) tieredStoreService.getBlobStore();
+            check(blobStore.compressedSize("00000000000000000000") < messageStoreConfig.getMappedFileSizeCommitLog(),
+                    "segment compressed");
+            check(blobStore.getInflateTimes() > 0, "inflate");
+            System.out.println("segment compression ratio " + blobStore.getCompressionRatio());
+        }
+
+        //批量拉取，二级存储的切片和本地mmap切片混在一起发送
+        for (boolean useFileChannel : new boolean[]{false, true}) {
+            GetMessageResult getResult = messageStore.getMessage("TopicTest", 0, total - 300, 300, 1024 * 1024);
+            check(getResult.getStatus() == GetMessageStatus.FOUND && getResult.getMessageCount() == 300,
+                    "get " + getResult.getMessageCount());
+            ManyMessageTransfer transfer = new ManyMessageTransfer(getResult, useFileChannel);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            transfer.transferFully(Channels.newChannel(out));
+            check(out.size() == transfer.count(), "transfer " + out.size());
+            ByteBuffer response = ByteBuffer.wrap(out.toByteArray());
+            response.position(ManyMessageTransfer.HEADER_LENGTH);
+            for (int i = total - 300; i < total; i++) {
+                MessageExt msg = MessageDecoder.decode(response, true, true);
+                check(msg != null && new String(msg.getBody()).equals("msg-" + i + PAD), "transfer body " + i);
+            }
+        }
+
+        //顺序读跨过预读边界和文件尾部空白
+        GetMessageResult sequential = commitLog.getMessages(0, total, 8 * 1024 * 1024);
+        check(sequential.getMessageCount() == total, "sequential " + sequential.getMessageCount());
+        sequential.release();
+
+        //重启后从二级存储恢复文件列表
+        messageStore.shutdown();
+        messageStore = new DefaultMessageStore(messageStoreConfig);
+        check(messageStore.load(), "reload");
+        messageStore.start();
+        commitLog = messageStore.getCommitLog();
+        tieredStoreService = commitLog.getTieredStoreService();
+        check(tieredStoreService.getOffloadedFileNums() == files - 1, "reload offloaded");
+        check(new String(messageStore.getMessage("TopicTest", 0, 0).getBody()).equals("msg-0" + PAD), "reload read");
+        messageStore.putMessage(new Message("TopicTest", 0, "TagA", "after restart".getBytes())).join();
+        while (messageStore.dispatchBehindBytes() > 0) {
+            Thread.sleep(10);
+        }
+        check("after restart".equals(new String(messageStore.getMessage("TopicTest", 0, total).getBody())),
+                "put after restart");
+
+        //二级存储中的文件过期后删除，consume queue跟着前移
+        messageStoreConfig.setTieredFileReservedTime(0);
+        tieredStoreService.offload();
+        check(tieredStoreService.getOffloadedFileNums() == 0, "expired " + tieredStoreService.getOffloadedFileNums());
+        check(commitLog.getMinOffset() == commitLog.getLocalMinOffset(), "min offset after expire");
+        messageStore.getCleanCommitLogService().cleanFiles();
+        check(messageStore.getMinOffsetInQueue("TopicTest", 0) > 0, "cq min offset");
+        check(messageStore.getMessage("TopicTest", 0, 0, 1, 1024 * 1024).getStatus()
+                == GetMessageStatus.OFFSET_TOO_SMALL, "offset too small");
+
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+}
@@ -0,0 +1,27 @@
+package com.yumi.step2;
+
+import java.nio.file.Files;
+
+public class TransientStorePoolTest {
+
+    public static void main(String[] args) throws Exception {
+        String storePath = Files.createTempDirectory("commitlog").toString();
+        TransientStorePool transientStorePool = new TransientStorePool(2, 1024);
+        transientStorePool.init();
+        MappedFileQueue mappedFileQueue = new MappedFileQueue(storePath, 1024, transientStorePool);
+
+        for (int i = 0; i < 200; i++) {
+            mappedFileQueue.appendMsg("hello world " + i);
+            //及时commit，写满的文件归还缓冲
+            mappedFileQueue.commit(0);
+        }
+        System.out.println("files: " + mappedFileQueue.getMappedFiles().size()
+                + ", available: " + transientStorePool.availableBufferNums()
+                + ", borrow: " + transientStorePool.getBorrowTimes()
+                + ", return: " + transientStorePool.getReturnTimes()
+                + ", exhausted: " + transientStorePool.getExhaustedTimes());
+
+        mappedFileQueue.destroy();
+        transientStorePool.destroy();
+    }
+}
@@ -25,4 +25,24 @@ public class StoreUtil {
         }
         return file.getTotalSpace();
     }
+
+    /**
+     * @return 磁盘分区已使用的比例，路径不存在返回-1
+     */
+    public static double getDiskPartitionSpaceUsedPercent(final String path) {
+        if (null == path || path.isEmpty()) {
+            return -1;
+        }
+        File file = new File(path);
+        if (!file.exists()) {
+            return -1;
+        }
+        long totalSpace = file.getTotalSpace();
+        if (totalSpace <= 0) {
+            return -1;
+        }
+        long freeSpace = file.getFreeSpace();
+        long usedSpace = totalSpace - freeSpace;
+        return usedSpace / (double) totalSpace;
+    }
 }